@@ -18,39 +18,61 @@ package com.android.ahat;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
 /**
  * AhatHttpHandler.
  *
- * HttpHandler for AhatHandlers.
+ * HttpHandler for AhatHandlers. Rendered pages are cached in a PageCache, if
+ * one is provided, so that revisiting a page doesn't render it again.
  */
 class AhatHttpHandler implements HttpHandler {
 
   private AhatHandler mAhatHandler;
+  private PageCache mCache;
 
   public AhatHttpHandler(AhatHandler handler) {
+    this(handler, null);
+  }
+
+  public AhatHttpHandler(AhatHandler handler, PageCache cache) {
     mAhatHandler = handler;
+    mCache = cache;
   }
 
   @Override
   public void handle(HttpExchange exchange) throws IOException {
-    exchange.getResponseHeaders().add("Content-Type", "text/html;charset=utf-8");
-    exchange.sendResponseHeaders(200, 0);
-    PrintStream ps = new PrintStream(exchange.getResponseBody());
-    try {
-      HtmlDoc doc = new HtmlDoc(ps, DocString.text("ahat"), DocString.uri("style.css"));
-      doc.menu(Menu.getMenu());
-      mAhatHandler.handle(doc, new Query(exchange.getRequestURI()));
-      doc.close();
-    } catch (RuntimeException e) {
-      // Print runtime exceptions to standard error for debugging purposes,
-      // because otherwise they are swallowed and not reported.
-      System.err.println("Exception when handling " + exchange.getRequestURI() + ": ");
-      e.printStackTrace();
-      throw e;
+    Query query = new Query(exchange.getRequestURI());
+    byte[] page = mCache == null ? null : mCache.get(query);
+    if (page == null) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      PrintStream ps = new PrintStream(bytes, false, "UTF-8");
+      try {
+        HtmlDoc doc = new HtmlDoc(ps, DocString.text("ahat"), DocString.uri("style.css"));
+        doc.menu(Menu.getMenu());
+        mAhatHandler.handle(doc, query);
+        doc.close();
+      } catch (RuntimeException e) {
+        // Print runtime exceptions to standard error for debugging purposes,
+        // because otherwise they are swallowed and not reported.
+        System.err.println("Exception when handling " + exchange.getRequestURI() + ": ");
+        e.printStackTrace();
+        throw e;
+      }
+      ps.close();
+      page = bytes.toByteArray();
+      if (mCache != null) {
+        mCache.put(query, page);
+      }
     }
-    ps.close();
+
+    exchange.getResponseHeaders().add("Content-Type", "text/html;charset=utf-8");
+    exchange.sendResponseHeaders(200, page.length);
+    OutputStream os = exchange.getResponseBody();
+    os.write(page);
+    os.close();
   }
 }
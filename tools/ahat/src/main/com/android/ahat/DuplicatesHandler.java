@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Duplicates;
+import com.android.ahat.heapdump.Site;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows the retained primitive arrays with identical contents, such as the
+ * characters of equal strings and the pixels of identical bitmaps, and how
+ * many bytes they waste by class and allocation site.
+ */
+class DuplicatesHandler implements AhatHandler {
+  private static final String BY_CLASS_ID = "class";
+  private static final String BY_SITE_ID = "site";
+  private static final String GROUPS_ID = "groups";
+
+  private AhatSnapshot mSnapshot;
+
+  public DuplicatesHandler(AhatSnapshot snapshot) {
+    mSnapshot = snapshot;
+  }
+
+  @Override
+  public void handle(Doc doc, Query query) throws IOException {
+    Duplicates duplicates = mSnapshot.getDuplicates();
+
+    doc.title("Duplicates");
+    doc.big(DocString.format("%,d bytes wasted by %,d sets of identical arrays",
+          duplicates.getWastedSize(), duplicates.getGroups().size()));
+
+    doc.section("Wasted Bytes by Class");
+    List<Map.Entry<String, Duplicates.Waste>> byClass
+      = sorted(duplicates.getWasteByClass(), Comparator.naturalOrder());
+    if (byClass.isEmpty()) {
+      doc.println(DocString.text("(none)"));
+    } else {
+      doc.table(
+          new Column("Wasted", Column.Align.RIGHT),
+          new Column("Copies", Column.Align.RIGHT),
+          new Column("Class"));
+      SubsetSelector<Map.Entry<String, Duplicates.Waste>> selector
+        = new SubsetSelector<>(query, BY_CLASS_ID, byClass);
+      for (Map.Entry<String, Duplicates.Waste> entry : selector.selected()) {
+        Duplicates.Waste waste = entry.getValue();
+        doc.row(
+            DocString.size(waste.wastedSize, false),
+            DocString.format("%,d", waste.copies),
+            DocString.text(entry.getKey()));
+      }
+      doc.end();
+      selector.render(doc);
+    }
+
+    doc.section("Wasted Bytes by Allocation Site");
+    List<Map.Entry<Site, Duplicates.Waste>> bySite = sorted(duplicates.getWasteBySite(),
+        Comparator.comparingLong(Site::getId));
+    if (bySite.isEmpty()) {
+      doc.println(DocString.text("(none)"));
+    } else {
+      doc.table(
+          new Column("Wasted", Column.Align.RIGHT),
+          new Column("Copies", Column.Align.RIGHT),
+          new Column("Site"));
+      SubsetSelector<Map.Entry<Site, Duplicates.Waste>> selector
+        = new SubsetSelector<>(query, BY_SITE_ID, bySite);
+      for (Map.Entry<Site, Duplicates.Waste> entry : selector.selected()) {
+        Duplicates.Waste waste = entry.getValue();
+        doc.row(
+            DocString.size(waste.wastedSize, false),
+            DocString.format("%,d", waste.copies),
+            Summarizer.summarize(entry.getKey()));
+      }
+      doc.end();
+      selector.render(doc);
+    }
+
+    doc.section("Identical Arrays");
+    List<Duplicates.Group> groups = duplicates.getGroups();
+    if (groups.isEmpty()) {
+      doc.println(DocString.text("(none)"));
+    } else {
+      doc.table(
+          new Column("Wasted", Column.Align.RIGHT),
+          new Column("Copies", Column.Align.RIGHT),
+          new Column("Size", Column.Align.RIGHT),
+          new Column("First Copy"));
+      SubsetSelector<Duplicates.Group> selector = new SubsetSelector<>(query, GROUPS_ID, groups);
+      for (Duplicates.Group group : selector.selected()) {
+        doc.row(
+            DocString.size(group.getWastedSize(), false),
+            DocString.format("%,d", group.getInstances().size()),
+            DocString.size(group.getSize(), false),
+            Summarizer.summarize(group.getInstances().get(0)));
+      }
+      doc.end();
+      selector.render(doc);
+    }
+  }
+
+  /**
+   * Returns the entries of the given map from most to least wasted size,
+   * breaking ties by key.
+   */
+  private static <K> List<Map.Entry<K, Duplicates.Waste>> sorted(Map<K, Duplicates.Waste> map,
+      Comparator<K> keys) {
+    List<Map.Entry<K, Duplicates.Waste>> entries
+      = new ArrayList<Map.Entry<K, Duplicates.Waste>>(map.entrySet());
+    entries.sort((a, b) -> {
+      int cmp = Long.compare(b.getValue().wastedSize, a.getValue().wastedSize);
+      return cmp != 0 ? cmp : keys.compare(a.getKey(), b.getKey());
+    });
+    return entries;
+  }
+}
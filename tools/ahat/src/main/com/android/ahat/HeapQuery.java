@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Reachability;
+import com.android.ahat.heapdump.Site;
+import com.android.ahat.heapdump.Value;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A query over the instances of a heap dump, for programmatic access to the
+ * heap dump through the /api/query endpoint.
+ * <p>
+ * A query is described by the following parameters, all of which are
+ * optional:
+ * <ul>
+ * <li>class - only include instances of the named class.
+ * <li>subclass - if non-zero, also include instances of subclasses of class.
+ * <li>heap - only include instances on the named heap.
+ * <li>reachability - the weakest reachability of instances to include.
+ *     Defaults to the retained reachability the server was started with.
+ * <li>where - conditions on instance properties, separated by ';'. Each
+ *     condition has the form <i>property op value</i>, where op is one of
+ *     =, !=, &lt;, &lt;=, &gt; or &gt;=, and value is a number, null, or
+ *     text to compare the property against.
+ * <li>select - comma separated list of properties to include for each
+ *     instance. Defaults to id,class,heap,size,retained.
+ * <li>orderby - property to sort instances by. Prefix it with '-' to sort
+ *     in descending order.
+ * <li>groupby - property to group instances by. Each group reports the
+ *     number of instances in it and the sum of their shallow and retained
+ *     sizes. Groups are sorted from largest to smallest retained size.
+ *     Queries with more than {@link #MAX_GROUPS} groups are rejected.
+ * <li>limit - the maximum number of instances or groups to report.
+ * <li>timeout - the maximum time in milliseconds to spend on the query.
+ * </ul>
+ * Properties are one of id, class, heap, reachability, size, retained,
+ * site and string, or the name of an instance field prefixed with '.',
+ * for example ".mCount". Reference valued properties evaluate to the id of
+ * the referenced instance.
+ * <p>
+ * Queries are evaluated as parallel streams over the instance index of the
+ * snapshot, and are cancelled with a {@link QueryTimeoutException} if they
+ * run past their timeout. Every instance of the queried class is visited,
+ * but only as many matches as the limit needs are kept, in order, as they
+ * are found, so ordering is cancelled along with the rest of the query and
+ * takes memory proportional to the limit rather than the number of
+ * matches. Without orderby, the rows reported are those of the matching
+ * instances with the lowest ids, so a query gives the same rows each time
+ * it is made.
+ */
+class HeapQuery {
+  static final int DEFAULT_LIMIT = 100;
+  static final int MAX_LIMIT = 100000;
+  static final long DEFAULT_TIMEOUT_MS = 10000;
+  static final long MAX_TIMEOUT_MS = 60000;
+  static final int MAX_GROUPS = 100000;
+
+  private static final String DEFAULT_SELECT = "id,class,heap,size,retained";
+
+  // Stands in for a null group key, because the concurrent maps used to
+  // collect groups can't hold null keys.
+  private static final Object NULL_KEY = new Object();
+
+  /**
+   * Thrown when a query is not well formed.
+   */
+  static class InvalidQueryException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    InvalidQueryException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Thrown when a query is cancelled for running past its timeout.
+   */
+  static class QueryTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    QueryTimeoutException(long timeoutMs) {
+      super("query did not finish within " + timeoutMs + "ms");
+    }
+  }
+
+  /**
+   * A named property of an instance. Values are Long for numeric
+   * properties, String for other properties, or null.
+   */
+  private static class Property {
+    public final String name;
+    public final Function<AhatInstance, Object> function;
+
+    Property(String name, Function<AhatInstance, Object> function) {
+      this.name = name;
+      this.function = function;
+    }
+
+    Object get(AhatInstance inst) {
+      return function.apply(inst);
+    }
+  }
+
+  /**
+   * An instance with the value of the orderby property for it, so that the
+   * property is evaluated only once per instance when ordering instances.
+   */
+  private static class Ranked {
+    public final AhatInstance inst;
+    public final Object key;
+
+    Ranked(AhatInstance inst, Object key) {
+      this.inst = inst;
+      this.key = key;
+    }
+  }
+
+  private final AhatSnapshot mSnapshot;
+  private final String mClassName;
+  private final boolean mSubclass;
+  private final String mHeapName;
+  private final Reachability mReachability;
+  private final List<Predicate<AhatInstance>> mConditions = new ArrayList<Predicate<AhatInstance>>();
+  private final List<Property> mSelect = new ArrayList<Property>();
+  private final Property mOrderBy;
+  private final boolean mDescending;
+  private final Property mGroupBy;
+  private final int mLimit;
+  private final long mTimeoutMs;
+  private final int mMaxGroups;
+
+  /**
+   * Parses a query from the parameters of the given request.
+   *
+   * @param snapshot the snapshot to evaluate the query against
+   * @param query the request parameters
+   * @param retained the reachability to use when none is given in the query
+   * @throws InvalidQueryException if the query is not well formed
+   */
+  HeapQuery(AhatSnapshot snapshot, Query query, Reachability retained) {
+    this(snapshot, query, retained, MAX_GROUPS);
+  }
+
+  /**
+   * Parses a query from the parameters of the given request, with the given
+   * bound on the number of groups the query may have.
+   */
+  HeapQuery(AhatSnapshot snapshot, Query query, Reachability retained, int maxGroups) {
+    mSnapshot = snapshot;
+    mMaxGroups = maxGroups;
+    mClassName = query.get("class", null);
+    mSubclass = getLong(query, "subclass", 0) != 0;
+
+    mHeapName = query.get("heap", null);
+    if (mHeapName != null && snapshot.getHeap(mHeapName) == null) {
+      throw new InvalidQueryException("no heap named '" + mHeapName + "'");
+    }
+
+    String reachability = query.get("reachability", null);
+    mReachability = reachability == null ? retained : parseReachability(reachability);
+
+    String where = query.get("where", "");
+    for (String condition : where.split(";")) {
+      if (!condition.trim().isEmpty()) {
+        mConditions.add(parseCondition(condition));
+      }
+    }
+
+    for (String name : query.get("select", DEFAULT_SELECT).split(",")) {
+      mSelect.add(parseProperty(name));
+    }
+
+    String orderBy = query.get("orderby", null);
+    mDescending = orderBy != null && orderBy.startsWith("-");
+    mOrderBy = orderBy == null ? null : parseProperty(mDescending ? orderBy.substring(1) : orderBy);
+
+    String groupBy = query.get("groupby", null);
+    mGroupBy = groupBy == null ? null : parseProperty(groupBy);
+
+    mLimit = (int)Math.min(Math.max(getLong(query, "limit", DEFAULT_LIMIT), 0), MAX_LIMIT);
+    mTimeoutMs = Math.min(Math.max(getLong(query, "timeout", DEFAULT_TIMEOUT_MS), 0),
+        MAX_TIMEOUT_MS);
+  }
+
+  private static long getLong(Query query, String name, long defaultValue) {
+    try {
+      return query.getLong(name, defaultValue);
+    } catch (NumberFormatException e) {
+      throw new InvalidQueryException("invalid " + name + ": " + query.get(name, null));
+    }
+  }
+
+  private static Reachability parseReachability(String name) {
+    for (Reachability reachability : Reachability.values()) {
+      if (reachability.toString().equals(name)) {
+        return reachability;
+      }
+    }
+    throw new InvalidQueryException("invalid reachability '" + name + "'");
+  }
+
+  private static Property parseProperty(String name) {
+    name = name.trim();
+    switch (name) {
+      case "id": return new Property(name, x -> x.getId());
+      case "class": return new Property(name, x -> x.getClassName());
+      case "heap": return new Property(name, x -> x.getHeap().getName());
+      case "reachability": return new Property(name, x -> x.getReachability().toString());
+      case "size": return new Property(name, x -> x.getSize().getSize());
+      case "retained": return new Property(name, x -> x.getTotalRetainedSize().getSize());
+      case "site": return new Property(name, x -> siteId(x.getSite()));
+      case "string": return new Property(name, x -> x.asString(200));
+      default:
+        if (name.length() > 1 && name.startsWith(".")) {
+          String field = name.substring(1);
+          return new Property(name, x -> valueOf(x.getField(field)));
+        }
+        throw new InvalidQueryException("unknown property '" + name + "'");
+    }
+  }
+
+  private static Object siteId(Site site) {
+    return site == null ? null : site.getId();
+  }
+
+  /**
+   * Converts a field value to the representation used for properties.
+   */
+  private static Object valueOf(Value value) {
+    if (value == null) {
+      return null;
+    } else if (value.isAhatInstance()) {
+      return value.asAhatInstance().getId();
+    } else if (value.isLong()) {
+      return value.asLong();
+    } else if (value.isInteger()) {
+      return value.asInteger().longValue();
+    }
+    return value.toString();
+  }
+
+  /**
+   * Returns the value of the given property as a number, or null if it
+   * isn't a number.
+   */
+  private static Long asNumber(Object value) {
+    if (value instanceof Long) {
+      return (Long)value;
+    }
+    if (value instanceof String) {
+      try {
+        return Long.decode((String)value);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private static Predicate<AhatInstance> parseCondition(String condition) {
+    int i = 0;
+    while (i < condition.length() && "!<>=".indexOf(condition.charAt(i)) < 0) {
+      ++i;
+    }
+    if (i == condition.length()) {
+      throw new InvalidQueryException("missing operator in condition '" + condition + "'");
+    }
+
+    int j = i + 1;
+    if (j < condition.length() && condition.charAt(j) == '=') {
+      ++j;
+    }
+    String op = condition.substring(i, j);
+    if (op.equals("!")) {
+      throw new InvalidQueryException("invalid operator in condition '" + condition + "'");
+    }
+
+    Property property = parseProperty(condition.substring(0, i));
+    String text = condition.substring(j).trim();
+    boolean isNull = text.equals("null");
+    Long number = isNull ? null : asNumber(text);
+
+    return inst -> {
+      Object value = property.get(inst);
+      if (isNull || value == null) {
+        switch (op) {
+          case "=": return isNull && value == null;
+          case "!=": return isNull != (value == null);
+          default: return false;
+        }
+      }
+
+      Long valueNumber = asNumber(value);
+      int cmp = (number != null && valueNumber != null)
+          ? Long.compare(valueNumber, number)
+          : value.toString().compareTo(text);
+      switch (op) {
+        case "=": return cmp == 0;
+        case "!=": return cmp != 0;
+        case "<": return cmp < 0;
+        case "<=": return cmp <= 0;
+        case ">": return cmp > 0;
+        case ">=": return cmp >= 0;
+        default: throw new AssertionError("unsupported operator");
+      }
+    };
+  }
+
+  /**
+   * Orders property values, with numbers before text and null last.
+   */
+  private static int compareValues(Object a, Object b) {
+    if (a == null || b == null) {
+      return a == null ? (b == null ? 0 : 1) : -1;
+    }
+    if (a instanceof Long && b instanceof Long) {
+      return Long.compare((Long)a, (Long)b);
+    }
+    if (a instanceof Long || b instanceof Long) {
+      return a instanceof Long ? -1 : 1;
+    }
+    return a.toString().compareTo(b.toString());
+  }
+
+  /**
+   * Throws a QueryTimeoutException if the deadline, given in System.nanoTime
+   * units, has passed.
+   */
+  private void checkDeadline(long deadline) {
+    if (System.nanoTime() - deadline >= 0) {
+      throw new QueryTimeoutException(mTimeoutMs);
+    }
+  }
+
+  /**
+   * Returns a stream of the instances matching the query's filters.
+   * The stream throws a QueryTimeoutException if it is still being consumed
+   * after the deadline, given in System.nanoTime units.
+   */
+  private Stream<AhatInstance> matches(long deadline) {
+    Stream<AhatInstance> stream = mSnapshot.streamObjects(mClassName, mSubclass)
+      .unordered()
+      .filter(inst -> {
+        checkDeadline(deadline);
+        return !inst.isPlaceHolder()
+          && (mHeapName == null || inst.getHeap().getName().equals(mHeapName))
+          && inst.getReachability().notWeakerThan(mReachability);
+      });
+    for (Predicate<AhatInstance> condition : mConditions) {
+      stream = stream.filter(condition);
+    }
+    return stream;
+  }
+
+  /**
+   * Evaluates the query and writes the result as a JSON object.
+   * <p>
+   * Without groupby, the result has the form
+   * {"columns": [names...], "rows": [[values...]...], "truncated": bool},
+   * with rows sorted by id unless orderby is given.
+   * With groupby, the result has the form
+   * {"groupby": name, "groups": [{"key": value, "count": n, "size": n,
+   * "retained": n}...], "truncated": bool}.
+   * In both cases truncated is true if results were left out because of
+   * the limit.
+   *
+   * @param json the writer to write the result to
+   * @throws QueryTimeoutException if the query runs past its timeout
+   * @throws InvalidQueryException if the query has more than the maximum
+   *         number of groups
+   */
+  void write(JsonWriter json) {
+    long deadline = System.nanoTime() + mTimeoutMs * 1000000L;
+    if (mGroupBy == null) {
+      writeRows(json, deadline);
+    } else {
+      writeGroups(json, deadline);
+    }
+  }
+
+  private void writeRows(JsonWriter json, long deadline) {
+    // Rather than sorting every match, keep the first mLimit + 1 in order
+    // as the matches are found, one more than needed to tell if the result
+    // was truncated. The work stays proportional to the number of matches,
+    // and is cancelled with the stream at the deadline. Without orderby,
+    // the matches are ranked by id alone, so that the same rows are
+    // reported whichever threads find them first.
+    Comparator<Ranked> rank = Comparator.comparingLong(x -> x.inst.getId());
+    if (mOrderBy != null) {
+      Comparator<Ranked> order = (a, b) -> compareValues(a.key, b.key);
+      order = mDescending ? order.reversed() : order;
+      rank = order.thenComparing(rank);
+    }
+    Comparator<Ranked> ranking = rank;
+    int count = mLimit + 1;
+    Collector<Ranked, PriorityQueue<Ranked>, PriorityQueue<Ranked>> first = Collector.of(
+        () -> new PriorityQueue<Ranked>(ranking.reversed()),
+        (queue, ranked) -> offer(queue, ranked, count, ranking),
+        (a, b) -> {
+          for (Ranked ranked : b) {
+            offer(a, ranked, count, ranking);
+          }
+          return a;
+        });
+    List<Ranked> ranked = new ArrayList<Ranked>(matches(deadline)
+        .map(inst -> new Ranked(inst, mOrderBy == null ? null : mOrderBy.get(inst)))
+        .collect(first));
+    ranked.sort(ranking);
+    List<AhatInstance> insts = ranked.stream().map(x -> x.inst).collect(Collectors.toList());
+
+    json.beginObject();
+    json.name("columns").beginArray();
+    for (Property property : mSelect) {
+      json.value(property.name);
+    }
+    json.endArray();
+    json.name("rows").beginArray();
+    for (int i = 0; i < Math.min(mLimit, insts.size()); ++i) {
+      json.beginArray();
+      for (Property property : mSelect) {
+        value(json, property.get(insts.get(i)));
+      }
+      json.endArray();
+    }
+    json.endArray();
+    json.name("truncated").value(insts.size() > mLimit);
+    json.endObject();
+  }
+
+  private void writeGroups(JsonWriter json, long deadline) {
+    // Each group is summarized as {count, size, retained}. Groups are
+    // counted as they are added, so that a query with a group for nearly
+    // every instance, such as groupby=id, is rejected before its groups
+    // fill up the heap.
+    ConcurrentMap<Object, long[]> groups = new ConcurrentHashMap<Object, long[]>();
+    matches(deadline).forEach(inst -> {
+      Object key = Objects.requireNonNullElse(mGroupBy.get(inst), NULL_KEY);
+      long[] sums = groups.get(key);
+      if (sums == null) {
+        if (groups.size() >= mMaxGroups) {
+          throw new InvalidQueryException(
+              "groupby " + mGroupBy.name + " has more than " + mMaxGroups + " groups");
+        }
+        sums = groups.computeIfAbsent(key, k -> new long[3]);
+      }
+      synchronized (sums) {
+        sums[0]++;
+        sums[1] += inst.getSize().getSize();
+        sums[2] += inst.getTotalRetainedSize().getSize();
+      }
+    });
+
+    Comparator<Map.Entry<Object, long[]>> order = (a, b) -> {
+      int cmp = Long.compare(b.getValue()[2], a.getValue()[2]);
+      if (cmp == 0) {
+        cmp = compareValues(key(a.getKey()), key(b.getKey()));
+      }
+      return cmp;
+    };
+    PriorityQueue<Map.Entry<Object, long[]>> first =
+        new PriorityQueue<Map.Entry<Object, long[]>>(order.reversed());
+    for (Map.Entry<Object, long[]> entry : groups.entrySet()) {
+      checkDeadline(deadline);
+      offer(first, entry, mLimit, order);
+    }
+    List<Map.Entry<Object, long[]>> entries = new ArrayList<Map.Entry<Object, long[]>>(first);
+    entries.sort(order);
+
+    json.beginObject();
+    json.name("groupby").value(mGroupBy.name);
+    json.name("groups").beginArray();
+    for (int i = 0; i < entries.size(); ++i) {
+      long[] sums = entries.get(i).getValue();
+      json.beginObject();
+      json.name("key");
+      value(json, key(entries.get(i).getKey()));
+      json.name("count").value(sums[0]);
+      json.name("size").value(sums[1]);
+      json.name("retained").value(sums[2]);
+      json.endObject();
+    }
+    json.endArray();
+    json.name("truncated").value(groups.size() > mLimit);
+    json.endObject();
+  }
+
+  /**
+   * Adds x to the queue if it is among the first count elements in the
+   * given order of those in the queue, keeping the queue to at most count
+   * elements. The head of the queue is the last of its elements in order.
+   */
+  private static <T> void offer(PriorityQueue<T> queue, T x, int count, Comparator<T> order) {
+    if (queue.size() < count) {
+      queue.add(x);
+    } else if (count > 0 && order.compare(x, queue.peek()) < 0) {
+      queue.poll();
+      queue.add(x);
+    }
+  }
+
+  private static Object key(Object key) {
+    return key == NULL_KEY ? null : key;
+  }
+
+  private static void value(JsonWriter json, Object value) {
+    if (value instanceof Long) {
+      json.value((Long)value);
+    } else {
+      json.value(value == null ? null : value.toString());
+    }
+  }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatHeap;
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Reachability;
+import com.android.ahat.heapdump.Site;
+import com.android.ahat.heapdump.Size;
+import com.android.ahat.heapdump.Sort;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes a machine readable summary of a heap dump in JSON format, for use
+ * by tools that process many heap dumps without the web interface.
+ * <p>
+ * The summary is a single JSON object with the following members:
+ * <ul>
+ * <li>file - the name of the heap dump file
+ * <li>retained - the weakest reachability of instances treated as retained
+ * <li>heaps - the size of each heap
+ * <li>total - the total size of all heaps
+ * <li>dominators - the rooted instances with the largest retained sizes
+ * <li>classes - the number and size of retained instances of each class,
+ *     by heap
+ * <li>sites - the allocation sites with the largest sizes
+ * </ul>
+ * Sizes are given as javaSize, nativeSize and size members holding the
+ * Java size, registered native size and total size in bytes.
+ * <p>
+ * A diff summary compares a heap dump against a baseline heap dump by class
+ * and allocation site, without matching up individual instances. It is a
+ * single JSON object with the following members:
+ * <ul>
+ * <li>file - the name of the heap dump file
+ * <li>baseline - the name of the baseline heap dump file
+ * <li>retained - the weakest reachability of instances treated as retained
+ * <li>heaps - the size of each heap in both heap dumps
+ * <li>classes - the number and size of retained instances of each class, by
+ *     heap, in both heap dumps, for classes where they differ
+ * <li>sites - the allocation sites with the largest differences in size
+ * </ul>
+ * Sizes in a diff summary are given as current and baseline members, each
+ * holding javaSize, nativeSize and size members, along with a delta member
+ * holding the difference in total size.
+ */
+class JsonSummary {
+  private JsonSummary() {
+  }
+
+  /**
+   * Write a summary of the given snapshot.
+   *
+   * @param json the writer to write the summary to
+   * @param file the name of the heap dump file
+   * @param snapshot the snapshot to summarize
+   * @param retained the reachability used when loading the snapshot
+   * @param top the maximum number of dominators and sites to include
+   */
+  public static void write(JsonWriter json, String file, AhatSnapshot snapshot,
+      Reachability retained, int top) {
+    json.beginObject();
+    json.name("file").value(file);
+    json.name("retained").value(retained.toString());
+
+    json.name("heaps").beginArray();
+    Size total = Size.ZERO;
+    for (AhatHeap heap : snapshot.getHeaps()) {
+      json.beginObject();
+      json.name("name").value(heap.getName());
+      size(json, heap.getSize());
+      json.endObject();
+      total = total.plus(heap.getSize());
+    }
+    json.endArray();
+    json.name("total").beginObject();
+    size(json, total);
+    json.endObject();
+
+    json.name("dominators").beginArray();
+    List<AhatInstance> rooted = new ArrayList<AhatInstance>(snapshot.getRooted());
+    Collections.sort(rooted, Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
+    for (AhatInstance inst : rooted.subList(0, Math.min(top, rooted.size()))) {
+      json.beginObject();
+      json.name("id").value(inst.getId());
+      json.name("class").value(inst.getClassName());
+      json.name("heap").value(inst.getHeap().getName());
+      json.name("description").value(inst.toString());
+      size(json, inst.getTotalRetainedSize());
+      json.endObject();
+    }
+    json.endArray();
+
+    json.name("classes").beginArray();
+    List<Site.ObjectsInfo> infos = new ArrayList<Site.ObjectsInfo>(
+        snapshot.getRootSite().getObjectsInfos());
+    Collections.sort(infos, Sort.withPriority(
+          Sort.OBJECTS_INFO_BY_SIZE, Sort.OBJECTS_INFO_BY_CLASS_NAME));
+    for (Site.ObjectsInfo info : infos) {
+      json.beginObject();
+      json.name("class").value(info.getClassName());
+      json.name("heap").value(info.heap.getName());
+      json.name("count").value(info.numInstances);
+      size(json, info.numBytes);
+      json.endObject();
+    }
+    json.endArray();
+
+    json.name("sites").beginArray();
+    List<Site> sites = new ArrayList<Site>();
+    Deque<Site> deque = new ArrayDeque<Site>(snapshot.getRootSite().getChildren());
+    while (!deque.isEmpty()) {
+      Site site = deque.pop();
+      sites.add(site);
+      deque.addAll(site.getChildren());
+    }
+    Collections.sort(sites, Sort.SITE_BY_TOTAL_SIZE);
+    for (Site site : sites.subList(0, Math.min(top, sites.size()))) {
+      json.beginObject();
+      json.name("id").value(site.getId());
+      json.name("method").value(site.getMethodName());
+      json.name("signature").value(site.getSignature());
+      json.name("filename").value(site.getFilename());
+      json.name("line").value(site.getLineNumber());
+      size(json, site.getTotalSize());
+      json.endObject();
+    }
+    json.endArray();
+
+    json.endObject();
+  }
+
+  /**
+   * Write a diff summary of the given snapshot against a baseline snapshot.
+   *
+   * @param json the writer to write the summary to
+   * @param file the name of the heap dump file
+   * @param snapshot the snapshot to summarize
+   * @param baseFile the name of the baseline heap dump file
+   * @param baseline the baseline snapshot to compare against
+   * @param retained the reachability used when loading the snapshots
+   * @param top the maximum number of sites to include
+   */
+  public static void writeDiff(JsonWriter json, String file, AhatSnapshot snapshot,
+      String baseFile, AhatSnapshot baseline, Reachability retained, int top) {
+    json.beginObject();
+    json.name("file").value(file);
+    json.name("baseline").value(baseFile);
+    json.name("retained").value(retained.toString());
+
+    json.name("heaps").beginArray();
+    Map<String, Size[]> heaps = new TreeMap<String, Size[]>();
+    for (AhatHeap heap : snapshot.getHeaps()) {
+      sizes(heaps, heap.getName())[0] = heap.getSize();
+    }
+    for (AhatHeap heap : baseline.getHeaps()) {
+      sizes(heaps, heap.getName())[1] = heap.getSize();
+    }
+    for (Map.Entry<String, Size[]> entry : heaps.entrySet()) {
+      json.beginObject();
+      json.name("name").value(entry.getKey());
+      delta(json, entry.getValue());
+      json.endObject();
+    }
+    json.endArray();
+
+    // Classes are identified by heap and class name, so that classes are
+    // compared across heap dumps without matching up class objects.
+    Map<String, ClassDelta> classes = new HashMap<String, ClassDelta>();
+    for (Site.ObjectsInfo info : snapshot.getRootSite().getObjectsInfos()) {
+      ClassDelta delta = classDelta(classes, info);
+      delta.counts[0] += info.numInstances;
+      delta.sizes[0] = delta.sizes[0].plus(info.numBytes);
+    }
+    for (Site.ObjectsInfo info : baseline.getRootSite().getObjectsInfos()) {
+      ClassDelta delta = classDelta(classes, info);
+      delta.counts[1] += info.numInstances;
+      delta.sizes[1] = delta.sizes[1].plus(info.numBytes);
+    }
+    List<ClassDelta> changed = new ArrayList<ClassDelta>();
+    for (ClassDelta delta : classes.values()) {
+      if (delta.counts[0] != delta.counts[1] || !delta.sizes[0].equals(delta.sizes[1])) {
+        changed.add(delta);
+      }
+    }
+    Collections.sort(changed, (a, b) -> {
+      int cmp = Long.compare(Math.abs(delta(b.sizes)), Math.abs(delta(a.sizes)));
+      if (cmp == 0) {
+        cmp = a.className.compareTo(b.className);
+      }
+      return cmp != 0 ? cmp : a.heapName.compareTo(b.heapName);
+    });
+    json.name("classes").beginArray();
+    for (ClassDelta delta : changed) {
+      json.beginObject();
+      json.name("class").value(delta.className);
+      json.name("heap").value(delta.heapName);
+      json.name("count").value(delta.counts[0]);
+      json.name("baselineCount").value(delta.counts[1]);
+      delta(json, delta.sizes);
+      json.endObject();
+    }
+    json.endArray();
+
+    List<SiteDelta> sites = new ArrayList<SiteDelta>();
+    siteDeltas(snapshot.getRootSite(), baseline.getRootSite(), sites);
+    Collections.sort(sites,
+        (a, b) -> Long.compare(Math.abs(delta(b.sizes)), Math.abs(delta(a.sizes))));
+    json.name("sites").beginArray();
+    for (SiteDelta delta : sites.subList(0, Math.min(top, sites.size()))) {
+      json.beginObject();
+      Site site = delta.site;
+      if (delta.isCurrent) {
+        json.name("id").value(site.getId());
+      }
+      json.name("method").value(site.getMethodName());
+      json.name("signature").value(site.getSignature());
+      json.name("filename").value(site.getFilename());
+      json.name("line").value(site.getLineNumber());
+      delta(json, delta.sizes);
+      json.endObject();
+    }
+    json.endArray();
+
+    json.endObject();
+  }
+
+  private static class ClassDelta {
+    public final String className;
+    public final String heapName;
+    public final long[] counts = new long[2];
+    public final Size[] sizes = new Size[] { Size.ZERO, Size.ZERO };
+
+    ClassDelta(String className, String heapName) {
+      this.className = className;
+      this.heapName = heapName;
+    }
+  }
+
+  private static ClassDelta classDelta(Map<String, ClassDelta> classes, Site.ObjectsInfo info) {
+    String className = info.getClassName();
+    String heapName = info.heap.getName();
+    return classes.computeIfAbsent(heapName + "/" + className,
+        x -> new ClassDelta(className, heapName));
+  }
+
+  private static class SiteDelta {
+    // The site in the current snapshot, or in the baseline snapshot if there
+    // is no corresponding site in the current snapshot.
+    public final Site site;
+    public final boolean isCurrent;
+    public final Size[] sizes;
+
+    SiteDelta(Site current, Site baseline) {
+      this.site = current == null ? baseline : current;
+      this.isCurrent = current != null;
+      this.sizes = new Size[] {
+        current == null ? Size.ZERO : current.getTotalSize(),
+        baseline == null ? Size.ZERO : baseline.getTotalSize()
+      };
+    }
+  }
+
+  /**
+   * Collects the differences in size of the given sites and all their
+   * descendants. Child sites correspond if they have the same method,
+   * signature, file and line number. Either site may be null if there is no
+   * corresponding site.
+   */
+  private static void siteDeltas(Site current, Site baseline, List<SiteDelta> deltas) {
+    // Use an explicit stack of (current, baseline) pairs because stack traces
+    // are not guaranteed to be shallow enough for recursion. Children are
+    // pushed in reverse so the deltas are collected in the same depth first
+    // order as a recursive traversal.
+    Deque<Site[]> stack = new ArrayDeque<Site[]>();
+    stack.push(new Site[] { current, baseline });
+    while (!stack.isEmpty()) {
+      Site[] pair = stack.pop();
+      deltas.add(new SiteDelta(pair[0], pair[1]));
+
+      Map<String, Site> baseChildren = new HashMap<String, Site>();
+      if (pair[1] != null) {
+        for (Site child : pair[1].getChildren()) {
+          baseChildren.put(frame(child), child);
+        }
+      }
+      List<Site[]> children = new ArrayList<Site[]>();
+      if (pair[0] != null) {
+        for (Site child : pair[0].getChildren()) {
+          children.add(new Site[] { child, baseChildren.remove(frame(child)) });
+        }
+      }
+      for (Site child : baseChildren.values()) {
+        children.add(new Site[] { null, child });
+      }
+      for (int i = children.size() - 1; i >= 0; --i) {
+        stack.push(children.get(i));
+      }
+    }
+  }
+
+  private static String frame(Site site) {
+    return site.getMethodName() + "\0" + site.getSignature() + "\0"
+      + site.getFilename() + "\0" + site.getLineNumber();
+  }
+
+  private static Size[] sizes(Map<String, Size[]> sizes, String name) {
+    return sizes.computeIfAbsent(name, x -> new Size[] { Size.ZERO, Size.ZERO });
+  }
+
+  private static long delta(Size[] sizes) {
+    return sizes[0].getSize() - sizes[1].getSize();
+  }
+
+  private static void delta(JsonWriter json, Size[] sizes) {
+    json.name("current").beginObject();
+    size(json, sizes[0]);
+    json.endObject();
+    json.name("baseline").beginObject();
+    size(json, sizes[1]);
+    json.endObject();
+    json.name("delta").value(delta(sizes));
+  }
+
+  private static void size(JsonWriter json, Size size) {
+    json.name("javaSize").value(size.getJavaSize());
+    json.name("nativeSize").value(size.getRegisteredNativeSize());
+    json.name("size").value(size.getSize());
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.io.PrintStream;
+
+/**
+ * Writes JSON text to a print stream as it is generated.
+ * <p>
+ * The caller is responsible for calling the methods in an order that forms
+ * valid JSON, for example calling name() before each value of an object.
+ */
+class JsonWriter {
+  private final PrintStream ps;
+
+  // True if nothing has been written yet in the current object or array.
+  private boolean mFirst = true;
+
+  // True if the last thing written was the name of an object member.
+  private boolean mAfterName = false;
+
+  /**
+   * Create a JsonWriter that writes to the given print stream.
+   */
+  public JsonWriter(PrintStream ps) {
+    this.ps = ps;
+  }
+
+  public JsonWriter beginObject() {
+    beforeValue();
+    ps.print('{');
+    mFirst = true;
+    return this;
+  }
+
+  public JsonWriter endObject() {
+    ps.print('}');
+    mFirst = false;
+    return this;
+  }
+
+  public JsonWriter beginArray() {
+    beforeValue();
+    ps.print('[');
+    mFirst = true;
+    return this;
+  }
+
+  public JsonWriter endArray() {
+    ps.print(']');
+    mFirst = false;
+    return this;
+  }
+
+  /**
+   * Write the name of the next member of the current object.
+   */
+  public JsonWriter name(String name) {
+    beforeValue();
+    ps.print(quote(name));
+    ps.print(':');
+    mAfterName = true;
+    return this;
+  }
+
+  /**
+   * Write a string value, or null if value is null.
+   */
+  public JsonWriter value(String value) {
+    beforeValue();
+    ps.print(value == null ? "null" : quote(value));
+    return this;
+  }
+
+  public JsonWriter value(long value) {
+    beforeValue();
+    ps.print(value);
+    return this;
+  }
+
+  public JsonWriter value(boolean value) {
+    beforeValue();
+    ps.print(value);
+    return this;
+  }
+
+  private void beforeValue() {
+    if (mAfterName) {
+      mAfterName = false;
+    } else if (!mFirst) {
+      ps.print(',');
+    }
+    mFirst = false;
+  }
+
+  /**
+   * Quote and escape the given string for use in JSON text.
+   */
+  public static String quote(String text) {
+    StringBuilder sb = new StringBuilder(text.length() + 2);
+    sb.append('"');
+    for (int i = 0; i < text.length(); ++i) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '"': sb.append("\\\""); break;
+        case '\\': sb.append("\\\\"); break;
+        case '\n': sb.append("\\n"); break;
+        case '\r': sb.append("\\r"); break;
+        case '\t': sb.append("\\t"); break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int)c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    sb.append('"');
+    return sb.toString();
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.android.ahat;
 
+import com.android.ahat.dominators.Dominators;
 import com.android.ahat.heapdump.AhatSnapshot;
 import com.android.ahat.heapdump.Diff;
 import com.android.ahat.heapdump.HprofFormatException;
@@ -24,18 +25,28 @@ import com.android.ahat.heapdump.Reachability;
 import com.android.ahat.progress.Progress;
 import com.android.ahat.proguard.ProguardMap;
 import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Contains the main entry point for the ahat heap dump viewer.
  */
 public class Main {
+  // The total size in bytes of rendered pages to cache.
+  private static final long PAGE_CACHE_SIZE = 64 * 1024 * 1024;
+
   private Main() {
   }
 
@@ -43,6 +54,15 @@ public class Main {
     out.println("java -jar ahat.jar [OPTIONS] FILE");
     out.println("  Launch an http server for viewing the given Android heap dump FILE.");
     out.println("");
+    out.println("java -jar ahat.jar --summary [OPTIONS] FILE...");
+    out.println("  Print a JSON summary of each of the given Android heap dump FILEs,");
+    out.println("  one per line, without launching an http server.");
+    out.println("");
+    out.println("java -jar ahat.jar --trend [OPTIONS] FILE...");
+    out.println("  Print a JSON summary of the classes, allocation sites and roots that");
+    out.println("  grow steadily over the given Android heap dump FILEs, in the order");
+    out.println("  they were taken, without launching an http server.");
+    out.println("");
     out.println("OPTIONS:");
     out.println("  -p <port>");
     out.println("     Serve pages on the given port. Defaults to 7100.");
@@ -50,24 +70,68 @@ public class Main {
     out.println("     Use the proguard map FILE to deobfuscate the heap dump.");
     out.println("  --baseline FILE");
     out.println("     Diff the heap dump against the given baseline heap dump FILE.");
+    out.println("     With --summary, summarize the differences in size by class and");
+    out.println("     allocation site between each heap dump and the baseline.");
     out.println("  --baseline-proguard-map FILE");
     out.println("     Use the proguard map FILE to deobfuscate the baseline heap dump.");
     out.println("  --retained [strong | soft | finalizer | weak | phantom | unreachable]");
     out.println("     The weakest reachability of instances to treat as retained.");
     out.println("     Defaults to soft");
+    out.println("  --threads <count>");
+    out.println("     The number of threads to use for processing heap dumps.");
+    out.println("     Defaults to the number of available processors.");
+    out.println("  --dominators [iterative | semi-nca]");
+    out.println("     The algorithm to use for computing dominators.");
+    out.println("     Defaults to iterative");
+    out.println("  --dominator-cache DIR");
+    out.println("     Cache the dominators of each heap dump in DIR, in a file named");
+    out.println("     after the heap dump, so they need not be recomputed the next time");
+    out.println("     the heap dump is opened. Only the dominators are cached: parsing,");
+    out.println("     reachability, retained sizes and allocation sites are redone each");
+    out.println("     time, so a cached load saves only the time spent computing");
+    out.println("     dominators. Dominators are not cached by default.");
+    out.println("  --jobs <count>");
+    out.println("     With --summary, the number of heap dumps to process at the same");
+    out.println("     time. The --threads are divided among the heap dumps being");
+    out.println("     processed. Defaults to 1.");
+    out.println("  --top <count>");
+    out.println("     With --summary, the number of dominators and allocation sites to");
+    out.println("     include in each summary. With --trend, the number of classes,");
+    out.println("     allocation sites and roots to include. Defaults to 20.");
+    out.println("  --profile FILE");
+    out.println("     Write the time and memory taken by each phase of loading each heap");
+    out.println("     dump to FILE, as one JSON object per heap dump per line. Memory and");
+    out.println("     garbage collections are measured for the whole process, so --profile");
+    out.println("     can't be used with --jobs greater than 1.");
     out.println("");
   }
 
+  /**
+   * Returns the file to cache the dominators of the given heap dump in, or
+   * null if dominators are not cached.
+   */
+  private static File dominatorCache(File cacheDir, File hprof) {
+    return cacheDir == null ? null : new File(cacheDir, hprof.getName() + ".ahatdom");
+  }
+
   /**
    * Load the given heap dump file.
    * Prints an error message and exits the application on failure to load the
    * heap dump.
    */
   private static AhatSnapshot loadHeapDump(File hprof,
-      ProguardMap map, Progress progress, Reachability retained) {
+      ProguardMap map, Progress progress, Reachability retained, int threads,
+      Dominators.Algorithm dominators, File cacheDir) {
     System.out.println("Processing '" + hprof + "' ...");
     try {
-      return new Parser(hprof).map(map).progress(progress).retained(retained).parse();
+      return new Parser(hprof)
+        .map(map)
+        .progress(progress)
+        .retained(retained)
+        .parallelism(threads)
+        .dominators(dominators)
+        .dominatorCache(dominatorCache(cacheDir, hprof))
+        .parse();
     } catch (IOException e) {
       System.err.println("Unable to load '" + hprof + "':");
       e.printStackTrace();
@@ -79,6 +143,155 @@ public class Main {
     throw new AssertionError("Unreachable");
   }
 
+  /**
+   * Print a JSON summary of each of the given heap dump files to standard
+   * output, one per line, in the order the files are given.
+   * Up to <code>jobs</code> heap dumps are loaded at a time, which bounds the
+   * memory used regardless of how many heap dumps are summarized.
+   * A heap dump that fails to load is summarized as an object with an
+   * "error" member.
+   *
+   * @return true if all heap dumps were summarized successfully
+   */
+  private static boolean summarize(List<File> hprofs, ProguardMap map,
+      File hprofbase, ProguardMap mapbase,
+      Reachability retained, int threads, int jobs, Dominators.Algorithm dominators,
+      File cacheDir, int top, File profile) {
+    // The baseline is loaded once and shared by all the diff summaries. It
+    // is not modified, because diff summaries don't pair up instances.
+    AhatSnapshot baseline = null;
+    if (hprofbase != null) {
+      System.err.println("Processing '" + hprofbase + "' ...");
+      try {
+        baseline = new Parser(hprofbase)
+          .map(mapbase)
+          .retained(retained)
+          .parallelism(threads)
+          .dominators(dominators)
+          .dominatorCache(dominatorCache(cacheDir, hprofbase))
+          .parse();
+      } catch (IOException | HprofFormatException e) {
+        System.err.println("Unable to load '" + hprofbase + "':");
+        e.printStackTrace();
+        return false;
+      }
+    }
+
+    final AhatSnapshot base = baseline;
+    ExecutorService executor = Executors.newFixedThreadPool(jobs);
+    int parallelism = Math.max(1, threads / jobs);
+    List<Future<String>> summaries = new ArrayList<Future<String>>();
+    List<ProfilingProgress> profiles = new ArrayList<ProfilingProgress>();
+    for (File hprof : hprofs) {
+      ProfilingProgress progress = new ProfilingProgress();
+      profiles.add(progress);
+      summaries.add(executor.submit(() -> {
+        System.err.println("Processing '" + hprof + "' ...");
+        AhatSnapshot snapshot = new Parser(hprof)
+          .map(map)
+          .progress(progress)
+          .retained(retained)
+          .parallelism(parallelism)
+          .dominators(dominators)
+          .dominatorCache(dominatorCache(cacheDir, hprof))
+          .parse();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(bytes, false, "UTF-8");
+        if (base == null) {
+          JsonSummary.write(new JsonWriter(ps), hprof.getPath(), snapshot, retained, top);
+        } else {
+          JsonSummary.writeDiff(new JsonWriter(ps), hprof.getPath(), snapshot,
+              hprofbase.getPath(), base, retained, top);
+        }
+        ps.flush();
+        return bytes.toString("UTF-8");
+      }));
+    }
+    executor.shutdown();
+
+    boolean success = true;
+    for (int i = 0; i < hprofs.size(); ++i) {
+      File hprof = hprofs.get(i);
+      try {
+        System.out.println(summaries.get(i).get());
+      } catch (ExecutionException | InterruptedException e) {
+        Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+        System.err.println("Unable to process '" + hprof + "':");
+        cause.printStackTrace();
+        new JsonWriter(System.out).beginObject()
+          .name("file").value(hprof.getPath())
+          .name("error").value(cause.toString())
+          .endObject();
+        System.out.println();
+        success = false;
+      }
+    }
+    return writeProfiles(profile, hprofs, profiles) && success;
+  }
+
+  /**
+   * Print a JSON summary of the trends over the given heap dump files to
+   * standard output. The heap dumps are loaded one at a time, in the order
+   * given, and only their aggregates are kept, which bounds the memory used
+   * regardless of how many heap dumps there are.
+   *
+   * @return true if all heap dumps were loaded successfully
+   */
+  private static boolean trend(List<File> hprofs, ProguardMap map,
+      Reachability retained, int threads, Dominators.Algorithm dominators,
+      File cacheDir, int top, File profile) {
+    TrendSummary trend = new TrendSummary(retained);
+    List<ProfilingProgress> profiles = new ArrayList<ProfilingProgress>();
+    for (File hprof : hprofs) {
+      System.err.println("Processing '" + hprof + "' ...");
+      ProfilingProgress progress = new ProfilingProgress();
+      profiles.add(progress);
+      try {
+        trend.add(hprof.getPath(), new Parser(hprof)
+            .map(map)
+            .progress(progress)
+            .retained(retained)
+            .parallelism(threads)
+            .dominators(dominators)
+            .dominatorCache(dominatorCache(cacheDir, hprof))
+            .parse());
+      } catch (IOException | HprofFormatException e) {
+        System.err.println("Unable to load '" + hprof + "':");
+        e.printStackTrace();
+        writeProfiles(profile, hprofs, profiles);
+        return false;
+      }
+    }
+    trend.write(new JsonWriter(System.out), top);
+    System.out.println();
+    return writeProfiles(profile, hprofs, profiles);
+  }
+
+  /**
+   * Writes the profile of loading each of the given heap dumps to the given
+   * file, one per line, if the file is not null.
+   *
+   * @return true if the profiles were written successfully
+   */
+  private static boolean writeProfiles(File file, List<File> hprofs,
+      List<ProfilingProgress> profiles) {
+    if (file == null) {
+      return true;
+    }
+
+    try (PrintStream ps = new PrintStream(file, "UTF-8")) {
+      for (int i = 0; i < profiles.size(); ++i) {
+        profiles.get(i).write(new JsonWriter(ps), hprofs.get(i).getPath());
+        ps.println();
+      }
+    } catch (IOException e) {
+      System.err.println("Unable to write profile to '" + file + "':");
+      e.printStackTrace();
+      return false;
+    }
+    return true;
+  }
+
   /**
    * Main entry for ahat heap dump viewer.
    * Launches an http server on localhost for viewing a given heap dump.
@@ -96,11 +309,19 @@ public class Main {
       }
     }
 
-    File hprof = null;
+    List<File> hprofs = new ArrayList<File>();
     File hprofbase = null;
     ProguardMap map = new ProguardMap();
     ProguardMap mapbase = new ProguardMap();
     Reachability retained = Reachability.SOFT;
+    int threads = Runtime.getRuntime().availableProcessors();
+    Dominators.Algorithm dominators = Dominators.Algorithm.ITERATIVE;
+    File cacheDir = null;
+    boolean summary = false;
+    boolean trend = false;
+    int jobs = 1;
+    int top = 20;
+    File profile = null;
     for (int i = 0; i < args.length; i++) {
       if ("-p".equals(args[i]) && i + 1 < args.length) {
         i++;
@@ -143,22 +364,89 @@ public class Main {
             help(System.err);
             return;
         }
-      } else {
-        if (hprof != null) {
-          System.err.println("multiple input files.");
+      } else if ("--dominators".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        switch (args[i]) {
+          case "iterative": dominators = Dominators.Algorithm.ITERATIVE; break;
+          case "semi-nca": dominators = Dominators.Algorithm.SEMI_NCA; break;
+          default:
+            System.err.println("Invalid dominators algorithm: " + args[i]);
+            help(System.err);
+            return;
+        }
+      } else if ("--dominator-cache".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        cacheDir = new File(args[i]);
+        if (!cacheDir.isDirectory()) {
+          System.err.println("Invalid dominator cache directory: " + args[i]);
+          help(System.err);
+          return;
+        }
+      } else if ("--summary".equals(args[i])) {
+        summary = true;
+      } else if ("--trend".equals(args[i])) {
+        trend = true;
+      } else if ("--jobs".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        jobs = Integer.parseInt(args[i]);
+        if (jobs < 1) {
+          System.err.println("Invalid number of jobs: " + args[i]);
+          help(System.err);
+          return;
+        }
+      } else if ("--top".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        top = Integer.parseInt(args[i]);
+        if (top < 0) {
+          System.err.println("Invalid number of top entries: " + args[i]);
+          help(System.err);
+          return;
+        }
+      } else if ("--profile".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        profile = new File(args[i]);
+      } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+        i++;
+        threads = Integer.parseInt(args[i]);
+        if (threads < 1) {
+          System.err.println("Invalid number of threads: " + args[i]);
           help(System.err);
           return;
         }
-        hprof = new File(args[i]);
+      } else {
+        hprofs.add(new File(args[i]));
       }
     }
 
-    if (hprof == null) {
+    if (hprofs.isEmpty()) {
       System.err.println("no input file.");
       help(System.err);
       return;
     }
 
+    if (profile != null && jobs > 1) {
+      System.err.println("--profile can't be used with --jobs greater than 1.");
+      help(System.err);
+      return;
+    }
+
+    if (summary) {
+      System.exit(summarize(hprofs, map, hprofbase, mapbase, retained, threads, jobs,
+            dominators, cacheDir, top, profile) ? 0 : 1);
+    }
+
+    if (trend) {
+      System.exit(trend(hprofs, map, retained, threads, dominators, cacheDir, top, profile)
+          ? 0 : 1);
+    }
+
+    if (hprofs.size() > 1) {
+      System.err.println("multiple input files.");
+      help(System.err);
+      return;
+    }
+    File hprof = hprofs.get(0);
+
     // Launch the server before parsing the hprof file so we get
     // BindExceptions quickly.
     InetAddress loopback = InetAddress.getLoopbackAddress();
@@ -166,6 +454,11 @@ public class Main {
     System.out.println("Preparing " + addr + " ...");
     HttpServer server = null;
     try {
+      // Send responses without waiting to coalesce them with later writes,
+      // otherwise small pages can be delayed until the client acknowledges
+      // the response headers. The server reads this property when it is
+      // first created.
+      System.setProperty("sun.net.httpserver.nodelay", "true");
       server = HttpServer.create(addr, 0);
     } catch (IOException e) {
       System.err.println("Unable to setup ahat server:");
@@ -173,26 +466,63 @@ public class Main {
       System.exit(1);
     }
 
-    AhatSnapshot ahat = loadHeapDump(hprof, map, new AsciiProgress(), retained);
+    List<File> loaded = new ArrayList<File>();
+    List<ProfilingProgress> profiles = new ArrayList<ProfilingProgress>();
+    ProfilingProgress progress = new ProfilingProgress(new AsciiProgress());
+    loaded.add(hprof);
+    profiles.add(progress);
+    AhatSnapshot ahat = loadHeapDump(hprof, map, progress, retained, threads,
+        dominators, cacheDir);
     if (hprofbase != null) {
-      AhatSnapshot base = loadHeapDump(hprofbase, mapbase, new AsciiProgress(), retained);
+      ProfilingProgress baseProgress = new ProfilingProgress(new AsciiProgress());
+      loaded.add(hprofbase);
+      profiles.add(baseProgress);
+      AhatSnapshot base = loadHeapDump(hprofbase, mapbase, baseProgress, retained,
+          threads, dominators, cacheDir);
 
       System.out.println("Diffing heap dumps ...");
-      Diff.snapshots(ahat, base);
+      Diff.snapshots(ahat, base, threads);
     }
+    writeProfiles(profile, loaded, profiles);
+
+    serve(server, ahat, hprof, hprofbase, retained);
+    System.out.println("Server started on http://localhost:" + port);
+  }
 
+  /**
+   * Start serving pages for the given snapshot from the given server.
+   * Requests are handled concurrently, each on its own thread. This is safe
+   * because the snapshot is not modified once it has been loaded.
+   */
+  static void serve(HttpServer server, AhatSnapshot ahat, File hprof, File hprofbase,
+      Reachability retained) {
+    PageCache cache = new PageCache(PAGE_CACHE_SIZE);
     server.createContext("/",
-        new AhatHttpHandler(new OverviewHandler(ahat, hprof, hprofbase, retained)));
-    server.createContext("/rooted", new AhatHttpHandler(new RootedHandler(ahat)));
-    server.createContext("/object", new AhatHttpHandler(new ObjectHandler(ahat)));
-    server.createContext("/objects", new AhatHttpHandler(new ObjectsHandler(ahat)));
-    server.createContext("/site", new AhatHttpHandler(new SiteHandler(ahat)));
+        new AhatHttpHandler(new OverviewHandler(ahat, hprof, hprofbase, retained), cache));
+    server.createContext("/rooted", new AhatHttpHandler(new RootedHandler(ahat), cache));
+    server.createContext("/object", new AhatHttpHandler(new ObjectHandler(ahat), cache));
+    server.createContext("/objects", new AhatHttpHandler(new ObjectsHandler(ahat), cache));
+    server.createContext("/site", new AhatHttpHandler(new SiteHandler(ahat), cache));
+    server.createContext("/duplicates", new AhatHttpHandler(new DuplicatesHandler(ahat), cache));
     server.createContext("/bitmap", new BitmapHandler(ahat));
+    server.createContext("/api/query", new QueryHandler(ahat, retained));
     server.createContext("/style.css", new StaticHandler("etc/style.css", "text/css"));
-    server.setExecutor(Executors.newFixedThreadPool(1));
-    System.out.println("Server started on http://localhost:" + port);
-
+    server.setExecutor(newRequestExecutor());
     server.start();
   }
+
+  /**
+   * Returns an executor that runs each task on a new thread. Virtual threads
+   * are used if the runtime supports them, because most of the time spent
+   * handling a request may be spent waiting on the client.
+   */
+  private static ExecutorService newRequestExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)method.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
 }
 
@@ -24,12 +24,16 @@ import com.android.ahat.heapdump.Sort;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.PriorityQueue;
 
 class ObjectsHandler implements AhatHandler {
   private static final String OBJECTS_ID = "objects";
 
+  // The largest initial capacity to use for the queue of instances to show.
+  private static final int kInitialCapacity = 1024;
+
   private AhatSnapshot mSnapshot;
 
   public ObjectsHandler(AhatSnapshot snapshot) {
@@ -40,6 +44,7 @@ class ObjectsHandler implements AhatHandler {
    * Get the list of instances that match the given site, class, and heap
    * filters. This method is public to facilitate testing.
    *
+   * @param snapshot the snapshot the site belongs to
    * @param site the site to get instances from
    * @param className non-null name of the class to restrict instances to.
    * @param subclass if true, include instances of subclasses of the named class.
@@ -47,15 +52,10 @@ class ObjectsHandler implements AhatHandler {
    *                 allow instances on any heap.
    * @return list of matching instances
    */
-  public static List<AhatInstance> getObjects(
+  public static List<AhatInstance> getObjects(AhatSnapshot snapshot,
       Site site, String className, boolean subclass, String heapName) {
-    Predicate<AhatInstance> predicate = (x) -> {
-      return (heapName == null || x.getHeap().getName().equals(heapName))
-        && (subclass ? x.isInstanceOfClass(className) : className.equals(x.getClassName()));
-    };
-
     List<AhatInstance> insts = new ArrayList<AhatInstance>();
-    site.getObjects(predicate, x -> insts.add(x));
+    snapshot.getObjects(site, className, subclass, heapName, x -> insts.add(x));
     return insts;
   }
 
@@ -67,8 +67,26 @@ class ObjectsHandler implements AhatHandler {
     boolean subclass = (query.getInt("subclass", 0) != 0);
     Site site = mSnapshot.getSite(id);
 
-    List<AhatInstance> insts = getObjects(site, className, subclass, heapName);
-    Collections.sort(insts, Sort.defaultInstanceCompare(mSnapshot));
+    // Only the instances that can be shown on the page need to be sorted,
+    // so keep the first of them in sort order in a bounded priority queue,
+    // with the last of them at the head of the queue.
+    Comparator<AhatInstance> compare = Sort.withPriority(
+        Sort.defaultInstanceCompare(mSnapshot), Sort.INSTANCE_BY_ID);
+    int limit = SubsetSelector.limit(query, OBJECTS_ID);
+    PriorityQueue<AhatInstance> top = new PriorityQueue<AhatInstance>(
+        Math.min(limit, kInitialCapacity) + 1, compare.reversed());
+    int[] count = new int[1];
+    mSnapshot.getObjects(site, className, subclass, heapName, x -> {
+      count[0]++;
+      if (top.size() < limit) {
+        top.add(x);
+      } else if (limit > 0 && compare.compare(x, top.peek()) < 0) {
+        top.poll();
+        top.add(x);
+      }
+    });
+    List<AhatInstance> insts = new ArrayList<AhatInstance>(top);
+    Collections.sort(insts, compare);
 
     doc.title("Instances");
 
@@ -111,18 +129,19 @@ class ObjectsHandler implements AhatHandler {
     heapChoice.append(")");
     doc.description(DocString.text("Heap"), heapChoice);
 
-    doc.description(DocString.text("Count"), DocString.format("%,d", insts.size()));
+    doc.description(DocString.text("Count"), DocString.format("%,d", count[0]));
     doc.end();
     doc.println(DocString.text(""));
 
-    if (insts.isEmpty()) {
+    if (count[0] == 0) {
       doc.println(DocString.text("(none)"));
     } else {
       SizeTable.table(doc, mSnapshot.isDiffed(),
           new Column("Heap"),
           new Column("Object"));
 
-      SubsetSelector<AhatInstance> selector = new SubsetSelector(query, OBJECTS_ID, insts);
+      SubsetSelector<AhatInstance> selector
+        = new SubsetSelector<>(query, OBJECTS_ID, insts, count[0]);
       for (AhatInstance inst : selector.selected()) {
         AhatInstance base = inst.getBaseline();
         SizeTable.row(doc, inst.getSize(), base.getSize(),
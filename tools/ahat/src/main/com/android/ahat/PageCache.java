@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of rendered pages, keyed by the normalized query for the
+ * page. The snapshot is not modified after it has been loaded, so a page
+ * rendered once for a query can be served again as is.
+ * <p>
+ * When the total size of the cached pages exceeds the capacity of the
+ * cache, the least recently used pages are evicted. Pages larger than an
+ * eighth of the capacity are not cached, so that a few big pages don't push
+ * everything else out of the cache.
+ * <p>
+ * PageCache is safe to use from multiple threads at once.
+ */
+class PageCache {
+  private final long mCapacity;
+  private long mSize = 0;
+
+  // Pages in order of least to most recently used.
+  private final Map<String, byte[]> mPages = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+  /**
+   * Create a page cache holding up to capacity bytes of pages.
+   */
+  public PageCache(long capacity) {
+    mCapacity = capacity;
+  }
+
+  /**
+   * Returns the cached page for the given query, or null if the page is not
+   * cached.
+   */
+  public synchronized byte[] get(Query query) {
+    return mPages.get(key(query));
+  }
+
+  /**
+   * Cache the page rendered for the given query.
+   */
+  public synchronized void put(Query query, byte[] page) {
+    if (page.length > mCapacity / 8) {
+      return;
+    }
+
+    byte[] old = mPages.put(key(query), page);
+    if (old != null) {
+      mSize -= old.length;
+    }
+    mSize += page.length;
+
+    Iterator<byte[]> iter = mPages.values().iterator();
+    while (mSize > mCapacity) {
+      mSize -= iter.next().length;
+      iter.remove();
+    }
+  }
+
+  /**
+   * Returns the number of pages in the cache.
+   */
+  public synchronized int size() {
+    return mPages.size();
+  }
+
+  private static String key(Query query) {
+    return query.normalized().toString();
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.progress.NullProgress;
+import com.android.ahat.progress.Progress;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A progress indicator that records how long each phase takes and how much
+ * memory it allocates, passing progress on to another progress indicator.
+ * <p>
+ * Allocation is measured with per-thread allocation counters, where the JVM
+ * supports them. Memory allocated by threads that exit before the end of a
+ * phase is not counted. Allocation by all live threads and garbage
+ * collections of the whole JVM are attributed to the current phase, so the
+ * measurements are only meaningful when nothing else runs at the same time,
+ * such as loading another heap dump.
+ */
+class ProfilingProgress implements Progress {
+  /**
+   * The measurements of a single completed phase.
+   */
+  public static class Phase {
+    public final String description;
+    public final long duration;
+    public final long nanos;
+    public final long allocatedBytes;
+    public final long gcCount;
+    public final long gcMillis;
+    public final long heapUsedBytes;
+
+    Phase(String description, long duration, long nanos, long allocatedBytes,
+        long gcCount, long gcMillis, long heapUsedBytes) {
+      this.description = description;
+      this.duration = duration;
+      this.nanos = nanos;
+      this.allocatedBytes = allocatedBytes;
+      this.gcCount = gcCount;
+      this.gcMillis = gcMillis;
+      this.heapUsedBytes = heapUsedBytes;
+    }
+  }
+
+  private final Progress mProgress;
+  private final List<Phase> mPhases = new ArrayList<Phase>();
+
+  // The state at the start of the current phase.
+  private String mDescription;
+  private long mDuration;
+  private long mStartNanos;
+  private Map<Long, Long> mStartAllocated;
+  private long mStartGcCount;
+  private long mStartGcMillis;
+
+  /**
+   * Create a ProfilingProgress that doesn't display progress.
+   */
+  public ProfilingProgress() {
+    this(new NullProgress());
+  }
+
+  /**
+   * Create a ProfilingProgress that passes progress on to the given
+   * progress indicator.
+   */
+  public ProfilingProgress(Progress progress) {
+    mProgress = progress;
+  }
+
+  @Override
+  public void start(String description, long duration) {
+    mProgress.start(description, duration);
+    mDescription = description;
+    mDuration = duration;
+    mStartAllocated = allocatedBytes();
+    long[] gc = gcCounts();
+    mStartGcCount = gc[0];
+    mStartGcMillis = gc[1];
+    mStartNanos = System.nanoTime();
+  }
+
+  @Override
+  public void advance(long n) {
+    mProgress.advance(n);
+  }
+
+  @Override
+  public void update(long current) {
+    mProgress.update(current);
+  }
+
+  @Override
+  public void done() {
+    long nanos = System.nanoTime() - mStartNanos;
+    long allocated = -1;
+    if (mStartAllocated != null) {
+      allocated = 0;
+      for (Map.Entry<Long, Long> entry : allocatedBytes().entrySet()) {
+        allocated += entry.getValue() - mStartAllocated.getOrDefault(entry.getKey(), 0L);
+      }
+    }
+    long[] gc = gcCounts();
+    long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    mPhases.add(new Phase(mDescription, mDuration, nanos, allocated,
+          gc[0] - mStartGcCount, gc[1] - mStartGcMillis, heapUsed));
+    mDescription = null;
+    mProgress.done();
+  }
+
+  /**
+   * Returns the phases completed so far, in the order they were completed.
+   */
+  public List<Phase> getPhases() {
+    return Collections.unmodifiableList(mPhases);
+  }
+
+  /**
+   * Returns the number of bytes allocated so far by each live thread, by
+   * thread id, or null if allocation can't be measured.
+   */
+  private static Map<Long, Long> allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean)threads;
+    if (!sun.isThreadAllocatedMemorySupported() || !sun.isThreadAllocatedMemoryEnabled()) {
+      return null;
+    }
+
+    long[] ids = sun.getAllThreadIds();
+    long[] bytes = sun.getThreadAllocatedBytes(ids);
+    Map<Long, Long> allocated = new HashMap<Long, Long>();
+    for (int i = 0; i < ids.length; ++i) {
+      if (bytes[i] >= 0) {
+        allocated.put(ids[i], bytes[i]);
+      }
+    }
+    return allocated;
+  }
+
+  /**
+   * Returns the total number of garbage collections so far and the total
+   * time spent in them in milliseconds.
+   */
+  private static long[] gcCounts() {
+    long[] counts = new long[2];
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      counts[0] += Math.max(0, gc.getCollectionCount());
+      counts[1] += Math.max(0, gc.getCollectionTime());
+    }
+    return counts;
+  }
+
+  /**
+   * Writes the phases completed so far as a JSON object with a "file" member
+   * naming the heap dump, a "phases" member listing each phase and a "nanos"
+   * member with the total time of all the phases. The "allocated" member of
+   * a phase is -1 if allocation can't be measured.
+   */
+  public void write(JsonWriter json, String file) {
+    long total = 0;
+    json.beginObject();
+    json.name("file").value(file);
+    json.name("phases").beginArray();
+    for (Phase phase : mPhases) {
+      total += phase.nanos;
+      json.beginObject()
+        .name("description").value(phase.description)
+        .name("duration").value(phase.duration)
+        .name("nanos").value(phase.nanos)
+        .name("allocated").value(phase.allocatedBytes)
+        .name("gcs").value(phase.gcCount)
+        .name("gcMillis").value(phase.gcMillis)
+        .name("heapUsed").value(phase.heapUsedBytes)
+        .endObject();
+    }
+    json.endArray();
+    json.name("nanos").value(total);
+    json.endObject();
+  }
+}
@@ -86,12 +86,26 @@ class Query {
    * test.
    */
   public URI with(String name, String value) {
+    Map<String, String> params = new TreeMap<String, String>(mParams);
+    params.put(name, value);
+    return uri(params);
+  }
+
+  /**
+   * Return a uri for the current page with its query parameters sorted
+   * alphabetically, keeping only the last value of any repeated parameter.
+   * Queries that are handled the same way have the same normalized uri,
+   * regardless of the order their parameters were given in.
+   */
+  public URI normalized() {
+    return uri(new TreeMap<String, String>(mParams));
+  }
+
+  private URI uri(Map<String, String> params) {
     StringBuilder newQuery = new StringBuilder();
     newQuery.append(mUri.getRawPath());
     newQuery.append('?');
 
-    Map<String, String> params = new TreeMap<String, String>(mParams);
-    params.put(name, value);
     String and = "";
     for (Map.Entry<String, String> entry : params.entrySet()) {
       if (entry.getValue() != null) {
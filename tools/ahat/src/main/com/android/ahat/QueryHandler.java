@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Reachability;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * HttpHandler for the /api/query endpoint, which evaluates a
+ * {@link HeapQuery} and responds with the result as JSON.
+ * <p>
+ * Malformed queries get a 400 response and queries that run past their
+ * timeout get a 503 response, both with a JSON object of the form
+ * {"error": message}.
+ */
+class QueryHandler implements HttpHandler {
+  private AhatSnapshot mSnapshot;
+  private Reachability mRetained;
+
+  public QueryHandler(AhatSnapshot snapshot, Reachability retained) {
+    mSnapshot = snapshot;
+    mRetained = retained;
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(bytes, false, "UTF-8");
+    int status = 200;
+    try {
+      HeapQuery query = new HeapQuery(mSnapshot, new Query(exchange.getRequestURI()), mRetained);
+      query.write(new JsonWriter(ps));
+    } catch (HeapQuery.InvalidQueryException e) {
+      status = 400;
+      bytes.reset();
+      new JsonWriter(ps).beginObject().name("error").value(e.getMessage()).endObject();
+    } catch (HeapQuery.QueryTimeoutException e) {
+      status = 503;
+      bytes.reset();
+      new JsonWriter(ps).beginObject().name("error").value(e.getMessage()).endObject();
+    } catch (RuntimeException e) {
+      // Print runtime exceptions to standard error for debugging purposes,
+      // because otherwise they are swallowed and not reported.
+      System.err.println("Exception when handling " + exchange.getRequestURI() + ": ");
+      e.printStackTrace();
+      throw e;
+    }
+    ps.close();
+    byte[] response = bytes.toByteArray();
+
+    exchange.getResponseHeaders().add("Content-Type", "application/json;charset=utf-8");
+    exchange.sendResponseHeaders(status, response.length);
+    OutputStream os = exchange.getResponseBody();
+    os.write(response);
+    os.close();
+  }
+}
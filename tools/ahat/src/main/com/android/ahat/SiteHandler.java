@@ -87,7 +87,7 @@ class SiteHandler implements AhatHandler {
         new Column("Heap"),
         new Column("Class"));
 
-    List<Site.ObjectsInfo> infos = site.getObjectsInfos();
+    List<Site.ObjectsInfo> infos = new ArrayList<Site.ObjectsInfo>(site.getObjectsInfos());
     Comparator<Site.ObjectsInfo> compare = Sort.withPriority(
         Sort.OBJECTS_INFO_BY_HEAP_NAME,
         Sort.OBJECTS_INFO_BY_SIZE,
@@ -32,6 +32,7 @@ class SubsetSelector<T> {
   private Query mQuery;
   private String mId;
   private int mLimit;
+  private int mSize;
   private List<T> mElements;
 
   /**
@@ -44,10 +45,36 @@ class SubsetSelector<T> {
    * should not be modified during the lifetime of the SubsetSelector object.
    */
   public SubsetSelector(Query query, String id, List<T> elements) {
+    this(query, id, elements, elements.size());
+  }
+
+  /**
+   * Constructs a SubsetSelector given only a prefix of the elements, for use
+   * when it is too expensive to produce all of the elements.
+   * remaining() throws an UnsupportedOperationException on a SubsetSelector
+   * constructed this way if the prefix is shorter than size.
+   *
+   * @param id - the name of the query parameter key that should hold
+   * the limit selectors selected value.
+   * @param query - The query for the current page.
+   * @param selected - the first elements to select from, at least as many as
+   * limit(query, id) elements.
+   * @param size - the total number of elements to select from.
+   */
+  public SubsetSelector(Query query, String id, List<T> selected, int size) {
     mQuery = query;
     mId = id;
-    mLimit = getSelectedLimit(query, id, elements.size());
-    mElements = elements;
+    mLimit = getSelectedLimit(query, id, size);
+    mSize = size;
+    mElements = selected;
+  }
+
+  /**
+   * Returns the largest number of elements that could be selected for the
+   * given query, regardless of how many elements there are.
+   */
+  public static int limit(Query query, String id) {
+    return getSelectedLimit(query, id, Integer.MAX_VALUE);
   }
 
   // Return the list of elements included in the selected subset.
@@ -56,8 +83,15 @@ class SubsetSelector<T> {
   }
 
   // Return the list of remaining elements not included in the selected subset.
+  // Throws UnsupportedOperationException if only a prefix of the elements
+  // was given.
   public List<T> remaining() {
-    return mElements.subList(mLimit, mElements.size());
+    if (mElements.size() < mSize) {
+      throw new UnsupportedOperationException(
+          "remaining elements not available: only " + mElements.size()
+          + " of " + mSize + " elements were given");
+    }
+    return mElements.subList(mLimit, mSize);
   }
 
   /**
@@ -81,7 +115,7 @@ class SubsetSelector<T> {
   // It has the form:
   //  (showing X of Y - show none - show less - show more - show all)
   public void render(Doc doc) {
-    int all = mElements.size();
+    int all = mSize;
     if (all > kDefaultShown) {
       DocString menu = new DocString();
       menu.appendFormat("(%d of %d elements shown - ", mLimit, all);
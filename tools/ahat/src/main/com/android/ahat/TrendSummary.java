@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Reachability;
+import com.android.ahat.heapdump.RootType;
+import com.android.ahat.heapdump.Site;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Tracks how the sizes of classes, allocation sites and roots change over a
+ * series of heap dumps, to find the ones that keep growing, for example
+ * because of a leak.
+ * <p>
+ * Heap dumps are added one at a time, in the order they were taken. Only
+ * small per-class, per-site and per-root aggregates are kept from each heap
+ * dump, so the snapshot can be discarded after it is added. Memory use is
+ * bounded by the number of distinct classes, sites and roots, not by the
+ * size or number of heap dumps.
+ * <p>
+ * The trend summary is a single JSON object with the following members:
+ * <ul>
+ * <li>files - the names of the heap dump files, in order
+ * <li>retained - the weakest reachability of instances treated as retained
+ * <li>classes - the classes whose total size grows, by heap
+ * <li>sites - the allocation sites whose total size grows
+ * <li>roots - the rooted instances, grouped by class and root type, whose
+ *     total retained size grows
+ * </ul>
+ * An entry grows if its size never decreases from one heap dump to the next
+ * and is larger in the last heap dump than in the first. Each entry has a
+ * sizes member with its total size in bytes in each heap dump, and a growth
+ * member with the average growth in bytes per heap dump, estimated by a
+ * least squares fit. Entries are sorted from fastest to slowest growth.
+ */
+class TrendSummary {
+  /**
+   * The size of something in each heap dump.
+   */
+  private static class Series {
+    // mSizes[i] is the size in heap dump i. Heap dumps past the end of the
+    // array have size 0.
+    private long[] mSizes = new long[0];
+    private long[] mCounts = new long[0];
+
+    void add(int dump, long count, long size) {
+      if (mSizes.length <= dump) {
+        mSizes = Arrays.copyOf(mSizes, dump + 1);
+        mCounts = Arrays.copyOf(mCounts, dump + 1);
+      }
+      mCounts[dump] += count;
+      mSizes[dump] += size;
+    }
+
+    long[] sizes(int dumps) {
+      return Arrays.copyOf(mSizes, dumps);
+    }
+
+    long[] counts(int dumps) {
+      return Arrays.copyOf(mCounts, dumps);
+    }
+  }
+
+  private static class ClassSeries extends Series {
+    public final String className;
+    public final String heapName;
+
+    ClassSeries(String className, String heapName) {
+      this.className = className;
+      this.heapName = heapName;
+    }
+  }
+
+  private static class RootSeries extends Series {
+    public final String className;
+    public final String rootTypes;
+
+    RootSeries(String className, String rootTypes) {
+      this.className = className;
+      this.rootTypes = rootTypes;
+    }
+  }
+
+  /**
+   * An allocation site, identified by its stack of frames, merged across
+   * all of the heap dumps.
+   */
+  private static class SiteSeries extends Series {
+    public final String method;
+    public final String signature;
+    public final String filename;
+    public final int line;
+    private final Map<String, SiteSeries> mChildren = new HashMap<String, SiteSeries>();
+
+    SiteSeries(String method, String signature, String filename, int line) {
+      this.method = method;
+      this.signature = signature;
+      this.filename = filename;
+      this.line = line;
+    }
+
+    SiteSeries getChild(Site site) {
+      String frame = site.getMethodName() + "\0" + site.getSignature() + "\0"
+        + site.getFilename() + "\0" + site.getLineNumber();
+      return mChildren.computeIfAbsent(frame, x -> new SiteSeries(site.getMethodName(),
+            site.getSignature(), site.getFilename(), site.getLineNumber()));
+    }
+  }
+
+  private final Reachability mRetained;
+  private final List<String> mFiles = new ArrayList<String>();
+  private final Map<String, ClassSeries> mClasses = new HashMap<String, ClassSeries>();
+  private final Map<String, RootSeries> mRoots = new HashMap<String, RootSeries>();
+  private final SiteSeries mRootSite = new SiteSeries("ROOT", "", "", 0);
+
+  /**
+   * Create an empty trend summary.
+   *
+   * @param retained the reachability used when loading the snapshots
+   */
+  TrendSummary(Reachability retained) {
+    mRetained = retained;
+  }
+
+  /**
+   * Adds the next heap dump in the series. The snapshot is not referenced
+   * after this returns.
+   *
+   * @param file the name of the heap dump file
+   * @param snapshot the snapshot of the heap dump
+   */
+  void add(String file, AhatSnapshot snapshot) {
+    int dump = mFiles.size();
+    mFiles.add(file);
+
+    // Classes are identified by heap and class name, so that classes are
+    // compared across heap dumps without matching up class objects.
+    for (Site.ObjectsInfo info : snapshot.getRootSite().getObjectsInfos()) {
+      String className = info.getClassName();
+      String heapName = info.heap.getName();
+      mClasses.computeIfAbsent(heapName + "/" + className,
+          x -> new ClassSeries(className, heapName))
+        .add(dump, info.numInstances, info.numBytes.getSize());
+    }
+
+    for (AhatInstance inst : snapshot.getRooted()) {
+      String className = inst.getClassName();
+      String rootTypes = rootTypes(inst.getRootTypes());
+      mRoots.computeIfAbsent(rootTypes + "/" + className,
+          x -> new RootSeries(className, rootTypes))
+        .add(dump, 1, inst.getTotalRetainedSize().getSize());
+    }
+
+    // Walk the site tree with an explicit stack, matching each site up with
+    // the merged site for the same stack of frames.
+    Deque<Site> sites = new ArrayDeque<Site>();
+    Deque<SiteSeries> series = new ArrayDeque<SiteSeries>();
+    sites.push(snapshot.getRootSite());
+    series.push(mRootSite);
+    while (!sites.isEmpty()) {
+      Site site = sites.pop();
+      SiteSeries merged = series.pop();
+      merged.add(dump, 0, site.getTotalSize().getSize());
+      for (Site child : site.getChildren()) {
+        sites.push(child);
+        series.push(merged.getChild(child));
+      }
+    }
+  }
+
+  private static String rootTypes(Collection<RootType> types) {
+    if (types == null) {
+      return "";
+    }
+    TreeSet<String> names = new TreeSet<String>();
+    for (RootType type : types) {
+      names.add(type.toString());
+    }
+    return String.join(",", names);
+  }
+
+  /**
+   * Returns the average growth per heap dump of the given sizes if they
+   * never decrease and grow overall, or null otherwise.
+   */
+  static Long growth(long[] sizes) {
+    if (sizes.length < 2 || sizes[sizes.length - 1] <= sizes[0]) {
+      return null;
+    }
+    for (int i = 1; i < sizes.length; ++i) {
+      if (sizes[i] < sizes[i - 1]) {
+        return null;
+      }
+    }
+
+    // Least squares slope of size against heap dump index.
+    double n = sizes.length;
+    double meanX = (n - 1) / 2;
+    double meanY = 0;
+    for (long size : sizes) {
+      meanY += size / n;
+    }
+    double num = 0;
+    double den = 0;
+    for (int i = 0; i < sizes.length; ++i) {
+      num += (i - meanX) * (sizes[i] - meanY);
+      den += (i - meanX) * (i - meanX);
+    }
+    return Math.round(num / den);
+  }
+
+  /**
+   * An entry of the summary that grows, along with its sizes.
+   */
+  private static class Growing<T extends Series> {
+    public final T series;
+    public final long[] sizes;
+    public final long growth;
+
+    Growing(T series, long[] sizes, long growth) {
+      this.series = series;
+      this.sizes = sizes;
+      this.growth = growth;
+    }
+  }
+
+  private <T extends Series> List<Growing<T>> growing(Collection<T> all, int top) {
+    List<Growing<T>> growing = new ArrayList<Growing<T>>();
+    for (T series : all) {
+      long[] sizes = series.sizes(mFiles.size());
+      Long growth = growth(sizes);
+      if (growth != null) {
+        growing.add(new Growing<T>(series, sizes, growth));
+      }
+    }
+    growing.sort((a, b) -> Long.compare(b.growth, a.growth));
+    return growing.subList(0, Math.min(top, growing.size()));
+  }
+
+  /**
+   * Writes the trend summary of the heap dumps added so far.
+   *
+   * @param json the writer to write the summary to
+   * @param top the maximum number of classes, sites and roots to include
+   */
+  void write(JsonWriter json, int top) {
+    json.beginObject();
+    json.name("files").beginArray();
+    for (String file : mFiles) {
+      json.value(file);
+    }
+    json.endArray();
+    json.name("retained").value(mRetained.toString());
+
+    json.name("classes").beginArray();
+    for (Growing<ClassSeries> entry : growing(mClasses.values(), top)) {
+      json.beginObject();
+      json.name("class").value(entry.series.className);
+      json.name("heap").value(entry.series.heapName);
+      values(json, "counts", entry.series.counts(mFiles.size()));
+      values(json, "sizes", entry.sizes);
+      json.name("growth").value(entry.growth);
+      json.endObject();
+    }
+    json.endArray();
+
+    List<SiteSeries> sites = new ArrayList<SiteSeries>();
+    Deque<SiteSeries> deque = new ArrayDeque<SiteSeries>(mRootSite.mChildren.values());
+    while (!deque.isEmpty()) {
+      SiteSeries site = deque.pop();
+      sites.add(site);
+      deque.addAll(site.mChildren.values());
+    }
+    json.name("sites").beginArray();
+    for (Growing<SiteSeries> entry : growing(sites, top)) {
+      json.beginObject();
+      json.name("method").value(entry.series.method);
+      json.name("signature").value(entry.series.signature);
+      json.name("filename").value(entry.series.filename);
+      json.name("line").value(entry.series.line);
+      values(json, "sizes", entry.sizes);
+      json.name("growth").value(entry.growth);
+      json.endObject();
+    }
+    json.endArray();
+
+    json.name("roots").beginArray();
+    for (Growing<RootSeries> entry : growing(mRoots.values(), top)) {
+      json.beginObject();
+      json.name("class").value(entry.series.className);
+      json.name("rootTypes").value(entry.series.rootTypes);
+      values(json, "counts", entry.series.counts(mFiles.size()));
+      values(json, "sizes", entry.sizes);
+      json.name("growth").value(entry.growth);
+      json.endObject();
+    }
+    json.endArray();
+
+    json.endObject();
+  }
+
+  private static void values(JsonWriter json, String name, long[] values) {
+    json.name(name).beginArray();
+    for (long value : values) {
+      json.value(value);
+    }
+    json.endArray();
+  }
+}
@@ -34,6 +34,25 @@ public class Dominators<Node> {
 
   private Progress progress = new NullProgress();
   private long numNodes = 0;
+  private Algorithm algorithm = Algorithm.ITERATIVE;
+
+  /**
+   * Algorithms available for computing dominators.
+   */
+  public enum Algorithm {
+    /**
+     * An iterative algorithm that refines candidate dominators found during
+     * a single depth first search of the graph. This is the default.
+     */
+    ITERATIVE,
+
+    /**
+     * The Semi-NCA algorithm, operating on compact arrays indexed by the
+     * depth first number of each node. This is typically faster and uses
+     * less memory than the iterative algorithm for very large graphs.
+     */
+    SEMI_NCA
+  }
 
   /**
    * Interface for a directed graph to perform immediate dominators
@@ -123,6 +142,18 @@ public class Dominators<Node> {
     return this;
   }
 
+  /**
+   * Sets the algorithm to use for the dominators computation. Both
+   * algorithms compute the same immediate dominators.
+   *
+   * @param algorithm the algorithm to use
+   * @return this Dominators object
+   */
+  public Dominators<Node> algorithm(Algorithm algorithm) {
+    this.algorithm = algorithm;
+    return this;
+  }
+
   // NodeS is information associated with a particular node for the
   // purposes of computing dominators.
   // By convention we use the suffix 'S' to name instances of NodeS.
@@ -279,6 +310,11 @@ public class Dominators<Node> {
    * @param root the root node of the dominators computation
    */
   public void computeDominators(Node root) {
+    if (algorithm == Algorithm.SEMI_NCA) {
+      new SemiNcaDominators<Node>(graph, progress, numNodes).computeDominators(root);
+      return;
+    }
+
     long id = 0;
 
     // The set of nodes xS such that xS.revisit != null.
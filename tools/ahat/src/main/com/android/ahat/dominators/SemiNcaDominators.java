@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.dominators;
+
+import com.android.ahat.progress.Progress;
+import java.util.Arrays;
+
+/**
+ * Computes immediate dominators using the Semi-NCA algorithm described in
+ * "Finding Dominators in Practice" by Georgiadis, Werneck, Tarjan, Triantafyllis
+ * and August.
+ * <p>
+ * Nodes are numbered in depth first order, and all the state of the
+ * computation is kept in int arrays indexed by node number, with the
+ * incoming edges of each node stored in compressed sparse row form. The only
+ * per-node object allocated is the boxed node number stored as the node's
+ * dominators computation state.
+ */
+class SemiNcaDominators<Node> {
+  private final Dominators.Graph<Node> graph;
+  private final Progress progress;
+  private final long numNodes;
+
+  // nodes[v] is the node with depth first number v.
+  private Object[] nodes = new Object[16];
+
+  // parent[v] is the depth first number of the parent of node v in the depth
+  // first spanning tree.
+  private int[] parent = new int[16];
+
+  // The number of nodes numbered so far.
+  private int size = 0;
+
+  // The edges seen during the depth first search, with edgeSrc[i] -> edgeDst[i].
+  private int[] edgeSrc = new int[16];
+  private int[] edgeDst = new int[16];
+  private int numEdges = 0;
+
+  SemiNcaDominators(Dominators.Graph<Node> graph, Progress progress, long numNodes) {
+    this.graph = graph;
+    this.progress = progress;
+    this.numNodes = numNodes;
+  }
+
+  void computeDominators(Node root) {
+    search(root);
+
+    // Store the incoming edges of each node in compressed sparse row form:
+    // the predecessors of node v are preds[predStart[v]] through
+    // preds[predStart[v + 1] - 1].
+    int[] predStart = new int[size + 1];
+    for (int i = 0; i < numEdges; ++i) {
+      predStart[edgeDst[i] + 1]++;
+    }
+    Arrays.parallelPrefix(predStart, Integer::sum);
+    int[] preds = new int[numEdges];
+    int[] fill = Arrays.copyOf(predStart, size);
+    for (int i = 0; i < numEdges; ++i) {
+      preds[fill[edgeDst[i]]++] = edgeSrc[i];
+    }
+    edgeSrc = null;
+    edgeDst = null;
+    fill = null;
+
+    // Compute semidominators, processing nodes in reverse depth first order.
+    // ancestor, label and semi are the standard link-eval forest with path
+    // compression.
+    progress.start("Computing semidominators", size);
+    int[] semi = new int[size];
+    int[] label = new int[size];
+    int[] ancestor = new int[size];
+    int[] path = new int[16];
+    for (int v = 0; v < size; ++v) {
+      semi[v] = v;
+      label[v] = v;
+      ancestor[v] = -1;
+    }
+
+    for (int w = size - 1; w > 0; --w) {
+      progress.advance();
+      for (int i = predStart[w]; i < predStart[w + 1]; ++i) {
+        int v = preds[i];
+
+        // eval(v): The node with minimum semidominator on the path in the
+        // forest from v to the root of its tree, excluding the root.
+        int u = v;
+        if (ancestor[v] != -1) {
+          // Compress the path from v to the root of its tree.
+          int depth = 0;
+          for (int x = v; ancestor[ancestor[x]] != -1; x = ancestor[x]) {
+            if (depth == path.length) {
+              path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = x;
+          }
+          while (depth > 0) {
+            int y = path[--depth];
+            int a = ancestor[y];
+            if (semi[label[a]] < semi[label[y]]) {
+              label[y] = label[a];
+            }
+            ancestor[y] = ancestor[a];
+          }
+          u = label[v];
+        }
+
+        if (semi[u] < semi[w]) {
+          semi[w] = semi[u];
+        }
+      }
+
+      // link(parent[w], w)
+      ancestor[w] = parent[w];
+    }
+    progress.done();
+    preds = null;
+    predStart = null;
+    label = null;
+    ancestor = null;
+
+    // Compute immediate dominators as the nearest common ancestors in the
+    // dominator tree of each node's parent and semidominator. Processing
+    // nodes in depth first order ensures the dominators of all nodes on the
+    // path from parent[w] to the root have already been computed.
+    progress.start("Computing immediate dominators", size);
+    int[] idom = parent;
+    for (int w = 1; w < size; ++w) {
+      progress.advance();
+      while (idom[w] > semi[w]) {
+        idom[w] = idom[idom[w]];
+      }
+    }
+    progress.done();
+
+    // Notify the user of the results, in depth first order, which ensures
+    // the dominator of each node is notified before the node itself.
+    graph.setDominatorsComputationState(root, null);
+    for (int w = 1; w < size; ++w) {
+      Node node = node(w);
+      graph.setDominatorsComputationState(node, null);
+      graph.setDominator(node, node(idom[w]));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Node node(int v) {
+    return (Node)nodes[v];
+  }
+
+  /**
+   * Numbers the nodes reachable from the root in depth first order, recording
+   * the depth first spanning tree and all the edges seen.
+   */
+  private void search(Node root) {
+    progress.start("Numbering nodes for dominators", numNodes);
+
+    // The stack of edges to traverse, from node number stackSrc[i] to
+    // stackDst[i].
+    Object[] stackDst = new Object[16];
+    int[] stackSrc = new int[16];
+    int depth = 0;
+
+    number(root, -1);
+    for (Node child : graph.getReferencesForDominators(root)) {
+      if (depth == stackDst.length) {
+        stackDst = Arrays.copyOf(stackDst, depth * 2);
+        stackSrc = Arrays.copyOf(stackSrc, depth * 2);
+      }
+      stackDst[depth] = child;
+      stackSrc[depth++] = 0;
+    }
+
+    while (depth > 0) {
+      @SuppressWarnings("unchecked")
+      Node dst = (Node)stackDst[--depth];
+      stackDst[depth] = null;
+      int src = stackSrc[depth];
+
+      Integer dstNumber = (Integer)graph.getDominatorsComputationState(dst);
+      int v;
+      if (dstNumber == null) {
+        // We are seeing the destination node for the first time.
+        progress.advance();
+        v = number(dst, src);
+        for (Node child : graph.getReferencesForDominators(dst)) {
+          if (depth == stackDst.length) {
+            stackDst = Arrays.copyOf(stackDst, depth * 2);
+            stackSrc = Arrays.copyOf(stackSrc, depth * 2);
+          }
+          stackDst[depth] = child;
+          stackSrc[depth++] = v;
+        }
+      } else {
+        v = dstNumber;
+      }
+
+      if (numEdges == edgeSrc.length) {
+        edgeSrc = Arrays.copyOf(edgeSrc, numEdges * 2);
+        edgeDst = Arrays.copyOf(edgeDst, numEdges * 2);
+      }
+      edgeSrc[numEdges] = src;
+      edgeDst[numEdges++] = v;
+    }
+    progress.done();
+  }
+
+  /**
+   * Assigns the next depth first number to the given node.
+   */
+  private int number(Node node, int parentNumber) {
+    if (size == nodes.length) {
+      nodes = Arrays.copyOf(nodes, size * 2);
+      parent = Arrays.copyOf(parent, size * 2);
+    }
+    nodes[size] = node;
+    parent[size] = parentNumber;
+    graph.setDominatorsComputationState(node, size);
+    return size++;
+  }
+}
@@ -28,17 +28,14 @@ import java.util.List;
  * methods inherited from {@link AhatInstance}.
  */
 public class AhatArrayInstance extends AhatInstance {
-  // To save space, we store arrays as primitive arrays or AhatInstance arrays
-  // and provide a wrapper over the arrays to expose a list of Values.
-  // This is especially important for large byte arrays, such as bitmaps.
-  // We keep a separate pointer to the underlying array in the case of byte or
-  // char arrays because they are sometimes useful to have.
-  // TODO: Have different subtypes of AhatArrayInstance to avoid the overhead
-  // of these extra pointers and cost in getReferences when the array type is
-  // not relevant?
-  private List<Value> mValues;
-  private byte[] mByteArray;    // null if not a byte array.
-  private char[] mCharArray;    // null if not a char array.
+  // To save space, the elements of the array are not copied out of the heap
+  // dump. They are decoded on demand from the memory mapped heap dump
+  // instead. This is especially important for large byte arrays, such as
+  // bitmaps.
+  private HprofData mData;
+  private Type mElementType;
+  private int mLength;
+  private long mPosition;     // Position of the first element in the heap dump.
   private final int mRefSize;
 
   AhatArrayInstance(long id, int refSize) {
@@ -47,150 +44,67 @@ public class AhatArrayInstance extends AhatInstance {
   }
 
   /**
-   * Initialize the array elements for a primitive boolean array.
-   */
-  void initialize(final boolean[] bools) {
-    mValues = new AbstractList<Value>() {
-      @Override public int size() {
-        return bools.length;
-      }
-
-      @Override public Value get(int index) {
-        return Value.pack(bools[index]);
-      }
-    };
-  }
-
-  /**
-   * Initialize the array elements for a primitive char array.
+   * Initialize the array elements.
+   *
+   * @param data the heap dump the array elements are stored in
+   * @param elementType the type of the array elements
+   * @param length the number of elements in the array
+   * @param position the position of the first element in the heap dump
    */
-  void initialize(final char[] chars) {
-    mCharArray = chars;
-    mValues = new AbstractList<Value>() {
-      @Override public int size() {
-        return chars.length;
-      }
-
-      @Override public Value get(int index) {
-        return Value.pack(chars[index]);
-      }
-    };
+  void initialize(HprofData data, Type elementType, int length, long position) {
+    mData = data;
+    mElementType = elementType;
+    mLength = length;
+    mPosition = position;
   }
 
   /**
-   * Initialize the array elements for a primitive float array.
+   * Returns the position in the heap dump of the element with the given index.
    */
-  void initialize(final float[] floats) {
-    mValues = new AbstractList<Value>() {
-      @Override public int size() {
-        return floats.length;
-      }
-
-      @Override public Value get(int index) {
-        return Value.pack(floats[index]);
-      }
-    };
+  private long elementPosition(int index) {
+    return mPosition + (long)index * mElementType.size(mRefSize);
   }
 
   /**
-   * Initialize the array elements for a primitive double array.
+   * Returns the type of the elements of this array.
    */
-  void initialize(final double[] doubles) {
-    mValues = new AbstractList<Value>() {
-      @Override public int size() {
-        return doubles.length;
-      }
-
-      @Override public Value get(int index) {
-        return Value.pack(doubles[index]);
-      }
-    };
+  Type getElementType() {
+    return mElementType;
   }
 
   /**
-   * Initialize the array elements for a primitive byte array.
+   * Returns the number of bytes taken up by the elements of this array in
+   * the heap dump.
    */
-  void initialize(final byte[] bytes) {
-    mByteArray = bytes;
-    mValues = new AbstractList<Value>() {
-      @Override public int size() {
-        return bytes.length;
-      }
-
-      @Override public Value get(int index) {
-        return Value.pack(bytes[index]);
-      }
-    };
+  private long getContentLength() {
+    return (long)mElementType.size(mRefSize) * mLength;
   }
 
   /**
-   * Initialize the array elements for a primitive short array.
+   * Returns a hash of the raw contents of this array, computed directly from
+   * the heap dump without decoding the elements.
    */
-  void initialize(final short[] shorts) {
-    mValues = new AbstractList<Value>() {
-      @Override public int size() {
-        return shorts.length;
-      }
-
-      @Override public Value get(int index) {
-        return Value.pack(shorts[index]);
-      }
-    };
+  long contentHash() {
+    return mData.hash(mPosition, getContentLength());
   }
 
   /**
-   * Initialize the array elements for a primitive int array.
+   * Returns true if this array has the same element type and the same raw
+   * contents as the other array.
    */
-  void initialize(final int[] ints) {
-    mValues = new AbstractList<Value>() {
-      @Override public int size() {
-        return ints.length;
-      }
-
-      @Override public Value get(int index) {
-        return Value.pack(ints[index]);
-      }
-    };
-  }
-
-  /**
-   * Initialize the array elements for a primitive long array.
-   */
-  void initialize(final long[] longs) {
-    mValues = new AbstractList<Value>() {
-      @Override public int size() {
-        return longs.length;
-      }
-
-      @Override public Value get(int index) {
-        return Value.pack(longs[index]);
-      }
-    };
-  }
-
-  /**
-   * Initialize the array elements for an instance array.
-   */
-  void initialize(final AhatInstance[] insts) {
-    mValues = new AbstractList<Value>() {
-      @Override public int size() {
-        return insts.length;
-      }
-
-      @Override public Value get(int index) {
-        return Value.pack(insts[index]);
-      }
-    };
+  boolean contentEquals(AhatArrayInstance other) {
+    return mElementType == other.mElementType
+      && mLength == other.mLength
+      && mData.equals(mPosition, other.mPosition, getContentLength());
   }
 
   @Override
   long getExtraJavaSize() {
-    int length = getLength();
-    if (length == 0) {
+    if (mLength == 0) {
       return 0;
     }
 
-    return Value.getType(mValues.get(0)).size(mRefSize) * getLength();
+    return (long)mElementType.size(mRefSize) * mLength;
   }
 
   /**
@@ -199,7 +113,7 @@ public class AhatArrayInstance extends AhatInstance {
    * @return number of elements in the array.
    */
   public int getLength() {
-    return mValues.size();
+    return mLength;
   }
 
   /**
@@ -209,7 +123,15 @@ public class AhatArrayInstance extends AhatInstance {
    * @return list of the array's elements.
    */
   public List<Value> getValues() {
-    return mValues;
+    return new AbstractList<Value>() {
+      @Override public int size() {
+        return mLength;
+      }
+
+      @Override public Value get(int index) {
+        return getValue(index);
+      }
+    };
   }
 
   /**
@@ -220,41 +142,63 @@ public class AhatArrayInstance extends AhatInstance {
    * @throws IndexOutOfBoundsException if the index is out of range
    */
   public Value getValue(int index) {
-    return mValues.get(index);
+    if (index < 0 || index >= mLength) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + mLength);
+    }
+    return mData.getValue(mElementType, elementPosition(index));
   }
 
   @Override
   Iterable<Reference> getReferences() {
     // The list of references will be empty if this is a primitive array.
     List<Reference> refs = Collections.emptyList();
-    if (!mValues.isEmpty()) {
-      Value first = mValues.get(0);
-      if (first == null || first.isAhatInstance()) {
-        refs = new AbstractList<Reference>() {
-          @Override
-          public int size() {
-            return mValues.size();
-          }
+    if (mElementType == Type.OBJECT) {
+      refs = new AbstractList<Reference>() {
+        @Override
+        public int size() {
+          return mLength;
+        }
 
-          @Override
-          public Reference get(int index) {
-            Value value = mValues.get(index);
-            if (value != null) {
-              assert value.isAhatInstance();
-              String field = "[" + Integer.toString(index) + "]";
-              return new Reference(AhatArrayInstance.this,
-                                   field,
-                                   value.asAhatInstance(),
-                                   Reachability.STRONG);
-            }
-            return null;
+        @Override
+        public Reference get(int index) {
+          AhatInstance ref = mData.getInstance(elementPosition(index));
+          if (ref != null) {
+            String field = "[" + Integer.toString(index) + "]";
+            return new Reference(AhatArrayInstance.this, field, ref, Reachability.STRONG);
           }
-        };
-      }
+          return null;
+        }
+      };
     }
     return new SkipNullsIterator(refs);
   }
 
+  @Override
+  String getReferenceField(AhatInstance ref, Reachability reachability) {
+    // Compare ids directly to avoid allocating a Reference for each element
+    // of large arrays.
+    if (mElementType == Type.OBJECT) {
+      for (int i = 0; i < mLength; ++i) {
+        if (mData.getId(elementPosition(i)) == ref.getId()) {
+          return "[" + Integer.toString(i) + "]";
+        }
+      }
+    }
+    return "";
+  }
+
+  @Override
+  void visitReferences(ReferenceVisitor visitor) {
+    if (mElementType == Type.OBJECT) {
+      for (int i = 0; i < mLength; ++i) {
+        AhatInstance ref = mData.getInstance(elementPosition(i));
+        if (ref != null) {
+          visitor.visit(ref, Reachability.STRONG);
+        }
+      }
+    }
+  }
+
   @Override public boolean isArrayInstance() {
     return true;
   }
@@ -272,21 +216,25 @@ public class AhatArrayInstance extends AhatInstance {
    * Only char arrays are considered as having an associated String value.
    */
   String asString(int offset, int count, int maxChars) {
-    if (mCharArray == null) {
+    if (mElementType != Type.CHAR) {
       return null;
     }
 
     if (count == 0) {
       return "";
     }
-    int numChars = mCharArray.length;
+    int numChars = mLength;
     if (0 <= maxChars && maxChars < count) {
       count = maxChars;
     }
 
     int end = offset + count - 1;
     if (offset >= 0 && offset < numChars && end >= 0 && end < numChars) {
-      return new String(mCharArray, offset, count);
+      char[] chars = new char[count];
+      for (int i = 0; i < count; ++i) {
+        chars[i] = mData.getChar(elementPosition(offset + i));
+      }
+      return new String(chars);
     }
     return null;
   }
@@ -296,21 +244,23 @@ public class AhatArrayInstance extends AhatInstance {
    * Only byte arrays are considered as having an associated ascii String value.
    */
   String asAsciiString(int offset, int count, int maxChars) {
-    if (mByteArray == null) {
+    if (mElementType != Type.BYTE) {
       return null;
     }
 
     if (count == 0) {
       return "";
     }
-    int numChars = mByteArray.length;
+    int numChars = mLength;
     if (0 <= maxChars && maxChars < count) {
       count = maxChars;
     }
 
     int end = offset + count - 1;
     if (offset >= 0 && offset < numChars && end >= 0 && end < numChars) {
-      return new String(mByteArray, offset, count, StandardCharsets.US_ASCII);
+      byte[] bytes = new byte[count];
+      mData.getBytes(elementPosition(offset), bytes);
+      return new String(bytes, StandardCharsets.US_ASCII);
     }
     return null;
   }
@@ -328,7 +278,7 @@ public class AhatArrayInstance extends AhatInstance {
   }
 
   @Override public AhatInstance getAssociatedBitmapInstance() {
-    if (mByteArray != null) {
+    if (mElementType == Type.BYTE) {
       List<AhatInstance> refs = getReverseReferences();
       if (refs.size() == 1) {
         AhatInstance ref = refs.get(0);
@@ -339,7 +289,7 @@ public class AhatArrayInstance extends AhatInstance {
   }
 
   @Override public AhatClassObj getAssociatedClassForOverhead() {
-    if (mByteArray != null) {
+    if (mElementType == Type.BYTE) {
       List<AhatInstance> refs = getHardReverseReferences();
       if (refs.size() == 1) {
         AhatClassObj ref = refs.get(0).asClassObj();
@@ -363,10 +313,15 @@ public class AhatArrayInstance extends AhatInstance {
     if (className.endsWith("[]")) {
       className = className.substring(0, className.length() - 2);
     }
-    return String.format("%s[%d]@%08x", className, mValues.size(), getId());
+    return String.format("%s[%d]@%08x", className, mLength, getId());
   }
 
   byte[] asByteArray() {
-    return mByteArray;
+    if (mElementType != Type.BYTE) {
+      return null;
+    }
+    byte[] bytes = new byte[mLength];
+    mData.getBytes(mPosition, bytes);
+    return bytes;
   }
 }
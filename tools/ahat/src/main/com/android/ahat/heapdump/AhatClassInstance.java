@@ -30,18 +30,21 @@ import java.util.NoSuchElementException;
  * object in addition to those methods inherited from {@link AhatInstance}.
  */
 public class AhatClassInstance extends AhatInstance {
-  // Instance fields of the object. These are stored in order of the instance
-  // field descriptors from the class object, starting with this class first,
-  // followed by the super class, and so on. We store the values separate from
-  // the field types and names to save memory.
-  private Value[] mFields;
+  // Instance fields of the object. To save memory, the field values are not
+  // copied out of the heap dump. They are decoded on demand from the memory
+  // mapped heap dump instead, starting at mPosition. The values are stored in
+  // order of the instance field descriptors from the class object, starting
+  // with this class first, followed by the super class, and so on.
+  private HprofData mData;
+  private long mPosition;
 
   AhatClassInstance(long id) {
     super(id);
   }
 
-  void initialize(Value[] fields) {
-    mFields = fields;
+  void initialize(HprofData data, long position) {
+    mData = data;
+    mPosition = position;
   }
 
   @Override
@@ -50,17 +53,41 @@ public class AhatClassInstance extends AhatInstance {
   }
 
   @Override public Value getField(String fieldName) {
-    for (FieldValue field : getInstanceFields()) {
-      if (fieldName.equals(field.name)) {
-        return field.value;
+    // Only decode the value of the requested field.
+    long position = mPosition;
+    for (AhatClassObj cls = getClassObj(); cls != null; cls = cls.getSuperClassObj()) {
+      for (Field field : cls.getInstanceFields()) {
+        if (fieldName.equals(field.name)) {
+          return mData.getValue(field.type, position);
+        }
+        position += field.type.size(mData.getIdSize());
       }
     }
     return null;
   }
 
+  /**
+   * Returns the position in the heap dump of the value of the first field
+   * with the given name, or -1 if there is no such field or the field does
+   * not have the given type. Used to read primitive and reference field
+   * values without packing them into a Value.
+   */
+  private long getFieldPosition(String fieldName, Type type) {
+    long position = mPosition;
+    for (AhatClassObj cls = getClassObj(); cls != null; cls = cls.getSuperClassObj()) {
+      for (Field field : cls.getInstanceFields()) {
+        if (fieldName.equals(field.name)) {
+          return field.type == type ? position : -1;
+        }
+        position += field.type.size(mData.getIdSize());
+      }
+    }
+    return -1;
+  }
+
   @Override public AhatInstance getRefField(String fieldName) {
-    Value value = getField(fieldName);
-    return value == null ? null : value.asAhatInstance();
+    long position = getFieldPosition(fieldName, Type.OBJECT);
+    return position < 0 ? null : mData.getInstance(position);
   }
 
   /**
@@ -70,11 +97,8 @@ public class AhatClassInstance extends AhatInstance {
    * read.
    */
   private Integer getIntField(String fieldName, Integer def) {
-    Value value = getField(fieldName);
-    if (value == null || !value.isInteger()) {
-      return def;
-    }
-    return value.asInteger();
+    long position = getFieldPosition(fieldName, Type.INT);
+    return position < 0 ? def : Integer.valueOf(mData.getInt(position));
   }
 
   /**
@@ -84,11 +108,8 @@ public class AhatClassInstance extends AhatInstance {
    * be read.
    */
   private Long getLongField(String fieldName, Long def) {
-    Value value = getField(fieldName);
-    if (value == null || !value.isLong()) {
-      return def;
-    }
-    return value.asLong();
+    long position = getFieldPosition(fieldName, Type.LONG);
+    return position < 0 ? def : Long.valueOf(mData.getLong(position));
   }
 
   /**
@@ -99,7 +120,7 @@ public class AhatClassInstance extends AhatInstance {
    * @return Iterable over the instance field values.
    */
   public Iterable<FieldValue> getInstanceFields() {
-    return new InstanceFieldIterator(mFields, getClassObj());
+    return new InstanceFieldIterator(mData, mPosition, getClassObj());
   }
 
   @Override
@@ -107,6 +128,29 @@ public class AhatClassInstance extends AhatInstance {
     return new ReferenceIterator();
   }
 
+  @Override
+  void visitReferences(ReferenceVisitor visitor) {
+    // Visit the fields in the same order as InstanceFieldIterator, without
+    // allocating a FieldValue or Value for each field.
+    Reachability javaLangRefType = getJavaLangRefType();
+    long position = mPosition;
+    for (AhatClassObj cls = getClassObj(); cls != null; cls = cls.getSuperClassObj()) {
+      for (Field field : cls.getInstanceFields()) {
+        if (field.type == Type.OBJECT) {
+          AhatInstance ref = mData.getInstance(position);
+          if (ref != null) {
+            Reachability reachability = Reachability.STRONG;
+            if (javaLangRefType != Reachability.STRONG && "referent".equals(field.name)) {
+              reachability = javaLangRefType;
+            }
+            visitor.visit(ref, reachability);
+          }
+        }
+        position += field.type.size(mData.getIdSize());
+      }
+    }
+  }
+
   @Override public String asString(int maxChars) {
     if (!isInstanceOfClass("java.lang.String")) {
       return null;
@@ -348,10 +392,11 @@ public class AhatClassInstance extends AhatInstance {
 
   private static class InstanceFieldIterator implements Iterable<FieldValue>,
                                                         Iterator<FieldValue> {
-    // The complete list of instance field values to iterate over, including
-    // superclass field values.
-    private Value[] mValues;
-    private int mValueIndex;
+    // The heap dump holding the instance field values to iterate over,
+    // including superclass field values, and the position of the next field
+    // value in the heap dump.
+    private HprofData mData;
+    private long mPosition;
 
     // The list of field descriptors specific to the current class in the
     // class hierarchy, not including superclass field descriptors.
@@ -361,10 +406,10 @@ public class AhatClassInstance extends AhatInstance {
     private int mFieldIndex;
     private AhatClassObj mNextClassObj;
 
-    public InstanceFieldIterator(Value[] values, AhatClassObj classObj) {
-      mValues = values;
+    public InstanceFieldIterator(HprofData data, long position, AhatClassObj classObj) {
+      mData = data;
+      mPosition = position;
       mFields = classObj.getInstanceFields();
-      mValueIndex = 0;
       mFieldIndex = 0;
       mNextClassObj = classObj.getSuperClassObj();
     }
@@ -388,7 +433,8 @@ public class AhatClassInstance extends AhatInstance {
         throw new NoSuchElementException();
       }
       Field field = mFields[mFieldIndex++];
-      Value value = mValues[mValueIndex++];
+      Value value = mData.getValue(field.type, mPosition);
+      mPosition += field.type.size(mData.getIdSize());
       return new FieldValue(field.name, field.type, value);
     }
 
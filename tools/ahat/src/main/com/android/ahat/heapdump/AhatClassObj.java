@@ -142,6 +142,16 @@ public class AhatClassObj extends AhatInstance {
     return new SkipNullsIterator(refs);
   }
 
+  @Override
+  void visitReferences(ReferenceVisitor visitor) {
+    for (FieldValue field : mStaticFieldValues) {
+      Value value = field.value;
+      if (value != null && value.isAhatInstance()) {
+        visitor.visit(value.asAhatInstance(), Reachability.STRONG);
+      }
+    }
+  }
+
   @Override public boolean isClassObj() {
     return true;
   }
@@ -23,9 +23,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
-import java.util.EnumMap;
 import java.util.List;
-import java.util.Queue;
 
 /**
  * A Java instance from a parsed heap dump. It is the base class used for all
@@ -47,18 +45,25 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
   // Field initialized via addRegisterednativeSize.
   private long mRegisteredNativeSize = 0;
 
-  // Fields initialized in computeReachability().
+  // Fields initialized in ReferenceGraph.computeReachability().
   private Reachability mReachability = Reachability.UNREACHABLE;
   private AhatInstance mNextInstanceToGcRoot;
-  private String mNextInstanceToGcRootField;
-  private ArrayList<AhatInstance> mReverseReferences;
+  private ReferenceGraph mReferenceGraph;
 
   // Fields initialized in DominatorsComputation.computeDominators().
   // mDominated - the list of instances immediately dominated by this instance.
-  // mRetainedSizes - retained size indexed by heap index.
+  // mRetainedSizes - retained size indexed by heap index. The java size for
+  //   the heap with index i is stored at 2*i and the registered native size
+  //   at 2*i+1. Size objects are only created when a retained size is asked
+  //   for.
+  //
+  // Most instances don't dominate any other instances. To keep the memory
+  // footprint per instance small, mDominated is left null for those
+  // instances, and mRetainedSizes is left null because their retained size
+  // is just their own shallow size.
   private AhatInstance mImmediateDominator;
-  private List<AhatInstance> mDominated = new ArrayList<AhatInstance>();
-  private Size[] mRetainedSizes;
+  private List<AhatInstance> mDominated;
+  private long[] mRetainedSizes;
 
   // The baseline instance for purposes of diff.
   private AhatInstance mBaseline;
@@ -83,6 +88,14 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
     mClassObj = classObj;
   }
 
+  /**
+   * Sets the heap this instance is allocated on, for instances whose heap
+   * was not known when they were initialized.
+   */
+  void setHeap(AhatHeap heap) {
+    mHeap = heap;
+  }
+
   /**
    * Returns a unique identifier for this instance.
    *
@@ -100,7 +113,23 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the shallow size of the object
    */
   public Size getSize() {
-    return new Size(mClassObj.getInstanceSize() + getExtraJavaSize(), mRegisteredNativeSize);
+    return new Size(getJavaSize(), mRegisteredNativeSize);
+  }
+
+  /**
+   * Returns the shallow size of this object on the Java heap, without
+   * allocating a Size object.
+   */
+  long getJavaSize() {
+    return mClassObj.getInstanceSize() + getExtraJavaSize();
+  }
+
+  /**
+   * Returns the registered native size of this object, without allocating a
+   * Size object.
+   */
+  long getRegisteredNativeSize() {
+    return mRegisteredNativeSize;
   }
 
   /**
@@ -123,13 +152,65 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the retained size of the object
    */
   public Size getRetainedSize(AhatHeap heap) {
-    int index = heap.getIndex();
-    if (mRetainedSizes != null && 0 <= index && index < mRetainedSizes.length) {
-      return mRetainedSizes[heap.getIndex()];
+    return getRetainedSize(heap.getIndex());
+  }
+
+  /**
+   * Returns the number of bytes retained by this object in the heap with the
+   * given index.
+   */
+  private Size getRetainedSize(int index) {
+    if (mRetainedSizes != null) {
+      if (0 <= index && 2 * index < mRetainedSizes.length) {
+        return new Size(mRetainedSizes[2 * index], mRetainedSizes[2 * index + 1]);
+      }
+      return Size.ZERO;
+    }
+
+    // Instances in the dominator tree without retained sizes computed don't
+    // dominate any other instances, so their retained size is their shallow
+    // size.
+    if (mImmediateDominator != null && mHeap.getIndex() == index) {
+      return getSize();
     }
     return Size.ZERO;
   }
 
+  /**
+   * Returns the total number of bytes, java and registered native, retained
+   * by this object in the heap with the given index. This is the same as
+   * getRetainedSize(heap).getSize(), without allocating a Size object.
+   */
+  long getRetainedSizeBytes(int index) {
+    if (mRetainedSizes != null) {
+      if (0 <= index && 2 * index < mRetainedSizes.length) {
+        return mRetainedSizes[2 * index] + mRetainedSizes[2 * index + 1];
+      }
+      return 0;
+    }
+    if (mImmediateDominator != null && mHeap.getIndex() == index) {
+      return getJavaSize() + mRegisteredNativeSize;
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the total number of bytes retained by this object. This is the
+   * same as getTotalRetainedSize().getSize(), without allocating a Size
+   * object.
+   */
+  long getTotalRetainedSizeBytes() {
+    long size = 0;
+    if (mRetainedSizes != null) {
+      for (long s : mRetainedSizes) {
+        size += s;
+      }
+    } else if (mImmediateDominator != null) {
+      size = getJavaSize() + mRegisteredNativeSize;
+    }
+    return size;
+  }
+
   /**
    * Returns the total number of bytes retained by this object. The returned
    * size includes the shallow size of this object and the size of all objects
@@ -138,13 +219,18 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the total retained size of the object
    */
   public Size getTotalRetainedSize() {
-    Size size = Size.ZERO;
     if (mRetainedSizes != null) {
-      for (int i = 0; i < mRetainedSizes.length; i++) {
-        size = size.plus(mRetainedSizes[i]);
+      long javaSize = 0;
+      long nativeSize = 0;
+      for (int i = 0; i < mRetainedSizes.length; i += 2) {
+        javaSize += mRetainedSizes[i];
+        nativeSize += mRetainedSizes[i + 1];
       }
+      return new Size(javaSize, nativeSize);
+    } else if (mImmediateDominator != null) {
+      return getSize();
     }
-    return size;
+    return Size.ZERO;
   }
 
   /**
@@ -221,6 +307,21 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    */
   abstract Iterable<Reference> getReferences();
 
+  /**
+   * Calls the visitor for each reference this AhatInstance has to other
+   * AhatInstances, without allocating a Reference for each of them. The
+   * references are visited in the same order as getReferences() returns
+   * them.
+   */
+  abstract void visitReferences(ReferenceVisitor visitor);
+
+  /**
+   * Interface for visiting the references of an AhatInstance.
+   */
+  interface ReferenceVisitor {
+    void visit(AhatInstance ref, Reachability reachability);
+  }
+
   /**
    * Returns true if this instance is a GC root.
    *
@@ -271,11 +372,35 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
   }
 
   /**
-   * Returns a list of objects immediately dominated by this instance.
+   * Returns true if this instance is retained, meaning it is part of the
+   * dominator tree of the snapshot, including roots.
+   */
+  boolean isRetained() {
+    return mImmediateDominator != null;
+  }
+
+  /**
+   * Returns an unmodifiable list of objects immediately dominated by this
+   * instance.
    *
    * @return list of immediately dominated objects
    */
   public List<AhatInstance> getDominated() {
+    if (mDominated != null) {
+      return Collections.unmodifiableList(mDominated);
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Returns a modifiable list of objects immediately dominated by this
+   * instance, allocating the list if necessary. This is used by diff to add
+   * placeholder instances to the list.
+   */
+  List<AhatInstance> getModifiableDominated() {
+    if (mDominated == null) {
+      mDominated = new ArrayList<AhatInstance>();
+    }
     return mDominated;
   }
 
@@ -410,8 +535,8 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the objects referencing this object
    */
   public List<AhatInstance> getReverseReferences() {
-    if (mReverseReferences != null) {
-      return mReverseReferences;
+    if (mReferenceGraph != null) {
+      return mReferenceGraph.getReverseReferences(this);
     }
     return Collections.emptyList();
   }
@@ -424,13 +549,10 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the objects referencing this object
    */
   @Deprecated public List<AhatInstance> getHardReverseReferences() {
-    List<AhatInstance> refs = new ArrayList<AhatInstance>();
-    for (AhatInstance ref : getReverseReferences()) {
-      if (ref.getReachability() == Reachability.STRONG && ref.getReferent() != this) {
-        refs.add(ref);
-      }
+    if (mReferenceGraph != null) {
+      return mReferenceGraph.getReverseReferences(this, true);
     }
-    return refs;
+    return new ArrayList<AhatInstance>();
   }
 
   /**
@@ -442,13 +564,10 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
    * @return the objects weakly referencing this object
    */
   @Deprecated public List<AhatInstance> getSoftReverseReferences() {
-    List<AhatInstance> refs = new ArrayList<AhatInstance>();
-    for (AhatInstance ref : getReverseReferences()) {
-      if (ref.getReachability() != Reachability.STRONG || ref.getReferent() == this) {
-        refs.add(ref);
-      }
+    if (mReferenceGraph != null) {
+      return mReferenceGraph.getReverseReferences(this, false);
     }
-    return refs;
+    return new ArrayList<AhatInstance>();
   }
 
   /**
@@ -641,6 +760,27 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
     return path;
   }
 
+  /**
+   * Returns up to k shortest paths from GC roots to this instance, each from
+   * a different GC root, shortest first. Each path has the same form as the
+   * path returned by {@link #getPathFromGcRoot}, and is at least as strong
+   * as this instance's reachability. Returns an empty list if this instance
+   * is not reachable.
+   * <p>
+   * The paths are found by searching backwards from this instance, which
+   * usually visits only a small part of the heap.
+   *
+   * @param k the maximum number of paths to return
+   * @return shortest paths from GC roots to this instance
+   * @see PathElement
+   */
+  public List<List<PathElement>> getPathsFromGcRoots(int k) {
+    if (mReferenceGraph != null) {
+      return mReferenceGraph.getPathsFromGcRoots(this, k);
+    }
+    return Collections.emptyList();
+  }
+
   /**
    * Returns the next instance to GC root from this object and a string
    * description of which field of that object refers to the given instance.
@@ -650,7 +790,27 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
     if (inst.isRoot()) {
       return null;
     }
-    return new PathElement(inst.mNextInstanceToGcRoot, inst.mNextInstanceToGcRootField);
+    // To save memory, the field is not recorded when computing
+    // reachability. Instead it is recovered as the first reference from
+    // mNextInstanceToGcRoot to this instance that is at least as strong as
+    // this instance's reachability, which is the reference the breadth first
+    // search in computeReachability reached this instance through.
+    AhatInstance next = inst.mNextInstanceToGcRoot;
+    return new PathElement(next, next.getReferenceField(inst, inst.mReachability));
+  }
+
+  /**
+   * Returns a description of the field of this instance holding the first
+   * reference to the given instance that is at least as strong as the given
+   * reachability. Returns an empty string if there is no such reference.
+   */
+  String getReferenceField(AhatInstance ref, Reachability reachability) {
+    for (Reference reference : getReferences()) {
+      if (reference.ref == ref && reference.reachability.notWeakerThan(reachability)) {
+        return reference.field;
+      }
+    }
+    return "";
   }
 
   /**
@@ -701,61 +861,17 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
   }
 
   /**
-   * Determine the reachability of the all instances reachable from the given
-   * root instance. Initializes the following fields:
-   *   mReachability
-   *   mNextInstanceToGcRoot
-   *   mNextInstanceToGcRootField
-   *   mReverseReferences
+   * Records the reachability of this instance, as determined by
+   * ReferenceGraph.computeReachability().
    *
-   * @param progress used to track progress of the traversal.
-   * @param numInsts upper bound on the total number of instances reachable
-   *                 from the root, solely used for the purposes of tracking
-   *                 progress.
+   * @param reachability the reachability of this instance
+   * @param next the next instance on a path from this instance to a gc root
+   * @param graph the graph holding the reverse references of this instance
    */
-  static void computeReachability(SuperRoot root, Progress progress, long numInsts) {
-    // Start by doing a breadth first search through strong references.
-    // Then continue the breadth first through each weaker kind of reference.
-    progress.start("Computing reachability", numInsts);
-    EnumMap<Reachability, Queue<Reference>> queues = new EnumMap<>(Reachability.class);
-    for (Reachability reachability : Reachability.values()) {
-      queues.put(reachability, new ArrayDeque<Reference>());
-    }
-
-    for (Reference ref : root.getReferences()) {
-      queues.get(Reachability.STRONG).add(ref);
-    }
-
-    for (Reachability reachability : Reachability.values()) {
-      Queue<Reference> queue = queues.get(reachability);
-      while (!queue.isEmpty()) {
-        Reference ref = queue.poll();
-        if (ref.ref.mReachability == Reachability.UNREACHABLE) {
-          // This is the first time we have seen ref.ref.
-          progress.advance();
-          ref.ref.mReachability = reachability;
-          ref.ref.mNextInstanceToGcRoot = ref.src;
-          ref.ref.mNextInstanceToGcRootField = ref.field;
-          ref.ref.mReverseReferences = new ArrayList<AhatInstance>();
-
-          for (Reference childRef : ref.ref.getReferences()) {
-            if (childRef.reachability.notWeakerThan(reachability)) {
-              queue.add(childRef);
-            } else {
-              queues.get(childRef.reachability).add(childRef);
-            }
-          }
-        }
-
-        // Note: We specifically exclude 'root' from the reverse references
-        // because it is a fake SuperRoot instance not present in the original
-        // heap dump.
-        if (ref.src != root) {
-          ref.ref.mReverseReferences.add(ref.src);
-        }
-      }
-    }
-    progress.done();
+  void setReachability(Reachability reachability, AhatInstance next, ReferenceGraph graph) {
+    mReachability = reachability;
+    mNextInstanceToGcRoot = next;
+    mReferenceGraph = graph;
   }
 
   /**
@@ -767,42 +883,50 @@ public abstract class AhatInstance implements Diffable<AhatInstance> {
     // stack overflow. Use an iterative implementation instead.
     //
     // Objects not yet processed will have mRetainedSizes set to null.
-    // Once prepared, an object will have mRetaiedSizes set to an array of 0
-    // sizes.
+    // Once prepared, an object will have mRetainedSizes set to an array
+    // holding its own shallow size. Objects that don't dominate any other
+    // objects are skipped entirely, because their retained size is their
+    // shallow size.
     Deque<AhatInstance> deque = new ArrayDeque<AhatInstance>();
     deque.push(inst);
 
     while (!deque.isEmpty()) {
       inst = deque.pop();
+      if (inst.mDominated == null) {
+        continue;
+      }
+
       if (inst.mRetainedSizes == null) {
-        inst.mRetainedSizes = new Size[numHeaps];
-        for (int i = 0; i < numHeaps; i++) {
-          inst.mRetainedSizes[i] = Size.ZERO;
-        }
+        inst.mRetainedSizes = new long[2 * numHeaps];
         if (!(inst instanceof SuperRoot)) {
-          inst.mRetainedSizes[inst.mHeap.getIndex()] =
-            inst.mRetainedSizes[inst.mHeap.getIndex()].plus(inst.getSize());
+          inst.mRetainedSizes[2 * inst.mHeap.getIndex()] += inst.getJavaSize();
+          inst.mRetainedSizes[2 * inst.mHeap.getIndex() + 1] += inst.mRegisteredNativeSize;
         }
         deque.push(inst);
         for (AhatInstance dominated : inst.mDominated) {
           deque.push(dominated);
         }
       } else {
+        long[] sizes = inst.mRetainedSizes;
         for (AhatInstance dominated : inst.mDominated) {
-          for (int i = 0; i < numHeaps; i++) {
-            inst.mRetainedSizes[i] = inst.mRetainedSizes[i].plus(dominated.mRetainedSizes[i]);
+          if (dominated.mRetainedSizes != null) {
+            for (int i = 0; i < sizes.length; i++) {
+              sizes[i] += dominated.mRetainedSizes[i];
+            }
+          } else {
+            // The dominated instance doesn't dominate anything itself, so
+            // its retained size is its shallow size.
+            int index = 2 * dominated.mHeap.getIndex();
+            sizes[index] += dominated.getJavaSize();
+            sizes[index + 1] += dominated.mRegisteredNativeSize;
           }
         }
       }
     }
   }
 
-  Iterable<AhatInstance> getReferencesForDominators(Reachability retained) {
-    return new DominatorReferenceIterator(retained, getReferences());
-  }
-
   void setDominator(AhatInstance dominator) {
     mImmediateDominator = dominator;
-    mImmediateDominator.mDominated.add(this);
+    mImmediateDominator.getModifiableDominated().add(this);
   }
 }
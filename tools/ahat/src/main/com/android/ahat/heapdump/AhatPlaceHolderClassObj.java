@@ -33,6 +33,10 @@ class AhatPlaceHolderClassObj extends AhatClassObj {
     return Size.ZERO;
   }
 
+  @Override long getJavaSize() {
+    return 0;
+  }
+
   @Override public Size getRetainedSize(AhatHeap heap) {
     return Size.ZERO;
   }
@@ -36,6 +36,10 @@ class AhatPlaceHolderInstance extends AhatInstance {
     return Size.ZERO;
   }
 
+  @Override long getJavaSize() {
+    return 0;
+  }
+
   @Override long getExtraJavaSize() {
     return 0;
   }
@@ -73,4 +77,8 @@ class AhatPlaceHolderInstance extends AhatInstance {
     List<Reference> refs = Collections.emptyList();
     return refs;
   }
+
+  @Override
+  void visitReferences(ReferenceVisitor visitor) {
+  }
 }
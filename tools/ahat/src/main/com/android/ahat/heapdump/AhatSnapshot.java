@@ -18,7 +18,11 @@ package com.android.ahat.heapdump;
 
 import com.android.ahat.dominators.Dominators;
 import com.android.ahat.progress.Progress;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * A parsed heap dump.
@@ -33,8 +37,17 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
   // List of all ahat instances.
   private final Instances<AhatInstance> mInstances;
 
+  // The references between instances, used for retention queries.
+  private final ReferenceGraph mReferenceGraph;
+
   private List<AhatHeap> mHeaps;
 
+  // Index of the instances allocated in the site tree by class.
+  private InstanceIndex mInstanceIndex;
+
+  // Duplicate primitive arrays, computed the first time they are asked for.
+  private Duplicates mDuplicates;
+
   private AhatSnapshot mBaseline = this;
 
   AhatSnapshot(SuperRoot root,
@@ -42,15 +55,22 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
                List<AhatHeap> heaps,
                Site rootSite,
                Progress progress,
-               Reachability retained) {
+               Reachability retained,
+               Dominators.Algorithm algorithm,
+               DominatorCache cache) {
     mSuperRoot = root;
     mInstances = instances;
     mHeaps = heaps;
     mRootSite = rootSite;
 
-    AhatInstance.computeReachability(mSuperRoot, progress, mInstances.size());
+    ReferenceGraph graph = new ReferenceGraph(mInstances, progress);
+    graph.computeReachability(mSuperRoot, progress);
+    mReferenceGraph = graph;
 
+    progress.start("Adding instances to sites", mInstances.size());
     for (AhatInstance inst : mInstances) {
+      progress.advance();
+
       // Add this instance to its site.
       inst.getSite().addInstance(inst);
 
@@ -64,6 +84,71 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
         mSuperRoot.addRoot(inst);
       }
     }
+    progress.done();
+    graph.setRoots(mSuperRoot, retained);
+
+    int[] dominators = cache == null ? null : cache.readDominators(mInstances.size());
+    if (dominators != null) {
+      progress.start("Loading dominators from cache", dominators.length / 2);
+      for (int i = 0; i < dominators.length; i += 2) {
+        progress.advance();
+        getInstanceAt(dominators[i]).setDominator(getInstanceAt(dominators[i + 1]));
+      }
+      progress.done();
+    } else {
+      computeDominators(graph, progress, retained, algorithm, cache);
+    }
+
+    // Retained sizes and sites are computed in a single pass each, so their
+    // progress is only reported when they start and finish.
+    progress.start("Computing retained sizes", 1);
+    AhatInstance.computeRetainedSize(mSuperRoot, mHeaps.size());
+    for (AhatHeap heap : mHeaps) {
+      heap.addToSize(mSuperRoot.getRetainedSize(heap));
+    }
+    progress.done();
+
+    progress.start("Preparing allocation sites", 1);
+    mRootSite.prepareForUse(0, mHeaps.size(), retained);
+    mInstanceIndex = new InstanceIndex(mRootSite);
+    progress.done();
+  }
+
+  /**
+   * Rebuilds the index of instances allocated in the site tree. This must be
+   * called after instances are added to sites, as when placeholders are
+   * added to sites during diff.
+   */
+  void updateInstanceIndex() {
+    mInstanceIndex = new InstanceIndex(mRootSite);
+  }
+
+  /**
+   * Returns all the instances of this snapshot.
+   */
+  Instances<AhatInstance> getInstances() {
+    return mInstances;
+  }
+
+  /**
+   * Returns the instance with the given index as recorded in a
+   * DominatorCache.
+   */
+  private AhatInstance getInstanceAt(int index) {
+    return index == DominatorCache.SUPER_ROOT ? mSuperRoot : mInstances.getAt(index);
+  }
+
+  /**
+   * Computes the dominators of all instances, saving them to the given cache
+   * if it is not null.
+   */
+  private void computeDominators(ReferenceGraph referenceGraph,
+      Progress progress, Reachability retained,
+      Dominators.Algorithm algorithm, DominatorCache cache) {
+    // Record the dominators in the order they are computed, so the same
+    // dominated lists can be reconstructed from the cache.
+    final int[] dominators = cache == null ? null : new int[2 * mInstances.size()];
+    final int[] numPairs = new int[1];
 
     Dominators.Graph<AhatInstance> graph = new Dominators.Graph<AhatInstance>() {
       @Override
@@ -78,23 +163,30 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
 
       @Override
       public Iterable<AhatInstance> getReferencesForDominators(AhatInstance node) {
-        return node.getReferencesForDominators(retained);
+        if (node == mSuperRoot) {
+          return mSuperRoot.getRoots();
+        }
+        return referenceGraph.getReferencesForDominators(node, retained);
       }
 
       @Override
       public void setDominator(AhatInstance node, AhatInstance dominator) {
         node.setDominator(dominator);
+        if (dominators != null) {
+          dominators[numPairs[0]++] = mInstances.indexOf(node.getId());
+          dominators[numPairs[0]++] = dominator == mSuperRoot
+            ? DominatorCache.SUPER_ROOT : mInstances.indexOf(dominator.getId());
+        }
       }
     };
-    new Dominators(graph).progress(progress, mInstances.size()).computeDominators(mSuperRoot);
+    new Dominators(graph)
+      .progress(progress, mInstances.size())
+      .algorithm(algorithm)
+      .computeDominators(mSuperRoot);
 
-    AhatInstance.computeRetainedSize(mSuperRoot, mHeaps.size());
-
-    for (AhatHeap heap : mHeaps) {
-      heap.addToSize(mSuperRoot.getRetainedSize(heap));
+    if (cache != null) {
+      cache.writeDominators(mInstances.size(), dominators, numPairs[0] / 2);
     }
-
-    mRootSite.prepareForUse(0, mHeaps.size(), retained);
   }
 
   /**
@@ -165,6 +257,14 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
     return mSuperRoot.getDominated();
   }
 
+  /**
+   * Returns a modifiable list of the rooted instances. This is used by diff
+   * to add placeholder instances to the list.
+   */
+  List<AhatInstance> getModifiableRooted() {
+    return mSuperRoot.getModifiableDominated();
+  }
+
   /**
    * Returns the root allocation site for this snapshot.
    *
@@ -187,6 +287,84 @@ public class AhatSnapshot implements Diffable<AhatSnapshot> {
     return site == null ? mRootSite : site;
   }
 
+  /**
+   * Passes the instances allocated at the given site or its descendants
+   * that match the given class and heap filters to the consumer. This is
+   * equivalent to, but faster than, filtering the instances collected by
+   * {@link Site#getObjects(Predicate, Consumer)} by class and heap.
+   *
+   * @param site the site to get instances from
+   * @param className non-null name of the class to restrict instances to
+   * @param subclass if true, include instances of subclasses of the named class
+   * @param heapName name of the heap to restrict instances to. May be null to
+   *                 allow instances on any heap.
+   * @param consumer consumer of the matching instances
+   */
+  public void getObjects(Site site, String className, boolean subclass, String heapName,
+      Consumer<AhatInstance> consumer) {
+    mInstanceIndex.getObjects(site, className, subclass, heapName, consumer);
+  }
+
+  /**
+   * Returns a parallel stream of the instances allocated in this snapshot,
+   * optionally restricted to instances of a given class. The stream is
+   * backed by the same index as {@link #getObjects getObjects}, so
+   * restricting it to a class avoids visiting unrelated instances.
+   *
+   * @param className name of the class to restrict instances to. May be null
+   *                  to stream all instances.
+   * @param subclass if true, include instances of subclasses of the named class
+   * @return a parallel stream of the matching instances
+   */
+  public Stream<AhatInstance> streamObjects(String className, boolean subclass) {
+    return mInstanceIndex.stream(className, subclass);
+  }
+
+  /**
+   * Returns the retained primitive arrays in this snapshot that have
+   * identical contents. These are found the first time this method is
+   * called, which takes time proportional to the number of primitive arrays
+   * in the snapshot.
+   *
+   * @return the duplicate arrays in this snapshot
+   */
+  public synchronized Duplicates getDuplicates() {
+    if (mDuplicates == null) {
+      mDuplicates = new Duplicates(mInstances);
+    }
+    return mDuplicates;
+  }
+
+  /**
+   * Returns the instances that would no longer be retained if all the given
+   * instances were freed, including the given instances themselves. Unlike
+   * the retained size of a single instance, this includes instances that
+   * are retained by several of the given instances together.
+   * <p>
+   * This takes time proportional to the number of instances reachable from
+   * the given instances, not the size of the heap.
+   *
+   * @param insts the instances to free
+   * @return the instances retained by the given instances, in no particular order
+   */
+  public List<AhatInstance> getRetainedSet(Collection<AhatInstance> insts) {
+    return mReferenceGraph.getRetainedSet(insts);
+  }
+
+  /**
+   * Returns the instances that would no longer be retained if all the
+   * references from <code>src</code> to <code>dst</code> were removed.
+   * This is empty if <code>dst</code> would still be retained, otherwise it
+   * is <code>dst</code> and all the instances it dominates.
+   *
+   * @param src the instance holding the references
+   * @param dst the instance referred to
+   * @return the instances freed by removing the references, in no particular order
+   */
+  public List<AhatInstance> getFreedIfCut(AhatInstance src, AhatInstance dst) {
+    return mReferenceGraph.getFreedIfCut(src, dst);
+  }
+
   void setBaseline(AhatSnapshot baseline) {
     mBaseline = baseline;
   }
@@ -19,11 +19,18 @@ package com.android.ahat.heapdump;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 /**
  * Provides a static method to diff two heap dumps.
@@ -79,62 +86,111 @@ public class Diff {
   }
 
   /**
-   * Key represents an equivalence class of AhatInstances that are allowed to
-   * be considered for correspondence between two different snapshots.
+   * The keys of the instances of a snapshot, stored in a column indexed by
+   * the index of each instance in the snapshot's Instances.
+   * <p>
+   * A key represents an equivalence class of AhatInstances that are allowed
+   * to be considered for correspondence between two different snapshots.
+   * Corresponding instances must:
+   * <ul>
+   * <li>belong to classes of the same name,
+   * <li>belong to heaps of the same name,
+   * <li>have the same string value, if they are strings,
+   * <li>have the same class name, if they are class objects, and
+   * <li>have the same length, if they are arrays.
+   * </ul>
+   * Each key is a 64 bit hash of these properties, computed once per
+   * instance, which is used to bucket instances that may be equivalent.
+   * Instances with the same key are only equivalent if
+   * {@link #equivalent} says so, in case their hashes collide.
    */
-  private static class Key {
-    // Corresponding objects must belong to classes of the same name.
-    private final String mClass;
-
-    // Corresponding objects must belong to heaps of the same name.
-    private final String mHeapName;
-
-    // Corresponding string objects must have the same value.
-    // mStringValue is set to the empty string for non-string objects.
-    private final String mStringValue;
-
-    // Corresponding class objects must have the same class name.
-    // mClassName is set to the empty string for non-class objects.
-    private final String mClassName;
+  private static class Keys {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Instances<AhatInstance> mInstances;
+    private final long[] mKeys;
+
+    // Hashes of class and heap names, which are shared by many instances.
+    private final Map<String, Long> mNameHashes = new ConcurrentHashMap<String, Long>();
+
+    Keys(AhatSnapshot snapshot, ForkJoinPool pool) {
+      mInstances = snapshot.getInstances();
+      mKeys = new long[mInstances.size()];
+      if (pool == null) {
+        for (int i = 0; i < mKeys.length; ++i) {
+          mKeys[i] = keyFor(mInstances.getAt(i));
+        }
+      } else {
+        // Parallel streams run in the pool they are invoked from.
+        pool.invoke(ForkJoinTask.adapt(() -> {
+          IntStream.range(0, mKeys.length).parallel().forEach(i -> {
+            mKeys[i] = keyFor(mInstances.getAt(i));
+          });
+        }));
+      }
+    }
 
-    // Corresponding array objects must have the same length.
-    // mArrayLength is set to 0 for non-array objects.
-    private final int mArrayLength;
+    /**
+     * Returns the key for the given instance of this snapshot.
+     */
+    long get(AhatInstance inst) {
+      return mKeys[mInstances.indexOf(inst.getId())];
+    }
 
+    /**
+     * Returns true if the two instances have the same properties, and so are
+     * allowed to correspond to each other.
+     */
+    static boolean equivalent(AhatInstance x, AhatInstance y) {
+      AhatArrayInstance xarray = x.asArrayInstance();
+      AhatArrayInstance yarray = y.asArrayInstance();
+      int xlength = xarray == null ? 0 : xarray.getLength();
+      int ylength = yarray == null ? 0 : yarray.getLength();
+      return x.getClassName().equals(y.getClassName())
+          && x.getHeap().getName().equals(y.getHeap().getName())
+          && Objects.equals(x.asString(), y.asString())
+          && x.isClassObj() == y.isClassObj()
+          && (!x.isClassObj() || x.asClassObj().getName().equals(y.asClassObj().getName()))
+          && xlength == ylength;
+    }
 
-    private Key(AhatInstance inst) {
-      mClass = inst.getClassName();
-      mHeapName = inst.getHeap().getName();
-      mClassName = inst.isClassObj() ? inst.asClassObj().getName() : "";
+    private long keyFor(AhatInstance inst) {
       String string = inst.asString();
-      mStringValue = string == null ? "" : string;
       AhatArrayInstance array = inst.asArrayInstance();
-      mArrayLength = array == null ? 0 : array.getLength();
+      long key = FNV_OFFSET_BASIS;
+      key = hash(key, nameHash(inst.getClassName()));
+      key = hash(key, nameHash(inst.getHeap().getName()));
+      key = hash(key, string == null ? "" : string);
+      key = hash(key, inst.isClassObj() ? nameHash(inst.asClassObj().getName()) : 0);
+      key = hash(key, array == null ? 0 : array.getLength());
+      return key;
     }
 
-    /**
-     * Return the key for the given instance.
-     */
-    public static Key keyFor(AhatInstance inst) {
-      return new Key(inst);
+    private long nameHash(String name) {
+      return mNameHashes.computeIfAbsent(name, x -> hash(FNV_OFFSET_BASIS, x));
     }
 
-    @Override
-    public boolean equals(Object other) {
-      if (!(other instanceof Key)) {
-        return false;
+    private static long hash(long key, long value) {
+      key = hash(key, (int)value);
+      return hash(key, (int)(value >>> 32));
+    }
+
+    private static long hash(long key, String string) {
+      // Include the length so the boundary between strings is unambiguous.
+      key = hash(key, string.length());
+      for (int i = 0; i < string.length(); ++i) {
+        key = (key ^ string.charAt(i)) * FNV_PRIME;
       }
-      Key o = (Key)other;
-      return mClass.equals(o.mClass)
-          && mHeapName.equals(o.mHeapName)
-          && mStringValue.equals(o.mStringValue)
-          && mClassName.equals(o.mClassName)
-          && mArrayLength == o.mArrayLength;
+      return key;
     }
 
-    @Override
-    public int hashCode() {
-      return Objects.hash(mClass, mHeapName, mStringValue, mClassName, mArrayLength);
+    private static long hash(long key, int value) {
+      for (int i = 0; i < 4; ++i) {
+        key = (key ^ (value & 0xFF)) * FNV_PRIME;
+        value >>>= 8;
+      }
+      return key;
     }
   }
 
@@ -154,24 +210,21 @@ public class Diff {
   }
 
   /**
-   * Recursively create placeholder instances for the given instance and
-   * every instance dominated by that instance.
+   * Create placeholder instances for the given instance and every instance
+   * dominated by that instance.
    * Returns the placeholder instance created for the given instance.
-   * Adds all allocated placeholders to the given placeholders list.
    */
-  private static AhatInstance createPlaceHolders(AhatInstance inst,
-      List<AhatInstance> placeholders) {
+  private static AhatInstance createPlaceHolders(AhatInstance inst) {
     // Don't actually use recursion, because we could easily smash the stack.
     // Instead we iterate.
     AhatInstance result = inst.newPlaceHolderInstance();
-    placeholders.add(result);
     Deque<AhatInstance> deque = new ArrayDeque<AhatInstance>();
     deque.push(inst);
     while (!deque.isEmpty()) {
       inst = deque.pop();
 
       for (AhatInstance child : inst.getDominated()) {
-        placeholders.add(child.newPlaceHolderInstance());
+        child.newPlaceHolderInstance();
         deque.push(child);
       }
     }
@@ -179,68 +232,208 @@ public class Diff {
   }
 
   /**
-   * Recursively diff two dominator trees of instances.
+   * Reorders the given instances so that the first k of them are the k
+   * instances with the largest total retained size, from larger to smaller
+   * retained size. Instances with the same retained size keep their relative
+   * order, so the first k instances are the same as they would be after a
+   * stable sort. The order of the remaining instances is unspecified.
+   */
+  private static void selectLargest(List<AhatInstance> insts, int k) {
+    int size = insts.size();
+    if (k == 0) {
+      return;
+    }
+    if (k >= size) {
+      Collections.sort(insts, Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
+      return;
+    }
+
+    long[] sizes = new long[size];
+    for (int i = 0; i < size; ++i) {
+      sizes[i] = insts.get(i).getTotalRetainedSizeBytes();
+    }
+
+    // Orders indices of instances from larger to smaller retained size,
+    // breaking ties by index.
+    Comparator<Integer> order = (x, y) -> {
+      int cmp = Long.compare(sizes[y], sizes[x]);
+      return cmp != 0 ? cmp : Integer.compare(x, y);
+    };
+
+    // Keep the first k indices in order, with the last of them at the head
+    // of the queue.
+    PriorityQueue<Integer> largest = new PriorityQueue<Integer>(k + 1, order.reversed());
+    for (int i = 0; i < size; ++i) {
+      if (largest.size() < k) {
+        largest.add(i);
+      } else if (order.compare(i, largest.peek()) < 0) {
+        largest.poll();
+        largest.add(i);
+      }
+    }
+
+    AhatInstance[] reordered = new AhatInstance[size];
+    boolean[] selected = new boolean[size];
+    for (int i = k - 1; i >= 0; --i) {
+      int index = largest.poll();
+      selected[index] = true;
+      reordered[i] = insts.get(index);
+    }
+    int next = k;
+    for (int i = 0; i < size; ++i) {
+      if (!selected[i]) {
+        reordered[next++] = insts.get(i);
+      }
+    }
+    for (int i = 0; i < size; ++i) {
+      insts.set(i, reordered[i]);
+    }
+  }
+
+  /**
+   * Returns the group of instances equivalent to the given instance, from
+   * the bucket of groups with the given key. If there is no such group, a
+   * new group is added to the bucket and to the given list of all groups.
+   */
+  private static InstanceListPair group(Map<Long, List<InstanceListPair>> byKey,
+      List<InstanceListPair> groups, long key, AhatInstance inst) {
+    List<InstanceListPair> bucket =
+        byKey.computeIfAbsent(key, x -> new ArrayList<InstanceListPair>(1));
+    for (InstanceListPair pair : bucket) {
+      AhatInstance member = pair.a.isEmpty() ? pair.b.get(0) : pair.a.get(0);
+      if (Keys.equivalent(member, inst)) {
+        return pair;
+      }
+    }
+    InstanceListPair pair = new InstanceListPair();
+    bucket.add(pair);
+    groups.add(pair);
+    return pair;
+  }
+
+  /**
+   * Diff one level of two dominator trees of instances.
    * PlaceHolder objects are appended to the lists as needed to ensure every
-   * object has a corresponding baseline in the other list. All PlaceHolder
-   * objects are also appended to the given placeholders list, so their Site
-   * info can be updated later on.
+   * object has a corresponding baseline in the other list. Pairs of lists of
+   * instances dominated by corresponding instances are pushed onto the given
+   * deque to be diffed in turn.
    */
-  private static void instances(List<AhatInstance> a, List<AhatInstance> b,
-      List<AhatInstance> placeholders) {
-    // Don't actually use recursion, because we could easily smash the stack.
-    // Instead we iterate.
-    Deque<InstanceListPair> deque = new ArrayDeque<InstanceListPair>();
-    deque.push(new InstanceListPair(a, b));
-    while (!deque.isEmpty()) {
-      InstanceListPair p = deque.pop();
-
-      // Group instances of the same equivalence class together.
-      Map<Key, InstanceListPair> byKey = new HashMap<Key, InstanceListPair>();
-      for (AhatInstance inst : p.a) {
-        Key key = Key.keyFor(inst);
-        InstanceListPair pair = byKey.get(key);
-        if (pair == null) {
-          pair = new InstanceListPair();
-          byKey.put(key, pair);
+  private static void instances(InstanceListPair p, Keys akeys, Keys bkeys,
+      Deque<InstanceListPair> deque) {
+    // Group instances of the same equivalence class together. Instances are
+    // bucketed by key, and each bucket almost always holds a single group.
+    Map<Long, List<InstanceListPair>> byKey = new HashMap<Long, List<InstanceListPair>>();
+    List<InstanceListPair> groups = new ArrayList<InstanceListPair>();
+    for (AhatInstance inst : p.a) {
+      group(byKey, groups, akeys.get(inst), inst).a.add(inst);
+    }
+    for (AhatInstance inst : p.b) {
+      group(byKey, groups, bkeys.get(inst), inst).b.add(inst);
+    }
+
+    // diff objects from the same equivalence class.
+    for (InstanceListPair pair : groups) {
+      // Order by retained size and assume the elements at the top of the
+      // lists correspond to each other in that order. This could probably be
+      // improved if desired, but it gives good enough results for now. Only
+      // the corresponding elements need to be put in order.
+      int common = Math.min(pair.a.size(), pair.b.size());
+      selectLargest(pair.a, common);
+      selectLargest(pair.b, common);
+
+      for (int i = 0; i < common; i++) {
+        AhatInstance ainst = pair.a.get(i);
+        AhatInstance binst = pair.b.get(i);
+        ainst.setBaseline(binst);
+        binst.setBaseline(ainst);
+        if (!ainst.getDominated().isEmpty() || !binst.getDominated().isEmpty()) {
+          deque.push(new InstanceListPair(
+                ainst.getModifiableDominated(), binst.getModifiableDominated()));
         }
-        pair.a.add(inst);
       }
-      for (AhatInstance inst : p.b) {
-        Key key = Key.keyFor(inst);
-        InstanceListPair pair = byKey.get(key);
-        if (pair == null) {
-          pair = new InstanceListPair();
-          byKey.put(key, pair);
-        }
-        pair.b.add(inst);
+
+      // Add placeholder objects for anything leftover.
+      for (int i = common; i < pair.a.size(); i++) {
+        p.b.add(createPlaceHolders(pair.a.get(i)));
       }
 
-      // diff objects from the same key class.
-      for (InstanceListPair pair : byKey.values()) {
-        // Sort by retained size and assume the elements at the top of the lists
-        // correspond to each other in that order. This could probably be
-        // improved if desired, but it gives good enough results for now.
-        Collections.sort(pair.a, Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
-        Collections.sort(pair.b, Sort.INSTANCE_BY_TOTAL_RETAINED_SIZE);
-
-        int common = Math.min(pair.a.size(), pair.b.size());
-        for (int i = 0; i < common; i++) {
-          AhatInstance ainst = pair.a.get(i);
-          AhatInstance binst = pair.b.get(i);
-          ainst.setBaseline(binst);
-          binst.setBaseline(ainst);
-          deque.push(new InstanceListPair(ainst.getDominated(), binst.getDominated()));
-        }
+      for (int i = common; i < pair.b.size(); i++) {
+        p.a.add(createPlaceHolders(pair.b.get(i)));
+      }
+    }
+  }
 
-        // Add placeholder objects for anything leftover.
-        for (int i = common; i < pair.a.size(); i++) {
-          p.b.add(createPlaceHolders(pair.a.get(i), placeholders));
-        }
+  /**
+   * Diffs the subtrees of two dominator trees for the pairs of instance
+   * lists in its deque. Whenever other threads in the pool run out of work,
+   * pending pairs are handed off to new tasks for them to steal.
+   */
+  private static class InstancesTask extends CountedCompleter<Void> {
+    private static final long serialVersionUID = 1L;
+
+    private final Keys mAKeys;
+    private final Keys mBKeys;
+    private final Deque<InstanceListPair> mDeque = new ArrayDeque<InstanceListPair>();
+
+    InstancesTask(CountedCompleter<?> parent, Keys akeys, Keys bkeys, InstanceListPair pair) {
+      super(parent);
+      mAKeys = akeys;
+      mBKeys = bkeys;
+      mDeque.push(pair);
+    }
 
-        for (int i = common; i < pair.b.size(); i++) {
-          p.a.add(createPlaceHolders(pair.b.get(i), placeholders));
+    @Override
+    public void compute() {
+      while (!mDeque.isEmpty()) {
+        instances(mDeque.pop(), mAKeys, mBKeys, mDeque);
+
+        // Hand off the pairs pushed earliest, which tend to have the largest
+        // subtrees.
+        while (mDeque.size() > 1 && getSurplusQueuedTaskCount() <= 0) {
+          addToPendingCount(1);
+          new InstancesTask(this, mAKeys, mBKeys, mDeque.removeLast()).fork();
         }
       }
+      tryComplete();
+    }
+  }
+
+  /**
+   * Diff two dominator trees of instances.
+   * PlaceHolder objects are appended to the lists as needed to ensure every
+   * object has a corresponding baseline in the other list.
+   *
+   * @param pool the pool to diff independent subtrees in parallel with, or
+   *             null to diff them sequentially
+   */
+  private static void instances(List<AhatInstance> a, List<AhatInstance> b,
+      Keys akeys, Keys bkeys, ForkJoinPool pool) {
+    InstanceListPair roots = new InstanceListPair(a, b);
+    if (pool != null) {
+      pool.invoke(new InstancesTask(null, akeys, bkeys, roots));
+      return;
+    }
+
+    // Don't actually use recursion, because we could easily smash the stack.
+    // Instead we iterate.
+    Deque<InstanceListPair> deque = new ArrayDeque<InstanceListPair>();
+    deque.push(roots);
+    while (!deque.isEmpty()) {
+      instances(deque.pop(), akeys, bkeys, deque);
+    }
+  }
+
+  /**
+   * Adds the placeholders created as baselines for instances of the given
+   * snapshot to the corresponding sites of the baseline snapshot.
+   * This requires the sites have already been diffed.
+   */
+  private static void addPlaceHoldersToSites(AhatSnapshot snapshot) {
+    for (AhatInstance inst : snapshot.getInstances()) {
+      AhatInstance placeholder = inst.getBaseline();
+      if (placeholder.isPlaceHolder()) {
+        inst.getSite().getBaseline().addInstance(placeholder);
+      }
     }
   }
 
@@ -248,15 +441,22 @@ public class Diff {
    * Sets the baseline for root and all its descendants to baseline.
    */
   private static void setSitesBaseline(Site root, Site baseline) {
-    root.setBaseline(baseline);
-    for (Site child : root.getChildren()) {
-      setSitesBaseline(child, baseline);
+    // Use an explicit stack because stack traces are not guaranteed to be
+    // shallow enough for recursion.
+    Deque<Site> stack = new ArrayDeque<Site>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      Site site = stack.pop();
+      site.setBaseline(baseline);
+      for (Site child : site.getChildren()) {
+        stack.push(child);
+      }
     }
   }
 
   /**
-   * Recursively diff the two sites, setting them and their descendants as
-   * baselines for each other as appropriate.
+   * Diff the two sites, setting them and their descendants as baselines for
+   * each other as appropriate.
    *
    * This requires that instances have already been diffed. In particular, we
    * require all AhatClassObjs in one snapshot have corresponding (possibly
@@ -267,52 +467,67 @@ public class Diff {
     a.setBaseline(b);
     b.setBaseline(a);
 
-    // Set the site's ObjectsInfos as baselines of each other. This implicitly
-    // adds new empty ObjectsInfo as needed.
-    for (Site.ObjectsInfo ainfo : a.getObjectsInfos()) {
-      AhatClassObj baseClassObj = null;
-      if (ainfo.classObj != null) {
-        baseClassObj = (AhatClassObj) ainfo.classObj.getBaseline();
+    // Matching sites are diffed from an explicit stack of (a, b) pairs
+    // because stack traces are not guaranteed to be shallow enough for
+    // recursion. Each pair only updates its own ObjectsInfos and the
+    // baselines of its own children, so the order pairs are diffed in
+    // doesn't matter.
+    Deque<Site[]> stack = new ArrayDeque<Site[]>();
+    stack.push(new Site[] { a, b });
+    while (!stack.isEmpty()) {
+      Site[] pair = stack.pop();
+      Site asite = pair[0];
+      Site bsite = pair[1];
+
+      // Set the site's ObjectsInfos as baselines of each other. This
+      // implicitly adds new empty ObjectsInfo as needed.
+      for (Site.ObjectsInfo ainfo : asite.getObjectsInfos()) {
+        AhatClassObj baseClassObj = null;
+        if (ainfo.classObj != null) {
+          baseClassObj = (AhatClassObj) ainfo.classObj.getBaseline();
+        }
+        ainfo.setBaseline(bsite.getObjectsInfo(ainfo.heap.getBaseline(), baseClassObj));
       }
-      ainfo.setBaseline(b.getObjectsInfo(ainfo.heap.getBaseline(), baseClassObj));
-    }
-    for (Site.ObjectsInfo binfo : b.getObjectsInfos()) {
-      AhatClassObj baseClassObj = null;
-      if (binfo.classObj != null) {
-        baseClassObj = (AhatClassObj) binfo.classObj.getBaseline();
+      for (Site.ObjectsInfo binfo : bsite.getObjectsInfos()) {
+        AhatClassObj baseClassObj = null;
+        if (binfo.classObj != null) {
+          baseClassObj = (AhatClassObj) binfo.classObj.getBaseline();
+        }
+        binfo.setBaseline(asite.getObjectsInfo(binfo.heap.getBaseline(), baseClassObj));
       }
-      binfo.setBaseline(a.getObjectsInfo(binfo.heap.getBaseline(), baseClassObj));
-    }
 
-    // Set B children's baselines as null to mark that we have not yet matched
-    // them with A children.
-    for (Site bchild : b.getChildren()) {
-      bchild.setBaseline(null);
-    }
+      // Set B children's baselines as null to mark that we have not yet
+      // matched them with A children.
+      for (Site bchild : bsite.getChildren()) {
+        bchild.setBaseline(null);
+      }
 
-    for (Site achild : a.getChildren()) {
-      achild.setBaseline(null);
-      for (Site bchild : b.getChildren()) {
-        if (achild.getLineNumber() == bchild.getLineNumber()
-            && achild.getMethodName().equals(bchild.getMethodName())
-            && achild.getSignature().equals(bchild.getSignature())
-            && achild.getFilename().equals(bchild.getFilename())) {
-          // We found a match between achild and bchild.
-          sites(achild, bchild);
-          break;
+      for (Site achild : asite.getChildren()) {
+        achild.setBaseline(null);
+        for (Site bchild : bsite.getChildren()) {
+          if (achild.getLineNumber() == bchild.getLineNumber()
+              && achild.getMethodName().equals(bchild.getMethodName())
+              && achild.getSignature().equals(bchild.getSignature())
+              && achild.getFilename().equals(bchild.getFilename())) {
+            // We found a match between achild and bchild.
+            achild.setBaseline(bchild);
+            bchild.setBaseline(achild);
+            stack.push(new Site[] { achild, bchild });
+            break;
+          }
         }
-      }
 
-      if (achild.getBaseline() == null) {
-        // We did not find any match for achild in site B.
-        // Use B for the baseline of achild and its descendants.
-        setSitesBaseline(achild, b);
+        if (achild.getBaseline() == null) {
+          // We did not find any match for achild in site B.
+          // Use B for the baseline of achild and its descendants.
+          setSitesBaseline(achild, bsite);
+        }
       }
-    }
 
-    for (Site bchild : b.getChildren()) {
-      if (bchild.getBaseline() == null) {
-        setSitesBaseline(bchild, a);
+      for (Site bchild : bsite.getChildren()) {
+        if (bchild.getBaseline() == null) {
+          setSitesBaseline(bchild, asite);
+        }
       }
     }
   }
@@ -330,6 +545,18 @@ public class Diff {
    * @param b the other of the snapshots to diff
    */
   public static void snapshots(AhatSnapshot a, AhatSnapshot b) {
+    snapshots(a, b, 1);
+  }
+
+  /**
+   * Performs a diff of two snapshots, using up to the given number of
+   * threads. The result is the same regardless of the number of threads.
+   *
+   * @param a one of the snapshots to diff
+   * @param b the other of the snapshots to diff
+   * @param parallelism the number of threads to use
+   */
+  public static void snapshots(AhatSnapshot a, AhatSnapshot b, int parallelism) {
     a.setBaseline(b);
     b.setBaseline(a);
 
@@ -337,8 +564,16 @@ public class Diff {
     heaps(a.getHeaps(), b.getHeaps());
 
     // Diff the instances of each snapshot.
-    List<AhatInstance> placeholders = new ArrayList<AhatInstance>();
-    instances(a.getRooted(), b.getRooted(), placeholders);
+    ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    try {
+      Keys akeys = new Keys(a, pool);
+      Keys bkeys = new Keys(b, pool);
+      instances(a.getModifiableRooted(), b.getModifiableRooted(), akeys, bkeys, pool);
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
 
     // Diff the sites of each snapshot.
     // This requires the instances have already been diffed.
@@ -346,8 +581,9 @@ public class Diff {
 
     // Add placeholders to their corresponding sites.
     // This requires the sites have already been diffed.
-    for (AhatInstance placeholder : placeholders) {
-      placeholder.getBaseline().getSite().getBaseline().addInstance(placeholder);
-    }
+    addPlaceHoldersToSites(a);
+    addPlaceHoldersToSites(b);
+    a.updateInstanceIndex();
+    b.updateInstanceIndex();
   }
 }
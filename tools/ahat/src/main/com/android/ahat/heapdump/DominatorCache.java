@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import com.android.ahat.dominators.Dominators;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A file that caches the dominator tree of a heap dump, so it need not be
+ * recomputed the next time the same heap dump is opened. Only the
+ * dominators are cached: the heap dump is still parsed, and reachability,
+ * retained sizes and allocation sites are still computed, each time it is
+ * opened.
+ * <p>
+ * The cache is keyed on the size, modification time and a sampled content
+ * hash of the heap dump, as well as the reachability used to determine
+ * retained instances and the algorithm used to compute the dominators,
+ * which determines the order of the dominated lists. A stale cache is ignored and rewritten. Failures to
+ * read or write the cache are reported to standard error, and otherwise
+ * treated as if there was no cache.
+ * <p>
+ * The dominator tree is recorded as the sequence of (instance, immediate
+ * dominator) pairs in the order they were computed, where instances are
+ * identified by their index in id order. Replaying the pairs in order
+ * reproduces the same dominated lists as computing the dominators from
+ * scratch.
+ */
+class DominatorCache {
+  private static final long MAGIC = 0x4148415444444d00L;  // "AHATDOM\0"
+
+  // Increment whenever the format or meaning of the index changes.
+  private static final int VERSION = 2;
+
+  // Instance index used to refer to the SuperRoot.
+  static final int SUPER_ROOT = -1;
+
+  // Parameters of the sampled content hash.
+  private static final int SAMPLE_SIZE = 64 * 1024;
+  private static final int NUM_SAMPLES = 64;
+
+  // Size of the index header in bytes.
+  static final int HEADER_SIZE = 8 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 4;
+
+  private final File mHprof;
+  private final File mCache;
+  private final Reachability mRetained;
+  private final Dominators.Algorithm mAlgorithm;
+
+  // The content hash of the heap dump, computed on first use.
+  private Long mContentHash;
+
+  /**
+   * @param hprof the heap dump whose dominators are cached
+   * @param cache the file to cache the dominators in
+   * @param retained the reachability used to determine retained instances
+   * @param algorithm the algorithm used to compute the dominators
+   */
+  DominatorCache(File hprof, File cache, Reachability retained,
+      Dominators.Algorithm algorithm) {
+    mHprof = hprof;
+    mCache = cache;
+    mRetained = retained;
+    mAlgorithm = algorithm;
+  }
+
+  /**
+   * Returns the dominator pairs recorded in the cache, or null if there is
+   * no up to date cache for a heap dump with the given number of instances.
+   * The returned array holds consecutive pairs of (instance, dominator)
+   * indices.
+   */
+  int[] readDominators(int numInstances) {
+    if (!mCache.exists()) {
+      return null;
+    }
+
+    try (FileChannel channel = FileChannel.open(mCache.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        return null;
+      }
+
+      // Read the cache onto the heap rather than mapping it, so nothing
+      // refers to the file once the dominators have been read.
+      ByteBuffer buffer = ByteBuffer.allocate((int)size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          return null;
+        }
+      }
+      buffer.flip();
+      if (buffer.remaining() < HEADER_SIZE
+          || buffer.getLong() != MAGIC
+          || buffer.getInt() != VERSION
+          || buffer.getLong() != mHprof.length()
+          || buffer.getLong() != mHprof.lastModified()
+          || buffer.getLong() != contentHash()
+          || buffer.getInt() != mRetained.ordinal()
+          || buffer.getInt() != mAlgorithm.ordinal()
+          || buffer.getInt() != numInstances) {
+        return null;
+      }
+
+      int numPairs = buffer.getInt();
+      IntBuffer pairs = buffer.asIntBuffer();
+      if (numPairs < 0 || pairs.remaining() != 2 * numPairs) {
+        return null;
+      }
+
+      int[] dominators = new int[2 * numPairs];
+      pairs.get(dominators);
+      for (int i = 0; i < dominators.length; i += 2) {
+        // Only the dominator may refer to the SuperRoot.
+        if (dominators[i] < 0 || dominators[i] >= numInstances
+            || dominators[i + 1] < SUPER_ROOT || dominators[i + 1] >= numInstances) {
+          return null;
+        }
+      }
+      return dominators;
+    } catch (IOException e) {
+      System.err.println("Unable to read dominator cache '" + mCache + "': " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the given dominator pairs to the cache, replacing any existing
+   * cache. Failure to write the cache is reported, but otherwise ignored.
+   *
+   * @param numInstances the number of instances in the heap dump
+   * @param dominators pairs of (instance, dominator) indices
+   * @param numPairs the number of pairs in dominators to write
+   */
+  void writeDominators(int numInstances, int[] dominators, int numPairs) {
+    File tmp = new File(mCache.getPath() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeLong(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(mHprof.length());
+        out.writeLong(mHprof.lastModified());
+        out.writeLong(contentHash());
+        out.writeInt(mRetained.ordinal());
+        out.writeInt(mAlgorithm.ordinal());
+        out.writeInt(numInstances);
+        out.writeInt(numPairs);
+        for (int i = 0; i < 2 * numPairs; ++i) {
+          out.writeInt(dominators[i]);
+        }
+      }
+      Files.move(tmp.toPath(), mCache.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      System.err.println("Unable to write dominator cache '" + mCache + "': " + e);
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Computes a hash of the heap dump contents. To avoid reading the entire
+   * heap dump, only a fixed number of evenly spaced samples of the heap dump
+   * are hashed, including its start and its end.
+   */
+  private long contentHash() throws IOException {
+    if (mContentHash != null) {
+      return mContentHash;
+    }
+
+    CRC32 crc = new CRC32();
+    byte[] sample = new byte[SAMPLE_SIZE];
+    try (RandomAccessFile file = new RandomAccessFile(mHprof, "r")) {
+      long length = file.length();
+      long stride = Math.max(SAMPLE_SIZE, length / NUM_SAMPLES);
+      for (long offset = 0; offset < length; offset += stride) {
+        int size = (int)Math.min(SAMPLE_SIZE, length - offset);
+        file.seek(offset);
+        file.readFully(sample, 0, size);
+        crc.update(sample, 0, size);
+      }
+      if (length > SAMPLE_SIZE) {
+        file.seek(length - SAMPLE_SIZE);
+        file.readFully(sample);
+        crc.update(sample);
+      }
+    }
+    mContentHash = crc.getValue();
+    return mContentHash;
+  }
+}
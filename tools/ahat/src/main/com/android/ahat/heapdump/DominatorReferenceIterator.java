@@ -21,37 +21,41 @@ import java.util.NoSuchElementException;
 
 /**
  * Reference iterator used for the dominators computation.
- * This visits only retained references.
+ * This visits only retained references, iterating over a range of the
+ * references stored in a ReferenceGraph.
  */
 class DominatorReferenceIterator implements Iterator<AhatInstance>,
                                             Iterable<AhatInstance> {
-  private final Reachability mRetained;
-  private Iterator<Reference> mIter;
-  private AhatInstance mNext;
+  private final Instances<AhatInstance> mInstances;
+  private final int[] mTargets;
+  private final byte[] mStrengths;
+  private final int mEnd;
+  private final int mRetained;
+  private int mNext;
 
-  public DominatorReferenceIterator(Reachability retained, Iterable<Reference> iter) {
-    mRetained = retained;
-    mIter = iter.iterator();
-    mNext = null;
+  public DominatorReferenceIterator(Instances<AhatInstance> instances,
+                                    int[] targets, byte[] strengths,
+                                    int start, int end, Reachability retained) {
+    mInstances = instances;
+    mTargets = targets;
+    mStrengths = strengths;
+    mEnd = end;
+    mRetained = retained.ordinal();
+    mNext = start;
   }
 
   @Override
   public boolean hasNext() {
-    while (mNext == null && mIter.hasNext()) {
-      Reference ref = mIter.next();
-      if (ref.reachability.notWeakerThan(mRetained)) {
-        mNext = ref.ref;
-      }
+    while (mNext < mEnd && mStrengths[mNext] > mRetained) {
+      mNext++;
     }
-    return mNext != null;
+    return mNext < mEnd;
   }
 
   @Override
   public AhatInstance next() {
     if (hasNext()) {
-      AhatInstance next = mNext;
-      mNext = null;
-      return next;
+      return mInstances.getAt(mTargets[mNext++]);
     }
     throw new NoSuchElementException();
   }
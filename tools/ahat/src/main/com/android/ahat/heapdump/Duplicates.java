@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Primitive arrays with identical contents in a heap dump, such as the
+ * characters of equal strings or the pixels of identical bitmaps.
+ * <p>
+ * Only retained arrays are considered. Arrays are compared by their raw
+ * contents in the heap dump, which are hashed and compared in place rather
+ * than copied into Java arrays. Arrays whose element type and length are
+ * unique in the heap dump can't have duplicates, so they aren't hashed at
+ * all.
+ * <p>
+ * Of each set of identical arrays, the array with the smallest id is
+ * considered the original and the others are considered wasted copies.
+ * The wasted copies are attributed to the string or bitmap that owns them,
+ * if any, otherwise to the array itself.
+ */
+public class Duplicates {
+  /**
+   * A set of two or more arrays with identical contents.
+   */
+  public static class Group {
+    private final AhatArrayInstance[] mInstances;
+
+    Group(List<AhatArrayInstance> instances) {
+      mInstances = instances.toArray(new AhatArrayInstance[instances.size()]);
+      Arrays.sort(mInstances, Sort.INSTANCE_BY_ID);
+    }
+
+    /**
+     * Returns the arrays in this group, ordered by id.
+     *
+     * @return the identical arrays
+     */
+    public List<AhatInstance> getInstances() {
+      return Collections.unmodifiableList(Arrays.asList(mInstances));
+    }
+
+    /**
+     * Returns the shallow size of each of the arrays in this group.
+     *
+     * @return the size of one copy of the array
+     */
+    public long getSize() {
+      return mInstances[0].getSize().getSize();
+    }
+
+    /**
+     * Returns the number of bytes that would be saved if all the arrays in
+     * this group were replaced by a single copy.
+     *
+     * @return the size of the redundant copies
+     */
+    public long getWastedSize() {
+      return getSize() * (mInstances.length - 1);
+    }
+  }
+
+  /**
+   * The redundant copies attributed to a class or allocation site.
+   */
+  public static class Waste {
+    /**
+     * The number of redundant copies.
+     */
+    public long copies;
+
+    /**
+     * The total size of the redundant copies.
+     */
+    public long wastedSize;
+
+    void add(long size) {
+      copies++;
+      wastedSize += size;
+    }
+  }
+
+  private final List<Group> mGroups = new ArrayList<Group>();
+  private final Map<String, Waste> mWasteByClass = new HashMap<String, Waste>();
+  private final Map<Site, Waste> mWasteBySite = new HashMap<Site, Waste>();
+  private long mWastedSize;
+
+  /**
+   * Finds the duplicate arrays among the given instances.
+   */
+  Duplicates(Instances<AhatInstance> instances) {
+    // Order the retained, non-empty primitive arrays by element type and
+    // length, which must match for arrays to have the same contents.
+    Comparator<AhatArrayInstance> byShape
+      = Comparator.comparing((AhatArrayInstance x) -> x.getElementType())
+        .thenComparingInt(x -> x.getLength());
+    AhatArrayInstance[] arrays = IntStream.range(0, instances.size()).parallel()
+      .mapToObj(i -> instances.getAt(i))
+      .filter(x -> x.isArrayInstance() && x.isRetained())
+      .map(x -> x.asArrayInstance())
+      .filter(x -> x.getElementType() != Type.OBJECT && x.getLength() > 0)
+      .sorted(byShape)
+      .toArray(AhatArrayInstance[]::new);
+
+    // Hash the arrays that share their shape with some other array.
+    List<AhatArrayInstance> candidates = new ArrayList<AhatArrayInstance>();
+    for (int start = 0, end; start < arrays.length; start = end) {
+      for (end = start + 1; end < arrays.length
+          && byShape.compare(arrays[start], arrays[end]) == 0; ++end) {
+      }
+      if (end - start > 1) {
+        candidates.addAll(Arrays.asList(arrays).subList(start, end));
+      }
+    }
+    long[] hashes = new long[candidates.size()];
+    Arrays.parallelSetAll(hashes, i -> candidates.get(i).contentHash());
+
+    // Group the candidates by shape and hash, then confirm the contents of
+    // each group really are the same to rule out hash collisions.
+    Integer[] order = new Integer[hashes.length];
+    Arrays.setAll(order, i -> i);
+    Arrays.parallelSort(order, (a, b) -> {
+      int cmp = byShape.compare(candidates.get(a), candidates.get(b));
+      return cmp != 0 ? cmp : Long.compare(hashes[a], hashes[b]);
+    });
+    for (int start = 0, end; start < order.length; start = end) {
+      List<AhatArrayInstance> same = new ArrayList<AhatArrayInstance>();
+      for (end = start; end < order.length && hashes[order[end]] == hashes[order[start]]
+          && byShape.compare(candidates.get(order[end]), candidates.get(order[start])) == 0;
+          ++end) {
+        same.add(candidates.get(order[end]));
+      }
+      while (same.size() > 1) {
+        AhatArrayInstance first = same.get(0);
+        List<AhatArrayInstance> group = new ArrayList<AhatArrayInstance>();
+        List<AhatArrayInstance> rest = new ArrayList<AhatArrayInstance>();
+        for (AhatArrayInstance array : same) {
+          (array == first || array.contentEquals(first) ? group : rest).add(array);
+        }
+        if (group.size() > 1) {
+          mGroups.add(new Group(group));
+        }
+        same = rest;
+      }
+    }
+
+    mGroups.sort((a, b) -> Long.compare(b.getWastedSize(), a.getWastedSize()));
+    for (Group group : mGroups) {
+      long size = group.getSize();
+      for (int i = 1; i < group.mInstances.length; ++i) {
+        AhatInstance owner = getOwner(group.mInstances[i]);
+        mWasteByClass.computeIfAbsent(owner.getClassName(), x -> new Waste()).add(size);
+        mWasteBySite.computeIfAbsent(owner.getSite(), x -> new Waste()).add(size);
+        mWastedSize += size;
+      }
+    }
+  }
+
+  /**
+   * Returns the instance a wasted copy should be attributed to: the bitmap
+   * whose pixels it holds, the string whose characters it holds, or else
+   * the array itself.
+   */
+  private static AhatInstance getOwner(AhatArrayInstance array) {
+    AhatInstance bitmap = array.getAssociatedBitmapInstance();
+    if (bitmap != null) {
+      return bitmap;
+    }
+
+    AhatInstance dominator = array.getImmediateDominator();
+    if (dominator != null && dominator.isInstanceOfClass("java.lang.String")) {
+      return dominator;
+    }
+    return array;
+  }
+
+  /**
+   * Returns the sets of identical arrays, from most to least wasted size.
+   *
+   * @return the groups of identical arrays
+   */
+  public List<Group> getGroups() {
+    return Collections.unmodifiableList(mGroups);
+  }
+
+  /**
+   * Returns the redundant copies by the name of the class of the instance
+   * they are attributed to.
+   *
+   * @return the waste by class name
+   */
+  public Map<String, Waste> getWasteByClass() {
+    return Collections.unmodifiableMap(mWasteByClass);
+  }
+
+  /**
+   * Returns the redundant copies by the allocation site of the instance they
+   * are attributed to. Sites with no redundant copies allocated directly at
+   * them are not included.
+   *
+   * @return the waste by allocation site
+   */
+  public Map<Site, Waste> getWasteBySite() {
+    return Collections.unmodifiableMap(mWasteBySite);
+  }
+
+  /**
+   * Returns the total size of the redundant copies.
+   *
+   * @return the total wasted size
+   */
+  public long getWastedSize() {
+    return mWastedSize;
+  }
+}
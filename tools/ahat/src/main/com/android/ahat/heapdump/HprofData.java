@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Random access to the values stored in a memory mapped heap dump, used to
+ * decode instance fields and array elements on demand rather than keeping
+ * decoded copies of them in memory.
+ * <p>
+ * Values are read at absolute positions in the heap dump file, without
+ * changing the state of the underlying buffers, so an HprofData can safely
+ * be used from multiple threads at once.
+ */
+class HprofData {
+  private final ByteBuffer[] mChunks;
+  private final long mChunkSize;
+  private final int mIdSize;
+  private final Instances<AhatInstance> mInstances;
+
+  /**
+   * Create an HprofData for the given chunks of a heap dump file.
+   *
+   * @param chunks buffers holding consecutive chunks of the file, where each
+   *               chunk overlaps the next by at least 8 bytes
+   * @param chunkSize the number of bytes of the file covered by each chunk,
+   *                  not counting the overlap with the next chunk
+   * @param idSize the size of instance ids in bytes
+   * @param instances used to look up instances referred to by id
+   */
+  HprofData(ByteBuffer[] chunks, long chunkSize, int idSize, Instances<AhatInstance> instances) {
+    mChunks = chunks;
+    mChunkSize = chunkSize;
+    mIdSize = idSize;
+    mInstances = instances;
+  }
+
+  /**
+   * Returns the size of instance ids in bytes.
+   */
+  int getIdSize() {
+    return mIdSize;
+  }
+
+  private ByteBuffer chunk(long position) {
+    return mChunks[(int)Math.min(position / mChunkSize, mChunks.length - 1)];
+  }
+
+  private int offset(long position) {
+    return (int)(position - Math.min(position / mChunkSize, mChunks.length - 1) * mChunkSize);
+  }
+
+  long getId(long position) {
+    ByteBuffer chunk = chunk(position);
+    int offset = offset(position);
+    return mIdSize == 8 ? chunk.getLong(offset) : chunk.getInt(offset) & 0xFFFFFFFFL;
+  }
+
+  /**
+   * Returns the instance whose id is stored at the given position, or null
+   * if there is no such instance.
+   */
+  AhatInstance getInstance(long position) {
+    return mInstances.get(getId(position));
+  }
+
+  boolean getBool(long position) {
+    return chunk(position).get(offset(position)) != 0;
+  }
+
+  byte getByte(long position) {
+    return chunk(position).get(offset(position));
+  }
+
+  char getChar(long position) {
+    return chunk(position).getChar(offset(position));
+  }
+
+  short getShort(long position) {
+    return chunk(position).getShort(offset(position));
+  }
+
+  int getInt(long position) {
+    return chunk(position).getInt(offset(position));
+  }
+
+  long getLong(long position) {
+    return chunk(position).getLong(offset(position));
+  }
+
+  float getFloat(long position) {
+    return chunk(position).getFloat(offset(position));
+  }
+
+  double getDouble(long position) {
+    return chunk(position).getDouble(offset(position));
+  }
+
+  /**
+   * Reads bytes.length bytes starting at the given position.
+   */
+  void getBytes(long position, byte[] bytes) {
+    // Large byte arrays may span multiple chunks, so copy them piecewise.
+    int offset = 0;
+    while (offset < bytes.length) {
+      ByteBuffer chunk = chunk(position + offset).duplicate();
+      int start = offset(position + offset);
+      int length = Math.min(bytes.length - offset, chunk.limit() - start);
+      if (length <= 0) {
+        throw new BufferUnderflowException();
+      }
+      chunk.position(start);
+      chunk.get(bytes, offset, length);
+      offset += length;
+    }
+  }
+
+  /**
+   * Returns a 64 bit hash of the length bytes starting at the given
+   * position. The bytes are read in place, without copying them out of the
+   * heap dump.
+   */
+  long hash(long position, long length) {
+    long hash = length * 0x9E3779B97F4A7C15L;
+    long end = position + length;
+    while (end - position >= 8) {
+      // Read as many whole words as possible from the chunk holding the
+      // current position before moving on to the next chunk.
+      ByteBuffer chunk = chunk(position);
+      int offset = offset(position);
+      int limit = chunk.limit() - 8;
+      if (offset > limit) {
+        throw new BufferUnderflowException();
+      }
+      while (end - position >= 8 && offset <= limit) {
+        hash = (hash ^ chunk.getLong(offset)) * 0x100000001B3L;
+        hash ^= hash >>> 29;
+        offset += 8;
+        position += 8;
+      }
+    }
+    while (position < end) {
+      hash = (hash ^ (getByte(position) & 0xFF)) * 0x100000001B3L;
+      position++;
+    }
+
+    // Finish with the murmur3 mix so all input bits affect all output bits.
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * Returns true if the length bytes starting at position a are the same as
+   * the length bytes starting at position b.
+   */
+  boolean equals(long a, long b, long length) {
+    long i = 0;
+    for (; length - i >= 8; i += 8) {
+      if (getLong(a + i) != getLong(b + i)) {
+        return false;
+      }
+    }
+    for (; i < length; ++i) {
+      if (getByte(a + i) != getByte(b + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the value of the given type stored at the given position.
+   */
+  Value getValue(Type type, long position) {
+    switch (type) {
+      case OBJECT:  return Value.pack(getInstance(position));
+      case BOOLEAN: return Value.pack(getBool(position));
+      case CHAR: return Value.pack(getChar(position));
+      case FLOAT: return Value.pack(getFloat(position));
+      case DOUBLE: return Value.pack(getDouble(position));
+      case BYTE: return Value.pack(getByte(position));
+      case SHORT: return Value.pack(getShort(position));
+      case INT: return Value.pack(getInt(position));
+      case LONG: return Value.pack(getLong(position));
+      default: throw new AssertionError("unsupported enum member");
+    }
+  }
+}
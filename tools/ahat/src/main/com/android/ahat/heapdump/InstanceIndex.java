@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * An index of the instances allocated in a site tree by class, used to find
+ * the instances of a class allocated at a site without visiting every
+ * instance allocated at the site.
+ * <p>
+ * Instances are grouped by class object, or by class name for instances
+ * without a class object such as placeholders. Each group is ordered by the
+ * id of the site each instance was allocated at. Site ids are assigned in
+ * depth first order, so the instances in a group allocated at a site or its
+ * descendants can be found with a binary search.
+ */
+class InstanceIndex {
+  private static class Group {
+    // The class of the instances in the group, or null for instances
+    // without a class object.
+    public final AhatClassObj classObj;
+
+    public final AhatInstance[] instances;
+
+    // The id of the site each instance was allocated at, in ascending order.
+    public final int[] siteIds;
+
+    Group(AhatClassObj classObj, GroupBuilder builder) {
+      this.classObj = classObj;
+      this.instances = builder.instances.toArray(new AhatInstance[builder.instances.size()]);
+      this.siteIds = Arrays.copyOf(builder.siteIds, builder.instances.size());
+    }
+
+    // Returns the index of the first instance allocated at a site with id
+    // no less than the given site id.
+    int lowerBound(long siteId) {
+      int start = 0;
+      int end = siteIds.length;
+      while (start < end) {
+        int mid = (start + end) >>> 1;
+        if (siteIds[mid] < siteId) {
+          start = mid + 1;
+        } else {
+          end = mid;
+        }
+      }
+      return start;
+    }
+  }
+
+  /**
+   * The instances of a group and their site ids as they are collected. Site
+   * ids are kept in a growable int array rather than a list, to avoid boxing
+   * an Integer for every instance in the heap dump.
+   */
+  private static class GroupBuilder {
+    public final List<AhatInstance> instances = new ArrayList<AhatInstance>();
+    public int[] siteIds = new int[4];
+
+    void add(AhatInstance inst, int siteId) {
+      int size = instances.size();
+      if (size == siteIds.length) {
+        siteIds = Arrays.copyOf(siteIds, 2 * size);
+      }
+      siteIds[size] = siteId;
+      instances.add(inst);
+    }
+  }
+
+  // Groups of instances by the name of each class in their class's
+  // superclass chain, including the class itself.
+  private final Map<String, List<Group>> mBySuperClassName = new HashMap<String, List<Group>>();
+
+  // Groups of instances without a class object, by class name.
+  private final Map<String, Group> mWithoutClassObj = new HashMap<String, Group>();
+
+  // Every group in the index, each listed once.
+  private final List<Group> mGroups = new ArrayList<Group>();
+
+  // The maximum number of instances in each piece of work when streaming
+  // instances in parallel. Large groups are split so that a class with many
+  // instances doesn't end up processed by a single thread.
+  private static final int STREAM_SLICE_SIZE = 4096;
+
+  /**
+   * Index the instances allocated at the given root site and its
+   * descendants.
+   */
+  InstanceIndex(Site root) {
+    Map<AhatClassObj, GroupBuilder> byClassObj = new HashMap<AhatClassObj, GroupBuilder>();
+    Map<String, GroupBuilder> byClassName = new HashMap<String, GroupBuilder>();
+    collect(root, byClassObj, byClassName);
+
+    for (Map.Entry<AhatClassObj, GroupBuilder> entry : byClassObj.entrySet()) {
+      AhatClassObj classObj = entry.getKey();
+      Group group = new Group(classObj, entry.getValue());
+      mGroups.add(group);
+      List<String> names = new ArrayList<String>();
+      for (AhatClassObj cls = classObj; cls != null; cls = cls.getSuperClassObj()) {
+        // Classes from different class loaders may share a name. Add each
+        // group at most once for any name.
+        if (!names.contains(cls.getName())) {
+          names.add(cls.getName());
+          mBySuperClassName.computeIfAbsent(cls.getName(), x -> new ArrayList<Group>()).add(group);
+        }
+      }
+    }
+
+    for (Map.Entry<String, GroupBuilder> entry : byClassName.entrySet()) {
+      String className = entry.getKey();
+      Group group = new Group(null, entry.getValue());
+      mGroups.add(group);
+      mWithoutClassObj.put(className, group);
+    }
+  }
+
+  private static void collect(Site root,
+      Map<AhatClassObj, GroupBuilder> byClassObj,
+      Map<String, GroupBuilder> byClassName) {
+    // Visit the sites in order of increasing id, so the site ids of each
+    // group end up sorted. Use an explicit stack because stack traces are not
+    // guaranteed to be shallow enough for recursion.
+    Deque<Site> stack = new ArrayDeque<Site>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      Site site = stack.pop();
+      int siteId = (int)site.getId();
+      for (AhatInstance inst : site.getSiteObjects()) {
+        AhatClassObj classObj = inst.getClassObj();
+        if (classObj != null) {
+          byClassObj.computeIfAbsent(classObj, x -> new GroupBuilder()).add(inst, siteId);
+        } else {
+          String className = inst.getClassName();
+          byClassName.computeIfAbsent(className, x -> new GroupBuilder()).add(inst, siteId);
+        }
+      }
+
+      List<Site> children = site.getChildren();
+      for (int i = children.size() - 1; i >= 0; --i) {
+        stack.push(children.get(i));
+      }
+    }
+  }
+
+  /**
+   * Passes the instances allocated at the given site or its descendants
+   * that match the given class and heap filters to the consumer.
+   *
+   * @param site the site to get instances from
+   * @param className non-null name of the class to restrict instances to
+   * @param subclass if true, include instances of subclasses of the named class
+   * @param heapName name of the heap to restrict instances to. May be null to
+   *                 allow instances on any heap.
+   * @param consumer consumer of the matching instances
+   */
+  void getObjects(Site site, String className, boolean subclass, String heapName,
+      Consumer<AhatInstance> consumer) {
+    for (Group group : mBySuperClassName.getOrDefault(className, Collections.emptyList())) {
+      if (subclass || className.equals(group.classObj.getName())) {
+        getObjects(group, site, heapName, consumer);
+      }
+    }
+
+    // Instances without a class object are never instances of a subclass.
+    Group group = mWithoutClassObj.get(className);
+    if (group != null && !subclass) {
+      getObjects(group, site, heapName, consumer);
+    }
+  }
+
+  private static void getObjects(Group group, Site site, String heapName,
+      Consumer<AhatInstance> consumer) {
+    int end = group.lowerBound(site.getEndId());
+    for (int i = group.lowerBound(site.getId()); i < end; ++i) {
+      AhatInstance inst = group.instances[i];
+      if (heapName == null || inst.getHeap().getName().equals(heapName)) {
+        consumer.accept(inst);
+      }
+    }
+  }
+
+  /**
+   * Returns a parallel stream of the instances of the given class.
+   *
+   * @param className name of the class to restrict instances to. May be null
+   *                  to stream every instance in the index.
+   * @param subclass if true, include instances of subclasses of the named class
+   */
+  Stream<AhatInstance> stream(String className, boolean subclass) {
+    List<Group> groups = new ArrayList<Group>();
+    if (className == null) {
+      groups.addAll(mGroups);
+    } else {
+      for (Group group : mBySuperClassName.getOrDefault(className, Collections.emptyList())) {
+        if (subclass || className.equals(group.classObj.getName())) {
+          groups.add(group);
+        }
+      }
+      Group group = mWithoutClassObj.get(className);
+      if (group != null && !subclass) {
+        groups.add(group);
+      }
+    }
+
+    List<AhatInstance[]> slices = new ArrayList<AhatInstance[]>();
+    for (Group group : groups) {
+      for (int i = 0; i < group.instances.length; i += STREAM_SLICE_SIZE) {
+        int end = Math.min(group.instances.length, i + STREAM_SLICE_SIZE);
+        slices.add(i == 0 && end == group.instances.length
+            ? group.instances : Arrays.copyOfRange(group.instances, i, end));
+      }
+    }
+    return slices.parallelStream().flatMap(slice -> Arrays.stream(slice));
+  }
+}
@@ -16,28 +16,64 @@
 
 package com.android.ahat.heapdump;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 /**
  * A collection of instances that can be searched for by id.
+ * <p>
+ * Instances are looked up using an open addressing hash table with linear
+ * probing that maps ids to indices in the list of instances sorted by id.
+ * The table and the ids of the instances are stored in primitive arrays to
+ * avoid touching the instances themselves when probing. The table is filled
+ * in parallel, with slots claimed by compare and set.
  */
 class Instances<T extends AhatInstance> implements Iterable<T> {
+  // Value of an empty slot in the hash table.
+  private static final int EMPTY = -1;
 
+  // The largest fraction of the slots in the hash table that are used.
+  private static final double MAX_LOAD = 0.7;
+
+  // The largest power of two an int[] can be allocated with, and so the
+  // largest size of the hash table.
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  // The most instances the hash table can hold without going over MAX_LOAD.
+  static final int MAX_INSTANCES = (int)(MAX_CAPACITY * MAX_LOAD);
+
+  // Used to claim slots in the hash table while filling it in parallel.
+  private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(int[].class);
+
+  // The instances, sorted by id.
   private final List<T> mInstances;
 
+  // mIds[i] is the id of mInstances.get(i).
+  private final long[] mIds;
+
+  // Hash table of indices into mInstances. The size of the table is the
+  // smallest power of two that keeps the load at most MAX_LOAD.
+  private final int[] mTable;
+  private final int mMask;
+
   /**
    * Create a collection of instances that can be looked up by id.
-   * Note: this takes ownership of the given list of instances.
+   * The given list of instances is not modified.
+   *
+   * @throws IllegalArgumentException if there are more than MAX_INSTANCES
+   *         instances with distinct ids
    */
   public Instances(List<T> instances) {
-    mInstances = instances;
-
-    // Sort the instances by id so we can use binary search to lookup
-    // instances by id.
-    instances.sort(new Comparator<AhatInstance>() {
+    // Sort the instances by id, so that iteration is in order of id.
+    @SuppressWarnings("unchecked")
+    T[] sorted = (T[])instances.toArray(new AhatInstance[instances.size()]);
+    Arrays.parallelSort(sorted, new Comparator<AhatInstance>() {
       @Override
       public int compare(AhatInstance a, AhatInstance b) {
         return Long.compare(a.getId(), b.getId());
@@ -49,19 +85,74 @@ class Instances<T extends AhatInstance> implements Iterable<T> {
     // heap dump really ought not to include multiple instances with the same
     // id, but this happens on some older versions of ART and in some versions
     // of the RI.
-    Predicate<T> isDuplicate = new Predicate<T>() {
-      private long previous = -1;
+    mInstances = new ArrayList<T>(sorted.length);
+    long[] ids = new long[sorted.length];
+    for (T inst : sorted) {
+      long id = inst.getId();
+      if (mInstances.isEmpty() || ids[mInstances.size() - 1] != id) {
+        ids[mInstances.size()] = id;
+        mInstances.add(inst);
+      }
+    }
+    mIds = Arrays.copyOf(ids, mInstances.size());
 
-      @Override
-      public boolean test(T x) {
-        if (x.getId() == previous) {
-          return true;
-        }
-        previous = x.getId();
-        return false;
+    int capacity = capacity(mIds.length);
+    mTable = new int[capacity];
+    mMask = capacity - 1;
+    Arrays.fill(mTable, EMPTY);
+
+    // Which of the slots an instance probes ends up in depends on the order
+    // the instances are inserted in, but every instance is still found by
+    // probing from its hash. The parallel stream completes before the table
+    // is used, so lookups can read the table without synchronization.
+    IntStream.range(0, mIds.length).parallel().forEach(i -> {
+      int slot = hash(mIds[i]) & mMask;
+      while (!SLOT.compareAndSet(mTable, slot, EMPTY, i)) {
+        slot = (slot + 1) & mMask;
       }
-    };
-    mInstances.removeIf(isDuplicate);
+    });
+  }
+
+  /**
+   * Returns the size of the hash table for the given number of instances:
+   * the smallest power of two that keeps the load at most MAX_LOAD.
+   *
+   * @throws IllegalArgumentException if count is more than MAX_INSTANCES
+   */
+  static int capacity(int count) {
+    if (count > MAX_INSTANCES) {
+      throw new IllegalArgumentException("Too many instances to index: " + count
+          + ", at most " + MAX_INSTANCES + " are supported");
+    }
+    long minCapacity = (long)Math.ceil(count / MAX_LOAD);
+    int capacity = 1;
+    while (capacity < minCapacity) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private static int hash(long id) {
+    // Ids are typically addresses that are aligned and close together, so
+    // mix the bits to spread them out across the table.
+    long h = id * 0x9E3779B97F4A7C15L;
+    return (int)(h ^ (h >>> 32));
+  }
+
+  /**
+   * Returns the index of the instance with the given id in iteration order.
+   * Returns -1 if no instance with the given id is found.
+   */
+  public int indexOf(long id) {
+    int slot = hash(id) & mMask;
+    int index;
+    while ((index = mTable[slot]) != EMPTY) {
+      if (mIds[index] == id) {
+        return index;
+      }
+      slot = (slot + 1) & mMask;
+    }
+    return -1;
   }
 
   /**
@@ -69,22 +160,15 @@ class Instances<T extends AhatInstance> implements Iterable<T> {
    * Returns null if no instance with the given id is found.
    */
   public T get(long id) {
-    // Binary search over the sorted instances.
-    int start = 0;
-    int end = mInstances.size();
-    while (start < end) {
-      int mid = start + ((end - start) / 2);
-      T midInst = mInstances.get(mid);
-      long midId = midInst.getId();
-      if (id == midId) {
-        return midInst;
-      } else if (id < midId) {
-        end = mid;
-      } else {
-        start = mid + 1;
-      }
-    }
-    return null;
+    int index = indexOf(id);
+    return index < 0 ? null : mInstances.get(index);
+  }
+
+  /**
+   * Returns the instance at the given index in iteration order.
+   */
+  public T getAt(int index) {
+    return mInstances.get(index);
   }
 
   public int size() {
@@ -96,4 +180,3 @@ class Instances<T extends AhatInstance> implements Iterable<T> {
     return mInstances.iterator();
   }
 }
-
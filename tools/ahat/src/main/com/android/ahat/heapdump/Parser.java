@@ -16,11 +16,13 @@
 
 package com.android.ahat.heapdump;
 
+import com.android.ahat.dominators.Dominators;
 import com.android.ahat.progress.NullProgress;
 import com.android.ahat.progress.Progress;
 import com.android.ahat.proguard.ProguardMap;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -33,6 +35,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Provides methods for parsing heap dumps.
@@ -54,10 +60,23 @@ import java.util.Objects;
  * </ul>
  */
 public class Parser {
+  // The approximate number of bytes of heap dump records decoded by each
+  // task when parsing in parallel.
+  private static final long UNIT_SIZE = 16 * 1024 * 1024;
+
+  // The number of instances fixed up by each task when parsing in parallel.
+  private static final int FIXUP_BATCH_SIZE = 64 * 1024;
+
   private HprofBuffer hprof = null;
+  private File hprofFile = null;
   private ProguardMap map = new ProguardMap();
   private Progress progress = new NullProgress();
   private Reachability retained = Reachability.SOFT;
+  private int parallelism = 1;
+  private long unitSize = UNIT_SIZE;
+  private int fixupBatchSize = FIXUP_BATCH_SIZE;
+  private File dominatorCache = null;
+  private Dominators.Algorithm dominators = Dominators.Algorithm.ITERATIVE;
 
   /**
    * Creates an hprof Parser that parses a heap dump from a byte buffer.
@@ -65,7 +84,17 @@ public class Parser {
    * @param hprof byte buffer to parse the heap dump from.
    */
   public Parser(ByteBuffer hprof) {
-    this.hprof = new HprofBuffer(hprof);
+    this(hprof, Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates an hprof Parser that parses a heap dump from a byte buffer,
+   * reading it as a sequence of chunks of the given size, as is done for
+   * large heap dump files. Used by tests to read small heap dumps with many
+   * chunks.
+   */
+  Parser(ByteBuffer hprof, long chunkSize) {
+    this.hprof = new HprofBuffer(hprof, chunkSize);
   }
 
   /**
@@ -75,7 +104,17 @@ public class Parser {
    * @throws IOException if the file cannot be accessed.
    */
   public Parser(File hprof) throws IOException {
-    this.hprof = new HprofBuffer(hprof);
+    this(hprof, HprofBuffer.CHUNK_SIZE);
+  }
+
+  /**
+   * Creates an hprof Parser that parses a heap dump from a file, mapping it
+   * as a sequence of chunks of the given size. Used by tests to read small
+   * heap dumps with many chunks.
+   */
+  Parser(File hprof, long chunkSize) throws IOException {
+    this.hprof = new HprofBuffer(hprof, chunkSize);
+    this.hprofFile = hprof;
   }
 
   /**
@@ -117,6 +156,66 @@ public class Parser {
     return this;
   }
 
+  /**
+   * Specify the number of threads to use when parsing the heap. When more
+   * than one thread is used, heap dump records are decoded and references
+   * between instances are resolved in parallel.
+   *
+   * @param threads the number of threads to use when parsing the heap.
+   * @return this Parser instance.
+   */
+  public Parser parallelism(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads < 1");
+    }
+    this.parallelism = threads;
+    return this;
+  }
+
+  /**
+   * Specify the approximate number of bytes of heap dump records decoded by
+   * each task, and the number of instances fixed up by each task, when
+   * parsing in parallel. Used by tests to split small heap dumps into many
+   * tasks.
+   */
+  Parser taskSizes(long unitSize, int fixupBatchSize) {
+    this.unitSize = unitSize;
+    this.fixupBatchSize = fixupBatchSize;
+    return this;
+  }
+
+  /**
+   * Specify the algorithm to use for computing dominators of the heap.
+   *
+   * @param algorithm the algorithm to use for computing dominators.
+   * @return this Parser instance.
+   */
+  public Parser dominators(Dominators.Algorithm algorithm) {
+    if (algorithm == null) {
+      throw new NullPointerException("algorithm == null");
+    }
+    this.dominators = algorithm;
+    return this;
+  }
+
+  /**
+   * Specify a file to cache the dominator tree of the heap dump in. If
+   * given, the dominators are read from the cache file if it is up to date
+   * with the heap dump, and are computed and written to the cache file
+   * otherwise. Only the dominators are cached; parsing, reachability,
+   * retained sizes and allocation sites are redone each time the heap dump
+   * is parsed, so the cache saves only the time to compute dominators. This
+   * has no effect for heap dumps parsed from a byte buffer.
+   *
+   * @param cache the file to cache the dominators in, or null to not cache
+   *              the dominators.
+   * @return this Parser instance.
+   */
+  public Parser dominatorCache(File cache) {
+    this.dominatorCache = cache;
+    return this;
+  }
+
   /**
    * Parse the heap dump.
    *
@@ -125,10 +224,19 @@ public class Parser {
    * @return the parsed heap dump
    */
   public AhatSnapshot parse() throws IOException, HprofFormatException {
+    ExecutorService executor = null;
+    if (parallelism > 1) {
+      executor = Executors.newFixedThreadPool(parallelism);
+    }
+
     try {
-      return parseInternal();
+      return parseInternal(executor);
     } catch (BufferUnderflowException e) {
       throw new HprofFormatException("Unexpected end of file", e);
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
     }
   }
 
@@ -160,7 +268,8 @@ public class Parser {
     return new Parser(hprof).map(map).parse();
   }
 
-  private AhatSnapshot parseInternal() throws IOException, HprofFormatException {
+  private AhatSnapshot parseInternal(ExecutorService executor)
+      throws IOException, HprofFormatException {
     // Read, and mostly ignore, the hprof header info.
     int idSize;
     {
@@ -195,23 +304,29 @@ public class Parser {
       UnDenseMap<String> strings = new UnDenseMap<String>("String");
       strings.put(0, "???");
       DenseMap<ProguardMap.Frame> frames = new DenseMap<ProguardMap.Frame>("Stack Frame");
+
+      // Distinct frame ids frequently refer to the same line of code. Share a
+      // single Frame object for each so that site lookups usually succeed on
+      // the identity check rather than comparing strings.
+      Map<ProguardMap.Frame, ProguardMap.Frame> internedFrames = new HashMap<>();
       DenseMap<Site> sites = new DenseMap<Site>("Stack Trace");
       DenseMap<String> classNamesBySerial = new DenseMap<String>("Class Serial Number");
       AhatClassObj javaLangClass = null;
       AhatClassObj[] primArrayClasses = new AhatClassObj[Type.values().length];
       ArrayList<AhatClassObj> classes = new ArrayList<AhatClassObj>();
-      Instances<AhatClassObj> classById = null;
+      HeapDumpContext context = null;
+      List<HeapDumpUnit> units = new ArrayList<HeapDumpUnit>();
 
       progress.start("Reading hprof", hprof.size());
       while (hprof.hasRemaining()) {
         progress.update(hprof.tell());
         int tag = hprof.getU1();
         int time = hprof.getU4();
-        int recordLength = hprof.getU4();
+        long recordLength = hprof.getU4() & 0xFFFFFFFFL;
         switch (tag) {
           case 0x01: { // STRING
             long id = hprof.getId();
-            byte[] bytes = new byte[recordLength - idSize];
+            byte[] bytes = new byte[(int)(recordLength - idSize)];
             hprof.getBytes(bytes);
             String str = new String(bytes, StandardCharsets.UTF_8);
             strings.put(id, str);
@@ -258,7 +373,7 @@ public class Parser {
                 strings.get(methodSignatureStringId),
                 strings.get(methodFileNameStringId),
                 lineNumber);
-            frames.put(frameId, frame);
+            frames.put(frameId, internedFrames.computeIfAbsent(frame, f -> f));
             break;
           }
 
@@ -277,294 +392,33 @@ public class Parser {
 
           case 0x0C:   // HEAP DUMP
           case 0x1C: { // HEAP DUMP SEGMENT
-            int endOfRecord = hprof.tell() + recordLength;
-            if (classById == null) {
-              classById = new Instances<AhatClassObj>(classes);
+            long endOfRecord = hprof.tell() + recordLength;
+            if (context == null) {
+              context = new HeapDumpContext(idSize, strings, sites,
+                  new Instances<AhatClassObj>(classes), javaLangClass, primArrayClasses);
             }
-            while (hprof.tell() < endOfRecord) {
-              progress.update(hprof.tell());
-              int subtag = hprof.getU1();
-              switch (subtag) {
-                case 0x01: { // ROOT JNI GLOBAL
-                  long objectId = hprof.getId();
-                  long refId = hprof.getId();
-                  roots.add(new RootData(objectId, RootType.JNI_GLOBAL));
-                  break;
-                }
-
-                case 0x02: { // ROOT JNI LOCAL
-                  long objectId = hprof.getId();
-                  int threadSerialNumber = hprof.getU4();
-                  int frameNumber = hprof.getU4();
-                  roots.add(new RootData(objectId, RootType.JNI_LOCAL));
-                  break;
-                }
-
-                case 0x03: { // ROOT JAVA FRAME
-                  long objectId = hprof.getId();
-                  int threadSerialNumber = hprof.getU4();
-                  int frameNumber = hprof.getU4();
-                  roots.add(new RootData(objectId, RootType.JAVA_FRAME));
-                  break;
-                }
-
-                case 0x04: { // ROOT NATIVE STACK
-                  long objectId = hprof.getId();
-                  int threadSerialNumber = hprof.getU4();
-                  roots.add(new RootData(objectId, RootType.NATIVE_STACK));
-                  break;
-                }
-
-                case 0x05: { // ROOT STICKY CLASS
-                  long objectId = hprof.getId();
-                  roots.add(new RootData(objectId, RootType.STICKY_CLASS));
-                  break;
-                }
-
-                case 0x06: { // ROOT THREAD BLOCK
-                  long objectId = hprof.getId();
-                  int threadSerialNumber = hprof.getU4();
-                  roots.add(new RootData(objectId, RootType.THREAD_BLOCK));
-                  break;
-                }
-
-                case 0x07: { // ROOT MONITOR USED
-                  long objectId = hprof.getId();
-                  roots.add(new RootData(objectId, RootType.MONITOR));
-                  break;
-                }
-
-                case 0x08: { // ROOT THREAD OBJECT
-                  long objectId = hprof.getId();
-                  int threadSerialNumber = hprof.getU4();
-                  int stackSerialNumber = hprof.getU4();
-                  roots.add(new RootData(objectId, RootType.THREAD));
-                  break;
-                }
-
-                case 0x20: { // CLASS DUMP
-                  ClassObjData data = new ClassObjData();
-                  long objectId = hprof.getId();
-                  int stackSerialNumber = hprof.getU4();
-                  long superClassId = hprof.getId();
-                  data.classLoaderId = hprof.getId();
-                  long signersId = hprof.getId();
-                  long protectionId = hprof.getId();
-                  long reserved1 = hprof.getId();
-                  long reserved2 = hprof.getId();
-                  int instanceSize = hprof.getU4();
-                  int constantPoolSize = hprof.getU2();
-                  for (int i = 0; i < constantPoolSize; ++i) {
-                    int index = hprof.getU2();
-                    Type type = hprof.getType();
-                    hprof.skip(type.size(idSize));
-                  }
-                  int numStaticFields = hprof.getU2();
-                  data.staticFields = new FieldValue[numStaticFields];
-                  AhatClassObj obj = classById.get(objectId);
-                  String clrClassName = obj.getName();
-                  long staticFieldsSize = 0;
-                  for (int i = 0; i < numStaticFields; ++i) {
-                    String obfName = strings.get(hprof.getId());
-                    String clrName = map.getFieldName(clrClassName, obfName);
-                    Type type = hprof.getType();
-                    Value value = hprof.getDeferredValue(type);
-                    staticFieldsSize += type.size(idSize);
-                    data.staticFields[i] = new FieldValue(clrName, type, value);
-                  }
-                  AhatClassObj superClass = classById.get(superClassId);
-                  int numInstanceFields = hprof.getU2();
-                  Field[] ifields = new Field[numInstanceFields];
-                  for (int i = 0; i < numInstanceFields; ++i) {
-                    String name = map.getFieldName(obj.getName(), strings.get(hprof.getId()));
-                    ifields[i] = new Field(name, hprof.getType());
-                  }
-                  Site site = sites.get(stackSerialNumber);
-
-                  if (javaLangClass == null) {
-                    throw new HprofFormatException("No class definition found for java.lang.Class");
-                  }
-                  obj.initialize(heaps.getCurrentHeap(), site, javaLangClass);
-                  obj.initialize(superClass, instanceSize, ifields, staticFieldsSize);
-                  obj.setTemporaryUserData(data);
-                  break;
-                }
-
-                case 0x21: { // INSTANCE DUMP
-                  long objectId = hprof.getId();
-                  int stackSerialNumber = hprof.getU4();
-                  long classId = hprof.getId();
-                  int numBytes = hprof.getU4();
-                  ClassInstData data = new ClassInstData(hprof.tell());
-                  hprof.skip(numBytes);
-
-                  Site site = sites.get(stackSerialNumber);
-                  AhatClassObj classObj = classById.get(classId);
-                  AhatClassInstance obj = new AhatClassInstance(objectId);
-                  obj.initialize(heaps.getCurrentHeap(), site, classObj);
-                  obj.setTemporaryUserData(data);
-                  instances.add(obj);
-                  break;
+            if (parallelism == 1) {
+              HeapDumpUnit unit = new HeapDumpUnit(hprof.tell(), endOfRecord);
+              decodeHeapDumpUnit(hprof, context, unit, progress);
+              units.add(unit);
+            } else {
+              // Split the record at sub-record boundaries into units that can
+              // be decoded in parallel once all the strings, classes and
+              // stack traces have been read.
+              long start = hprof.tell();
+              while (hprof.tell() < endOfRecord) {
+                progress.update(hprof.tell());
+                skipSubRecord(hprof, idSize);
+                if (hprof.tell() - start >= unitSize) {
+                  units.add(new HeapDumpUnit(start, hprof.tell()));
+                  start = hprof.tell();
                 }
-
-                case 0x22: { // OBJECT ARRAY DUMP
-                  long objectId = hprof.getId();
-                  int stackSerialNumber = hprof.getU4();
-                  int length = hprof.getU4();
-                  long classId = hprof.getId();
-                  ObjArrayData data = new ObjArrayData(length, hprof.tell());
-                  hprof.skip(length * idSize);
-
-                  Site site = sites.get(stackSerialNumber);
-                  AhatClassObj classObj = classById.get(classId);
-                  AhatArrayInstance obj = new AhatArrayInstance(objectId, idSize);
-                  obj.initialize(heaps.getCurrentHeap(), site, classObj);
-                  obj.setTemporaryUserData(data);
-                  instances.add(obj);
-                  break;
-                }
-
-                case 0x23: { // PRIMITIVE ARRAY DUMP
-                  long objectId = hprof.getId();
-                  int stackSerialNumber = hprof.getU4();
-                  int length = hprof.getU4();
-                  Type type = hprof.getPrimitiveType();
-                  Site site = sites.get(stackSerialNumber);
-
-                  AhatClassObj classObj = primArrayClasses[type.ordinal()];
-                  if (classObj == null) {
-                    throw new HprofFormatException(
-                        "No class definition found for " + type.name + "[]");
-                  }
-
-                  AhatArrayInstance obj = new AhatArrayInstance(objectId, idSize);
-                  obj.initialize(heaps.getCurrentHeap(), site, classObj);
-                  instances.add(obj);
-                  switch (type) {
-                    case BOOLEAN: {
-                      boolean[] data = new boolean[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getBool();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case CHAR: {
-                      char[] data = new char[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getChar();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case FLOAT: {
-                      float[] data = new float[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getFloat();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case DOUBLE: {
-                      double[] data = new double[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getDouble();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case BYTE: {
-                      byte[] data = new byte[length];
-                      hprof.getBytes(data);
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case SHORT: {
-                      short[] data = new short[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getShort();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case INT: {
-                      int[] data = new int[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getInt();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-
-                    case LONG: {
-                      long[] data = new long[length];
-                      for (int i = 0; i < length; ++i) {
-                        data[i] = hprof.getLong();
-                      }
-                      obj.initialize(data);
-                      break;
-                    }
-                    default: throw new AssertionError("unsupported enum member");
-                  }
-                  break;
-                }
-
-                case 0x89: { // ROOT INTERNED STRING (ANDROID)
-                  long objectId = hprof.getId();
-                  roots.add(new RootData(objectId, RootType.INTERNED_STRING));
-                  break;
-                }
-
-                case 0x8a: { // ROOT FINALIZING (ANDROID)
-                  long objectId = hprof.getId();
-                  roots.add(new RootData(objectId, RootType.FINALIZING));
-                  break;
-                }
-
-                case 0x8b: { // ROOT DEBUGGER (ANDROID)
-                  long objectId = hprof.getId();
-                  roots.add(new RootData(objectId, RootType.DEBUGGER));
-                  break;
-                }
-
-                case 0x8d: { // ROOT VM INTERNAL (ANDROID)
-                  long objectId = hprof.getId();
-                  roots.add(new RootData(objectId, RootType.VM_INTERNAL));
-                  break;
-                }
-
-                case 0x8e: { // ROOT JNI MONITOR (ANDROID)
-                  long objectId = hprof.getId();
-                  int threadSerialNumber = hprof.getU4();
-                  int frameNumber = hprof.getU4();
-                  roots.add(new RootData(objectId, RootType.JNI_MONITOR));
-                  break;
-                }
-
-                case 0xfe: { // HEAP DUMP INFO (ANDROID)
-                  int type = hprof.getU4();
-                  long stringId = hprof.getId();
-                  heaps.setCurrentHeap(strings.get(stringId));
-                  break;
-                }
-
-                case 0xff: { // ROOT UNKNOWN
-                  long objectId = hprof.getId();
-                  roots.add(new RootData(objectId, RootType.UNKNOWN));
-                  break;
-                }
-
-                default:
-                  throw new HprofFormatException(
-                      String.format("Unsupported heap dump sub tag 0x%02x", subtag));
+              }
+              if (start < endOfRecord) {
+                units.add(new HeapDumpUnit(start, endOfRecord));
               }
             }
+            hprof.seek(endOfRecord);
             break;
           }
 
@@ -577,6 +431,47 @@ public class Parser {
       }
       progress.done();
 
+      if (parallelism > 1) {
+        long total = 0;
+        List<Future<?>> decoded = new ArrayList<Future<?>>();
+        for (HeapDumpUnit unit : units) {
+          final HeapDumpContext ctx = context;
+          final HprofBuffer buffer = hprof.duplicate();
+          total += unit.end - unit.start;
+          decoded.add(executor.submit(() -> {
+            decodeHeapDumpUnit(buffer, ctx, unit, new NullProgress());
+            return null;
+          }));
+        }
+
+        progress.start("Decoding heap dump", total);
+        for (int i = 0; i < units.size(); ++i) {
+          await(decoded.get(i));
+          progress.advance(units.get(i).end - units.get(i).start);
+        }
+        progress.done();
+      }
+
+      // Merge the decoded units in file order, assigning heaps to instances
+      // now that the current heap at the start of each unit is known.
+      for (HeapDumpUnit unit : units) {
+        int run = 0;
+        for (int i = 0; i < unit.objects.size(); ++i) {
+          while (run < unit.heapStarts.size() && unit.heapStarts.get(run) == i) {
+            heaps.setCurrentHeap(unit.heapNames.get(run++));
+          }
+          AhatInstance obj = unit.objects.get(i);
+          obj.setHeap(heaps.getCurrentHeap());
+          if (!obj.isClassObj()) {
+            instances.add(obj);
+          }
+        }
+        while (run < unit.heapStarts.size()) {
+          heaps.setCurrentHeap(unit.heapNames.get(run++));
+        }
+        roots.addAll(unit.roots);
+      }
+
       instances.addAll(classes);
     }
 
@@ -593,12 +488,14 @@ public class Parser {
     // Fixup pass: Label the root instances and fix up references to instances
     // that we couldn't previously resolve.
     SuperRoot superRoot = new SuperRoot();
+    HprofData data = hprof.getData(mInstances);
     {
       progress.start("Resolving references", mInstances.size());
       Iterator<RootData> ri = roots.iterator();
       RootData root = ri.next();
+      List<Future<Integer>> fixups = new ArrayList<Future<Integer>>();
+      List<AhatInstance> batch = new ArrayList<AhatInstance>();
       for (AhatInstance inst : mInstances) {
-        progress.advance();
         long id = inst.getId();
 
         // Skip past any roots that don't have associated instances.
@@ -618,61 +515,468 @@ public class Parser {
           }
         }
 
-        // Fixup the instance based on its type using the temporary data we
-        // saved during the first pass over the heap dump.
-        if (inst instanceof AhatClassInstance) {
-          ClassInstData data = (ClassInstData)inst.getTemporaryUserData();
-          inst.setTemporaryUserData(null);
-
-          // Compute the size of the fields array in advance to avoid
-          // extra allocations and copies that would come from using an array
-          // list to collect the field values.
-          int numFields = 0;
-          for (AhatClassObj cls = inst.getClassObj(); cls != null; cls = cls.getSuperClassObj()) {
-            numFields += cls.getInstanceFields().length;
+        if (parallelism == 1) {
+          progress.advance();
+          fixup(inst, data, mInstances);
+        } else {
+          batch.add(inst);
+          if (batch.size() == fixupBatchSize) {
+            fixups.add(submitFixups(executor, batch, data, mInstances));
+            batch = new ArrayList<AhatInstance>();
           }
+        }
+      }
 
-          Value[] fields = new Value[numFields];
-          int i = 0;
-          hprof.seek(data.position);
-          for (AhatClassObj cls = inst.getClassObj(); cls != null; cls = cls.getSuperClassObj()) {
-            for (Field field : cls.getInstanceFields()) {
-              fields[i++] = hprof.getValue(field.type, mInstances);
-            }
+      if (!batch.isEmpty()) {
+        fixups.add(submitFixups(executor, batch, data, mInstances));
+      }
+      for (Future<Integer> fixup : fixups) {
+        progress.advance(await(fixup));
+      }
+      progress.done();
+    }
+
+    hprof = null;
+    roots = null;
+    DominatorCache cache = null;
+    if (dominatorCache != null && hprofFile != null) {
+      cache = new DominatorCache(hprofFile, dominatorCache, retained, dominators);
+    }
+    return new AhatSnapshot(superRoot, mInstances, heaps.heaps, rootSite, progress, retained,
+        dominators, cache);
+  }
+
+  /**
+   * Fix up the given instance based on its type using the temporary data we
+   * saved during the first pass over the heap dump.
+   */
+  private static void fixup(AhatInstance inst, HprofData hprof, Instances<AhatInstance> instances) {
+    // Instance fields and array elements are decoded on demand from the heap
+    // dump, so only their position in the heap dump is recorded here.
+    if (inst instanceof AhatClassInstance) {
+      ClassInstData data = (ClassInstData)inst.getTemporaryUserData();
+      inst.setTemporaryUserData(null);
+      ((AhatClassInstance)inst).initialize(hprof, data.position);
+    } else if (inst instanceof AhatClassObj) {
+      ClassObjData data = (ClassObjData)inst.getTemporaryUserData();
+      inst.setTemporaryUserData(null);
+      AhatInstance loader = instances.get(data.classLoaderId);
+      for (int i = 0; i < data.staticFields.length; ++i) {
+        FieldValue field = data.staticFields[i];
+        if (field.value instanceof DeferredInstanceValue) {
+          DeferredInstanceValue deferred = (DeferredInstanceValue)field.value;
+          data.staticFields[i] = new FieldValue(
+              field.name, field.type, Value.pack(instances.get(deferred.getId())));
+        }
+      }
+      ((AhatClassObj)inst).initialize(loader, data.staticFields);
+    } else if (inst instanceof AhatArrayInstance) {
+      ArrayData data = (ArrayData)inst.getTemporaryUserData();
+      inst.setTemporaryUserData(null);
+      ((AhatArrayInstance)inst).initialize(hprof, data.type, data.length, data.position);
+    }
+  }
+
+  /**
+   * Submits a task to fix up the given batch of instances. The task returns
+   * the number of instances fixed up.
+   */
+  private static Future<Integer> submitFixups(ExecutorService executor,
+      List<AhatInstance> batch, HprofData hprof, Instances<AhatInstance> instances) {
+    return executor.submit(() -> {
+      for (AhatInstance inst : batch) {
+        fixup(inst, hprof, instances);
+      }
+      return batch.size();
+    });
+  }
+
+  /**
+   * Waits for the given task to complete, rethrowing any exception thrown by
+   * the task.
+   */
+  private static <T> T await(Future<T> future) throws IOException, HprofFormatException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing heap dump");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof HprofFormatException) {
+        throw (HprofFormatException)cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new AssertionError(cause);
+    }
+  }
+
+  /**
+   * Decodes the heap dump sub-records in the given unit, saving the
+   * constructed instances and roots to the unit.
+   * <p>
+   * Heaps are not assigned to the instances here, because the current heap
+   * at the start of a unit is not known until all previous units have been
+   * decoded. Instead the heap dump info records are saved to the unit and
+   * heaps are assigned when the units are merged.
+   */
+  private void decodeHeapDumpUnit(HprofBuffer hprof, HeapDumpContext context,
+      HeapDumpUnit unit, Progress progress) throws HprofFormatException {
+    int idSize = context.idSize;
+    UnDenseMap<String> strings = context.strings;
+    DenseMap<Site> sites = context.sites;
+    Instances<AhatClassObj> classById = context.classById;
+    AhatClassObj javaLangClass = context.javaLangClass;
+    AhatClassObj[] primArrayClasses = context.primArrayClasses;
+
+    hprof.seek(unit.start);
+    while (hprof.tell() < unit.end) {
+      progress.update(hprof.tell());
+      int subtag = hprof.getU1();
+      switch (subtag) {
+        case 0x01: { // ROOT JNI GLOBAL
+          long objectId = hprof.getId();
+          long refId = hprof.getId();
+          unit.roots.add(new RootData(objectId, RootType.JNI_GLOBAL));
+          break;
+        }
+
+        case 0x02: { // ROOT JNI LOCAL
+          long objectId = hprof.getId();
+          int threadSerialNumber = hprof.getU4();
+          int frameNumber = hprof.getU4();
+          unit.roots.add(new RootData(objectId, RootType.JNI_LOCAL));
+          break;
+        }
+
+        case 0x03: { // ROOT JAVA FRAME
+          long objectId = hprof.getId();
+          int threadSerialNumber = hprof.getU4();
+          int frameNumber = hprof.getU4();
+          unit.roots.add(new RootData(objectId, RootType.JAVA_FRAME));
+          break;
+        }
+
+        case 0x04: { // ROOT NATIVE STACK
+          long objectId = hprof.getId();
+          int threadSerialNumber = hprof.getU4();
+          unit.roots.add(new RootData(objectId, RootType.NATIVE_STACK));
+          break;
+        }
+
+        case 0x05: { // ROOT STICKY CLASS
+          long objectId = hprof.getId();
+          unit.roots.add(new RootData(objectId, RootType.STICKY_CLASS));
+          break;
+        }
+
+        case 0x06: { // ROOT THREAD BLOCK
+          long objectId = hprof.getId();
+          int threadSerialNumber = hprof.getU4();
+          unit.roots.add(new RootData(objectId, RootType.THREAD_BLOCK));
+          break;
+        }
+
+        case 0x07: { // ROOT MONITOR USED
+          long objectId = hprof.getId();
+          unit.roots.add(new RootData(objectId, RootType.MONITOR));
+          break;
+        }
+
+        case 0x08: { // ROOT THREAD OBJECT
+          long objectId = hprof.getId();
+          int threadSerialNumber = hprof.getU4();
+          int stackSerialNumber = hprof.getU4();
+          unit.roots.add(new RootData(objectId, RootType.THREAD));
+          break;
+        }
+
+        case 0x20: { // CLASS DUMP
+          ClassObjData data = new ClassObjData();
+          long objectId = hprof.getId();
+          int stackSerialNumber = hprof.getU4();
+          long superClassId = hprof.getId();
+          data.classLoaderId = hprof.getId();
+          long signersId = hprof.getId();
+          long protectionId = hprof.getId();
+          long reserved1 = hprof.getId();
+          long reserved2 = hprof.getId();
+          int instanceSize = hprof.getU4();
+          int constantPoolSize = hprof.getU2();
+          for (int i = 0; i < constantPoolSize; ++i) {
+            int index = hprof.getU2();
+            Type type = hprof.getType();
+            hprof.skip(type.size(idSize));
           }
-          ((AhatClassInstance)inst).initialize(fields);
-        } else if (inst instanceof AhatClassObj) {
-          ClassObjData data = (ClassObjData)inst.getTemporaryUserData();
-          inst.setTemporaryUserData(null);
-          AhatInstance loader = mInstances.get(data.classLoaderId);
-          for (int i = 0; i < data.staticFields.length; ++i) {
-            FieldValue field = data.staticFields[i];
-            if (field.value instanceof DeferredInstanceValue) {
-              DeferredInstanceValue deferred = (DeferredInstanceValue)field.value;
-              data.staticFields[i] = new FieldValue(
-                  field.name, field.type, Value.pack(mInstances.get(deferred.getId())));
-            }
+          int numStaticFields = hprof.getU2();
+          data.staticFields = new FieldValue[numStaticFields];
+          AhatClassObj obj = classById.get(objectId);
+          String clrClassName = obj.getName();
+          long staticFieldsSize = 0;
+          for (int i = 0; i < numStaticFields; ++i) {
+            String obfName = strings.get(hprof.getId());
+            String clrName = map.getFieldName(clrClassName, obfName);
+            Type type = hprof.getType();
+            Value value = hprof.getDeferredValue(type);
+            staticFieldsSize += type.size(idSize);
+            data.staticFields[i] = new FieldValue(clrName, type, value);
+          }
+          AhatClassObj superClass = classById.get(superClassId);
+          int numInstanceFields = hprof.getU2();
+          Field[] ifields = new Field[numInstanceFields];
+          for (int i = 0; i < numInstanceFields; ++i) {
+            String name = map.getFieldName(obj.getName(), strings.get(hprof.getId()));
+            ifields[i] = new Field(name, hprof.getType());
           }
-          ((AhatClassObj)inst).initialize(loader, data.staticFields);
-        } else if (inst instanceof AhatArrayInstance && inst.getTemporaryUserData() != null) {
-          // TODO: Have specialized object array instance and check for that
-          // rather than checking for the presence of user data?
-          ObjArrayData data = (ObjArrayData)inst.getTemporaryUserData();
-          inst.setTemporaryUserData(null);
-          AhatInstance[] array = new AhatInstance[data.length];
-          hprof.seek(data.position);
-          for (int i = 0; i < data.length; i++) {
-            array[i] = mInstances.get(hprof.getId());
+          Site site = sites.get(stackSerialNumber);
+
+          if (javaLangClass == null) {
+            throw new HprofFormatException("No class definition found for java.lang.Class");
           }
-          ((AhatArrayInstance)inst).initialize(array);
+          obj.initialize(null, site, javaLangClass);
+          obj.initialize(superClass, instanceSize, ifields, staticFieldsSize);
+          obj.setTemporaryUserData(data);
+          unit.objects.add(obj);
+          break;
+        }
+
+        case 0x21: { // INSTANCE DUMP
+          long objectId = hprof.getId();
+          int stackSerialNumber = hprof.getU4();
+          long classId = hprof.getId();
+          int numBytes = hprof.getU4();
+          ClassInstData data = new ClassInstData(hprof.tell());
+          hprof.skip(numBytes);
+
+          Site site = sites.get(stackSerialNumber);
+          AhatClassObj classObj = classById.get(classId);
+          AhatClassInstance obj = new AhatClassInstance(objectId);
+          obj.initialize(null, site, classObj);
+          obj.setTemporaryUserData(data);
+          unit.objects.add(obj);
+          break;
+        }
+
+        case 0x22: { // OBJECT ARRAY DUMP
+          long objectId = hprof.getId();
+          int stackSerialNumber = hprof.getU4();
+          int length = hprof.getU4();
+          long classId = hprof.getId();
+          ArrayData data = new ArrayData(Type.OBJECT, length, hprof.tell());
+          hprof.skip((long)length * idSize);
+
+          Site site = sites.get(stackSerialNumber);
+          AhatClassObj classObj = classById.get(classId);
+          AhatArrayInstance obj = new AhatArrayInstance(objectId, idSize);
+          obj.initialize(null, site, classObj);
+          obj.setTemporaryUserData(data);
+          unit.objects.add(obj);
+          break;
         }
+
+        case 0x23: { // PRIMITIVE ARRAY DUMP
+          long objectId = hprof.getId();
+          int stackSerialNumber = hprof.getU4();
+          int length = hprof.getU4();
+          Type type = hprof.getPrimitiveType();
+          Site site = sites.get(stackSerialNumber);
+
+          AhatClassObj classObj = primArrayClasses[type.ordinal()];
+          if (classObj == null) {
+            throw new HprofFormatException(
+                "No class definition found for " + type.name + "[]");
+          }
+
+          AhatArrayInstance obj = new AhatArrayInstance(objectId, idSize);
+          obj.initialize(null, site, classObj);
+          obj.setTemporaryUserData(new ArrayData(type, length, hprof.tell()));
+          unit.objects.add(obj);
+          hprof.skip((long)length * type.size(idSize));
+          break;
+        }
+
+        case 0x89: { // ROOT INTERNED STRING (ANDROID)
+          long objectId = hprof.getId();
+          unit.roots.add(new RootData(objectId, RootType.INTERNED_STRING));
+          break;
+        }
+
+        case 0x8a: { // ROOT FINALIZING (ANDROID)
+          long objectId = hprof.getId();
+          unit.roots.add(new RootData(objectId, RootType.FINALIZING));
+          break;
+        }
+
+        case 0x8b: { // ROOT DEBUGGER (ANDROID)
+          long objectId = hprof.getId();
+          unit.roots.add(new RootData(objectId, RootType.DEBUGGER));
+          break;
+        }
+
+        case 0x8d: { // ROOT VM INTERNAL (ANDROID)
+          long objectId = hprof.getId();
+          unit.roots.add(new RootData(objectId, RootType.VM_INTERNAL));
+          break;
+        }
+
+        case 0x8e: { // ROOT JNI MONITOR (ANDROID)
+          long objectId = hprof.getId();
+          int threadSerialNumber = hprof.getU4();
+          int frameNumber = hprof.getU4();
+          unit.roots.add(new RootData(objectId, RootType.JNI_MONITOR));
+          break;
+        }
+
+        case 0xfe: { // HEAP DUMP INFO (ANDROID)
+          int type = hprof.getU4();
+          long stringId = hprof.getId();
+          unit.heapStarts.add(unit.objects.size());
+          unit.heapNames.add(strings.get(stringId));
+          break;
+        }
+
+        case 0xff: { // ROOT UNKNOWN
+          long objectId = hprof.getId();
+          unit.roots.add(new RootData(objectId, RootType.UNKNOWN));
+          break;
+        }
+
+        default:
+          throw new HprofFormatException(
+              String.format("Unsupported heap dump sub tag 0x%02x", subtag));
       }
-      progress.done();
     }
+  }
 
-    hprof = null;
-    roots = null;
-    return new AhatSnapshot(superRoot, mInstances, heaps.heaps, rootSite, progress, retained);
+  /**
+   * Skips over the next heap dump sub-record without decoding it.
+   */
+  private static void skipSubRecord(HprofBuffer hprof, int idSize) throws HprofFormatException {
+    int subtag = hprof.getU1();
+    switch (subtag) {
+      case 0x05:   // ROOT STICKY CLASS
+      case 0x07:   // ROOT MONITOR USED
+      case 0x89:   // ROOT INTERNED STRING (ANDROID)
+      case 0x8a:   // ROOT FINALIZING (ANDROID)
+      case 0x8b:   // ROOT DEBUGGER (ANDROID)
+      case 0x8d:   // ROOT VM INTERNAL (ANDROID)
+      case 0xff:   // ROOT UNKNOWN
+        hprof.skip(idSize);
+        break;
+
+      case 0x04:   // ROOT NATIVE STACK
+      case 0x06:   // ROOT THREAD BLOCK
+        hprof.skip(idSize + 4);
+        break;
+
+      case 0x02:   // ROOT JNI LOCAL
+      case 0x03:   // ROOT JAVA FRAME
+      case 0x08:   // ROOT THREAD OBJECT
+      case 0x8e:   // ROOT JNI MONITOR (ANDROID)
+        hprof.skip(idSize + 8);
+        break;
+
+      case 0x01:   // ROOT JNI GLOBAL
+        hprof.skip(2 * idSize);
+        break;
+
+      case 0xfe:   // HEAP DUMP INFO (ANDROID)
+        hprof.skip(4 + idSize);
+        break;
+
+      case 0x20: { // CLASS DUMP
+        hprof.skip(7 * idSize + 8);
+        int constantPoolSize = hprof.getU2();
+        for (int i = 0; i < constantPoolSize; ++i) {
+          hprof.skip(2);
+          hprof.skip(hprof.getType().size(idSize));
+        }
+        int numStaticFields = hprof.getU2();
+        for (int i = 0; i < numStaticFields; ++i) {
+          hprof.skip(idSize);
+          hprof.skip(hprof.getType().size(idSize));
+        }
+        int numInstanceFields = hprof.getU2();
+        hprof.skip(numInstanceFields * (idSize + 1));
+        break;
+      }
+
+      case 0x21: { // INSTANCE DUMP
+        hprof.skip(2 * idSize + 4);
+        hprof.skip(hprof.getU4());
+        break;
+      }
+
+      case 0x22: { // OBJECT ARRAY DUMP
+        hprof.skip(idSize + 4);
+        int length = hprof.getU4();
+        hprof.skip(idSize);
+        hprof.skip((long)length * idSize);
+        break;
+      }
+
+      case 0x23: { // PRIMITIVE ARRAY DUMP
+        hprof.skip(idSize + 4);
+        int length = hprof.getU4();
+        Type type = hprof.getPrimitiveType();
+        hprof.skip((long)length * type.size(idSize));
+        break;
+      }
+
+      default:
+        throw new HprofFormatException(
+            String.format("Unsupported heap dump sub tag 0x%02x", subtag));
+    }
+  }
+
+  /**
+   * Information from the non heap dump records of the hprof file needed to
+   * decode heap dump records.
+   */
+  private static class HeapDumpContext {
+    public final int idSize;
+    public final UnDenseMap<String> strings;
+    public final DenseMap<Site> sites;
+    public final Instances<AhatClassObj> classById;
+    public final AhatClassObj javaLangClass;
+    public final AhatClassObj[] primArrayClasses;
+
+    public HeapDumpContext(int idSize, UnDenseMap<String> strings, DenseMap<Site> sites,
+        Instances<AhatClassObj> classById, AhatClassObj javaLangClass,
+        AhatClassObj[] primArrayClasses) {
+      this.idSize = idSize;
+      this.strings = strings;
+      this.sites = sites;
+      this.classById = classById;
+      this.javaLangClass = javaLangClass;
+      this.primArrayClasses = primArrayClasses;
+    }
+  }
+
+  /**
+   * A range of heap dump sub-records that can be decoded independently of
+   * other ranges, along with the results of decoding it.
+   */
+  private static class HeapDumpUnit {
+    public final long start;
+    public final long end;
+
+    // The instances and class objects in the unit, in the order they appear.
+    public final List<AhatInstance> objects = new ArrayList<AhatInstance>();
+    public final List<RootData> roots = new ArrayList<RootData>();
+
+    // The heap named heapNames[i] is the current heap for objects starting
+    // at index heapStarts[i].
+    public final List<Integer> heapStarts = new ArrayList<Integer>();
+    public final List<String> heapNames = new ArrayList<String>();
+
+    public HeapDumpUnit(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
   }
 
   private static class RootData {
@@ -687,18 +991,20 @@ public class Parser {
 
   private static class ClassInstData {
     // The byte position in the hprof file where instance field data starts.
-    public int position;
+    public long position;
 
-    public ClassInstData(int position) {
+    public ClassInstData(long position) {
       this.position = position;
     }
   }
 
-  private static class ObjArrayData {
+  private static class ArrayData {
+    public Type type;           // Type of the array elements.
     public int length;          // Number of array elements.
-    public int position;        // Position in hprof file containing element data.
+    public long position;       // Position in hprof file containing element data.
 
-    public ObjArrayData(int length, int position) {
+    public ArrayData(Type type, int length, long position) {
+      this.type = type;
       this.length = length;
       this.position = position;
     }
@@ -903,19 +1209,93 @@ public class Parser {
   /**
    * Wrapper around a ByteBuffer that presents a uniform interface for
    * accessing data from an hprof file.
+   * <p>
+   * Hprof files larger than 2 GiB cannot be mapped with a single ByteBuffer,
+   * so files are mapped as a sequence of chunks. Consecutive chunks overlap
+   * by CHUNK_OVERLAP bytes, which guarantees that any primitive value that
+   * starts within a chunk can be read in its entirety from that chunk.
    */
   private static class HprofBuffer {
+    // The number of bytes of the file covered by each chunk, not counting the
+    // overlap with the next chunk.
+    static final long CHUNK_SIZE = 1L << 30;
+
+    // The number of bytes each chunk overlaps with the next chunk. This must
+    // be at least as large as the largest primitive value read from the file.
+    private static final int CHUNK_OVERLAP = 8;
+
     private boolean mIdSize8;
-    private final ByteBuffer mBuffer;
+    private final ByteBuffer[] mChunks;
+    private final long mChunkSize;
+    private final long mSize;
+
+    // The current chunk and the index of that chunk in mChunks.
+    private ByteBuffer mBuffer;
+    private int mChunk;
+
+    public HprofBuffer(File path, long chunkSize) throws IOException {
+      try (FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+        mSize = channel.size();
+        mChunkSize = chunkSize;
+        mChunks = new ByteBuffer[numChunks(mSize, chunkSize)];
+        for (int i = 0; i < mChunks.length; ++i) {
+          long start = i * chunkSize;
+          long length = Math.min(mSize - start, chunkSize + CHUNK_OVERLAP);
+          mChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+      }
+      mBuffer = mChunks[0];
+    }
 
-    public HprofBuffer(File path) throws IOException {
-      FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ);
-      mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-      channel.close();
+    public HprofBuffer(ByteBuffer buffer, long chunkSize) {
+      mSize = buffer.capacity();
+      mChunkSize = chunkSize;
+      mChunks = new ByteBuffer[numChunks(mSize, chunkSize)];
+      if (mChunks.length == 1) {
+        mChunks[0] = buffer;
+      } else {
+        for (int i = 0; i < mChunks.length; ++i) {
+          int start = (int)(i * chunkSize);
+          int length = (int)Math.min(mSize - start, chunkSize + CHUNK_OVERLAP);
+          ByteBuffer chunk = buffer.duplicate();
+          chunk.position(start).limit(start + length);
+          mChunks[i] = chunk.slice().order(buffer.order());
+        }
+      }
+      mBuffer = mChunks[0];
     }
 
-    public HprofBuffer(ByteBuffer buffer) {
-      mBuffer = buffer;
+    private static int numChunks(long size, long chunkSize) {
+      // Written to avoid overflow when chunkSize is Long.MAX_VALUE.
+      return (int)Math.max(1, (size - 1) / chunkSize + 1);
+    }
+
+    private HprofBuffer(HprofBuffer buffer) {
+      mIdSize8 = buffer.mIdSize8;
+      mSize = buffer.mSize;
+      mChunkSize = buffer.mChunkSize;
+      mChunks = new ByteBuffer[buffer.mChunks.length];
+      for (int i = 0; i < mChunks.length; ++i) {
+        mChunks[i] = buffer.mChunks[i].duplicate().order(buffer.mChunks[i].order());
+      }
+      mBuffer = mChunks[0];
+      seek(buffer.tell());
+    }
+
+    /**
+     * Returns an HprofData for random access to the contents of this buffer,
+     * using the given instances to look up instances referred to by id.
+     */
+    public HprofData getData(Instances<AhatInstance> instances) {
+      return new HprofData(mChunks, mChunkSize, mIdSize8 ? 8 : 4, instances);
+    }
+
+    /**
+     * Returns a new HprofBuffer sharing the contents of this buffer, but with
+     * an independent position, for use by another thread.
+     */
+    public HprofBuffer duplicate() {
+      return new HprofBuffer(this);
     }
 
     public void setIdSize8() {
@@ -923,92 +1303,117 @@ public class Parser {
     }
 
     public boolean hasRemaining() {
-      return mBuffer.hasRemaining();
+      return tell() < mSize;
     }
 
     /**
      * Returns the size of the file in bytes.
      */
-    public int size() {
-      return mBuffer.capacity();
+    public long size() {
+      return mSize;
     }
 
     /**
      * Return the current absolution position in the file.
      */
-    public int tell() {
-      return mBuffer.position();
+    public long tell() {
+      return mChunk * mChunkSize + mBuffer.position();
     }
 
     /**
      * Seek to the given absolution position in the file.
      */
-    public void seek(int position) {
-      mBuffer.position(position);
+    public void seek(long position) {
+      mChunk = (int)Math.min(position / mChunkSize, mChunks.length - 1);
+      mBuffer = mChunks[mChunk];
+      mBuffer.position((int)(position - mChunk * mChunkSize));
     }
 
     /**
      * Skip ahead in the file by the given delta bytes. Delta may be negative
      * to skip backwards in the file.
      */
-    public void skip(int delta) {
+    public void skip(long delta) {
       seek(tell() + delta);
     }
 
+    /**
+     * Returns the chunk to read the next value from, moving on to the next
+     * chunk if the current position has advanced past the end of the
+     * current chunk's non-overlapping region.
+     */
+    private ByteBuffer buffer() {
+      if (mBuffer.position() >= mChunkSize && mChunk + 1 < mChunks.length) {
+        seek(tell());
+      }
+      return mBuffer;
+    }
+
     public int getU1() {
-      return mBuffer.get() & 0xFF;
+      return buffer().get() & 0xFF;
     }
 
     public int getU2() {
-      return mBuffer.getShort() & 0xFFFF;
+      return buffer().getShort() & 0xFFFF;
     }
 
     public int getU4() {
-      return mBuffer.getInt();
+      return buffer().getInt();
     }
 
     public long getId() {
       if (mIdSize8) {
-        return mBuffer.getLong();
+        return buffer().getLong();
       } else {
-        return mBuffer.getInt() & 0xFFFFFFFFL;
+        return buffer().getInt() & 0xFFFFFFFFL;
       }
     }
 
     public boolean getBool() {
-      return mBuffer.get() != 0;
+      return buffer().get() != 0;
     }
 
     public char getChar() {
-      return mBuffer.getChar();
+      return buffer().getChar();
     }
 
     public float getFloat() {
-      return mBuffer.getFloat();
+      return buffer().getFloat();
     }
 
     public double getDouble() {
-      return mBuffer.getDouble();
+      return buffer().getDouble();
     }
 
     public byte getByte() {
-      return mBuffer.get();
+      return buffer().get();
     }
 
     public void getBytes(byte[] bytes) {
-      mBuffer.get(bytes);
+      // Large byte arrays may span multiple chunks, so copy them piecewise.
+      int offset = 0;
+      while (offset < bytes.length) {
+        ByteBuffer buffer = buffer();
+        long available = Math.min(buffer.remaining(), mChunkSize - buffer.position());
+        int length = (int)Math.min(bytes.length - offset, available);
+        if (length == 0) {
+          throw new BufferUnderflowException();
+        }
+        buffer.get(bytes, offset, length);
+        offset += length;
+      }
     }
 
     public short getShort() {
-      return mBuffer.getShort();
+      return buffer().getShort();
     }
 
     public int getInt() {
-      return mBuffer.getInt();
+      return buffer().getInt();
     }
 
     public long getLong() {
-      return mBuffer.getLong();
+      return buffer().getLong();
     }
 
     private static Type[] TYPES = new Type[] {
@@ -1034,25 +1439,6 @@ public class Parser {
       return type;
     }
 
-    /**
-     * Get a value from the hprof file, using the given instances map to
-     * convert instance ids to their corresponding AhatInstance objects.
-     */
-    public Value getValue(Type type, Instances instances) {
-      switch (type) {
-        case OBJECT:  return Value.pack(instances.get(getId()));
-        case BOOLEAN: return Value.pack(getBool());
-        case CHAR: return Value.pack(getChar());
-        case FLOAT: return Value.pack(getFloat());
-        case DOUBLE: return Value.pack(getDouble());
-        case BYTE: return Value.pack(getByte());
-        case SHORT: return Value.pack(getShort());
-        case INT: return Value.pack(getInt());
-        case LONG: return Value.pack(getLong());
-        default: throw new AssertionError("unsupported enum member");
-      }
-    }
-
     /**
      * Get a value from the hprof file. AhatInstance values are returned as
      * DefferredInstanceValues rather than their corresponding AhatInstance
@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import com.android.ahat.progress.Progress;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The references between the instances of a heap dump, stored in compressed
+ * sparse row form so that traversing the graph doesn't require allocating
+ * anything per reference.
+ * <p>
+ * Instances are identified by their index in the snapshot's Instances. The
+ * references from the instance with index i are mTargets[mOffsets[i]]
+ * through mTargets[mOffsets[i + 1] - 1], with the reachability of each
+ * reference stored in the corresponding entry of mStrengths. The reverse
+ * references are stored the same way once reachability has been computed.
+ * <p>
+ * The graph also answers retention queries on demand, such as which paths
+ * retain an instance or what would be freed if some instances were freed.
+ * These searches keep their state in bit sets indexed by instance index,
+ * and only visit the part of the graph relevant to the query.
+ */
+class ReferenceGraph {
+  private static final Reachability[] REACHABILITIES = Reachability.values();
+
+  // The largest number of references that can be stored in an array.
+  private static final int MAX_REFERENCES = Integer.MAX_VALUE - 8;
+
+  private final Instances<AhatInstance> mInstances;
+
+  private final int[] mOffsets;
+  private final int[] mTargets;
+  private final byte[] mStrengths;
+
+  // Fields initialized in computeReachability(). Only references from
+  // reachable instances are included in the reverse references.
+  private int[] mReverseOffsets;
+  private int[] mReverseSources;
+  private byte[] mReverseStrengths;
+
+  // Fields initialized in setRoots().
+  private BitSet mRoots;
+  private Reachability mRetained;
+
+  /**
+   * Collects the references of all the given instances.
+   */
+  ReferenceGraph(Instances<AhatInstance> instances, Progress progress) {
+    mInstances = instances;
+
+    int numInsts = instances.size();
+    progress.start("Collecting references", numInsts);
+    Builder builder = new Builder(instances);
+    mOffsets = new int[numInsts + 1];
+    for (int i = 0; i < numInsts; ++i) {
+      progress.advance();
+      instances.getAt(i).visitReferences(builder);
+      mOffsets[i + 1] = builder.mSize;
+    }
+    mTargets = builder.mTargets;
+    mStrengths = builder.mStrengths;
+    progress.done();
+  }
+
+  /**
+   * Determine the reachability of all instances reachable from the given
+   * root instance, and compute the reverse references of all reachable
+   * instances.
+   * <p>
+   * This does a breadth first search through strong references, then
+   * continues the breadth first search through each weaker kind of
+   * reference in turn. Entries in the search queues are references encoded
+   * as the index of the source instance in the upper 32 bits and the
+   * position of the reference in mTargets in the lower 32 bits. References
+   * from the root are encoded with a source index of -1 and the index of the
+   * target in the lower 32 bits.
+   */
+  void computeReachability(SuperRoot root, Progress progress) {
+    progress.start("Computing reachability", mInstances.size());
+    LongQueue[] queues = new LongQueue[REACHABILITIES.length];
+    for (int i = 0; i < queues.length; ++i) {
+      queues[i] = new LongQueue();
+    }
+
+    LongQueue strong = queues[Reachability.STRONG.ordinal()];
+    root.visitReferences((ref, reachability) -> {
+      strong.add(encode(-1, mInstances.indexOf(ref.getId())));
+    });
+
+    for (Reachability reachability : REACHABILITIES) {
+      LongQueue queue = queues[reachability.ordinal()];
+      while (!queue.isEmpty()) {
+        long entry = queue.poll();
+        int src = (int)(entry >> 32);
+        int dst = src < 0 ? (int)entry : mTargets[(int)entry];
+        AhatInstance inst = mInstances.getAt(dst);
+        if (inst.getReachability() == Reachability.UNREACHABLE) {
+          // This is the first time we have seen inst.
+          progress.advance();
+          inst.setReachability(reachability, src < 0 ? root : mInstances.getAt(src), this);
+
+          for (int i = mOffsets[dst]; i < mOffsets[dst + 1]; ++i) {
+            int strength = mStrengths[i];
+            if (strength <= reachability.ordinal()) {
+              queue.add(encode(dst, i));
+            } else {
+              queues[strength].add(encode(dst, i));
+            }
+          }
+        }
+      }
+    }
+    progress.done();
+
+    computeReverseReferences();
+  }
+
+  private static long encode(int src, int index) {
+    return ((long)src << 32) | (index & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Builds the reverse references from the forward references of all
+   * reachable instances. The reverse references of each instance are
+   * ordered by the index of the referencing instance.
+   */
+  private void computeReverseReferences() {
+    int numInsts = mInstances.size();
+    mReverseOffsets = new int[numInsts + 1];
+    for (int src = 0; src < numInsts; ++src) {
+      if (!mInstances.getAt(src).isUnreachable()) {
+        for (int i = mOffsets[src]; i < mOffsets[src + 1]; ++i) {
+          mReverseOffsets[mTargets[i] + 1]++;
+        }
+      }
+    }
+    for (int i = 0; i < numInsts; ++i) {
+      mReverseOffsets[i + 1] += mReverseOffsets[i];
+    }
+
+    int numReverse = mReverseOffsets[numInsts];
+    mReverseSources = new int[numReverse];
+    mReverseStrengths = new byte[numReverse];
+    int[] fill = Arrays.copyOf(mReverseOffsets, numInsts);
+    for (int src = 0; src < numInsts; ++src) {
+      if (!mInstances.getAt(src).isUnreachable()) {
+        for (int i = mOffsets[src]; i < mOffsets[src + 1]; ++i) {
+          int pos = fill[mTargets[i]]++;
+          mReverseSources[pos] = src;
+          mReverseStrengths[pos] = mStrengths[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the instances with any kind of reference to the given instance.
+   */
+  List<AhatInstance> getReverseReferences(AhatInstance inst) {
+    int index = mInstances.indexOf(inst.getId());
+    final int start = mReverseOffsets[index];
+    final int end = mReverseOffsets[index + 1];
+    return new AbstractList<AhatInstance>() {
+      @Override
+      public int size() {
+        return end - start;
+      }
+
+      @Override
+      public AhatInstance get(int i) {
+        if (i < 0 || i >= end - start) {
+          throw new IndexOutOfBoundsException();
+        }
+        return mInstances.getAt(mReverseSources[start + i]);
+      }
+    };
+  }
+
+  /**
+   * Returns the instances with strong references to the given instance
+   * if strong is true, or the instances with soft, weak, phantom or
+   * finalizer references to the given instance otherwise. References from
+   * instances that are not themselves strongly reachable are considered
+   * weak.
+   */
+  List<AhatInstance> getReverseReferences(AhatInstance inst, boolean strong) {
+    int index = mInstances.indexOf(inst.getId());
+    List<AhatInstance> refs = new ArrayList<AhatInstance>();
+    for (int i = mReverseOffsets[index]; i < mReverseOffsets[index + 1]; ++i) {
+      AhatInstance src = mInstances.getAt(mReverseSources[i]);
+      boolean isStrong = mReverseStrengths[i] == Reachability.STRONG.ordinal()
+        && src.getReachability() == Reachability.STRONG;
+      if (isStrong == strong) {
+        refs.add(src);
+      }
+    }
+    return refs;
+  }
+
+  /**
+   * Returns the instances referenced by the given instance with references
+   * at least as strong as the given reachability.
+   */
+  Iterable<AhatInstance> getReferencesForDominators(AhatInstance inst, Reachability retained) {
+    int index = mInstances.indexOf(inst.getId());
+    return new DominatorReferenceIterator(mInstances, mTargets, mStrengths,
+        mOffsets[index], mOffsets[index + 1], retained);
+  }
+
+  /**
+   * Records the GC roots and the weakest reachability of instances treated
+   * as retained, which the retention queries need. This must be called once
+   * all roots have been added to the given root.
+   */
+  void setRoots(SuperRoot root, Reachability retained) {
+    mRoots = new BitSet(mInstances.size());
+    for (AhatInstance inst : root.getRoots()) {
+      mRoots.set(mInstances.indexOf(inst.getId()));
+    }
+    mRetained = retained;
+  }
+
+  /**
+   * Returns true if the reverse reference at position i of
+   * mReverseSources is from an instance at least as strongly reachable as
+   * the reachability with the given ordinal, and is itself at least that
+   * strong.
+   */
+  private boolean isReverseReferenceAtLeast(int i, int reachability) {
+    return mReverseStrengths[i] <= reachability
+      && mInstances.getAt(mReverseSources[i]).getReachability().ordinal() <= reachability;
+  }
+
+  /**
+   * Returns up to k shortest paths from GC roots to the given instance, each
+   * from a different GC root, shortest first. See
+   * {@link AhatInstance#getPathsFromGcRoots}.
+   * <p>
+   * This does a breadth first search backwards from the instance through
+   * references at least as strong as the instance's reachability, stopping
+   * as soon as k roots have been found. The search doesn't continue past
+   * roots, so no path goes through more than one root.
+   */
+  List<List<PathElement>> getPathsFromGcRoots(AhatInstance inst, int k) {
+    List<List<PathElement>> paths = new ArrayList<List<PathElement>>();
+    int target = mInstances.indexOf(inst.getId());
+    if (target < 0 || k <= 0 || (inst.isUnreachable() && !mRoots.get(target))) {
+      return paths;
+    }
+
+    Reachability reachability = inst.getReachability();
+    Set<AhatInstance> dominators = new HashSet<AhatInstance>();
+    for (AhatInstance dom = inst; dom != null; dom = dom.getImmediateDominator()) {
+      dominators.add(dom);
+    }
+
+    // The instances visited, in the order they are visited, which doubles
+    // as the queue of the search. after[i] is the position in visits of the
+    // instance after visits[i] on a shortest path from it to the target, or
+    // -1 for the target itself. These only grow with the number of instances
+    // visited, and hold no boxed indices.
+    int[] visits = new int[16];
+    int[] after = new int[16];
+    int numVisits = 0;
+    BitSet visited = new BitSet(mInstances.size());
+    visited.set(target);
+    visits[numVisits] = target;
+    after[numVisits++] = -1;
+    for (int pos = 0; pos < numVisits && paths.size() < k; ++pos) {
+      int index = visits[pos];
+      if (mRoots.get(index)) {
+        List<PathElement> path = new ArrayList<PathElement>();
+        for (int p = pos; after[p] >= 0; p = after[p]) {
+          AhatInstance elem = mInstances.getAt(visits[p]);
+          path.add(new PathElement(elem,
+                elem.getReferenceField(mInstances.getAt(visits[after[p]]), reachability)));
+        }
+        path.add(new PathElement(inst, ""));
+        for (PathElement elem : path) {
+          elem.isDominator = dominators.contains(elem.instance);
+        }
+        paths.add(path);
+        continue;
+      }
+
+      for (int i = mReverseOffsets[index]; i < mReverseOffsets[index + 1]; ++i) {
+        int src = mReverseSources[i];
+        if (!visited.get(src) && isReverseReferenceAtLeast(i, reachability.ordinal())) {
+          visited.set(src);
+          if (numVisits == visits.length) {
+            visits = Arrays.copyOf(visits, 2 * numVisits);
+            after = Arrays.copyOf(after, 2 * numVisits);
+          }
+          visits[numVisits] = src;
+          after[numVisits++] = pos;
+        }
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Returns the instances that would no longer be retained if all the given
+   * instances were freed, including the given instances themselves. See
+   * {@link AhatSnapshot#getRetainedSet}.
+   * <p>
+   * Only instances retained through the given instances can be in the
+   * retained set, so this first finds those, then marks as kept alive any of
+   * them that are roots or that are retained by an instance outside that
+   * set, along with everything they retain. The search is confined to the
+   * instances reachable from the given instances.
+   */
+  List<AhatInstance> getRetainedSet(Collection<AhatInstance> insts) {
+    int retained = mRetained.ordinal();
+    BitSet freed = new BitSet(mInstances.size());
+    for (AhatInstance inst : insts) {
+      int index = inst.isPlaceHolder() ? -1 : mInstances.indexOf(inst.getId());
+      if (index >= 0 && inst.getReachability().notWeakerThan(mRetained)) {
+        freed.set(index);
+      }
+    }
+    BitSet selected = (BitSet)freed.clone();
+
+    LongQueue queue = new LongQueue();
+    for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+      queue.add(i);
+    }
+    while (!queue.isEmpty()) {
+      int index = (int)queue.poll();
+      for (int i = mOffsets[index]; i < mOffsets[index + 1]; ++i) {
+        if (mStrengths[i] <= retained && !freed.get(mTargets[i])) {
+          freed.set(mTargets[i]);
+          queue.add(mTargets[i]);
+        }
+      }
+    }
+
+    BitSet alive = new BitSet(mInstances.size());
+    for (int i = freed.nextSetBit(0); i >= 0; i = freed.nextSetBit(i + 1)) {
+      if (!selected.get(i) && (mRoots.get(i) || isRetainedFromOutside(i, freed, retained))) {
+        alive.set(i);
+        queue.add(i);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int index = (int)queue.poll();
+      for (int i = mOffsets[index]; i < mOffsets[index + 1]; ++i) {
+        int dst = mTargets[i];
+        if (mStrengths[i] <= retained && freed.get(dst) && !selected.get(dst)
+            && !alive.get(dst)) {
+          alive.set(dst);
+          queue.add(dst);
+        }
+      }
+    }
+    freed.andNot(alive);
+    return toInstances(freed);
+  }
+
+  /**
+   * Returns true if the instance with the given index is retained by an
+   * instance whose index is not in the given set.
+   */
+  private boolean isRetainedFromOutside(int index, BitSet set, int retained) {
+    for (int i = mReverseOffsets[index]; i < mReverseOffsets[index + 1]; ++i) {
+      if (!set.get(mReverseSources[i]) && isReverseReferenceAtLeast(i, retained)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the instances that would no longer be retained if all the
+   * references from src to dst were removed. See
+   * {@link AhatSnapshot#getFreedIfCut}.
+   * <p>
+   * Removing the references frees something only if dst is no longer
+   * retained, in which case exactly the instances dominated by dst are
+   * freed. To decide whether dst is still retained, this searches backwards
+   * from dst through the instances it dominates, and stops as soon as the
+   * search meets a root or an instance that dst does not dominate, because
+   * that instance is retained without going through dst.
+   */
+  List<AhatInstance> getFreedIfCut(AhatInstance src, AhatInstance dst) {
+    int s = src.isPlaceHolder() ? -1 : mInstances.indexOf(src.getId());
+    int d = dst.isPlaceHolder() ? -1 : mInstances.indexOf(dst.getId());
+    int retained = mRetained.ordinal();
+    if (s < 0 || d < 0 || !src.getReachability().notWeakerThan(mRetained)
+        || !dst.getReachability().notWeakerThan(mRetained)) {
+      return Collections.emptyList();
+    }
+
+    BitSet dominated = new BitSet(mInstances.size());
+    LongQueue queue = new LongQueue();
+    dominated.set(d);
+    queue.add(d);
+    while (!queue.isEmpty()) {
+      int index = (int)queue.poll();
+      for (AhatInstance inst : mInstances.getAt(index).getDominated()) {
+        if (!inst.isPlaceHolder()) {
+          int i = mInstances.indexOf(inst.getId());
+          dominated.set(i);
+          queue.add(i);
+        }
+      }
+    }
+
+    boolean cut = false;
+    BitSet visited = new BitSet(mInstances.size());
+    visited.set(d);
+    queue.add(d);
+    while (!queue.isEmpty()) {
+      int index = (int)queue.poll();
+      if (mRoots.get(index)) {
+        return Collections.emptyList();
+      }
+      for (int i = mReverseOffsets[index]; i < mReverseOffsets[index + 1]; ++i) {
+        int ref = mReverseSources[i];
+        if (!isReverseReferenceAtLeast(i, retained)) {
+          continue;
+        }
+        if (ref == s && index == d) {
+          cut = true;
+        } else if (!dominated.get(ref)) {
+          return Collections.emptyList();
+        } else if (!visited.get(ref)) {
+          visited.set(ref);
+          queue.add(ref);
+        }
+      }
+    }
+    return cut ? toInstances(dominated) : Collections.emptyList();
+  }
+
+  /**
+   * Returns the instances whose indices are in the given set, in index
+   * order.
+   */
+  private List<AhatInstance> toInstances(BitSet indices) {
+    List<AhatInstance> insts = new ArrayList<AhatInstance>(indices.cardinality());
+    for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+      insts.add(mInstances.getAt(i));
+    }
+    return insts;
+  }
+
+  /**
+   * Appends the references of each instance visited to growable arrays.
+   */
+  private static class Builder implements AhatInstance.ReferenceVisitor {
+    private final Instances<AhatInstance> mInstances;
+    private int[] mTargets = new int[16];
+    private byte[] mStrengths = new byte[16];
+    private int mSize = 0;
+
+    Builder(Instances<AhatInstance> instances) {
+      mInstances = instances;
+    }
+
+    @Override
+    public void visit(AhatInstance ref, Reachability reachability) {
+      if (mSize == mTargets.length) {
+        if (mSize == MAX_REFERENCES) {
+          throw new IllegalStateException("Too many references in heap dump");
+        }
+        int capacity = (int)Math.min(MAX_REFERENCES, 2L * mSize);
+        mTargets = Arrays.copyOf(mTargets, capacity);
+        mStrengths = Arrays.copyOf(mStrengths, capacity);
+      }
+      mTargets[mSize] = mInstances.indexOf(ref.getId());
+      mStrengths[mSize++] = (byte)reachability.ordinal();
+    }
+  }
+
+  /**
+   * A first in, first out queue of long values backed by a circular array.
+   */
+  private static class LongQueue {
+    private long[] mValues = new long[16];
+    private int mHead = 0;
+    private int mSize = 0;
+
+    boolean isEmpty() {
+      return mSize == 0;
+    }
+
+    void add(long value) {
+      if (mSize == mValues.length) {
+        long[] values = new long[2 * mSize];
+        int n = mValues.length - mHead;
+        System.arraycopy(mValues, mHead, values, 0, n);
+        System.arraycopy(mValues, 0, values, n, mHead);
+        mValues = values;
+        mHead = 0;
+      }
+      mValues[(mHead + mSize++) & (mValues.length - 1)] = value;
+    }
+
+    long poll() {
+      long value = mValues[mHead];
+      mHead = (mHead + 1) & (mValues.length - 1);
+      mSize--;
+      return value;
+    }
+  }
+}
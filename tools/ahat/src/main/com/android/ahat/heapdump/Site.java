@@ -17,10 +17,13 @@
 package com.android.ahat.heapdump;
 
 import com.android.ahat.proguard.ProguardMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -52,18 +55,36 @@ public class Site implements Diffable<Site> {
   // The id is set by prepareForUse after the complete site tree is constructed.
   private long mId = -1;
 
+  // An id larger than the ids of this site and all of its descendants. The
+  // descendants of this site are the sites with ids in the range
+  // (mId, mEndId). Set by prepareForUse along with mId.
+  private long mEndId = -1;
+
   // The total size of objects allocated in this site (including child sites),
-  // organized by heap index. Computed as part of prepareForUse.
-  private Size[] mSizesByHeap;
+  // organized by heap index. The java size for the heap with index i is
+  // stored at 2*i and the registered native size at 2*i+1. Computed as part
+  // of prepareForUse.
+  private long[] mSizesByHeap;
 
-  // List of child sites.
+  // List of child sites, in the order they were first encountered.
   private List<Site> mChildren;
 
+  // Child sites indexed by the stack frame they were created for. Created
+  // lazily, because most sites are leaves.
+  private Map<ProguardMap.Frame, Site> mChildrenByFrame;
+
   // List of objects allocated at this site (not including child sites).
   private List<AhatInstance> mObjects;
 
   private List<ObjectsInfo> mObjectsInfos;
-  private Map<AhatHeap, Map<AhatClassObj, ObjectsInfo>> mObjectsInfoMap;
+
+  // The ObjectsInfos of this site by class, for each heap, indexed by heap
+  // index. Grown on demand.
+  private List<Map<AhatClassObj, ObjectsInfo>> mObjectsInfosByHeap;
+
+  // The ObjectsInfos of this site by class for placeholder heaps, which have
+  // no heap index. Only used when diffing, so created lazily.
+  private Map<AhatHeap, Map<AhatClassObj, ObjectsInfo>> mPlaceHolderObjectsInfos;
 
   private Site mBaseline;
 
@@ -93,6 +114,10 @@ public class Site implements Diffable<Site> {
      */
     public Size numBytes;
 
+    // Running totals for numBytes, accumulated by prepareForUse.
+    private long javaSize;
+    private long nativeSize;
+
     private ObjectsInfo baseline;
 
     /**
@@ -145,7 +170,7 @@ public class Site implements Diffable<Site> {
     mChildren = new ArrayList<Site>();
     mObjects = new ArrayList<AhatInstance>();
     mObjectsInfos = new ArrayList<ObjectsInfo>();
-    mObjectsInfoMap = new HashMap<AhatHeap, Map<AhatClassObj, ObjectsInfo>>();
+    mObjectsInfosByHeap = new ArrayList<Map<AhatClassObj, ObjectsInfo>>();
     mBaseline = this;
   }
 
@@ -163,21 +188,15 @@ public class Site implements Diffable<Site> {
   private static Site getSite(Site site, ProguardMap.Frame[] frames) {
     for (int s = frames.length - 1; s >= 0; --s) {
       ProguardMap.Frame frame = frames[s];
-      Site child = null;
-      for (int i = 0; i < site.mChildren.size(); i++) {
-        Site curr = site.mChildren.get(i);
-        if (curr.mLineNumber == frame.line
-            && curr.mMethodName.equals(frame.method)
-            && curr.mSignature.equals(frame.signature)
-            && curr.mFilename.equals(frame.filename)) {
-          child = curr;
-          break;
-        }
+      if (site.mChildrenByFrame == null) {
+        site.mChildrenByFrame = new HashMap<ProguardMap.Frame, Site>();
       }
+      Site child = site.mChildrenByFrame.get(frame);
       if (child == null) {
         child = new Site(site, frame.method, frame.signature,
             frame.filename, frame.line);
         site.mChildren.add(child);
+        site.mChildrenByFrame.put(frame, child);
       }
       site = child;
     }
@@ -206,39 +225,68 @@ public class Site implements Diffable<Site> {
    * children.
    */
   long prepareForUse(long id, int numHeaps, Reachability retained) {
-    mId = id++;
+    // The site tree is as deep as the deepest stack trace in the heap dump,
+    // so traverse it with an explicit stack rather than recursion. Sites are
+    // given ids in pre-order and their totals are added to their parent in
+    // post-order.
+    Deque<Iterator<Site>> stack = new ArrayDeque<Iterator<Site>>();
+    id = prepareSite(id, numHeaps, retained);
+    stack.push(mChildren.iterator());
+    Site site = this;
+    while (true) {
+      Iterator<Site> children = stack.peek();
+      if (children.hasNext()) {
+        site = children.next();
+        id = site.prepareSite(id, numHeaps, retained);
+        stack.push(site.mChildren.iterator());
+        continue;
+      }
+
+      stack.pop();
+      site.mEndId = id;
+      for (ObjectsInfo info : site.mObjectsInfos) {
+        info.numBytes = new Size(info.javaSize, info.nativeSize);
+      }
+      if (site == this) {
+        return id;
+      }
 
-    // Count up the total sizes by heap.
-    mSizesByHeap = new Size[numHeaps];
-    for (int i = 0; i < numHeaps; ++i) {
-      mSizesByHeap[i] = Size.ZERO;
+      Site parent = site.mParent;
+      for (ObjectsInfo childInfo : site.mObjectsInfos) {
+        ObjectsInfo info = parent.getObjectsInfo(childInfo.heap, childInfo.classObj);
+        info.numInstances += childInfo.numInstances;
+        info.javaSize += childInfo.javaSize;
+        info.nativeSize += childInfo.nativeSize;
+      }
+      for (int i = 0; i < parent.mSizesByHeap.length; ++i) {
+        parent.mSizesByHeap[i] += site.mSizesByHeap[i];
+      }
+      site = parent;
     }
+  }
 
-    // Add all retained objects allocated at this site.
+  /**
+   * Assigns the given id to this site and adds up the retained objects
+   * allocated directly at this site, not including child sites.
+   * Returns the next available id.
+   */
+  private long prepareSite(long id, int numHeaps, Reachability retained) {
+    mId = id;
+    mSizesByHeap = new long[2 * numHeaps];
     for (AhatInstance inst : mObjects) {
       if (inst.getReachability().notWeakerThan(retained)) {
         AhatHeap heap = inst.getHeap();
-        Size size = inst.getSize();
+        long javaSize = inst.getJavaSize();
+        long nativeSize = inst.getRegisteredNativeSize();
         ObjectsInfo info = getObjectsInfo(heap, inst.getClassObj());
         info.numInstances++;
-        info.numBytes = info.numBytes.plus(size);
-        mSizesByHeap[heap.getIndex()] = mSizesByHeap[heap.getIndex()].plus(size);
+        info.javaSize += javaSize;
+        info.nativeSize += nativeSize;
+        mSizesByHeap[2 * heap.getIndex()] += javaSize;
+        mSizesByHeap[2 * heap.getIndex() + 1] += nativeSize;
       }
     }
-
-    // Add objects allocated in child sites.
-    for (Site child : mChildren) {
-      id = child.prepareForUse(id, numHeaps, retained);
-      for (ObjectsInfo childInfo : child.mObjectsInfos) {
-        ObjectsInfo info = getObjectsInfo(childInfo.heap, childInfo.classObj);
-        info.numInstances += childInfo.numInstances;
-        info.numBytes = info.numBytes.plus(childInfo.numBytes);
-      }
-      for (int i = 0; i < numHeaps; ++i) {
-        mSizesByHeap[i] = mSizesByHeap[i].plus(child.mSizesByHeap[i]);
-      }
-    }
-    return id;
+    return id + 1;
   }
 
   /**
@@ -250,7 +298,8 @@ public class Site implements Diffable<Site> {
    * @return the total shallow size of objects in this site
    */
   public Size getSize(AhatHeap heap) {
-    return mSizesByHeap[heap.getIndex()];
+    int index = 2 * heap.getIndex();
+    return new Size(mSizesByHeap[index], mSizesByHeap[index + 1]);
   }
 
   /**
@@ -282,17 +331,29 @@ public class Site implements Diffable<Site> {
    * @param consumer consumer of the objects
    */
   public void getObjects(Predicate<AhatInstance> predicate, Consumer<AhatInstance> consumer) {
-    for (AhatInstance inst : mObjects) {
-      if (predicate.test(inst)) {
-        consumer.accept(inst);
+    // Visit sites in depth first order using an explicit stack, because stack
+    // traces are not guaranteed to be shallow enough for recursion.
+    Deque<Site> stack = new ArrayDeque<Site>();
+    stack.push(this);
+    while (!stack.isEmpty()) {
+      Site site = stack.pop();
+      for (AhatInstance inst : site.mObjects) {
+        if (predicate.test(inst)) {
+          consumer.accept(inst);
+        }
+      }
+      for (int i = site.mChildren.size() - 1; i >= 0; --i) {
+        stack.push(site.mChildren.get(i));
       }
     }
+  }
 
-    // Recursively visit children. Recursion should be okay here because the
-    // stack depth is limited by a reasonable amount (128 frames or so).
-    for (Site child : mChildren) {
-      child.getObjects(predicate, consumer);
-    }
+  /**
+   * Returns the objects allocated at this site, not including objects
+   * allocated in child sites.
+   */
+  List<AhatInstance> getSiteObjects() {
+    return mObjects;
   }
 
   /**
@@ -300,10 +361,25 @@ public class Site implements Diffable<Site> {
    * objects. Creates a new empty ObjectsInfo if none existed before.
    */
   ObjectsInfo getObjectsInfo(AhatHeap heap, AhatClassObj classObj) {
-    Map<AhatClassObj, ObjectsInfo> classToObjectsInfo = mObjectsInfoMap.get(heap);
-    if (classToObjectsInfo == null) {
-      classToObjectsInfo = new HashMap<AhatClassObj, ObjectsInfo>();
-      mObjectsInfoMap.put(heap, classToObjectsInfo);
+    // Look up the heap by index rather than through a map, because this is
+    // done for every retained instance when preparing sites.
+    Map<AhatClassObj, ObjectsInfo> classToObjectsInfo;
+    int index = heap.getIndex();
+    if (index < 0) {
+      if (mPlaceHolderObjectsInfos == null) {
+        mPlaceHolderObjectsInfos = new HashMap<AhatHeap, Map<AhatClassObj, ObjectsInfo>>();
+      }
+      classToObjectsInfo = mPlaceHolderObjectsInfos.computeIfAbsent(
+          heap, x -> new HashMap<AhatClassObj, ObjectsInfo>());
+    } else {
+      while (mObjectsInfosByHeap.size() <= index) {
+        mObjectsInfosByHeap.add(null);
+      }
+      classToObjectsInfo = mObjectsInfosByHeap.get(index);
+      if (classToObjectsInfo == null) {
+        classToObjectsInfo = new HashMap<AhatClassObj, ObjectsInfo>();
+        mObjectsInfosByHeap.set(index, classToObjectsInfo);
+      }
     }
 
     ObjectsInfo info = classToObjectsInfo.get(classObj);
@@ -324,7 +400,7 @@ public class Site implements Diffable<Site> {
    * @return all ObjectInfo summaries for retained instances allocated at this site
    */
   public List<ObjectsInfo> getObjectsInfos() {
-    return mObjectsInfos;
+    return Collections.unmodifiableList(mObjectsInfos);
   }
 
   /**
@@ -334,11 +410,13 @@ public class Site implements Diffable<Site> {
    * @return total shallow size of objects in this site
    */
   public Size getTotalSize() {
-    Size total = Size.ZERO;
-    for (Size size : mSizesByHeap) {
-      total = total.plus(size);
+    long javaSize = 0;
+    long nativeSize = 0;
+    for (int i = 0; i < mSizesByHeap.length; i += 2) {
+      javaSize += mSizesByHeap[i];
+      nativeSize += mSizesByHeap[i + 1];
     }
-    return total;
+    return new Size(javaSize, nativeSize);
   }
 
   /**
@@ -400,6 +478,14 @@ public class Site implements Diffable<Site> {
     return mId;
   }
 
+  /**
+   * Returns an id larger than the ids of this site and all of its
+   * descendants.
+   */
+  long getEndId() {
+    return mEndId;
+  }
+
   /**
    * Returns the child site with the given id.
    * Returns null if no such site was found.
@@ -408,10 +494,18 @@ public class Site implements Diffable<Site> {
    * @return the found child site
    */
   public Site findSite(long id) {
-    if (id == mId) {
-      return this;
+    Site site = this;
+    while (site != null && id != site.mId) {
+      site = site.findChild(id);
     }
+    return site;
+  }
 
+  /**
+   * Returns the child of this site whose subtree could contain the site with
+   * the given id, or null if there is no such child.
+   */
+  private Site findChild(long id) {
     // Binary search over the children to find the right child to search in.
     int start = 0;
     int end = mChildren.size();
@@ -423,11 +517,11 @@ public class Site implements Diffable<Site> {
       } else if (mid + 1 == end) {
         // This is the last child we could possibly find the desired site in,
         // so search in this child.
-        return midSite.findSite(id);
+        return midSite;
       } else if (id < mChildren.get(mid + 1).mId) {
         // The desired site has an id between this child's id and the next
         // child's id, so search in this child.
-        return midSite.findSite(id);
+        return midSite;
       } else {
         start = mid + 1;
       }
@@ -17,7 +17,6 @@
 package com.android.ahat.heapdump;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -52,7 +51,19 @@ public class Sort {
     = new Comparator<AhatInstance>() {
     @Override
     public int compare(AhatInstance a, AhatInstance b) {
-      return SIZE_BY_SIZE.compare(b.getTotalRetainedSize(), a.getTotalRetainedSize());
+      return Long.compare(b.getTotalRetainedSizeBytes(), a.getTotalRetainedSizeBytes());
+    }
+  };
+
+  /**
+   * Compares instances by their id.
+   * This sorts instances from smaller id to larger id.
+   */
+  public static final Comparator<AhatInstance> INSTANCE_BY_ID
+    = new Comparator<AhatInstance>() {
+    @Override
+    public int compare(AhatInstance a, AhatInstance b) {
+      return Long.compare(a.getId(), b.getId());
     }
   };
 
@@ -71,7 +82,8 @@ public class Sort {
 
     @Override
     public int compare(AhatInstance a, AhatInstance b) {
-      return SIZE_BY_SIZE.compare(b.getRetainedSize(mHeap), a.getRetainedSize(mHeap));
+      return Long.compare(b.getRetainedSizeBytes(mHeap.getIndex()),
+          a.getRetainedSizeBytes(mHeap.getIndex()));
     }
   }
 
@@ -88,8 +100,12 @@ public class Sort {
      *
      * @param comparators the list of comparators to use for sorting
      */
+    @SafeVarargs
     public WithPriority(Comparator<T>... comparators) {
-      mComparators = Arrays.asList(comparators);
+      mComparators = new ArrayList<Comparator<T>>(comparators.length);
+      for (Comparator<T> comparator : comparators) {
+        mComparators.add(comparator);
+      }
     }
 
     /**
@@ -121,8 +137,13 @@ public class Sort {
    * @param comparators the list of comparators to use for sorting
    * @return the composite comparator
    */
+  @SafeVarargs
   public static <T> Comparator<T> withPriority(Comparator<T>... comparators) {
-    return new WithPriority(comparators);
+    List<Comparator<T>> list = new ArrayList<Comparator<T>>(comparators.length);
+    for (Comparator<T> comparator : comparators) {
+      list.add(comparator);
+    }
+    return new WithPriority<T>(list);
   }
 
   /**
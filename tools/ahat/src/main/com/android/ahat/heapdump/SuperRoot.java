@@ -57,4 +57,18 @@ class SuperRoot extends AhatInstance {
       }
     };
   }
+
+  @Override
+  void visitReferences(ReferenceVisitor visitor) {
+    for (AhatInstance root : mRoots) {
+      visitor.visit(root, Reachability.STRONG);
+    }
+  }
+
+  /**
+   * Returns the instances referenced by this SuperRoot.
+   */
+  List<AhatInstance> getRoots() {
+    return mRoots;
+  }
 }
@@ -24,6 +24,35 @@ import java.util.Objects;
  * instance from the heap dump.
  */
 public abstract class Value {
+  // Values are immutable, so commonly occurring primitive values are shared
+  // rather than allocated each time they are packed. Small integral values
+  // in the range [CACHE_LOW, CACHE_HIGH] are cached, as are false, true
+  // and zero.
+  private static final int CACHE_LOW = -128;
+  private static final int CACHE_HIGH = 127;
+
+  private static final Value FALSE = new BooleanValue(false);
+  private static final Value TRUE = new BooleanValue(true);
+  private static final Value[] BYTES = new Value[CACHE_HIGH - CACHE_LOW + 1];
+  private static final Value[] CHARS = new Value[CACHE_HIGH + 1];
+  private static final Value[] SHORTS = new Value[CACHE_HIGH - CACHE_LOW + 1];
+  private static final Value[] INTS = new Value[CACHE_HIGH - CACHE_LOW + 1];
+  private static final Value[] LONGS = new Value[CACHE_HIGH - CACHE_LOW + 1];
+  private static final Value FLOAT_ZERO = new FloatValue(0.0f);
+  private static final Value DOUBLE_ZERO = new DoubleValue(0.0);
+
+  static {
+    for (int i = CACHE_LOW; i <= CACHE_HIGH; ++i) {
+      BYTES[i - CACHE_LOW] = new ByteValue((byte)i);
+      SHORTS[i - CACHE_LOW] = new ShortValue((short)i);
+      INTS[i - CACHE_LOW] = new IntValue(i);
+      LONGS[i - CACHE_LOW] = new LongValue(i);
+    }
+    for (int i = 0; i <= CACHE_HIGH; ++i) {
+      CHARS[i] = new CharValue((char)i);
+    }
+  }
+
   Value() { }
   /**
    * Constructs a Value for an AhatInstance.
@@ -43,7 +72,7 @@ public abstract class Value {
    * @return the constructed value.
    */
   public static Value pack(boolean value) {
-    return new BooleanValue(value);
+    return value ? TRUE : FALSE;
   }
 
   /**
@@ -53,7 +82,7 @@ public abstract class Value {
    * @return the constructed value.
    */
   public static Value pack(char value) {
-    return new CharValue(value);
+    return value <= CACHE_HIGH ? CHARS[value] : new CharValue(value);
   }
 
   /**
@@ -63,7 +92,8 @@ public abstract class Value {
    * @return the constructed value.
    */
   public static Value pack(float value) {
-    return new FloatValue(value);
+    // Compare the raw bits to avoid returning positive zero for -0.0f.
+    return Float.floatToRawIntBits(value) == 0 ? FLOAT_ZERO : new FloatValue(value);
   }
 
   /**
@@ -73,7 +103,8 @@ public abstract class Value {
    * @return the constructed value.
    */
   public static Value pack(double value) {
-    return new DoubleValue(value);
+    // Compare the raw bits to avoid returning positive zero for -0.0.
+    return Double.doubleToRawLongBits(value) == 0 ? DOUBLE_ZERO : new DoubleValue(value);
   }
 
   /**
@@ -83,7 +114,7 @@ public abstract class Value {
    * @return the constructed value.
    */
   public static Value pack(byte value) {
-    return new ByteValue(value);
+    return BYTES[value - CACHE_LOW];
   }
 
   /**
@@ -93,6 +124,9 @@ public abstract class Value {
    * @return the constructed value.
    */
   public static Value pack(short value) {
+    if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+      return SHORTS[value - CACHE_LOW];
+    }
     return new ShortValue(value);
   }
 
@@ -103,6 +137,9 @@ public abstract class Value {
    * @return the constructed value.
    */
   public static Value pack(int value) {
+    if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+      return INTS[value - CACHE_LOW];
+    }
     return new IntValue(value);
   }
 
@@ -113,6 +150,9 @@ public abstract class Value {
    * @return the constructed value.
    */
   public static Value pack(long value) {
+    if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+      return LONGS[(int)value - CACHE_LOW];
+    }
     return new LongValue(value);
   }
 
@@ -25,6 +25,7 @@ import java.io.Reader;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -165,6 +166,7 @@ public class ProguardMap {
       this.signature = signature;
       this.filename = filename;
       this.line = line;
+      this.hash = Objects.hash(method, signature, filename, line);
     }
 
     /**
@@ -190,6 +192,30 @@ public class ProguardMap {
      * refers to.
      */
     public final int line;
+
+    // Frames are used as hash keys when building the site tree, so the hash
+    // code is computed once up front.
+    private final int hash;
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Frame)) {
+        return false;
+      }
+      Frame frame = (Frame)other;
+      return line == frame.line
+        && Objects.equals(method, frame.method)
+        && Objects.equals(signature, frame.signature)
+        && Objects.equals(filename, frame.filename);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 
   private static void parseException(String msg) throws ParseException {
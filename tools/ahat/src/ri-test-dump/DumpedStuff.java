@@ -37,4 +37,11 @@ public class DumpedStuff {
   }
 
   public WeakReference aWeakRefToFinalizable = new WeakReference(new Finalizable());
+
+  // Distinct strings and arrays with the same contents, which the
+  // duplicates view should find.
+  public String aDuplicateString = new String("ahat duplicate string".toCharArray());
+  public String anotherDuplicateString = new String("ahat duplicate string".toCharArray());
+  public int[] aDuplicateArray = new int[] { 0xAAA7, 1, 2, 3, 5, 8, 13 };
+  public int[] anotherDuplicateArray = new int[] { 0xAAA7, 1, 2, 3, 5, 8, 13 };
 }
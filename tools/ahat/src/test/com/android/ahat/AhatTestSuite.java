@@ -16,6 +16,11 @@
 
 package com.android.ahat;
 
+import com.android.ahat.heapdump.DominatorCacheTest;
+import com.android.ahat.heapdump.HprofDataTest;
+import com.android.ahat.heapdump.InstancesTest;
+import com.android.ahat.heapdump.ParserTest;
+import com.android.ahat.heapdump.ReferenceGraphTest;
 import org.junit.runner.JUnitCore;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
@@ -24,20 +29,33 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
   DiffFieldsTest.class,
   DiffTest.class,
+  DominatorCacheTest.class,
   DominatorsTest.class,
+  DuplicatesTest.class,
+  HeapQueryTest.class,
+  HprofDataTest.class,
   HtmlEscaperTest.class,
   InstanceTest.class,
+  InstancesTest.class,
+  JsonSummaryTest.class,
   NativeAllocationTest.class,
   ObjectHandlerTest.class,
   ObjectsHandlerTest.class,
   OverviewHandlerTest.class,
+  PageCacheTest.class,
+  ParserTest.class,
   PerformanceTest.class,
+  ProfilingProgressTest.class,
   ProguardMapTest.class,
+  ReferenceGraphTest.class,
   RootedHandlerTest.class,
   QueryTest.class,
+  RetentionTest.class,
   RiTest.class,
   SiteHandlerTest.class,
-  SiteTest.class
+  SiteTest.class,
+  SubsetSelectorTest.class,
+  TrendSummaryTest.class
 })
 
 public class AhatTestSuite {
@@ -18,7 +18,12 @@ package com.android.ahat;
 
 import com.android.ahat.heapdump.AhatHeap;
 import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Diff;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
 import com.android.ahat.heapdump.Reachability;
+import com.android.ahat.heapdump.Site;
 import com.android.ahat.heapdump.Value;
 import java.io.IOException;
 import org.junit.Test;
@@ -84,4 +89,38 @@ public class DiffTest {
     AhatHandler handler = new ObjectsHandler(dump.getAhatSnapshot());
     TestHandler.testNoCrash(handler, "http://localhost:7100/objects?class=java.lang.Class");
   }
+
+  private static AhatSnapshot parse(int stackDepth) throws IOException, HprofFormatException {
+    return new Parser(new SyntheticHprof()
+        .instances(100)
+        .stackDepth(stackDepth)
+        .toByteBuffer()).parse();
+  }
+
+  private static Site deepestSite(AhatSnapshot snapshot) {
+    Site site = snapshot.getRootSite();
+    while (!site.getChildren().isEmpty()) {
+      site = site.getChildren().get(0);
+    }
+    return site;
+  }
+
+  @Test
+  public void diffDeepSites() throws IOException, HprofFormatException {
+    // Diffing sites of deep stack traces shouldn't overflow the stack,
+    // whether or not the stack traces match.
+    AhatSnapshot a = parse(10000);
+    AhatSnapshot b = parse(10000);
+    Diff.snapshots(a, b);
+    assertEquals(deepestSite(b), deepestSite(a).getBaseline());
+    assertEquals(deepestSite(a), deepestSite(b).getBaseline());
+
+    // The outermost frames of stack traces of different depths differ, so
+    // none of their sites other than the root match.
+    AhatSnapshot c = parse(10000);
+    AhatSnapshot d = parse(5000);
+    Diff.snapshots(c, d);
+    assertEquals(d.getRootSite(), deepestSite(c).getBaseline());
+    assertEquals(c.getRootSite(), deepestSite(d).getBaseline());
+  }
 }
@@ -24,6 +24,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 
@@ -68,13 +69,28 @@ public class DominatorsTest {
     }
   }
 
+  /**
+   * Computes the dominators of the graph with each of the available
+   * algorithms, verifying that they agree. The dominators computed with
+   * Semi-NCA are expected of the default algorithm, whose dominators are
+   * left in the graph.
+   */
+  private static void computeDominators(Graph graph, String root) {
+    new Dominators(graph).algorithm(Dominators.Algorithm.SEMI_NCA).computeDominators(root);
+    Map<String, String> semiNca = new HashMap<>(graph.dominators);
+    graph.dominators.clear();
+
+    new Dominators(graph).computeDominators(root);
+    assertEquals(semiNca, graph.dominators);
+  }
+
   @Test
   public void singleNode() {
     // --> n
     // Trivial case.
     Graph graph = new Graph();
     graph.node("n");
-    new Dominators(graph).computeDominators("n");
+    computeDominators(graph, "n");
   }
 
   @Test
@@ -84,7 +100,7 @@ public class DominatorsTest {
     Graph graph = new Graph();
     graph.node("parent", "child");
     graph.node("child");
-    new Dominators(graph).computeDominators("parent");
+    computeDominators(graph, "parent");
 
     assertEquals("parent", graph.dom("child"));
   }
@@ -100,7 +116,7 @@ public class DominatorsTest {
     graph.node("right", "child");
     graph.node("left", "child");
     graph.node("child");
-    new Dominators(graph).computeDominators("parent");
+    computeDominators(graph, "parent");
 
     assertEquals("parent", graph.dom("left"));
     assertEquals("parent", graph.dom("right"));
@@ -116,7 +132,7 @@ public class DominatorsTest {
     graph.node("parent", "right", "child");
     graph.node("right", "child");
     graph.node("child");
-    new Dominators(graph).computeDominators("parent");
+    computeDominators(graph, "parent");
 
     assertEquals("parent", graph.dom("child"));
     assertEquals("parent", graph.dom("right"));
@@ -130,7 +146,7 @@ public class DominatorsTest {
     graph.node("parent", "middle");
     graph.node("middle", "child");
     graph.node("child");
-    new Dominators(graph).computeDominators("parent");
+    computeDominators(graph, "parent");
 
     assertEquals("parent", graph.dom("middle"));
     assertEquals("middle", graph.dom("child"));
@@ -144,7 +160,7 @@ public class DominatorsTest {
     Graph graph = new Graph();
     graph.node("parent", "child");
     graph.node("child", "child");
-    new Dominators(graph).computeDominators("parent");
+    computeDominators(graph, "parent");
 
     assertEquals("parent", graph.dom("child"));
   }
@@ -159,7 +175,7 @@ public class DominatorsTest {
     graph.node("a", "b");
     graph.node("b", "c");
     graph.node("c", "a");
-    new Dominators(graph).computeDominators("parent");
+    computeDominators(graph, "parent");
 
     assertEquals("parent", graph.dom("a"));
     assertEquals("a", graph.dom("b"));
@@ -180,7 +196,7 @@ public class DominatorsTest {
     graph.node("a", "b");
     graph.node("b", "c");
     graph.node("c", "a");
-    new Dominators(graph).computeDominators("parent");
+    computeDominators(graph, "parent");
 
     assertEquals("parent", graph.dom("right"));
     assertEquals("parent", graph.dom("left"));
@@ -203,7 +219,7 @@ public class DominatorsTest {
     graph.node("right", "child");
     graph.node("left", "right");
     graph.node("child");
-    new Dominators(graph).computeDominators("parent");
+    computeDominators(graph, "parent");
 
     assertEquals("parent", graph.dom("left"));
     assertEquals("parent", graph.dom("child"));
@@ -224,7 +240,7 @@ public class DominatorsTest {
       graph.node(root, child);
     }
 
-    new Dominators(graph).computeDominators(root);
+    computeDominators(graph, root);
   }
 
   @Test
@@ -244,7 +260,7 @@ public class DominatorsTest {
     graph.node("a", "b");
     graph.node("b", "c");
     graph.node("c");
-    new Dominators(graph).computeDominators("parent");
+    computeDominators(graph, "parent");
 
     assertEquals("parent", graph.dom("left"));
     assertEquals("parent", graph.dom("right"));
@@ -271,7 +287,7 @@ public class DominatorsTest {
     graph.node("c", "d");
     graph.node("d", "e");
     graph.node("e");
-    new Dominators(graph).computeDominators("p");
+    computeDominators(graph, "p");
 
     assertEquals("p", graph.dom("a"));
     assertEquals("a", graph.dom("b"));
@@ -298,7 +314,7 @@ public class DominatorsTest {
     graph.node("c", "d");
     graph.node("d");
     graph.node("f", "c");
-    new Dominators(graph).computeDominators("a");
+    computeDominators(graph, "a");
 
     assertEquals("a", graph.dom("b"));
     assertEquals("b", graph.dom("x"));
@@ -307,6 +323,27 @@ public class DominatorsTest {
     assertEquals("a", graph.dom("f"));
   }
 
+  @Test
+  public void randomGraph() {
+    // Verify the algorithms agree on a larger graph with lots of loops and
+    // nodes reachable in more than one way.
+    Graph graph = new Graph();
+    Random random = new Random(42);
+    int numNodes = 10000;
+    graph.node("root", "n0");
+    for (int i = 0; i < numNodes; ++i) {
+      String[] dsts = new String[random.nextInt(4)];
+      for (int j = 0; j < dsts.length; ++j) {
+        int dst = random.nextInt(10) == 0
+          ? random.nextInt(numNodes)
+          : Math.min(numNodes - 1, i + 1 + random.nextInt(20));
+        dsts[j] = "n" + dst;
+      }
+      graph.node("n" + i, dsts);
+    }
+    computeDominators(graph, "root");
+  }
+
   // Test the old dominators API.
   private static class Node implements DominatorsComputation.Node {
     public String name;
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Duplicates;
+import com.android.ahat.heapdump.Reachability;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicatesTest {
+  @Test
+  public void identicalContents() throws IOException {
+    AhatSnapshot snapshot = TestDump.getTestDump("ri-test-dump.hprof", null, null,
+        Reachability.STRONG).getAhatSnapshot();
+    Duplicates duplicates = snapshot.getDuplicates();
+    assertSame(duplicates, snapshot.getDuplicates());
+
+    // Every heap dump has some duplicate strings.
+    assertFalse(duplicates.getGroups().isEmpty());
+
+    long wasted = 0;
+    long previous = Long.MAX_VALUE;
+    for (Duplicates.Group group : duplicates.getGroups()) {
+      List<AhatInstance> insts = group.getInstances();
+      assertTrue(insts.size() > 1);
+      for (AhatInstance inst : insts) {
+        assertEquals(insts.get(0).getClassName(), inst.getClassName());
+        assertEquals(insts.get(0).asArrayInstance().getValues(),
+            inst.asArrayInstance().getValues());
+      }
+      assertEquals(group.getSize() * (insts.size() - 1), group.getWastedSize());
+      assertTrue(group.getWastedSize() <= previous);
+      previous = group.getWastedSize();
+      wasted += group.getWastedSize();
+    }
+    assertEquals(wasted, duplicates.getWastedSize());
+
+    long byClass = 0;
+    for (Duplicates.Waste waste : duplicates.getWasteByClass().values()) {
+      byClass += waste.wastedSize;
+    }
+    assertEquals(wasted, byClass);
+
+    long bySite = 0;
+    for (Duplicates.Waste waste : duplicates.getWasteBySite().values()) {
+      bySite += waste.wastedSize;
+    }
+    assertEquals(wasted, bySite);
+  }
+
+  /**
+   * Returns the group of identical arrays containing the given array.
+   */
+  private static Duplicates.Group group(Duplicates duplicates, AhatInstance array) {
+    for (Duplicates.Group group : duplicates.getGroups()) {
+      if (group.getInstances().contains(array)) {
+        return group;
+      }
+    }
+    throw new AssertionError("no duplicates of " + array);
+  }
+
+  @Test
+  public void knownDuplicates() throws IOException {
+    TestDump dump = TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG);
+    Duplicates duplicates = dump.getAhatSnapshot().getDuplicates();
+
+    // The characters of equal strings are attributed to the strings. The
+    // string literal the strings were copied from is a third copy.
+    AhatInstance str = dump.getDumpedAhatInstance("aDuplicateString");
+    AhatInstance another = dump.getDumpedAhatInstance("anotherDuplicateString");
+    assertNotSame(str, another);
+    AhatInstance value = str.getRefField("value");
+    Duplicates.Group group = group(duplicates, value);
+    assertTrue(group.getInstances().contains(another.getRefField("value")));
+    assertSame(str, value.getImmediateDominator());
+    assertTrue(duplicates.getWasteByClass().get("java.lang.String").wastedSize
+        >= group.getWastedSize());
+
+    // Arrays not owned by a string or bitmap are attributed to themselves.
+    AhatInstance array = dump.getDumpedAhatInstance("aDuplicateArray");
+    group = group(duplicates, array);
+    assertEquals(Arrays.asList(array, dump.getDumpedAhatInstance("anotherDuplicateArray")),
+        group.getInstances());
+    assertTrue(duplicates.getWasteByClass().get("int[]").wastedSize >= group.getWastedSize());
+  }
+
+  @Test
+  public void noCrash() throws IOException {
+    AhatSnapshot snapshot = TestDump.getTestDump("ri-test-dump.hprof", null, null,
+        Reachability.STRONG).getAhatSnapshot();
+    AhatHandler handler = new DuplicatesHandler(snapshot);
+    TestHandler.testNoCrash(handler, "http://localhost:7100/duplicates");
+  }
+}
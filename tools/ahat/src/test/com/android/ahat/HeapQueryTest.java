@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Reachability;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HeapQueryTest {
+  private static String query(AhatSnapshot snapshot, String uri)
+      throws URISyntaxException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(bytes);
+    new HeapQuery(snapshot, new Query(new URI(uri)), Reachability.STRONG)
+      .write(new JsonWriter(ps));
+    ps.flush();
+    return bytes.toString();
+  }
+
+  private static AhatSnapshot snapshot() throws IOException {
+    return TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG)
+      .getAhatSnapshot();
+  }
+
+  @Test
+  public void selectFields() throws IOException, URISyntaxException {
+    TestDump dump = TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG);
+    AhatInstance ref = dump.getDumpedAhatInstance("aWeakRefToFinalizable");
+
+    String json = query(dump.getAhatSnapshot(),
+        "/api/query?class=DumpedStuff&select=class,.aWeakRefToFinalizable");
+    assertEquals("{\"columns\":[\"class\",\".aWeakRefToFinalizable\"],"
+        + "\"rows\":[[\"DumpedStuff\"," + ref.getId() + "]],"
+        + "\"truncated\":false}", json);
+
+    json = query(dump.getAhatSnapshot(), "/api/query?select=class&where=id=" + ref.getId());
+    assertEquals("{\"columns\":[\"class\"],"
+        + "\"rows\":[[\"" + ref.getClassName() + "\"]],"
+        + "\"truncated\":false}", json);
+  }
+
+  @Test
+  public void where() throws IOException, URISyntaxException {
+    AhatSnapshot snapshot = snapshot();
+    assertEquals("{\"columns\":[\"class\"],\"rows\":[[\"DumpedStuff\"]],\"truncated\":false}",
+        query(snapshot, "/api/query?class=DumpedStuff&select=class"
+          + "&where=.aWeakRefToFinalizable!=null;size%3E0"));
+    assertEquals("{\"columns\":[\"class\"],\"rows\":[],\"truncated\":false}",
+        query(snapshot, "/api/query?class=DumpedStuff&select=class"
+          + "&where=.aWeakRefToFinalizable=null"));
+  }
+
+  @Test
+  public void limitAndOrder() throws IOException, URISyntaxException {
+    AhatSnapshot snapshot = snapshot();
+    String json = query(snapshot,
+        "/api/query?class=java.lang.Object&subclass=1&select=retained&orderby=-retained&limit=2");
+    assertTrue(json, json.endsWith("\"truncated\":true}"));
+
+    // The rows should be the two largest retained sizes, largest first.
+    String rows = json.substring(json.indexOf("[[") + 2, json.indexOf("]]"));
+    String[] sizes = rows.split("\\],\\[");
+    assertEquals(2, sizes.length);
+    assertTrue(rows, Long.parseLong(sizes[0]) >= Long.parseLong(sizes[1]));
+  }
+
+  @Test
+  public void groupBy() throws IOException, URISyntaxException {
+    AhatSnapshot snapshot = snapshot();
+    String json = query(snapshot, "/api/query?class=DumpedStuff&groupby=class");
+    assertTrue(json, json.startsWith(
+          "{\"groupby\":\"class\",\"groups\":[{\"key\":\"DumpedStuff\",\"count\":1,"));
+    assertTrue(json, json.endsWith("}],\"truncated\":false}"));
+  }
+
+  @Test
+  public void rowsWithoutOrderAreStable() throws IOException, URISyntaxException {
+    AhatSnapshot snapshot = snapshot();
+    String json = query(snapshot, "/api/query?select=id&limit=5");
+    assertTrue(json, json.endsWith("\"truncated\":true}"));
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(json, query(snapshot, "/api/query?select=id&limit=5"));
+    }
+
+    // The rows should be those with the lowest ids.
+    assertEquals(query(snapshot, "/api/query?select=id&orderby=id&limit=5"), json);
+  }
+
+  @Test
+  public void tooManyGroups() throws IOException, URISyntaxException {
+    AhatSnapshot snapshot = snapshot();
+    HeapQuery query = new HeapQuery(snapshot,
+        new Query(new URI("/api/query?groupby=id&limit=1")), Reachability.STRONG, 10);
+    try {
+      query.write(new JsonWriter(new PrintStream(new ByteArrayOutputStream())));
+      fail("expected too many groups");
+    } catch (HeapQuery.InvalidQueryException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("more than 10 groups"));
+    }
+
+    // Queries with fewer groups than the bound are unaffected.
+    String json = query(snapshot, "/api/query?class=DumpedStuff&groupby=id");
+    assertTrue(json, json.endsWith("}],\"truncated\":false}"));
+  }
+
+  @Test
+  public void invalidQuery() throws IOException, URISyntaxException {
+    AhatSnapshot snapshot = snapshot();
+    String[] invalid = {
+      "/api/query?select=nosuchproperty",
+      "/api/query?where=id",
+      "/api/query?reachability=sometimes",
+      "/api/query?heap=nosuchheap",
+      "/api/query?limit=lots",
+    };
+    for (String uri : invalid) {
+      try {
+        query(snapshot, uri);
+        fail("expected invalid query: " + uri);
+      } catch (HeapQuery.InvalidQueryException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test(expected = HeapQuery.QueryTimeoutException.class)
+  public void timeout() throws IOException, URISyntaxException {
+    query(snapshot(), "/api/query?groupby=class&timeout=0");
+  }
+
+  @Test(expected = HeapQuery.QueryTimeoutException.class)
+  public void orderByTimeout() throws IOException, URISyntaxException {
+    query(snapshot(), "/api/query?orderby=-retained&limit=100000&timeout=0");
+  }
+
+  @Test
+  public void zeroLimit() throws IOException, URISyntaxException {
+    AhatSnapshot snapshot = snapshot();
+    assertEquals("{\"columns\":[\"id\"],\"rows\":[],\"truncated\":true}",
+        query(snapshot, "/api/query?select=id&orderby=-retained&limit=0"));
+    assertEquals("{\"groupby\":\"class\",\"groups\":[],\"truncated\":true}",
+        query(snapshot, "/api/query?groupby=class&limit=0"));
+  }
+}
@@ -20,11 +20,15 @@ import com.android.ahat.heapdump.AhatClassObj;
 import com.android.ahat.heapdump.AhatHeap;
 import com.android.ahat.heapdump.AhatInstance;
 import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.FieldValue;
 import com.android.ahat.heapdump.PathElement;
 import com.android.ahat.heapdump.Reachability;
 import com.android.ahat.heapdump.Size;
 import com.android.ahat.heapdump.Value;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import org.junit.Test;
 
@@ -615,4 +619,77 @@ public class InstanceTest {
     AhatInstance nonBinderObject = dump.getDumpedAhatInstance("anObject");
     assertNull(nonBinderObject.getBinderStubInterfaceName());
   }
+
+  @Test
+  public void findInstance() throws IOException {
+    // Every instance reachable in the heap dump can be looked up by id.
+    TestDump dump = TestDump.getTestDump();
+    AhatSnapshot snapshot = dump.getAhatSnapshot();
+
+    List<Long> ids = new ArrayList<Long>();
+    Deque<AhatInstance> deque = new ArrayDeque<AhatInstance>(snapshot.getRooted());
+    while (!deque.isEmpty()) {
+      AhatInstance inst = deque.pop();
+      if (!inst.isPlaceHolder()) {
+        ids.add(inst.getId());
+      }
+      deque.addAll(inst.getDominated());
+    }
+
+    for (long id : ids) {
+      AhatInstance inst = snapshot.findInstance(id);
+      assertNotNull(inst);
+      assertEquals(id, inst.getId());
+    }
+  }
+
+  @Test
+  public void decodeFields() throws IOException {
+    // Every instance field in the heap dump can be decoded.
+    TestDump dump = TestDump.getTestDump();
+    AhatSnapshot snapshot = dump.getAhatSnapshot();
+
+    List<AhatInstance> insts = new ArrayList<AhatInstance>();
+    Deque<AhatInstance> deque = new ArrayDeque<AhatInstance>(snapshot.getRooted());
+    while (!deque.isEmpty()) {
+      AhatInstance inst = deque.pop();
+      if (inst.isClassInstance()) {
+        insts.add(inst);
+      }
+      deque.addAll(inst.getDominated());
+    }
+
+    int decoded = 0;
+    for (AhatInstance inst : insts) {
+      for (FieldValue field : inst.asClassInstance().getInstanceFields()) {
+        assertNotNull(field.name);
+        assertNotNull(field.type);
+        decoded++;
+      }
+    }
+    assertTrue(decoded > 0);
+  }
+
+  @Test
+  public void packedValues() {
+    // Common small values are shared rather than allocated each time.
+    assertTrue(Value.pack(true) == Value.pack(true));
+    assertTrue(Value.pack((byte)-128) == Value.pack((byte)-128));
+    assertTrue(Value.pack('a') == Value.pack('a'));
+    assertTrue(Value.pack((short)-1) == Value.pack((short)-1));
+    assertTrue(Value.pack(0) == Value.pack(0));
+    assertTrue(Value.pack(127L) == Value.pack(127L));
+    assertTrue(Value.pack(0.0f) == Value.pack(0.0f));
+    assertTrue(Value.pack(0.0) == Value.pack(0.0));
+
+    // Shared values must still behave like the values they represent.
+    assertFalse(Value.pack(true).equals(Value.pack(false)));
+    assertEquals(Value.pack(128), Value.pack(128));
+    assertEquals(-1, Value.pack(-1).asInteger().intValue());
+    assertEquals(Long.valueOf(127L), Value.pack(127L).asLong());
+    assertFalse(Value.pack(127).equals(Value.pack(127L)));
+    assertEquals("-0.0", Value.pack(-0.0f).toString());
+    assertEquals("-0.0", Value.pack(-0.0).toString());
+    assertEquals("0.0", Value.pack(0.0).toString());
+  }
 }
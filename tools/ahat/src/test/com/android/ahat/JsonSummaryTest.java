@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
+import com.android.ahat.heapdump.Reachability;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonSummaryTest {
+  @Test
+  public void quote() {
+    assertEquals("\"nothing to escape\"", JsonWriter.quote("nothing to escape"));
+    assertEquals("\"a\\\"b\\\\c\"", JsonWriter.quote("a\"b\\c"));
+    assertEquals("\"x\\ny\\tz\\u0001\"", JsonWriter.quote("x\ny\tz\u0001"));
+  }
+
+  @Test
+  public void writer() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(bytes);
+    new JsonWriter(ps).beginObject()
+      .name("a").value(1)
+      .name("b").beginArray().value("x").value(true).value((String)null).endArray()
+      .name("c").beginObject().endObject()
+      .endObject();
+    ps.flush();
+    assertEquals("{\"a\":1,\"b\":[\"x\",true,null],\"c\":{}}", bytes.toString());
+  }
+
+  @Test
+  public void summary() throws IOException {
+    TestDump dump = TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(bytes);
+    JsonSummary.write(new JsonWriter(ps), "ri-test-dump.hprof", dump.getAhatSnapshot(),
+        Reachability.STRONG, 5);
+    ps.flush();
+
+    String json = bytes.toString();
+    assertTrue(json.startsWith("{\"file\":\"ri-test-dump.hprof\",\"retained\":\"strong\","));
+    assertTrue(json.endsWith("}"));
+    assertTrue(json.contains("\"heaps\":[{\"name\":"));
+    assertTrue(json.contains("\"dominators\":[{\"id\":"));
+    assertTrue(json.contains("{\"class\":\"java.lang.String\","));
+    assertTrue(json.contains("\"sites\":["));
+  }
+
+  @Test
+  public void diffSummary() throws IOException {
+    // A heap dump has no differences from itself.
+    TestDump dump = TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(bytes);
+    JsonSummary.writeDiff(new JsonWriter(ps), "ri-test-dump.hprof", dump.getAhatSnapshot(),
+        "ri-test-dump.hprof", dump.getAhatSnapshot(), Reachability.STRONG, 5);
+    ps.flush();
+
+    String json = bytes.toString();
+    assertTrue(json.startsWith("{\"file\":\"ri-test-dump.hprof\","
+          + "\"baseline\":\"ri-test-dump.hprof\",\"retained\":\"strong\","));
+    assertTrue(json.endsWith("}"));
+    assertTrue(json.contains("\"heaps\":[{\"name\":"));
+    assertTrue(json.contains("\"classes\":[]"));
+    assertTrue(json.contains("\"sites\":[{\"id\":0,"));
+    assertTrue(json.contains("\"delta\":0"));
+    assertFalse(json.matches(".*\"delta\":-?[1-9].*"));
+  }
+
+  @Test
+  public void deepDiffSummary() throws IOException, HprofFormatException {
+    // Diffing sites of deep stack traces shouldn't overflow the stack.
+    AhatSnapshot snapshot = new Parser(new SyntheticHprof()
+        .instances(200)
+        .stackDepth(10000)
+        .toByteBuffer()).parse();
+    AhatSnapshot baseline = new Parser(new SyntheticHprof()
+        .instances(100)
+        .stackDepth(10000)
+        .toByteBuffer()).parse();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(bytes);
+    JsonSummary.writeDiff(new JsonWriter(ps), "a.hprof", snapshot,
+        "b.hprof", baseline, Reachability.SOFT, 5);
+    ps.flush();
+
+    String json = bytes.toString();
+    assertTrue(json.endsWith("}"));
+    assertTrue(json.contains("\"sites\":[{\"id\":"));
+  }
+}
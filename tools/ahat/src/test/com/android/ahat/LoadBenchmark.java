@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.dominators.Dominators;
+import com.android.ahat.heapdump.AhatArrayInstance;
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.FieldValue;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Benchmarks each phase of loading a synthetic heap dump, to make
+ * performance regressions in loading measurable.
+ * <p>
+ * Run with the ahat and ahat test classes on the class path:
+ * <pre>
+ *   java com.android.ahat.LoadBenchmark [--instances N[,N...]]
+ *       [--shape chain|tree|random] [--id-size 4|8] [--stack-depth N]
+ *       [--array-size N] [--threads N] [--dominators ALGORITHM[,ALGORITHM...]]
+ *       [--warmup N] [--iterations N]
+ * </pre>
+ * The heap dump is generated once, then loaded --warmup times without
+ * measuring and --iterations times measuring each phase with a
+ * {@link ProfilingProgress}. After each load, looking up every instance by
+ * id and decoding every field and array element are measured as extra
+ * phases. The median and minimum time and the median allocation of each
+ * phase are printed to standard output as JSON, along with the median total
+ * time of the loading phases.
+ * <p>
+ * Given several numbers of --instances or several --dominators algorithms
+ * (iterative or semi-nca), the benchmark is run for each combination of
+ * them in turn, printing one JSON object per line. For example,
+ * <code>--instances 100000,200000,400000 --dominators iterative,semi-nca</code>
+ * shows how each dominators algorithm scales with the size of the heap
+ * dump.
+ */
+public class LoadBenchmark {
+  private static class Stats {
+    final List<Long> nanos = new ArrayList<Long>();
+    final List<Long> allocated = new ArrayList<Long>();
+  }
+
+  // A hash of the decoded values, so that decoding them can't be optimized
+  // away.
+  private static volatile int sDecodedHash;
+
+  private static long median(List<Long> values) {
+    long[] sorted = values.stream().mapToLong(x -> x).toArray();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  private static long min(List<Long> values) {
+    return values.stream().mapToLong(x -> x).min().getAsLong();
+  }
+
+  /**
+   * Returns the instances in the snapshot that are reachable from the roots,
+   * found by walking the dominator tree.
+   */
+  private static List<AhatInstance> reachable(AhatSnapshot snapshot) {
+    List<AhatInstance> insts = new ArrayList<AhatInstance>();
+    Deque<AhatInstance> deque = new ArrayDeque<AhatInstance>(snapshot.getRooted());
+    while (!deque.isEmpty()) {
+      AhatInstance inst = deque.pop();
+      if (!inst.isPlaceHolder()) {
+        insts.add(inst);
+      }
+      deque.addAll(inst.getDominated());
+    }
+    return insts;
+  }
+
+  /**
+   * Looks up each of the given instances by id ten times over.
+   */
+  private static void findInstances(AhatSnapshot snapshot, List<AhatInstance> insts,
+      ProfilingProgress progress) {
+    long[] ids = insts.stream().mapToLong(AhatInstance::getId).toArray();
+    progress.start("Finding instances by id", 10L * ids.length);
+    for (int i = 0; i < 10; ++i) {
+      for (long id : ids) {
+        if (snapshot.findInstance(id) == null) {
+          throw new AssertionError("Instance not found: " + id);
+        }
+      }
+      progress.advance(ids.length);
+    }
+    progress.done();
+  }
+
+  /**
+   * Decodes every instance field and array element of the given instances
+   * ten times over.
+   */
+  private static void decodeFields(List<AhatInstance> insts, ProfilingProgress progress) {
+    progress.start("Decoding field values", 10L * insts.size());
+    int hash = 0;
+    for (int i = 0; i < 10; ++i) {
+      for (AhatInstance inst : insts) {
+        if (inst.isClassInstance()) {
+          for (FieldValue field : inst.asClassInstance().getInstanceFields()) {
+            hash = 31 * hash + Objects.hashCode(field.value);
+          }
+        } else if (inst.isArrayInstance()) {
+          AhatArrayInstance array = inst.asArrayInstance();
+          for (int j = 0; j < array.getLength(); ++j) {
+            hash = 31 * hash + Objects.hashCode(array.getValue(j));
+          }
+        }
+      }
+      progress.advance(insts.size());
+    }
+    progress.done();
+    sDecodedHash = hash;
+  }
+
+  public static void main(String[] args) throws IOException, HprofFormatException {
+    SyntheticHprof generator = new SyntheticHprof();
+    Map<String, String> config = new LinkedHashMap<String, String>();
+    List<Integer> instances = new ArrayList<Integer>();
+    List<Dominators.Algorithm> dominators = new ArrayList<Dominators.Algorithm>();
+    int threads = Runtime.getRuntime().availableProcessors();
+    int warmup = 1;
+    int iterations = 5;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      config.put(args[i].substring(2), value);
+      switch (args[i]) {
+        case "--instances":
+          for (String n : value.split(",")) {
+            instances.add(Integer.parseInt(n));
+          }
+          break;
+        case "--shape":
+          generator.shape(SyntheticHprof.Shape.valueOf(value.toUpperCase()));
+          break;
+        case "--id-size": generator.idSize(Integer.parseInt(value)); break;
+        case "--stack-depth": generator.stackDepth(Integer.parseInt(value)); break;
+        case "--array-size": generator.arraySize(Integer.parseInt(value)); break;
+        case "--threads": threads = Integer.parseInt(value); break;
+        case "--dominators":
+          for (String algorithm : value.split(",")) {
+            switch (algorithm) {
+              case "iterative": dominators.add(Dominators.Algorithm.ITERATIVE); break;
+              case "semi-nca": dominators.add(Dominators.Algorithm.SEMI_NCA); break;
+              default:
+                throw new IllegalArgumentException("Unknown dominators algorithm: " + algorithm);
+            }
+          }
+          break;
+        case "--warmup": warmup = Integer.parseInt(value); break;
+        case "--iterations": iterations = Integer.parseInt(value); break;
+        default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    if (dominators.isEmpty()) {
+      dominators.add(Dominators.Algorithm.ITERATIVE);
+    }
+
+    if (instances.isEmpty()) {
+      for (Dominators.Algorithm algorithm : dominators) {
+        run(generator, config, threads, algorithm, warmup, iterations);
+      }
+    }
+    for (int n : instances) {
+      config.put("instances", Integer.toString(n));
+      generator.instances(n);
+      for (Dominators.Algorithm algorithm : dominators) {
+        run(generator, config, threads, algorithm, warmup, iterations);
+      }
+    }
+  }
+
+  /**
+   * Runs the benchmark on a heap dump made by the given generator, loading
+   * it with the given dominators algorithm, and prints the results as a
+   * single line of JSON.
+   */
+  private static void run(SyntheticHprof generator, Map<String, String> config, int threads,
+      Dominators.Algorithm dominators, int warmup, int iterations)
+      throws IOException, HprofFormatException {
+    if (config.containsKey("dominators")) {
+      config.put("dominators",
+          dominators == Dominators.Algorithm.SEMI_NCA ? "semi-nca" : "iterative");
+    }
+
+    File hprof = File.createTempFile("ahat-benchmark", ".hprof");
+    hprof.deleteOnExit();
+    try (OutputStream os = new BufferedOutputStream(new FileOutputStream(hprof))) {
+      generator.write(os);
+    }
+    System.err.println("Generated " + hprof.length() + " byte heap dump");
+
+    Map<String, Stats> phases = new LinkedHashMap<String, Stats>();
+    List<Long> totals = new ArrayList<Long>();
+    for (int i = 0; i < warmup + iterations; ++i) {
+      ProfilingProgress progress = new ProfilingProgress();
+      AhatSnapshot snapshot = new Parser(hprof)
+        .progress(progress)
+        .parallelism(threads)
+        .dominators(dominators)
+        .parse();
+      int loadPhases = progress.getPhases().size();
+      List<AhatInstance> insts = reachable(snapshot);
+      findInstances(snapshot, insts, progress);
+      decodeFields(insts, progress);
+      if (i < warmup) {
+        continue;
+      }
+
+      long total = 0;
+      for (int p = 0; p < progress.getPhases().size(); ++p) {
+        ProfilingProgress.Phase phase = progress.getPhases().get(p);
+        Stats stats = phases.computeIfAbsent(phase.description, x -> new Stats());
+        stats.nanos.add(phase.nanos);
+        stats.allocated.add(phase.allocatedBytes);
+        if (p < loadPhases) {
+          total += phase.nanos;
+        }
+      }
+      totals.add(total);
+    }
+
+    JsonWriter json = new JsonWriter(System.out);
+    json.beginObject();
+    json.name("config").beginObject();
+    for (Map.Entry<String, String> entry : config.entrySet()) {
+      json.name(entry.getKey()).value(entry.getValue());
+    }
+    json.endObject();
+    json.name("bytes").value(hprof.length());
+    json.name("phases").beginArray();
+    for (Map.Entry<String, Stats> entry : phases.entrySet()) {
+      Stats stats = entry.getValue();
+      json.beginObject()
+        .name("description").value(entry.getKey())
+        .name("medianNanos").value(median(stats.nanos))
+        .name("minNanos").value(min(stats.nanos))
+        .name("medianAllocated").value(median(stats.allocated))
+        .endObject();
+    }
+    json.endArray();
+    json.name("medianNanos").value(iterations > 0 ? median(totals) : 0);
+    json.endObject();
+    System.out.println();
+  }
+}
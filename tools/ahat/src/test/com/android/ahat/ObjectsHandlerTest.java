@@ -16,11 +16,15 @@
 
 package com.android.ahat;
 
+import com.android.ahat.heapdump.AhatHeap;
 import com.android.ahat.heapdump.AhatInstance;
 import com.android.ahat.heapdump.AhatSnapshot;
 import com.android.ahat.heapdump.Site;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -36,20 +40,61 @@ public class ObjectsHandlerTest {
 
     // We expect a single instance of DumpedStuff
     List<AhatInstance> dumped = ObjectsHandler.getObjects(
-        root, "DumpedStuff", /* subclass */ false, /* heapName */ null);
+        snapshot, root, "DumpedStuff", /* subclass */ false, /* heapName */ null);
     assertEquals(1, dumped.size());
     assertTrue(dumped.get(0).getClassName().equals("DumpedStuff"));
 
     // We expect no direct instances of SuperDumpedStuff
     List<AhatInstance> direct = ObjectsHandler.getObjects(
-        root, "SuperDumpedStuff", /* subclass */ false, /* heapName */ null);
+        snapshot, root, "SuperDumpedStuff", /* subclass */ false, /* heapName */ null);
     assertTrue(direct.isEmpty());
 
     // We expect one subclass instance of SuperDumpedStuff
     List<AhatInstance> subclass = ObjectsHandler.getObjects(
-        root, "SuperDumpedStuff", /* subclass */ true, /* heapName */ null);
+        snapshot, root, "SuperDumpedStuff", /* subclass */ true, /* heapName */ null);
     assertEquals(1, subclass.size());
     assertTrue(subclass.get(0).getClassName().equals("DumpedStuff"));
     assertEquals(dumped.get(0), subclass.get(0));
   }
+
+  @Test
+  public void getObjectsMatchesSiteScan() throws IOException {
+    TestDump dump = TestDump.getTestDump();
+    AhatSnapshot snapshot = dump.getAhatSnapshot();
+
+    // The indexed lookup should find the same instances as scanning all the
+    // instances allocated at a site, for every site and heap.
+    Site root = snapshot.getRootSite();
+    List<Site> sites = new ArrayList<Site>();
+    sites.add(root);
+    for (int i = 0; i < sites.size(); ++i) {
+      sites.addAll(sites.get(i).getChildren());
+    }
+    List<String> heapNames = new ArrayList<String>();
+    heapNames.add(null);
+    for (AhatHeap heap : snapshot.getHeaps()) {
+      heapNames.add(heap.getName());
+    }
+
+    String[] classNames = new String[] {
+      "DumpedStuff", "SuperDumpedStuff", "java.lang.Object", "java.lang.String",
+      "java.lang.ref.Reference", "???"
+    };
+    for (Site site : sites) {
+      for (String className : classNames) {
+        for (String heapName : heapNames) {
+          for (boolean subclass : new boolean[] { false, true }) {
+            Set<AhatInstance> expected = new HashSet<AhatInstance>();
+            site.getObjects(x -> (heapName == null || x.getHeap().getName().equals(heapName))
+                && (subclass ? x.isInstanceOfClass(className) : className.equals(x.getClassName())),
+                x -> expected.add(x));
+            List<AhatInstance> actual = ObjectsHandler.getObjects(
+                snapshot, site, className, subclass, heapName);
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected, new HashSet<AhatInstance>(actual));
+          }
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PageCacheTest {
+  private static Query query(String uri) throws URISyntaxException {
+    return new Query(new URI(uri));
+  }
+
+  @Test
+  public void normalizedQuery() throws URISyntaxException {
+    PageCache cache = new PageCache(80);
+    byte[] page = new byte[] { 1, 2, 3 };
+    cache.put(query("/object?id=1&heap=app"), page);
+    assertArrayEquals(page, cache.get(query("/object?heap=app&id=1")));
+    assertNull(cache.get(query("/object?id=1")));
+    assertNull(cache.get(query("/objects?heap=app&id=1")));
+  }
+
+  @Test
+  public void leastRecentlyUsed() throws URISyntaxException {
+    PageCache cache = new PageCache(80);
+    cache.put(query("/site?id=1"), new byte[10]);
+    cache.put(query("/site?id=2"), new byte[10]);
+    cache.put(query("/site?id=3"), new byte[10]);
+    cache.get(query("/site?id=1"));
+
+    // Adding 60 more bytes should evict the least recently used page only.
+    for (int i = 4; i < 10; ++i) {
+      cache.put(query("/site?id=" + i), new byte[10]);
+    }
+    assertEquals(8, cache.size());
+    assertNull(cache.get(query("/site?id=2")));
+    assertEquals(10, cache.get(query("/site?id=1")).length);
+    assertEquals(10, cache.get(query("/site?id=3")).length);
+  }
+
+  @Test
+  public void bigPage() throws URISyntaxException {
+    // Pages more than an eighth of the capacity are not cached.
+    PageCache cache = new PageCache(80);
+    cache.put(query("/site?id=1"), new byte[11]);
+    assertNull(cache.get(query("/site?id=1")));
+    assertEquals(0, cache.size());
+  }
+}
@@ -18,11 +18,29 @@ package com.android.ahat;
 
 import com.android.ahat.heapdump.AhatInstance;
 import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Reachability;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -54,4 +72,96 @@ public class PerformanceTest {
     long time = System.currentTimeMillis() - start;
     assertTrue("bigArray took too long: " + time + "ms", time < 1000);
   }
+
+  @Test
+  public void concurrentRequests() throws Exception {
+    // Serve a mix of pages to a number of concurrent clients. Each response
+    // should be the same as the page served to a single client by a server
+    // with nothing cached. ServeBenchmark measures the latency of requests.
+    TestDump dump = TestDump.getTestDump();
+    AhatSnapshot snapshot = dump.getAhatSnapshot();
+
+    List<String> pages = new ArrayList<String>();
+    pages.add("/");
+    pages.add("/rooted");
+    pages.add("/site?id=0");
+    pages.add("/objects?id=0&class=java.lang.Object&subclass=1");
+    for (AhatInstance inst : snapshot.getRooted()) {
+      if (pages.size() == 20) {
+        break;
+      }
+      pages.add("/object?id=" + inst.getId());
+    }
+
+    Map<String, String> expected = new HashMap<String, String>();
+    HttpServer server = startServer(snapshot);
+    try {
+      for (String page : pages) {
+        expected.put(page, fetch(server, page));
+      }
+    } finally {
+      server.stop(0);
+    }
+
+    server = startServer(snapshot);
+    int clients = 8;
+    int rounds = 5;
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    try {
+      List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>();
+      for (int c = 0; c < clients; ++c) {
+        // Each client visits the pages in a different order, so that some
+        // pages are rendered concurrently for different clients.
+        List<String> order = new ArrayList<String>(pages);
+        Collections.rotate(order, c * pages.size() / clients);
+        HttpServer clientServer = server;
+        futures.add(executor.submit(() -> {
+          Map<String, String> responses = new HashMap<String, String>();
+          for (int r = 0; r < rounds; ++r) {
+            for (String page : order) {
+              String response = fetch(clientServer, page);
+              String previous = responses.put(page, response);
+              if (previous != null && !previous.equals(response)) {
+                throw new AssertionError("Different responses for " + page);
+              }
+            }
+          }
+          return responses;
+        }));
+      }
+
+      for (Future<Map<String, String>> future : futures) {
+        Map<String, String> responses = future.get();
+        for (String page : pages) {
+          assertEquals(page, expected.get(page), responses.get(page));
+        }
+      }
+    } finally {
+      executor.shutdown();
+      server.stop(0);
+    }
+  }
+
+  private static HttpServer startServer(AhatSnapshot snapshot) throws IOException {
+    InetSocketAddress addr = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    HttpServer server = HttpServer.create(addr, 0);
+    Main.serve(server, snapshot, new File("test-dump.hprof"), null, Reachability.SOFT);
+    return server;
+  }
+
+  private static String fetch(HttpServer server, String page) throws IOException {
+    InetSocketAddress addr = server.getAddress();
+    URL url = new URL("http", addr.getHostString(), addr.getPort(), page);
+    HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+    assertEquals(page, 200, conn.getResponseCode());
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (InputStream is = conn.getInputStream()) {
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = is.read(buffer)) >= 0) {
+        body.write(buffer, 0, n);
+      }
+    }
+    return body.toString("UTF-8");
+  }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
+import com.android.ahat.heapdump.Site;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProfilingProgressTest {
+  private static AhatSnapshot parse(SyntheticHprof hprof, ProfilingProgress progress)
+      throws IOException, HprofFormatException {
+    return new Parser(hprof.toByteBuffer()).progress(progress).parallelism(1).parse();
+  }
+
+  @Test
+  public void phases() throws IOException, HprofFormatException {
+    ProfilingProgress progress = new ProfilingProgress();
+    parse(new SyntheticHprof().instances(1000), progress);
+
+    List<String> descriptions = new ArrayList<String>();
+    for (ProfilingProgress.Phase phase : progress.getPhases()) {
+      descriptions.add(phase.description);
+      assertTrue(phase.nanos >= 0);
+    }
+    assertTrue(descriptions.toString(), descriptions.contains("Reading hprof"));
+    assertTrue(descriptions.toString(), descriptions.contains("Resolving references"));
+    assertTrue(descriptions.toString(), descriptions.contains("Computing reachability"));
+    assertTrue(descriptions.toString(), descriptions.contains("Computing retained sizes"));
+    assertTrue(descriptions.toString(), descriptions.contains("Preparing allocation sites"));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(bytes);
+    progress.write(new JsonWriter(ps), "synthetic.hprof");
+    ps.flush();
+    String json = bytes.toString();
+    assertTrue(json, json.startsWith(
+          "{\"file\":\"synthetic.hprof\",\"phases\":[{\"description\":\"Reading hprof\","));
+  }
+
+  @Test
+  public void deepChain() throws IOException, HprofFormatException {
+    // Long reference chains and deep stack traces should load without
+    // overflowing the stack, and the root should retain the whole chain.
+    int instances = 100000;
+    AhatSnapshot snapshot = parse(new SyntheticHprof()
+        .instances(instances)
+        .shape(SyntheticHprof.Shape.CHAIN)
+        .stackDepth(10000)
+        .arraySize(0), new ProfilingProgress());
+
+    AhatInstance root = snapshot.findInstance(SyntheticHprof.nodeId(0));
+    assertNotNull(root);
+    assertEquals(instances * root.getSize().getSize(), root.getTotalRetainedSize().getSize());
+
+    Site site = snapshot.getRootSite();
+    int depth = 0;
+    while (!site.getChildren().isEmpty()) {
+      site = site.getChildren().get(0);
+      depth++;
+    }
+    assertEquals(10000, depth);
+    assertEquals(instances, site.getObjectsInfos().get(0).numInstances);
+  }
+
+  @Test
+  public void idSize() throws IOException, HprofFormatException {
+    // The same graph should have the same structure whatever the id size.
+    for (SyntheticHprof.Shape shape : SyntheticHprof.Shape.values()) {
+      AhatSnapshot narrow = parse(new SyntheticHprof().shape(shape).idSize(4),
+          new ProfilingProgress());
+      AhatSnapshot wide = parse(new SyntheticHprof().shape(shape).idSize(8),
+          new ProfilingProgress());
+      assertEquals(narrow.getRooted().size(), wide.getRooted().size());
+
+      AhatInstance narrowRoot = narrow.findInstance(SyntheticHprof.nodeId(0));
+      AhatInstance wideRoot = wide.findInstance(SyntheticHprof.nodeId(0));
+      assertEquals(narrowRoot.getDominated().size(), wideRoot.getDominated().size());
+      assertEquals(narrowRoot.getField("next").asAhatInstance().getId(),
+          wideRoot.getField("next").asAhatInstance().getId());
+    }
+  }
+}
@@ -21,6 +21,7 @@ import java.net.URISyntaxException;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 public class QueryTest {
   @Test
@@ -70,4 +71,15 @@ public class QueryTest {
     assertEquals("/object?answer=43", query.with("answer", "43").toString());
     assertEquals("/object?", query.with("foo", null).toString());
   }
+
+  @Test
+  public void normalized() throws URISyntaxException {
+    Query a = new Query(new URI("http://localhost:7100/object?foo=bar&answer=42"));
+    Query b = new Query(new URI("/object?answer=42&foo=sludge&foo=bar"));
+    Query c = new Query(new URI("/objects?answer=42&foo=bar"));
+    assertEquals("/object?answer=42&foo=bar", a.normalized().toString());
+    assertEquals(a.normalized(), b.normalized());
+    assertNotEquals(a.normalized(), c.normalized());
+    assertEquals("/object?", new Query(new URI("/object")).normalized().toString());
+  }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.PathElement;
+import com.android.ahat.heapdump.Reachability;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionTest {
+  private static long totalSize(List<AhatInstance> insts) {
+    long size = 0;
+    for (AhatInstance inst : insts) {
+      size += inst.getSize().getSize();
+    }
+    return size;
+  }
+
+  @Test
+  public void pathsFromGcRoots() throws IOException {
+    TestDump dump = TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG);
+    AhatInstance ref = dump.getDumpedAhatInstance("aWeakRefToFinalizable");
+
+    List<List<PathElement>> paths = ref.getPathsFromGcRoots(3);
+    assertFalse(paths.isEmpty());
+    assertTrue(paths.size() <= 3);
+
+    // The first path is a shortest path, so it is as short as the sample path.
+    assertEquals(ref.getPathFromGcRoot().size(), paths.get(0).size());
+
+    Set<AhatInstance> roots = new HashSet<AhatInstance>();
+    for (List<PathElement> path : paths) {
+      assertTrue(path.get(0).instance.isRoot());
+      assertTrue(roots.add(path.get(0).instance));
+      assertEquals(ref, path.get(path.size() - 1).instance);
+      assertTrue(path.get(path.size() - 1).isDominator);
+      assertTrue(path.get(0).instance.getReachability() == Reachability.STRONG);
+    }
+    assertTrue(ref.getPathsFromGcRoots(0).isEmpty());
+  }
+
+  @Test
+  public void retainedSetOfOne() throws IOException {
+    TestDump dump = TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG);
+    AhatSnapshot snapshot = dump.getAhatSnapshot();
+
+    // The retained set of a single instance is the instance and everything
+    // it dominates.
+    for (AhatInstance inst : snapshot.getRooted()) {
+      List<AhatInstance> retained = snapshot.getRetainedSet(Collections.singletonList(inst));
+      assertTrue(retained.contains(inst));
+      assertEquals(inst.getTotalRetainedSize().getSize(), totalSize(retained));
+    }
+  }
+
+  @Test
+  public void retainedSetOfMany() throws IOException {
+    TestDump dump = TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG);
+    AhatSnapshot snapshot = dump.getAhatSnapshot();
+
+    // Freeing all the rooted instances frees every retained instance.
+    List<AhatInstance> rooted = new ArrayList<AhatInstance>(snapshot.getRooted());
+    long total = 0;
+    for (AhatInstance inst : rooted) {
+      total += inst.getTotalRetainedSize().getSize();
+    }
+    assertEquals(total, totalSize(snapshot.getRetainedSet(rooted)));
+
+    // The retained set of several instances includes the retained sets of
+    // each of them.
+    List<AhatInstance> some = rooted.subList(0, Math.min(10, rooted.size()));
+    Set<AhatInstance> retained = new HashSet<AhatInstance>(snapshot.getRetainedSet(some));
+    for (AhatInstance inst : some) {
+      assertTrue(retained.containsAll(snapshot.getRetainedSet(Arrays.asList(inst))));
+    }
+  }
+
+  @Test
+  public void freedIfCut() throws IOException {
+    TestDump dump = TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG);
+    AhatSnapshot snapshot = dump.getAhatSnapshot();
+    AhatInstance ref = dump.getDumpedAhatInstance("aWeakRefToFinalizable");
+    List<PathElement> path = ref.getPathFromGcRoot();
+    AhatInstance stuff = path.get(path.size() - 2).instance;
+    assertEquals("DumpedStuff", stuff.getClassName());
+
+    // Only DumpedStuff refers to the weak reference, so cutting that
+    // reference frees the weak reference and everything it retains.
+    List<AhatInstance> freed = snapshot.getFreedIfCut(stuff, ref);
+    assertTrue(freed.contains(ref));
+    assertEquals(ref.getTotalRetainedSize().getSize(), totalSize(freed));
+
+    // The referent is only weakly referenced, so isn't retained by the
+    // weak reference.
+    assertTrue(snapshot.getFreedIfCut(ref, ref.getReferent()).isEmpty());
+
+    // Nothing is freed by cutting a reference that doesn't exist.
+    assertTrue(snapshot.getFreedIfCut(ref, stuff).isEmpty());
+  }
+}
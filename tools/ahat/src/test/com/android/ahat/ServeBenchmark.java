@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatInstance;
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.Parser;
+import com.android.ahat.heapdump.Reachability;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmarks the latency of requests to the ahat server from concurrent
+ * clients.
+ * <p>
+ * Run with the ahat and ahat test classes on the class path:
+ * <pre>
+ *   java com.android.ahat.ServeBenchmark [--instances N]
+ *       [--shape chain|tree|random] [--clients N] [--rounds N]
+ * </pre>
+ * A synthetic heap dump is generated and loaded, then each of --clients
+ * clients visits the same mix of pages --rounds times. The first visit to a
+ * page renders it and later visits are typically served from the page
+ * cache. The number of requests and the median and 99th percentile latency
+ * of the requests are printed to standard output as JSON.
+ */
+public class ServeBenchmark {
+  public static void main(String[] args) throws Exception {
+    SyntheticHprof generator = new SyntheticHprof();
+    Map<String, String> config = new LinkedHashMap<String, String>();
+    int clients = 8;
+    int rounds = 5;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      config.put(args[i].substring(2), value);
+      switch (args[i]) {
+        case "--instances": generator.instances(Integer.parseInt(value)); break;
+        case "--shape":
+          generator.shape(SyntheticHprof.Shape.valueOf(value.toUpperCase()));
+          break;
+        case "--clients": clients = Integer.parseInt(value); break;
+        case "--rounds": rounds = Integer.parseInt(value); break;
+        default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+
+    AhatSnapshot snapshot = new Parser(generator.toByteBuffer()).parse();
+    List<String> pages = new ArrayList<String>();
+    pages.add("/");
+    pages.add("/rooted");
+    pages.add("/site?id=0");
+    pages.add("/objects?id=0&class=java.lang.Object&subclass=1");
+    Deque<AhatInstance> deque = new ArrayDeque<AhatInstance>(snapshot.getRooted());
+    while (!deque.isEmpty() && pages.size() < 20) {
+      AhatInstance inst = deque.pop();
+      pages.add("/object?id=" + inst.getId());
+      deque.addAll(inst.getDominated());
+    }
+
+    // As ahat's main does, before the server is created.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    InetSocketAddress addr = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    HttpServer server = HttpServer.create(addr, 0);
+    Main.serve(server, snapshot, new File("synthetic.hprof"), null, Reachability.SOFT);
+    int port = server.getAddress().getPort();
+
+    int clientRounds = rounds;
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    long[] latencies = new long[0];
+    try {
+      List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+      for (int c = 0; c < clients; ++c) {
+        futures.add(executor.submit(() -> {
+          long[] client = new long[clientRounds * pages.size()];
+          int n = 0;
+          for (int r = 0; r < clientRounds; ++r) {
+            for (String page : pages) {
+              long start = System.nanoTime();
+              URL url = new URL("http", addr.getHostString(), port, page);
+              HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+              if (conn.getResponseCode() != 200) {
+                throw new AssertionError(page + ": " + conn.getResponseCode());
+              }
+              try (InputStream is = conn.getInputStream()) {
+                byte[] buffer = new byte[4096];
+                while (is.read(buffer) >= 0) {
+                }
+              }
+              client[n++] = System.nanoTime() - start;
+            }
+          }
+          return client;
+        }));
+      }
+
+      for (Future<long[]> future : futures) {
+        long[] client = future.get();
+        int n = latencies.length;
+        latencies = Arrays.copyOf(latencies, n + client.length);
+        System.arraycopy(client, 0, latencies, n, client.length);
+      }
+    } finally {
+      executor.shutdown();
+      server.stop(0);
+    }
+    Arrays.sort(latencies);
+
+    JsonWriter json = new JsonWriter(System.out);
+    json.beginObject();
+    json.name("config").beginObject();
+    for (Map.Entry<String, String> entry : config.entrySet()) {
+      json.name(entry.getKey()).value(entry.getValue());
+    }
+    json.endObject();
+    json.name("requests").value(latencies.length);
+    json.name("p50Nanos").value(latencies.length > 0 ? latencies[latencies.length / 2] : 0);
+    json.name("p99Nanos")
+      .value(latencies.length > 0 ? latencies[latencies.length * 99 / 100] : 0);
+    json.endObject();
+    System.out.println();
+  }
+}
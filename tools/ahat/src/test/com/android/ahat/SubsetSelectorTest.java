@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SubsetSelectorTest {
+  private static List<Integer> range(int size) {
+    List<Integer> list = new ArrayList<Integer>();
+    for (int i = 0; i < size; ++i) {
+      list.add(i);
+    }
+    return list;
+  }
+
+  @Test
+  public void all() throws URISyntaxException {
+    Query query = new Query(new URI("/objects?n=3"));
+    SubsetSelector<Integer> selector = new SubsetSelector<>(query, "n", range(5));
+    assertEquals(Arrays.asList(0, 1, 2), selector.selected());
+    assertEquals(Arrays.asList(3, 4), selector.remaining());
+  }
+
+  @Test
+  public void prefix() throws URISyntaxException {
+    // Only the selected elements are given, out of 5000.
+    Query query = new Query(new URI("/objects?n=3"));
+    int limit = SubsetSelector.limit(query, "n");
+    assertEquals(3, limit);
+    SubsetSelector<Integer> selector = new SubsetSelector<>(query, "n", range(limit), 5000);
+    assertEquals(Arrays.asList(0, 1, 2), selector.selected());
+    try {
+      selector.remaining();
+      fail("expected remaining() to be unsupported for a prefix");
+    } catch (UnsupportedOperationException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void completePrefix() throws URISyntaxException {
+    // A prefix holding all of the elements supports remaining().
+    Query query = new Query(new URI("/objects?n=3"));
+    SubsetSelector<Integer> selector = new SubsetSelector<>(query, "n", range(5), 5);
+    assertEquals(Arrays.asList(0, 1, 2), selector.selected());
+    assertEquals(Arrays.asList(3, 4), selector.remaining());
+  }
+}
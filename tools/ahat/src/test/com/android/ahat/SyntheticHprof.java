@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.Reachability;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic heap dumps of a given size and shape, for testing and
+ * benchmarking the parts of ahat that don't depend on what the instances
+ * represent.
+ * <p>
+ * The heap dump has a single class Node, with fields next, other and data.
+ * Each node may refer to a byte[] through its data field, and all nodes are
+ * allocated at the same, possibly deep, stack trace. The first node is the
+ * only GC root. The other field of chosen nodes can instead refer to a
+ * java.lang.ref.Reference, to make parts of the graph reachable only
+ * through soft, weak, finalizer or phantom references.
+ */
+public class SyntheticHprof {
+  /**
+   * The shape of the graph formed by the references between nodes.
+   */
+  public enum Shape {
+    /**
+     * Each node refers to the next node, forming a single long chain.
+     */
+    CHAIN,
+
+    /**
+     * Node i refers to nodes 2i+1 and 2i+2, forming a balanced binary tree.
+     */
+    TREE,
+
+    /**
+     * Each node refers to the next node and to a random other node, so most
+     * nodes are referred to from more than one place.
+     */
+    RANDOM,
+  }
+
+  // Ids of the strings and classes in the heap dump.
+  private static final int STRING_OBJECT = 1;
+  private static final int STRING_CLASS = 2;
+  private static final int STRING_NODE = 3;
+  private static final int STRING_BYTE_ARRAY = 4;
+  private static final int STRING_NEXT = 5;
+  private static final int STRING_OTHER = 6;
+  private static final int STRING_DATA = 7;
+  private static final int STRING_METHOD = 8;
+  private static final int STRING_SIGNATURE = 9;
+  private static final int STRING_FILE = 10;
+  private static final int STRING_REFERENCE = 11;
+  private static final int STRING_REFERENT = 12;
+
+  // Strings for the names of the Reference subclasses start here, in the
+  // order of REFERENCE_STRENGTHS.
+  private static final int STRING_REFERENCES = 13;
+
+  private static final long CLASS_OBJECT = 0x100;
+  private static final long CLASS_CLASS = 0x108;
+  private static final long CLASS_NODE = 0x110;
+  private static final long CLASS_BYTE_ARRAY = 0x118;
+  private static final long CLASS_REFERENCE = 0x120;
+
+  // Reference subclasses are given ids CLASS_REFERENCES + 8 * i, in the
+  // order of REFERENCE_STRENGTHS.
+  private static final long CLASS_REFERENCES = 0x128;
+
+  private static final Reachability[] REFERENCE_STRENGTHS = {
+    Reachability.SOFT, Reachability.FINALIZER, Reachability.WEAK, Reachability.PHANTOM
+  };
+  private static final String[] REFERENCE_CLASSES = {
+    "java.lang.ref.SoftReference",
+    "java.lang.ref.FinalizerReference",
+    "java.lang.ref.WeakReference",
+    "java.lang.ref.PhantomReference",
+  };
+
+  // Nodes are given ids NODES + 16 * i, and their arrays the following id.
+  private static final long NODES = 0x1000;
+
+  // The largest amount of data to put in a single heap dump segment.
+  private static final int SEGMENT_SIZE = 1 << 20;
+
+  private int mInstances = 1000;
+  private Shape mShape = Shape.RANDOM;
+  private int mIdSize = 4;
+  private int mStackDepth = 0;
+  private int mArraySize = 16;
+  private long mSeed = 0;
+
+  // The references added with reference(), as {from, strength, to}, where
+  // strength is an index into REFERENCE_STRENGTHS.
+  private final List<int[]> mReferences = new ArrayList<int[]>();
+
+  /**
+   * Sets the number of nodes in the heap dump.
+   */
+  public SyntheticHprof instances(int instances) {
+    mInstances = instances;
+    return this;
+  }
+
+  /**
+   * Sets the shape of the graph of nodes.
+   */
+  public SyntheticHprof shape(Shape shape) {
+    mShape = shape;
+    return this;
+  }
+
+  /**
+   * Sets the size of ids in the heap dump, which must be 4 or 8.
+   */
+  public SyntheticHprof idSize(int idSize) {
+    mIdSize = idSize;
+    return this;
+  }
+
+  /**
+   * Sets the number of frames in the stack trace all nodes are allocated
+   * at.
+   */
+  public SyntheticHprof stackDepth(int depth) {
+    mStackDepth = depth;
+    return this;
+  }
+
+  /**
+   * Sets the length of the byte[] each node refers to, or 0 for nodes to
+   * not refer to arrays.
+   */
+  public SyntheticHprof arraySize(int size) {
+    mArraySize = size;
+    return this;
+  }
+
+  /**
+   * Sets the seed used to choose the references of RANDOM graphs.
+   */
+  public SyntheticHprof seed(long seed) {
+    mSeed = seed;
+    return this;
+  }
+
+  /**
+   * Makes the other field of node from refer to a new java.lang.ref.Reference
+   * of the given strength, whose referent is node to, in place of whatever
+   * the shape of the graph would have it refer to. Reference objects are
+   * given the ids following the ids of the nodes, in the order they are
+   * added.
+   *
+   * @param from the index of the referring node
+   * @param strength one of SOFT, FINALIZER, WEAK or PHANTOM
+   * @param to the index of the referent node
+   */
+  public SyntheticHprof reference(int from, Reachability strength, int to) {
+    for (int i = 0; i < REFERENCE_STRENGTHS.length; ++i) {
+      if (REFERENCE_STRENGTHS[i] == strength) {
+        mReferences.add(new int[] { from, i, to });
+        return this;
+      }
+    }
+    throw new IllegalArgumentException("No reference class for " + strength);
+  }
+
+  /**
+   * Returns the id of the node with the given index.
+   */
+  public static long nodeId(int index) {
+    return NODES + 16L * index;
+  }
+
+  /**
+   * Returns the generated heap dump in a buffer.
+   */
+  public ByteBuffer toByteBuffer() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    write(bytes);
+    return ByteBuffer.wrap(bytes.toByteArray());
+  }
+
+  /**
+   * Writes the generated heap dump to the given stream.
+   */
+  public void write(OutputStream os) throws IOException {
+    if (mIdSize != 4 && mIdSize != 8) {
+      throw new IllegalArgumentException("Id size " + mIdSize + " not supported");
+    }
+
+    Writer out = new Writer(os);
+    out.writeBytes("JAVA PROFILE 1.0.3");
+    out.writeByte(0);
+    out.writeInt(mIdSize);
+    out.writeLong(0);
+
+    Writer record = new Writer(new ByteArrayOutputStream());
+    writeString(out, record, STRING_OBJECT, "java.lang.Object");
+    writeString(out, record, STRING_CLASS, "java.lang.Class");
+    writeString(out, record, STRING_NODE, "Node");
+    writeString(out, record, STRING_BYTE_ARRAY, "[B");
+    writeString(out, record, STRING_NEXT, "next");
+    writeString(out, record, STRING_OTHER, "other");
+    writeString(out, record, STRING_DATA, "data");
+    writeString(out, record, STRING_METHOD, "allocate");
+    writeString(out, record, STRING_SIGNATURE, "()V");
+    writeString(out, record, STRING_FILE, "Node.java");
+    if (!mReferences.isEmpty()) {
+      writeString(out, record, STRING_REFERENCE, "java.lang.ref.Reference");
+      writeString(out, record, STRING_REFERENT, "referent");
+      for (int i = 0; i < REFERENCE_CLASSES.length; ++i) {
+        writeString(out, record, STRING_REFERENCES + i, REFERENCE_CLASSES[i]);
+      }
+    }
+
+    writeLoadClass(out, record, 1, CLASS_OBJECT, STRING_OBJECT);
+    writeLoadClass(out, record, 2, CLASS_CLASS, STRING_CLASS);
+    writeLoadClass(out, record, 3, CLASS_NODE, STRING_NODE);
+    writeLoadClass(out, record, 4, CLASS_BYTE_ARRAY, STRING_BYTE_ARRAY);
+    if (!mReferences.isEmpty()) {
+      writeLoadClass(out, record, 5, CLASS_REFERENCE, STRING_REFERENCE);
+      for (int i = 0; i < REFERENCE_CLASSES.length; ++i) {
+        writeLoadClass(out, record, 6 + i, CLASS_REFERENCES + 8 * i, STRING_REFERENCES + i);
+      }
+    }
+
+    // Stack trace 1 is empty, for the classes. Stack trace 2 has mStackDepth
+    // frames, for the nodes and arrays.
+    for (int i = 0; i < mStackDepth; ++i) {
+      record.writeId(i + 1);
+      record.writeId(STRING_METHOD);
+      record.writeId(STRING_SIGNATURE);
+      record.writeId(STRING_FILE);
+      record.writeInt(3);
+      record.writeInt(i + 1);
+      record.flushRecord(out, 0x04);
+    }
+    for (int serial = 1; serial <= 2; ++serial) {
+      int depth = serial == 1 ? 0 : mStackDepth;
+      record.writeInt(serial);
+      record.writeInt(1);
+      record.writeInt(depth);
+      for (int i = 0; i < depth; ++i) {
+        record.writeId(i + 1);
+      }
+      record.flushRecord(out, 0x05);
+    }
+
+    writeClassDump(record, CLASS_OBJECT, 0, 0, new int[0]);
+    writeClassDump(record, CLASS_CLASS, CLASS_OBJECT, 0, new int[0]);
+    writeClassDump(record, CLASS_NODE, CLASS_OBJECT, 3 * mIdSize,
+        new int[] { STRING_NEXT, STRING_OTHER, STRING_DATA });
+    writeClassDump(record, CLASS_BYTE_ARRAY, CLASS_OBJECT, 0, new int[0]);
+    if (!mReferences.isEmpty()) {
+      writeClassDump(record, CLASS_REFERENCE, CLASS_OBJECT, mIdSize,
+          new int[] { STRING_REFERENT });
+      for (int i = 0; i < REFERENCE_CLASSES.length; ++i) {
+        writeClassDump(record, CLASS_REFERENCES + 8 * i, CLASS_REFERENCE, mIdSize, new int[0]);
+      }
+    }
+
+    record.writeByte(0xFF); // ROOT UNKNOWN
+    record.writeId(nodeId(0));
+
+    Random random = new Random(mSeed);
+    byte[] data = new byte[mArraySize];
+    for (int i = 0; i < mInstances; ++i) {
+      long next = 0;
+      long other = 0;
+      switch (mShape) {
+        case CHAIN:
+          next = i + 1 < mInstances ? nodeId(i + 1) : 0;
+          break;
+
+        case TREE:
+          next = 2L * i + 1 < mInstances ? nodeId(2 * i + 1) : 0;
+          other = 2L * i + 2 < mInstances ? nodeId(2 * i + 2) : 0;
+          break;
+
+        case RANDOM:
+          next = i + 1 < mInstances ? nodeId(i + 1) : 0;
+          other = nodeId(random.nextInt(mInstances));
+          break;
+      }
+
+      for (int r = 0; r < mReferences.size(); ++r) {
+        if (mReferences.get(r)[0] == i) {
+          other = nodeId(mInstances + r);
+        }
+      }
+
+      long id = nodeId(i);
+      record.writeByte(0x21); // INSTANCE DUMP
+      record.writeId(id);
+      record.writeInt(2);
+      record.writeId(CLASS_NODE);
+      record.writeInt(3 * mIdSize);
+      record.writeId(next);
+      record.writeId(other);
+      record.writeId(mArraySize > 0 ? id + 8 : 0);
+
+      if (mArraySize > 0) {
+        random.nextBytes(data);
+        record.writeByte(0x23); // PRIMITIVE ARRAY DUMP
+        record.writeId(id + 8);
+        record.writeInt(2);
+        record.writeInt(mArraySize);
+        record.writeByte(8); // byte
+        record.write(data);
+      }
+
+      if (record.size() >= SEGMENT_SIZE) {
+        record.flushRecord(out, 0x1C);
+      }
+    }
+    for (int r = 0; r < mReferences.size(); ++r) {
+      int[] reference = mReferences.get(r);
+      record.writeByte(0x21); // INSTANCE DUMP
+      record.writeId(nodeId(mInstances + r));
+      record.writeInt(2);
+      record.writeId(CLASS_REFERENCES + 8 * reference[1]);
+      record.writeInt(mIdSize);
+      record.writeId(nodeId(reference[2]));
+    }
+    record.flushRecord(out, 0x1C);
+    record.flushRecord(out, 0x2C);
+    out.flush();
+  }
+
+  private static void writeString(Writer out, Writer record, int id, String str)
+      throws IOException {
+    record.writeId(id);
+    record.write(str.getBytes(StandardCharsets.UTF_8));
+    record.flushRecord(out, 0x01);
+  }
+
+  private static void writeLoadClass(Writer out, Writer record, int serial, long id, int name)
+      throws IOException {
+    record.writeInt(serial);
+    record.writeId(id);
+    record.writeInt(1);
+    record.writeId(name);
+    record.flushRecord(out, 0x02);
+  }
+
+  private void writeClassDump(Writer record, long id, long superClass, int instanceSize,
+      int[] fields) throws IOException {
+    record.writeByte(0x20); // CLASS DUMP
+    record.writeId(id);
+    record.writeInt(1);
+    record.writeId(superClass);
+    for (int i = 0; i < 5; ++i) {
+      record.writeId(0);    // class loader, signers, protection domain, reserved
+    }
+    record.writeInt(instanceSize);
+    record.writeShort(0);   // constant pool
+    record.writeShort(0);   // static fields
+    record.writeShort(fields.length);
+    for (int field : fields) {
+      record.writeId(field);
+      record.writeByte(2);  // object
+    }
+  }
+
+  /**
+   * A DataOutputStream that can also write ids, and write what it has
+   * buffered as an hprof record.
+   */
+  private class Writer extends DataOutputStream {
+    Writer(OutputStream os) {
+      super(os);
+    }
+
+    void writeId(long id) throws IOException {
+      if (mIdSize == 4) {
+        writeInt((int)id);
+      } else {
+        writeLong(id);
+      }
+    }
+
+    /**
+     * Writes the data written to this writer to the given output as a
+     * single record with the given tag, and clears this writer. This writer
+     * must have been created with a ByteArrayOutputStream.
+     */
+    void flushRecord(Writer out, int tag) throws IOException {
+      ByteArrayOutputStream bytes = (ByteArrayOutputStream)this.out;
+      out.writeByte(tag);
+      out.writeInt(0);
+      out.writeInt(bytes.size());
+      bytes.writeTo(out);
+      bytes.reset();
+      written = 0;
+    }
+  }
+}
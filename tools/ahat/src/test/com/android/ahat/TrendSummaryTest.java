@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat;
+
+import com.android.ahat.heapdump.AhatSnapshot;
+import com.android.ahat.heapdump.HprofFormatException;
+import com.android.ahat.heapdump.Parser;
+import com.android.ahat.heapdump.Reachability;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TrendSummaryTest {
+  private static String write(TrendSummary trend, int top) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(bytes);
+    trend.write(new JsonWriter(ps), top);
+    ps.flush();
+    return bytes.toString();
+  }
+
+  /**
+   * Returns a snapshot of a chain of the given number of nodes, each with a
+   * 16 byte array, all allocated at the same site. The first node is the
+   * only root.
+   */
+  private static AhatSnapshot chain(int nodes) throws IOException, HprofFormatException {
+    return new Parser(new SyntheticHprof()
+        .instances(nodes)
+        .shape(SyntheticHprof.Shape.CHAIN)
+        .stackDepth(1)
+        .toByteBuffer()).parse();
+  }
+
+  @Test
+  public void growth() {
+    assertEquals(Long.valueOf(10), TrendSummary.growth(new long[] {0, 10, 20, 30}));
+    assertEquals(Long.valueOf(5), TrendSummary.growth(new long[] {100, 100, 110}));
+    assertNull(TrendSummary.growth(new long[] {100}));
+    assertNull(TrendSummary.growth(new long[] {100, 100, 100}));
+    assertNull(TrendSummary.growth(new long[] {10, 30, 20, 40}));
+  }
+
+  @Test
+  public void sameHeapDump() throws IOException {
+    // Nothing grows from a heap dump to itself.
+    TestDump dump = TestDump.getTestDump("ri-test-dump.hprof", null, null, Reachability.STRONG);
+    TrendSummary trend = new TrendSummary(Reachability.STRONG);
+    trend.add("a.hprof", dump.getAhatSnapshot());
+    trend.add("b.hprof", dump.getAhatSnapshot());
+    assertEquals("{\"files\":[\"a.hprof\",\"b.hprof\"],\"retained\":\"strong\","
+        + "\"classes\":[],\"sites\":[],\"roots\":[]}", write(trend, 5));
+  }
+
+  @Test
+  public void growing() throws IOException, HprofFormatException {
+    // Each node is 12 bytes and each array 16 bytes. The root node retains
+    // all of the nodes and arrays.
+    TrendSummary trend = new TrendSummary(Reachability.SOFT);
+    trend.add("a.hprof", chain(100));
+    trend.add("b.hprof", chain(200));
+    trend.add("c.hprof", chain(300));
+    assertEquals("{\"files\":[\"a.hprof\",\"b.hprof\",\"c.hprof\"],\"retained\":\"soft\","
+        + "\"classes\":["
+        + "{\"class\":\"byte[]\",\"heap\":\"default\",\"counts\":[100,200,300],"
+        + "\"sizes\":[1600,3200,4800],\"growth\":1600},"
+        + "{\"class\":\"Node\",\"heap\":\"default\",\"counts\":[100,200,300],"
+        + "\"sizes\":[1200,2400,3600],\"growth\":1200}],"
+        + "\"sites\":["
+        + "{\"method\":\"allocate\",\"signature\":\"()V\",\"filename\":\"Node.java\","
+        + "\"line\":1,\"sizes\":[2800,5600,8400],\"growth\":2800}],"
+        + "\"roots\":["
+        + "{\"class\":\"Node\",\"rootTypes\":\"UNKNOWN\",\"counts\":[1,1,1],"
+        + "\"sizes\":[2800,5600,8400],\"growth\":2800}]}", write(trend, 5));
+
+    // Only the fastest growing class is included.
+    assertEquals("{\"files\":[\"a.hprof\",\"b.hprof\",\"c.hprof\"],\"retained\":\"soft\","
+        + "\"classes\":["
+        + "{\"class\":\"byte[]\",\"heap\":\"default\",\"counts\":[100,200,300],"
+        + "\"sizes\":[1600,3200,4800],\"growth\":1600}],"
+        + "\"sites\":["
+        + "{\"method\":\"allocate\",\"signature\":\"()V\",\"filename\":\"Node.java\","
+        + "\"line\":1,\"sizes\":[2800,5600,8400],\"growth\":2800}],"
+        + "\"roots\":["
+        + "{\"class\":\"Node\",\"rootTypes\":\"UNKNOWN\",\"counts\":[1,1,1],"
+        + "\"sizes\":[2800,5600,8400],\"growth\":2800}]}", write(trend, 1));
+  }
+
+  @Test
+  public void shrinking() throws IOException, HprofFormatException {
+    // Entries that shrink at any point don't grow steadily, even if they are
+    // larger in the last heap dump than the first.
+    TrendSummary trend = new TrendSummary(Reachability.SOFT);
+    trend.add("a.hprof", chain(100));
+    trend.add("b.hprof", chain(300));
+    trend.add("c.hprof", chain(200));
+    assertEquals("{\"files\":[\"a.hprof\",\"b.hprof\",\"c.hprof\"],\"retained\":\"soft\","
+        + "\"classes\":[],\"sites\":[],\"roots\":[]}", write(trend, 5));
+  }
+}
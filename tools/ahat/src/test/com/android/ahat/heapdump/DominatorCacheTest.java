@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import com.android.ahat.SyntheticHprof;
+import com.android.ahat.dominators.Dominators;
+import com.android.ahat.progress.Progress;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.android.ahat.heapdump.SnapshotAssert.assertSameDominators;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DominatorCacheTest {
+  private static final String LOADING = "Loading dominators from cache";
+
+  /**
+   * Records the descriptions of the phases of loading a heap dump.
+   */
+  private static class PhaseRecorder implements Progress {
+    final List<String> phases = new ArrayList<String>();
+
+    @Override
+    public void start(String description, long duration) {
+      phases.add(description);
+    }
+
+    @Override
+    public void advance(long n) {
+    }
+
+    @Override
+    public void update(long current) {
+    }
+
+    @Override
+    public void done() {
+    }
+  }
+
+  private static SyntheticHprof generator(long seed) {
+    // A random graph, so that the dominator tree isn't just the references.
+    return new SyntheticHprof()
+      .instances(2000)
+      .shape(SyntheticHprof.Shape.RANDOM)
+      .seed(seed);
+  }
+
+  private static void write(File hprof, SyntheticHprof generator) throws IOException {
+    try (OutputStream os = new FileOutputStream(hprof)) {
+      generator.write(os);
+    }
+  }
+
+  private static File cache(File hprof) {
+    return new File(hprof.getPath() + ".ahatdom");
+  }
+
+  /**
+   * Loads the heap dump using the given dominator cache, asserting whether
+   * the dominators were loaded from the cache, and that they are the same
+   * as computing the dominators from scratch.
+   */
+  private static void assertLoads(File hprof, File cache, boolean fromCache)
+      throws IOException, HprofFormatException {
+    AhatSnapshot expected = new Parser(hprof).parse();
+    PhaseRecorder progress = new PhaseRecorder();
+    AhatSnapshot actual = new Parser(hprof).dominatorCache(cache).progress(progress).parse();
+    assertEquals(fromCache, progress.phases.contains(LOADING));
+    assertSameDominators(expected, actual);
+  }
+
+  private static void assertLoads(File hprof, boolean fromCache)
+      throws IOException, HprofFormatException {
+    assertLoads(hprof, cache(hprof), fromCache);
+  }
+
+  /**
+   * Returns a new heap dump, with a dominator cache written by loading it.
+   */
+  private static File cachedHprof() throws IOException, HprofFormatException {
+    File hprof = File.createTempFile("ahat-cache", ".hprof");
+    write(hprof, generator(1));
+    assertFalse(cache(hprof).exists());
+    assertLoads(hprof, false);
+    assertTrue(cache(hprof).isFile());
+    return hprof;
+  }
+
+  private static void delete(File hprof) {
+    cache(hprof).delete();
+    hprof.delete();
+  }
+
+  private static void corruptCache(File hprof, long offset, int value) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(cache(hprof), "rw")) {
+      file.seek(offset);
+      file.writeInt(value);
+    }
+  }
+
+  @Test
+  public void roundTrip() throws IOException, HprofFormatException {
+    File hprof = cachedHprof();
+    try {
+      int numInstances = new Parser(hprof).parse().getInstances().size();
+      DominatorCache soft = new DominatorCache(hprof, cache(hprof), Reachability.SOFT,
+          Dominators.Algorithm.ITERATIVE);
+      assertNotNull(soft.readDominators(numInstances));
+      assertNull(soft.readDominators(numInstances + 1));
+
+      // The default reachability when parsing is SOFT.
+      DominatorCache strong = new DominatorCache(hprof, cache(hprof), Reachability.STRONG,
+          Dominators.Algorithm.ITERATIVE);
+      assertNull(strong.readDominators(numInstances));
+
+      // The default dominators algorithm when parsing is ITERATIVE.
+      DominatorCache semiNca = new DominatorCache(hprof, cache(hprof), Reachability.SOFT,
+          Dominators.Algorithm.SEMI_NCA);
+      assertNull(semiNca.readDominators(numInstances));
+
+      assertLoads(hprof, true);
+      assertLoads(hprof, true);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void hprofSizeChanged() throws IOException, HprofFormatException {
+    File hprof = cachedHprof();
+    try {
+      long modified = hprof.lastModified();
+      write(hprof, generator(1).arraySize(11));
+      assertTrue(hprof.setLastModified(modified));
+      assertLoads(hprof, false);
+      assertLoads(hprof, true);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void hprofModifiedTimeChanged() throws IOException, HprofFormatException {
+    File hprof = cachedHprof();
+    try {
+      assertTrue(hprof.setLastModified(hprof.lastModified() - 60000));
+      assertLoads(hprof, false);
+      assertLoads(hprof, true);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void hprofContentsChanged() throws IOException, HprofFormatException {
+    // A different random graph of the same size, with the same modification
+    // time, can only be told apart by the content hash. The dominators in
+    // the stale cache would be wrong for it.
+    File hprof = cachedHprof();
+    try {
+      long length = hprof.length();
+      long modified = hprof.lastModified();
+      write(hprof, generator(2));
+      assertTrue(hprof.setLastModified(modified));
+      assertEquals(length, hprof.length());
+      assertLoads(hprof, false);
+      assertLoads(hprof, true);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void wrongMagic() throws IOException, HprofFormatException {
+    File hprof = cachedHprof();
+    try {
+      corruptCache(hprof, 0, 0x12345678);
+      assertLoads(hprof, false);
+      assertLoads(hprof, true);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void wrongVersion() throws IOException, HprofFormatException {
+    File hprof = cachedHprof();
+    try {
+      // The version follows the 8 byte magic.
+      int version;
+      try (RandomAccessFile file = new RandomAccessFile(cache(hprof), "r")) {
+        file.seek(8);
+        version = file.readInt();
+      }
+      corruptCache(hprof, 8, version + 1);
+      assertLoads(hprof, false);
+      assertLoads(hprof, true);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void otherAlgorithm() throws IOException, HprofFormatException {
+    // The algorithms compute the same dominators, but in a different order,
+    // so a cache written by one mustn't be replayed for the other.
+    File hprof = cachedHprof();
+    try {
+      PhaseRecorder progress = new PhaseRecorder();
+      AhatSnapshot expected = new Parser(hprof)
+        .dominators(Dominators.Algorithm.SEMI_NCA)
+        .parse();
+      AhatSnapshot actual = new Parser(hprof)
+        .dominators(Dominators.Algorithm.SEMI_NCA)
+        .dominatorCache(cache(hprof))
+        .progress(progress)
+        .parse();
+      assertFalse(progress.phases.contains(LOADING));
+      assertSameDominators(expected, actual);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void superRootInstance() throws IOException, HprofFormatException {
+    // Only the dominator of a pair may refer to the SuperRoot.
+    File hprof = cachedHprof();
+    try {
+      corruptCache(hprof, DominatorCache.HEADER_SIZE, DominatorCache.SUPER_ROOT);
+      assertLoads(hprof, false);
+      assertLoads(hprof, true);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void negativeInstance() throws IOException, HprofFormatException {
+    File hprof = cachedHprof();
+    try {
+      corruptCache(hprof, DominatorCache.HEADER_SIZE + 8, -2);
+      assertLoads(hprof, false);
+      assertLoads(hprof, true);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void truncated() throws IOException, HprofFormatException {
+    File hprof = cachedHprof();
+    try {
+      long length = cache(hprof).length();
+      for (long size : new long[] { length - 4, length / 2, 20, 0 }) {
+        try (RandomAccessFile file = new RandomAccessFile(cache(hprof), "rw")) {
+          file.setLength(size);
+        }
+        assertLoads(hprof, false);
+        assertEquals(length, cache(hprof).length());
+      }
+      assertLoads(hprof, true);
+    } finally {
+      delete(hprof);
+    }
+  }
+
+  @Test
+  public void noCache() throws IOException, HprofFormatException {
+    File hprof = File.createTempFile("ahat-cache", ".hprof");
+    try {
+      write(hprof, generator(1));
+      assertLoads(hprof, null, false);
+      assertFalse(cache(hprof).exists());
+    } finally {
+      hprof.delete();
+    }
+  }
+
+  @Test
+  public void unwritableCache() throws IOException, HprofFormatException {
+    // Failing to write the cache shouldn't stop the heap dump from loading.
+    File hprof = File.createTempFile("ahat-cache", ".hprof");
+    File cache = new File(hprof.getPath() + ".missing", "cache.ahatdom");
+    try {
+      write(hprof, generator(1));
+      assertLoads(hprof, cache, false);
+      assertFalse(cache.exists());
+      assertLoads(hprof, cache, false);
+    } finally {
+      hprof.delete();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HprofDataTest {
+  // Chunk sizes that aren't multiples of 8, so that words straddle chunk
+  // boundaries, and a chunk size covering all of the data.
+  private static final long[] CHUNK_SIZES = { 1, 7, 61, 1000 };
+
+  /**
+   * Returns 200 bytes of data, where the second 100 bytes are the same as the
+   * first 100 bytes except for the byte at 150.
+   */
+  private static byte[] data() {
+    byte[] data = new byte[200];
+    Random random = new Random(42);
+    for (int i = 0; i < 100; ++i) {
+      data[i] = (byte)random.nextInt();
+      data[100 + i] = data[i];
+    }
+    data[150]++;
+    return data;
+  }
+
+  /**
+   * Returns an HprofData for the given data split into chunks the same way
+   * the parser splits up a heap dump.
+   */
+  private static HprofData hprofData(byte[] data, long chunkSize) {
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    int numChunks = (int)Math.max(1, (data.length - 1) / chunkSize + 1);
+    ByteBuffer[] chunks = new ByteBuffer[numChunks];
+    for (int i = 0; i < numChunks; ++i) {
+      int start = (int)(i * chunkSize);
+      int length = (int)Math.min(data.length - start, chunkSize + 8);
+      ByteBuffer chunk = buffer.duplicate();
+      chunk.position(start).limit(start + length);
+      chunks[i] = chunk.slice();
+    }
+    return new HprofData(chunks, chunkSize, 4, null);
+  }
+
+  @Test
+  public void getBytes() {
+    byte[] data = data();
+    for (long chunkSize : CHUNK_SIZES) {
+      HprofData hprof = hprofData(data, chunkSize);
+      for (int position = 0; position <= data.length; ++position) {
+        for (int length = 0; position + length <= data.length; ++length) {
+          byte[] bytes = new byte[length];
+          hprof.getBytes(position, bytes);
+          assertArrayEquals("chunkSize=" + chunkSize + " position=" + position,
+              Arrays.copyOfRange(data, position, position + length), bytes);
+        }
+      }
+    }
+  }
+
+  @Test(expected = BufferUnderflowException.class)
+  public void getBytesPastEnd() {
+    hprofData(data(), 7).getBytes(195, new byte[10]);
+  }
+
+  @Test
+  public void hash() {
+    byte[] data = data();
+    HprofData whole = hprofData(data, data.length);
+    for (long chunkSize : CHUNK_SIZES) {
+      HprofData hprof = hprofData(data, chunkSize);
+      for (int position = 0; position <= data.length; ++position) {
+        for (int length = 0; position + length <= data.length; ++length) {
+          // The hash doesn't depend on where the chunk boundaries are.
+          assertEquals("chunkSize=" + chunkSize + " position=" + position + " length=" + length,
+              whole.hash(position, length), hprof.hash(position, length));
+        }
+      }
+
+      // The same bytes at different positions have the same hash.
+      assertEquals(hprof.hash(0, 50), hprof.hash(100, 50));
+      assertEquals(hprof.hash(3, 45), hprof.hash(103, 45));
+      assertEquals(hprof.hash(51, 49), hprof.hash(151, 49));
+
+      // Different bytes almost certainly have different hashes.
+      assertTrue(hprof.hash(0, 100) != hprof.hash(100, 100));
+      assertTrue(hprof.hash(47, 9) != hprof.hash(147, 9));
+      assertTrue(hprof.hash(0, 8) != hprof.hash(0, 9));
+    }
+  }
+
+  @Test
+  public void equals() {
+    byte[] data = data();
+    for (long chunkSize : CHUNK_SIZES) {
+      HprofData hprof = hprofData(data, chunkSize);
+      for (int a = 0; a < 100; ++a) {
+        for (int length = 0; a + 100 + length <= data.length; ++length) {
+          int b = a + 100;
+          boolean expected = a + length <= 50 || a > 50;
+          assertEquals("chunkSize=" + chunkSize + " a=" + a + " length=" + length,
+              expected, hprof.equals(a, b, length));
+          assertEquals(expected, hprof.equals(b, a, length));
+          assertTrue(hprof.equals(a, a, length));
+        }
+      }
+
+      // Overlapping ranges, and ranges on either side of the difference.
+      assertFalse(hprof.equals(0, 1, 20));
+      assertTrue(hprof.equals(60, 160, 40));
+      assertFalse(hprof.equals(45, 145, 8));
+      assertFalse(hprof.equals(50, 150, 1));
+    }
+  }
+}
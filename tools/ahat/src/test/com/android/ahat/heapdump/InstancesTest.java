@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class InstancesTest {
+  @Test
+  public void capacity() {
+    assertEquals(1, Instances.capacity(0));
+    assertEquals(2, Instances.capacity(1));
+    assertEquals(16, Instances.capacity(11));
+    assertEquals(32, Instances.capacity(12));
+    assertEquals(1 << 30, Instances.capacity(Instances.MAX_INSTANCES));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tooManyInstances() {
+    // The table can't grow past 1 << 30 slots, so more instances than fit
+    // at the maximum load are rejected rather than overfilling the table.
+    Instances.capacity(Instances.MAX_INSTANCES + 1);
+  }
+}
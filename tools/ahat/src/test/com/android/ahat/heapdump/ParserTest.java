@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import com.android.ahat.SyntheticHprof;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+import static com.android.ahat.heapdump.SnapshotAssert.assertSameSnapshot;
+
+public class ParserTest {
+  @Test
+  public void parallel() throws IOException, HprofFormatException {
+    // Small tasks split the heap dump into many units and fixup batches, so
+    // the parallel paths are exercised without a large heap dump.
+    for (SyntheticHprof.Shape shape : SyntheticHprof.Shape.values()) {
+      ByteBuffer hprof = new SyntheticHprof()
+        .instances(20000)
+        .shape(shape)
+        .stackDepth(5)
+        .toByteBuffer();
+      AhatSnapshot serial = new Parser(hprof.duplicate()).parallelism(1).parse();
+      AhatSnapshot parallel = new Parser(hprof.duplicate())
+        .parallelism(4)
+        .taskSizes(4096, 1000)
+        .parse();
+      assertSameSnapshot(serial, parallel);
+    }
+  }
+
+  @Test
+  public void chunks() throws IOException, HprofFormatException {
+    // Chunk sizes that aren't multiples of the id or record sizes make
+    // records, ids and arrays straddle chunk boundaries, and arrays longer
+    // than a chunk span several chunks.
+    for (int idSize : new int[] { 4, 8 }) {
+      SyntheticHprof generator = new SyntheticHprof()
+        .instances(2000)
+        .idSize(idSize)
+        .stackDepth(5)
+        .arraySize(100);
+      ByteBuffer hprof = generator.toByteBuffer();
+      AhatSnapshot expected = new Parser(hprof.duplicate()).parse();
+      for (long chunkSize : new long[] { 1, 7, 61, 1000 }) {
+        assertSameSnapshot(expected, new Parser(hprof.duplicate(), chunkSize).parse());
+      }
+
+      File file = File.createTempFile("ahat-chunks", ".hprof");
+      try {
+        try (OutputStream os = new FileOutputStream(file)) {
+          generator.write(os);
+        }
+        assertSameSnapshot(expected, new Parser(file, 61).parse());
+      } finally {
+        file.delete();
+      }
+    }
+  }
+}
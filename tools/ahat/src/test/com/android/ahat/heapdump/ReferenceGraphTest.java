@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import com.android.ahat.SyntheticHprof;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the reference graph of a small synthetic heap dump against
+ * expectations worked out by hand.
+ * <p>
+ * The heap dump is a binary tree of 15 nodes, where node i refers to node
+ * 2i+1 through its next field and to node 2i+2 through its other field:
+ * <pre>
+ *                  0
+ *          1               2
+ *      3       4       5       6
+ *    7   8   9  10  11  12  13  14
+ * </pre>
+ * Some other fields instead refer to reference objects, which are given the
+ * ids of nodes 15 to 18:
+ * <ul>
+ * <li>r0: node 0 refers softly to node 2.
+ * <li>r1: node 1 refers weakly to node 4.
+ * <li>r2: node 3 refers phantomly to node 8.
+ * <li>r3: node 7, a leaf, refers through a finalizer reference to node 10.
+ * </ul>
+ */
+public class ReferenceGraphTest {
+  private static AhatSnapshot snapshot() throws IOException, HprofFormatException {
+    return new Parser(new SyntheticHprof()
+        .instances(15)
+        .shape(SyntheticHprof.Shape.TREE)
+        .arraySize(0)
+        .reference(0, Reachability.SOFT, 2)
+        .reference(1, Reachability.WEAK, 4)
+        .reference(3, Reachability.PHANTOM, 8)
+        .reference(7, Reachability.FINALIZER, 10)
+        .toByteBuffer()).parse();
+  }
+
+  private static AhatInstance node(AhatSnapshot snapshot, int index) {
+    return snapshot.findInstance(SyntheticHprof.nodeId(index));
+  }
+
+  private static AhatInstance ref(AhatSnapshot snapshot, int index) {
+    return node(snapshot, 15 + index);
+  }
+
+  private static List<AhatInstance> list(AhatInstance... insts) {
+    return Arrays.asList(insts);
+  }
+
+  @Test
+  public void reachability() throws IOException, HprofFormatException {
+    AhatSnapshot snapshot = snapshot();
+    Reachability[] expected = {
+      Reachability.STRONG,      // 0
+      Reachability.STRONG,      // 1
+      Reachability.SOFT,        // 2
+      Reachability.STRONG,      // 3
+      Reachability.WEAK,        // 4
+      Reachability.SOFT,        // 5
+      Reachability.SOFT,        // 6
+      Reachability.STRONG,      // 7
+      Reachability.PHANTOM,     // 8
+      Reachability.WEAK,        // 9
+      Reachability.FINALIZER,   // 10: weakly through 4, but finalizer is stronger.
+      Reachability.SOFT,        // 11
+      Reachability.SOFT,        // 12
+      Reachability.SOFT,        // 13
+      Reachability.SOFT,        // 14
+    };
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals("node " + i, expected[i], node(snapshot, i).getReachability());
+    }
+    for (int i = 0; i < 4; ++i) {
+      assertEquals("r" + i, Reachability.STRONG, ref(snapshot, i).getReachability());
+    }
+  }
+
+  @Test
+  public void reverseReferences() throws IOException, HprofFormatException {
+    AhatSnapshot snapshot = snapshot();
+    assertEquals(list(), node(snapshot, 0).getReverseReferences());
+    assertEquals(list(node(snapshot, 0)), node(snapshot, 1).getReverseReferences());
+    assertEquals(list(ref(snapshot, 0)), node(snapshot, 2).getReverseReferences());
+    assertEquals(list(node(snapshot, 0)), ref(snapshot, 0).getReverseReferences());
+    assertEquals(list(ref(snapshot, 1)), node(snapshot, 4).getReverseReferences());
+    assertEquals(list(ref(snapshot, 2)), node(snapshot, 8).getReverseReferences());
+
+    // Reverse references are ordered by id.
+    assertEquals(list(node(snapshot, 4), ref(snapshot, 3)),
+        node(snapshot, 10).getReverseReferences());
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void reverseReferencesByStrength() throws IOException, HprofFormatException {
+    AhatSnapshot snapshot = snapshot();
+
+    AhatInstance node1 = node(snapshot, 1);
+    assertEquals(list(node(snapshot, 0)), node1.getHardReverseReferences());
+    assertEquals(list(), node1.getSoftReverseReferences());
+
+    AhatInstance node2 = node(snapshot, 2);
+    assertEquals(list(), node2.getHardReverseReferences());
+    assertEquals(list(ref(snapshot, 0)), node2.getSoftReverseReferences());
+
+    // A strong reference from an instance that isn't strongly reachable is
+    // considered weak.
+    AhatInstance node5 = node(snapshot, 5);
+    assertEquals(list(), node5.getHardReverseReferences());
+    assertEquals(list(node2), node5.getSoftReverseReferences());
+
+    AhatInstance node10 = node(snapshot, 10);
+    assertEquals(list(), node10.getHardReverseReferences());
+    assertEquals(list(node(snapshot, 4), ref(snapshot, 3)), node10.getSoftReverseReferences());
+  }
+
+  /**
+   * Returns the path from a GC root to the given instance, as the indices of
+   * the nodes on the path and the fields followed from them.
+   */
+  private static String path(AhatInstance inst) {
+    StringBuilder sb = new StringBuilder();
+    for (PathElement elem : inst.getPathFromGcRoot()) {
+      long index = (elem.instance.getId() - SyntheticHprof.nodeId(0)) / 16;
+      sb.append(index < 15 ? "" + index : "r" + (index - 15)).append(elem.field).append(' ');
+    }
+    return sb.toString().trim();
+  }
+
+  @Test
+  public void pathFromGcRoot() throws IOException, HprofFormatException {
+    AhatSnapshot snapshot = snapshot();
+    assertEquals("0", path(node(snapshot, 0)));
+    assertEquals("0.next 1.next 3.next 7", path(node(snapshot, 7)));
+    assertEquals("0.other r0", path(ref(snapshot, 0)));
+
+    // Paths to weakly reachable instances go through the strongest
+    // references possible.
+    assertEquals("0.other r0.referent 2.other 6.next 13", path(node(snapshot, 13)));
+    assertEquals("0.next 1.other r1.referent 4.next 9", path(node(snapshot, 9)));
+    assertEquals("0.next 1.next 3.next 7.other r3.referent 10", path(node(snapshot, 10)));
+    assertEquals("0.next 1.next 3.other r2.referent 8", path(node(snapshot, 8)));
+  }
+}
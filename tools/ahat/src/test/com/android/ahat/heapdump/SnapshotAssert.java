@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ahat.heapdump;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Assertions comparing snapshots of the same heap dump loaded in different
+ * ways.
+ */
+class SnapshotAssert {
+  /**
+   * Asserts that the two snapshots have the same instances, with the same
+   * fields, array elements, heaps, dominators and retained sizes.
+   */
+  static void assertSameSnapshot(AhatSnapshot expected, AhatSnapshot actual) {
+    assertEquals(expected.getInstances().size(), actual.getInstances().size());
+    Iterator<AhatInstance> actualInstances = actual.getInstances().iterator();
+    for (AhatInstance inst : expected.getInstances()) {
+      assertEquals(describe(inst, true), describe(actualInstances.next(), true));
+    }
+    assertFalse(actualInstances.hasNext());
+  }
+
+  /**
+   * Asserts that the two snapshots have the same instances, with the same
+   * dominators and retained sizes, without comparing their contents.
+   */
+  static void assertSameDominators(AhatSnapshot expected, AhatSnapshot actual) {
+    assertEquals(expected.getInstances().size(), actual.getInstances().size());
+    Iterator<AhatInstance> actualInstances = actual.getInstances().iterator();
+    for (AhatInstance inst : expected.getInstances()) {
+      assertEquals(describe(inst, false), describe(actualInstances.next(), false));
+    }
+    assertFalse(actualInstances.hasNext());
+  }
+
+  private static String describe(AhatInstance inst, boolean contents) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(inst).append(" heap=").append(inst.getHeap().getName());
+    sb.append(" size=").append(inst.getSize().getSize());
+    sb.append(" reachability=").append(inst.getReachability());
+    sb.append(" roots=").append(inst.getRootTypes());
+    AhatInstance dominator = inst.getImmediateDominator();
+    sb.append(" dominator=").append(dominator == null ? "null" : dominator.toString());
+    sb.append(" dominated=").append(inst.getDominated().size());
+    sb.append(" retained=").append(inst.getTotalRetainedSize().getSize());
+    if (contents && inst.isClassInstance()) {
+      for (FieldValue field : inst.asClassInstance().getInstanceFields()) {
+        sb.append(' ').append(field.name).append('=').append(field.value);
+      }
+    }
+    if (contents && inst.isArrayInstance()) {
+      sb.append(' ').append(inst.asArrayInstance().getValues());
+    }
+    return sb.toString();
+  }
+}
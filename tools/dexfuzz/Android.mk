@@ -19,4 +19,4 @@ LOCAL_PATH := $(call my-dir)
 # --- dexfuzz script with core image dependencies ----------------
 .PHONY: fuzzer
 
-fuzzer: dexfuzz-script $(HOST_CORE_IMG_OUTS)
+fuzzer: dexfuzz-script dexfuzz-harness-hostdex $(HOST_CORE_IMG_OUTS)
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.harness;
+
+import dalvik.system.PathClassLoader;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Set;
+
+/**
+ * Runs fuzzed programs one after another in the same runtime, so that dexfuzz doesn't
+ * have to start a new runtime for each one. Started by dexfuzz's WarmRuntime, with
+ * the name of the class to run as its only argument.
+ *
+ * <p>Each line of standard input is the path of a DEX file. The harness loads it in a
+ * fresh class loader, and calls the main method of the class. Anything the program
+ * writes to System.out or System.err is passed on as soon as it is written, as a
+ * record on standard output: 'O' or 'E', the number of bytes, then the bytes. Once the
+ * program has finished, the harness writes DONE_MARKER to standard error, after
+ * anything the runtime logged while running the program, then an 'X' record holding
+ * the return value dalvikvm would have exited with.
+ */
+public class Harness {
+  public static final String DONE_MARKER = "dexfuzz-harness: done";
+
+  private static DataOutputStream records;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: dexfuzz.harness.Harness <class to execute>");
+      System.exit(1);
+    }
+    String mainClass = args[0];
+
+    records = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    PrintStream log = new PrintStream(new FileOutputStream(FileDescriptor.err), true);
+    System.setOut(new PrintStream(new RecordOutputStream('O'), true));
+    System.setErr(new PrintStream(new RecordOutputStream('E'), true));
+
+    BufferedReader requests = new BufferedReader(new InputStreamReader(System.in));
+    String dexPath;
+    while ((dexPath = requests.readLine()) != null) {
+      int returnValue = run(dexPath, mainClass);
+      System.out.flush();
+      System.err.flush();
+      log.println(DONE_MARKER);
+      synchronized (records) {
+        records.writeByte('X');
+        records.writeInt(returnValue);
+        records.flush();
+      }
+    }
+  }
+
+  /**
+   * Run the program, and wait for any threads it started, as dalvikvm would.
+   * @return The return value dalvikvm would have exited with.
+   */
+  private static int run(String dexPath, String mainClass) {
+    Set<Thread> existingThreads = Thread.getAllStackTraces().keySet();
+    int returnValue = 0;
+    try {
+      // Only share the boot classes with the program, not the harness.
+      ClassLoader loader =
+          new PathClassLoader(dexPath, Harness.class.getClassLoader().getParent());
+      Method main = Class.forName(mainClass, true, loader).getMethod("main", String[].class);
+      main.invoke(null, (Object) new String[0]);
+    } catch (InvocationTargetException e) {
+      reportUncaughtException(e.getCause());
+      returnValue = 1;
+    } catch (Throwable t) {
+      // The class couldn't be loaded, verified or initialised.
+      reportUncaughtException(t);
+      returnValue = 1;
+    }
+
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (!existingThreads.contains(thread) && !thread.isDaemon()) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          // Carry on, dexfuzz will kill the runtime if the thread never finishes.
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static void reportUncaughtException(Throwable t) {
+    System.err.print("Exception in thread \"main\" ");
+    t.printStackTrace();
+  }
+
+  /**
+   * Passes everything written to it on to dexfuzz, in records with the given tag.
+   */
+  private static class RecordOutputStream extends OutputStream {
+    private final char tag;
+
+    RecordOutputStream(char tag) {
+      this.tag = tag;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      synchronized (records) {
+        records.writeByte(tag);
+        records.writeInt(len);
+        records.write(b, off, len);
+        records.flush();
+      }
+    }
+  }
+}
@@ -16,11 +16,12 @@
 
 package dexfuzz;
 
-import dexfuzz.fuzzers.Fuzzer;
 import dexfuzz.fuzzers.FuzzerMultipleExecute;
 import dexfuzz.fuzzers.FuzzerMultipleNoExecute;
+import dexfuzz.fuzzers.FuzzerParallel;
 import dexfuzz.fuzzers.FuzzerSingleExecute;
 import dexfuzz.fuzzers.FuzzerSingleNoExecute;
+import dexfuzz.fuzzers.FuzzingStrategy;
 import dexfuzz.listeners.BisectionSearchListener;
 import dexfuzz.listeners.ConsoleLoggerListener;
 import dexfuzz.listeners.FinalStatusListener;
@@ -86,8 +87,10 @@ public class DexFuzz {
     }
 
     // Create the Fuzzer that uses a particular strategy for fuzzing.
-    Fuzzer fuzzer = null;
-    if ((Options.repeat > 1) && Options.execute) {
+    FuzzingStrategy fuzzer = null;
+    if (Options.workers > 1) {
+      fuzzer = new FuzzerParallel(multipleListener);
+    } else if ((Options.repeat > 1) && Options.execute) {
       fuzzer = new FuzzerMultipleExecute(multipleListener);
     } else if ((Options.repeat > 1) && !Options.execute) {
       fuzzer = new FuzzerMultipleNoExecute(multipleListener);
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz;
+
+import dexfuzz.executors.Device;
+import dexfuzz.executors.Executor;
+import dexfuzz.executors.X86InterpreterExecutor;
+import dexfuzz.executors.X86OptimizingBackendExecutor;
+import dexfuzz.listeners.BaseListener;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how many programs per second the host executors can run, when starting a
+ * runtime for each program, and when using --warm-executors. Takes the same options
+ * as dexfuzz, and runs the first --input, without mutating it, --repeat times:
+ *
+ *   java -cp dexfuzz.jar dexfuzz.ExecutionBenchmark --input=<file> --execute --host
+ *       --optimizing --interpreter --repeat=100
+ *
+ * A program counts as run once every executor has run it. The time for warm
+ * executors includes starting their runtimes. Only the interpreter is warm, so the
+ * optimizing backend starts a runtime for each program in both measurements.
+ */
+public class ExecutionBenchmark {
+  public static void main(String[] args) {
+    if (!Options.readOptions(args)) {
+      Log.error("Failed to validate options.");
+      Options.usage();
+    }
+    if (!Options.execute || !Options.executeOnHost) {
+      Log.errorAndQuit("The benchmark needs --execute --host");
+    }
+
+    // The executors run the program from the current directory.
+    String programName = Options.outputFile;
+    try {
+      Files.copy(Paths.get(Options.inputFileList.get(0)), Paths.get(programName),
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      Log.errorAndQuit("Couldn't copy " + Options.inputFileList.get(0) + " to " + programName);
+    }
+
+    List<String> spawnOutputs = new ArrayList<String>();
+    float spawnRate = measure(false, programName, spawnOutputs);
+    List<String> warmOutputs = new ArrayList<String>();
+    float warmRate = measure(true, programName, warmOutputs);
+
+    Log.always(String.format("Runtime per program: %.2f programs/s", spawnRate));
+    Log.always(String.format("Warm executors:      %.2f programs/s (%.2fx)",
+        warmRate, warmRate / spawnRate));
+    if (!spawnOutputs.equals(warmOutputs)) {
+      Log.always("WARNING: warm executors gave different output:");
+      Log.always("  Runtime per program: " + spawnOutputs);
+      Log.always("  Warm executors:      " + warmOutputs);
+    }
+  }
+
+  /**
+   * Run the program Options.repeat times on each executor.
+   * @param outputs Filled with each executor's output from the first run.
+   * @return The number of programs run per second.
+   */
+  private static float measure(boolean warm, String programName, List<String> outputs) {
+    Options.warmExecutors = warm;
+    BaseListener listener = new BaseListener() { };
+    Device device = new Device();
+    List<Executor> executors = new ArrayList<Executor>();
+    if (Options.useOptimizing) {
+      executors.add(new X86OptimizingBackendExecutor(listener, device));
+    }
+    if (Options.useInterpreter) {
+      executors.add(new X86InterpreterExecutor(listener, device));
+    }
+
+    long startTime = System.currentTimeMillis();
+    for (int i = 0; i < Options.repeat; i++) {
+      for (Executor executor : executors) {
+        executor.reset();
+        executor.prepareProgramForExecution(programName);
+        executor.execute(programName);
+        if (i == 0) {
+          outputs.add(executor.getResult().getFlattenedOutput());
+        }
+      }
+    }
+    long elapsedTime = System.currentTimeMillis() - startTime;
+
+    for (Executor executor : executors) {
+      executor.shutdown();
+    }
+    return Options.repeat * 1000.0f / Math.max(1, elapsedTime);
+  }
+}
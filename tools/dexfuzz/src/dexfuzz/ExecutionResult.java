@@ -16,6 +16,7 @@
 
 package dexfuzz;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -36,6 +37,18 @@ public class ExecutionResult {
   private static final int TIMEOUT_RETURN_VALUE = 124;
   private static final int SIGABORT_RETURN_VALUE = 134;
 
+  /**
+   * Create the result of a command that was given up on because it did not finish in time.
+   */
+  public static ExecutionResult timedOut() {
+    ExecutionResult result = new ExecutionResult();
+    result.returnValue = TIMEOUT_RETURN_VALUE;
+    result.output = new ArrayList<String>();
+    result.error = new ArrayList<String>();
+    result.output.add("RETURN CODE: " + TIMEOUT_RETURN_VALUE);
+    return result;
+  }
+
   /**
    * Get only the output, with all lines concatenated together, excluding newline characters.
    */
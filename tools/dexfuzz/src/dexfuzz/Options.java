@@ -51,8 +51,10 @@ public class Options {
   public static boolean usingSpecificDevice = false;
   public static int repeat = 1;
   public static int divergenceRetry = 10;
+  public static int workers = 1;
   public static String executeDirectory = "/data/art-test";
   public static String androidRoot = "";
+  public static String harnessFile = "";
   public static String dumpMutationsFile = "mutations.dump";
   public static String loadMutationsFile = "mutations.dump";
   public static String reportLogFile = "report.log";
@@ -61,6 +63,7 @@ public class Options {
   // FLAG OPTIONS
   public static boolean execute;
   public static boolean executeOnHost;
+  public static boolean warmExecutors;
   public static boolean noBootImage;
   public static boolean useInterpreter;
   public static boolean useOptimizing;
@@ -92,6 +95,11 @@ public class Options {
     Log.always("");
     Log.always("  --execute              : Execute the resulting fuzzed program");
     Log.always("    --host               : Execute on host");
+    Log.always("    --warm-executors     : With --host, run programs in a long-lived runtime");
+    Log.always("                           per interpreter, rather than starting one each time.");
+    Log.always("                           The optimizing backends still start one each time.");
+    Log.always("    --harness=<file>     : DEX file of the harness used by --warm-executors.");
+    Log.always("                           (Default: dexfuzz-harness-hostdex.jar)");
     Log.always("    --device=<device>    : Execute on an ADB-connected-device, where <device> is");
     Log.always("                           the argument given to adb -s. Default execution mode.");
     Log.always("    --execute-dir=<dir>  : Push tests to this directory to execute them.");
@@ -110,10 +118,15 @@ public class Options {
     Log.always("    --allarm             : Short for --arm --arm64");
     Log.always("    --x86                : Include x86 backends in comparisons");
     Log.always("    --x86-64             : Include x86-64 backends in comparisons");
+    Log.always("    (The backends of different architectures are executed at the same time,");
+    Log.always("     but the backends of one architecture run one after another, so runs");
+    Log.always("     with a single architecture, including --host, are not sped up.)");
     Log.always("");
     Log.always("    --dump-output        : Dump outputs of executed programs");
     Log.always("    --dump-verify        : Dump outputs of verification");
     Log.always("    --repeat=<n>         : Fuzz N programs, executing each one.");
+    Log.always("    --workers=<n>        : When using --repeat, fuzz and execute N programs");
+    Log.always("                           at a time. Requires --host if executing.");
     Log.always("    --short-timeouts     : Shorten timeouts (faster; use if");
     Log.always("                           you want to focus on output divergences)");
     Log.always("    --divergence-retry=<n> : Number of retries when checking if test is");
@@ -156,6 +169,8 @@ public class Options {
       execute = true;
     } else if (flag.equals("host")) {
       executeOnHost = true;
+    } else if (flag.equals("warm-executors")) {
+      warmExecutors = true;
     } else if (flag.equals("no-boot-image")) {
       noBootImage = true;
     } else if (flag.equals("skip-host-verify")) {
@@ -238,6 +253,8 @@ public class Options {
       maxMethods = Integer.parseInt(value);
     } else if (key.equals("repeat")) {
       repeat = Integer.parseInt(value);
+    } else if (key.equals("workers")) {
+      workers = Integer.parseInt(value);
     } else if (key.equals("divergence-retry")) {
       divergenceRetry = Integer.parseInt(value);
     } else if (key.equals("log")) {
@@ -261,6 +278,8 @@ public class Options {
       usingSpecificDevice = true;
     } else if (key.equals("execute-dir")) {
       executeDirectory = value;
+    } else if (key.equals("harness")) {
+      harnessFile = value;
     } else if (key.equals("android-root")) {
       androidRoot = value;
     } else {
@@ -365,8 +384,28 @@ public class Options {
       Log.error("--divergence-retry cannot be negative!");
       return false;
     }
-    if (usingProvidedSeed && repeat > 1) {
-      Log.error("Cannot use --repeat with --seed");
+    if (workers < 1) {
+      Log.error("--workers must be at least 1!");
+      return false;
+    }
+    if (usingProvidedSeed && repeat > 1 && workers == 1) {
+      Log.error("Cannot use --repeat with --seed, unless using --workers");
+      return false;
+    }
+    if (workers > 1 && repeat == 1) {
+      Log.error("Must use --repeat if you use --workers");
+      return false;
+    }
+    if (workers > 1 && (loadMutations || dumpMutations)) {
+      Log.error("Cannot use --workers when loading or dumping mutations");
+      return false;
+    }
+    if (workers > 1 && execute && !executeOnHost) {
+      Log.error("Cannot use --workers unless executing with --host");
+      return false;
+    }
+    if (warmExecutors && !(execute && executeOnHost)) {
+      Log.error("Cannot use --warm-executors unless executing with --host");
       return false;
     }
     if (loadMutations && dumpMutations) {
@@ -61,6 +61,13 @@ public class Timer {
     elapsedTime += (endPoint - startPoint);
   }
 
+  /**
+   * Add the time elapsed on another timer to this timer.
+   */
+  public void add(Timer timer) {
+    elapsedTime += timer.elapsedTime;
+  }
+
   /**
    * Log the elapsed time this timer has recorded.
    */
@@ -26,14 +26,14 @@ public class Arm64InterpreterExecutor extends Executor {
   }
 
   @Override
-  protected String constructCommand(String programName) {
+  protected String constructCommand(String classPath, String mainClass) {
     StringBuilder commandBuilder = new StringBuilder();
     commandBuilder.append("dalvikvm64 -Xint ");
     if (device.noBootImageAvailable()) {
       commandBuilder.append("-Ximage:/data/art-test/core.art -Xnorelocate ");
     }
-    commandBuilder.append("-cp ").append(testLocation).append("/").append(programName).append(" ");
-    commandBuilder.append(executeClass);
+    commandBuilder.append("-cp ").append(classPath).append(" ");
+    commandBuilder.append(mainClass);
     return commandBuilder.toString();
   }
 }
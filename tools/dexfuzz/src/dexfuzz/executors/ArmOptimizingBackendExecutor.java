@@ -26,7 +26,7 @@ public class ArmOptimizingBackendExecutor extends Executor {
   }
 
   @Override
-  protected String constructCommand(String programName) {
+  protected String constructCommand(String classPath, String mainClass) {
     StringBuilder commandBuilder = new StringBuilder();
     commandBuilder.append("dalvikvm32 -Xcompiler-option --compiler-backend=Optimizing ");
     // The -Xno-dex-file-fallback option ensures that the execution does not default to
@@ -35,8 +35,8 @@ public class ArmOptimizingBackendExecutor extends Executor {
     if (device.noBootImageAvailable()) {
       commandBuilder.append("-Ximage:/data/art-test/core.art -Xnorelocate ");
     }
-    commandBuilder.append("-cp ").append(testLocation).append("/").append(programName).append(" ");
-    commandBuilder.append(executeClass);
+    commandBuilder.append("-cp ").append(classPath).append(" ");
+    commandBuilder.append(mainClass);
     return commandBuilder.toString();
   }
 }
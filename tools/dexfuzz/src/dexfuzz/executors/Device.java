@@ -82,6 +82,16 @@ public class Device {
     return androidHostOut + "/framework/core.art";
   }
 
+  /**
+   * Get the path of the DEX file containing the harness that warm executors run.
+   */
+  public String getHarnessPath() {
+    if (!Options.harnessFile.isEmpty()) {
+      return Options.harnessFile;
+    }
+    return androidHostOut + "/framework/dexfuzz-harness-hostdex.jar";
+  }
+
   private void setup() {
     programPushed = false;
 
@@ -96,6 +106,13 @@ public class Device {
             + ". Did you forget to build it?");
       }
     }
+    if (Options.warmExecutors) {
+      File harness = new File(getHarnessPath());
+      if (!harness.exists()) {
+        Log.errorAndQuit("Warm executor harness not found at " + harness.getPath()
+            + ". Did you forget to build dexfuzz-harness?");
+      }
+    }
     if (!isHost) {
       // Create temporary consumers for the initial test.
       StreamConsumer outputConsumer = new StreamConsumer();
@@ -194,12 +211,7 @@ public class Device {
     Log.info("Executing: " + command);
 
     try {
-      ProcessBuilder processBuilder = new ProcessBuilder(splitCommand(command));
-      processBuilder.environment().put("ANDROID_ROOT", androidHostOut);
-      if (Options.executeOnHost) {
-        processBuilder.environment().put("ANDROID_DATA", androidData);
-      }
-      Process process = processBuilder.start();
+      Process process = startProcess(command);
 
       if (captureOutput) {
         // Give the streams to the StreamConsumers.
@@ -237,6 +249,19 @@ public class Device {
     return result;
   }
 
+  /**
+   * Start the command, without waiting for it to finish. The caller is responsible
+   * for draining its output and error streams.
+   */
+  public Process startProcess(String command) throws IOException {
+    ProcessBuilder processBuilder = new ProcessBuilder(splitCommand(command));
+    processBuilder.environment().put("ANDROID_ROOT", androidHostOut);
+    if (Options.executeOnHost) {
+      processBuilder.environment().put("ANDROID_DATA", androidData);
+    }
+    return processBuilder.start();
+  }
+
   /**
    * Splits command respecting single quotes.
    */
@@ -268,7 +293,7 @@ public class Device {
 
   private String getOatFileName(String testLocation, String programName) {
     // Converts e.g. /data/art-test/file.dex to data@art-test@file.dex
-    return (testLocation.replace("/", "@").substring(1) + "@" + programName);
+    return ((testLocation + "/" + programName).replace("/", "@").substring(1));
   }
 
   public void cleanCodeCache(Architecture architecture, String testLocation, String programName) {
@@ -277,7 +302,7 @@ public class Device {
     executeCommand(command, false);
   }
 
-  public void pushProgramToDevice(String programName, String testLocation) {
+  public synchronized void pushProgramToDevice(String programName, String testLocation) {
     assert(!isHost);
     if (!programPushed) {
       String command = getExecutionPrefixWithAdb("push") + programName + " " + testLocation;
@@ -289,7 +314,7 @@ public class Device {
     }
   }
 
-  public void resetProgramPushed() {
+  public synchronized void resetProgramPushed() {
     programPushed = false;
   }
 }
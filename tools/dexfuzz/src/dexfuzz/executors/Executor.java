@@ -27,10 +27,17 @@ import dexfuzz.listeners.BaseListener;
 public abstract class Executor {
   private StreamConsumer outputConsumer;
   private StreamConsumer errorConsumer;
+  private WarmRuntime warmRuntime;
 
-  protected ExecutionResult executionResult;
+  private ExecutionResult executionResult;
   protected String executeClass;
 
+  /**
+   * Set once the Fuzzer has given up waiting for this executor. Any execution still in
+   * progress then has its result discarded, should it ever finish.
+   */
+  private boolean abandoned;
+
   // Set by subclasses.
   protected String name;
   protected int timeout;
@@ -68,6 +75,17 @@ public abstract class Executor {
     outputConsumer.start();
     errorConsumer = new StreamConsumer();
     errorConsumer.start();
+
+    // Only the interpreters run programs in a warm runtime. The optimizing backends'
+    // compiler flags would apply to the harness rather than the program, and cleaning
+    // their code cache would delete files the long-lived runtime may have mapped, so
+    // the executors that need their code cache cleaned still start a runtime for each
+    // program.
+    if (Options.warmExecutors && !needsCleanCodeCache) {
+      warmRuntime = new WarmRuntime(device,
+          constructCommand(device.getHarnessPath(), WarmRuntime.HARNESS_CLASS) + " "
+          + executeClass);
+    }
   }
 
   /**
@@ -85,12 +103,15 @@ public abstract class Executor {
   public void shutdown() {
     outputConsumer.shutdown();
     errorConsumer.shutdown();
+    if (warmRuntime != null) {
+      warmRuntime.shutdown();
+    }
   }
 
   /**
    * Called by the Fuzzer after each execution has finished, to clear the results.
    */
-  public void reset() {
+  public synchronized void reset() {
     executionResult = null;
   }
 
@@ -167,14 +188,25 @@ public abstract class Executor {
 
   /**
    * Executor subclasses need to override this, to construct their arguments for dalvikvm
-   * invocation correctly.
+   * invocation correctly, running mainClass from classPath.
    */
-  protected abstract String constructCommand(String programName);
+  protected abstract String constructCommand(String classPath, String mainClass);
 
   /**
-   * Executes runtime.
+   * Construct the dalvikvm command to run the program.
+   */
+  protected String constructCommand(String programName) {
+    return constructCommand(testLocation + "/" + programName, executeClass);
+  }
+
+  /**
+   * Executes runtime, or runs the program in the warm runtime when using --warm-executors.
    */
   public void execute(String programName) {
+    if (warmRuntime != null) {
+      setResult(warmRuntime.execute(testLocation + "/" + programName, timeout));
+      return;
+    }
     String command = "";
     String androidRoot = Options.androidRoot.trim();
     if (androidRoot.length() != 0) {
@@ -183,7 +215,29 @@ public abstract class Executor {
       command += "LD_LIBRARY_PATH="+ androidRoot + "/lib:" + androidRoot + "/lib64 ";
     }
     command += constructCommand(programName);
-    executionResult = executeCommandWithTimeout(command, true);
+    setResult(executeCommandWithTimeout(command, true));
+  }
+
+  private synchronized void setResult(ExecutionResult result) {
+    if (!abandoned) {
+      executionResult = result;
+    }
+  }
+
+  /**
+   * Called by the Fuzzer when this executor is still running a program long after its
+   * timeout. Records a timeout as the result for the program, unless it had already
+   * finished. The Fuzzer does not use the executor again.
+   */
+  public synchronized void abandon() {
+    abandoned = true;
+    if (executionResult == null) {
+      executionResult = ExecutionResult.timedOut();
+    }
+  }
+
+  public synchronized boolean isAbandoned() {
+    return abandoned;
   }
 
   /**
@@ -215,7 +269,7 @@ public abstract class Executor {
   /**
    * Used by the Fuzzer to get result of execution.
    */
-  public ExecutionResult getResult() {
+  public synchronized ExecutionResult getResult() {
     return executionResult;
   }
 
@@ -227,7 +281,7 @@ public abstract class Executor {
    */
   public boolean didTargetVerify() {
     // TODO: Remove this once host-verification can be forced to always fail?
-    String output = executionResult.getFlattenedAll();
+    String output = getResult().getFlattenedAll();
     if (output.contains("VerifyError") || output.contains("Verification failed on class")) {
       return false;
     }
@@ -238,6 +292,13 @@ public abstract class Executor {
     return name;
   }
 
+  /**
+   * Get the timeout in seconds given to each execution.
+   */
+  public int getTimeout() {
+    return timeout;
+  }
+
   public void finishedWithProgramOnDevice() {
     device.resetProgramPushed();
   }
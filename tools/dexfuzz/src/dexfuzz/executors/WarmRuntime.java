@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.executors;
+
+import dexfuzz.ExecutionResult;
+import dexfuzz.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs programs for an Executor in a long-lived runtime, rather than starting a new
+ * runtime for each program. Used with --warm-executors.
+ *
+ * <p>The runtime is started with the Executor's flags, running the harness from
+ * dexfuzz-harness, which loads each program in a fresh class loader and runs it.
+ * See Harness for how the two communicate. If the runtime crashes, or a program
+ * does not finish within the timeout, the runtime is killed, and a new one is
+ * started for the next program.
+ */
+class WarmRuntime {
+  static final String HARNESS_CLASS = "dexfuzz.harness.Harness";
+
+  /**
+   * Written by the harness to its standard error after each program, after
+   * anything the runtime logged while running it. Must match Harness.DONE_MARKER.
+   */
+  private static final String DONE_MARKER = "dexfuzz-harness: done";
+
+  /**
+   * The return value the timeout command gives when it kills a program.
+   */
+  private static final int TIMEOUT_RETURN_VALUE = 124;
+
+  private Device device;
+  private String command;
+
+  private Process process;
+  private DataInputStream records;
+  private Writer requests;
+  private Thread errorReader;
+  private BlockingQueue<String> errorLines;
+
+  private ScheduledExecutorService watchdog;
+  private volatile boolean timedOut;
+
+  WarmRuntime(Device device, String command) {
+    this.device = device;
+    this.command = command;
+    watchdog = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  /**
+   * Run the program in the runtime, starting the runtime first if needed, and
+   * give the result that running the program in its own runtime would have had.
+   */
+  ExecutionResult execute(String programPath, int timeout) {
+    if (process == null) {
+      start();
+    }
+
+    Log.info("Executing in warm runtime: " + programPath);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ByteArrayOutputStream error = new ByteArrayOutputStream();
+    List<String> runtimeErrors = new ArrayList<String>();
+    int returnValue;
+
+    timedOut = false;
+    Process running = process;
+    ScheduledFuture<?> kill = watchdog.schedule(() -> {
+      timedOut = true;
+      running.destroyForcibly();
+    }, timeout, TimeUnit.SECONDS);
+
+    try {
+      requests.write(programPath + "\n");
+      requests.flush();
+      returnValue = readRecords(output, error);
+      // The harness writes the marker before the return value, so it is always there.
+      String line;
+      while (!(line = errorLines.take()).equals(DONE_MARKER)) {
+        runtimeErrors.add(line);
+      }
+      if (!kill.cancel(false)) {
+        // The watchdog went off just as the program finished.
+        stop(runtimeErrors);
+      }
+    } catch (IOException e) {
+      // The runtime crashed, or the watchdog killed it.
+      kill.cancel(false);
+      returnValue = stop(runtimeErrors);
+      if (timedOut) {
+        Log.info("Warm runtime timed out, it will be restarted.");
+        returnValue = TIMEOUT_RETURN_VALUE;
+      } else {
+        Log.info("Warm runtime exited, it will be restarted.");
+      }
+    } catch (InterruptedException e) {
+      Log.errorAndQuit("Interrupted while waiting for warm runtime.");
+      return null;
+    }
+
+    Log.info("Return value: " + returnValue);
+
+    ExecutionResult result = new ExecutionResult();
+    result.returnValue = returnValue;
+    result.output = splitLines(output);
+    result.error = splitLines(error);
+    result.error.addAll(runtimeErrors);
+    // Always explicitly indicate the return code in the text output, like
+    // Device.executeCommand().
+    result.output.add("RETURN CODE: " + returnValue);
+    return result;
+  }
+
+  /**
+   * Call this to stop the runtime and the watchdog.
+   */
+  void shutdown() {
+    if (process != null) {
+      try {
+        // The harness exits once it has no more programs to run.
+        requests.close();
+        if (!process.waitFor(5, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+        }
+      } catch (IOException e) {
+        process.destroyForcibly();
+      } catch (InterruptedException e) {
+        process.destroyForcibly();
+      }
+      process = null;
+    }
+    watchdog.shutdownNow();
+  }
+
+  private void start() {
+    Log.info("Starting warm runtime: " + command);
+    try {
+      process = device.startProcess(command);
+    } catch (IOException e) {
+      Log.errorAndQuit("Couldn't start warm runtime: " + command);
+    }
+    records = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+
+    // Keep the runtime's standard error drained, collecting the lines
+    // for the program that is running.
+    BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getErrorStream()));
+    errorLines = lines;
+    errorReader = new Thread(() -> {
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line);
+        }
+      } catch (IOException e) {
+        // The runtime has gone, so there is nothing more to read.
+      }
+    }, "dexfuzz-warm-runtime-errors");
+    errorReader.setDaemon(true);
+    errorReader.start();
+  }
+
+  /**
+   * Kill the runtime, if it's still running, and collect any lines it wrote to
+   * standard error. The next program will start a new runtime.
+   * @return The runtime's exit value.
+   */
+  private int stop(List<String> runtimeErrors) {
+    int exitValue = 0;
+    process.destroyForcibly();
+    try {
+      exitValue = process.waitFor();
+      errorReader.join();
+    } catch (InterruptedException e) {
+      Log.errorAndQuit("Interrupted while stopping warm runtime.");
+    }
+    errorLines.drainTo(runtimeErrors);
+    // The runtime may have died after finishing the program.
+    runtimeErrors.remove(DONE_MARKER);
+    process = null;
+    return exitValue;
+  }
+
+  /**
+   * Read the records the harness writes while the program runs, up to the
+   * program's return value.
+   */
+  private int readRecords(ByteArrayOutputStream output, ByteArrayOutputStream error)
+      throws IOException {
+    while (true) {
+      int tag = records.readUnsignedByte();
+      if (tag == 'X') {
+        return records.readInt();
+      }
+      byte[] bytes = new byte[records.readInt()];
+      records.readFully(bytes);
+      if (tag == 'O') {
+        output.write(bytes);
+      } else if (tag == 'E') {
+        error.write(bytes);
+      } else {
+        // Treat the runtime as crashed, as we can't tell where the next record starts.
+        throw new IOException("Unexpected record from warm runtime: " + tag);
+      }
+    }
+  }
+
+  /**
+   * Split the bytes into lines the same way the StreamConsumers do.
+   */
+  private List<String> splitLines(ByteArrayOutputStream bytes) {
+    List<String> lines = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new ByteArrayInputStream(bytes.toByteArray())));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    } catch (IOException e) {
+      Log.errorAndQuit("Couldn't split output of warm runtime into lines.");
+    }
+    return lines;
+  }
+}
@@ -27,14 +27,14 @@ public class X86InterpreterExecutor extends Executor {
   }
 
   @Override
-  protected String constructCommand(String programName) {
+  protected String constructCommand(String classPath, String mainClass) {
     StringBuilder commandBuilder = new StringBuilder();
     commandBuilder.append("dalvikvm32 -Xint ");
     if (Options.executeOnHost) {
       commandBuilder.append(device.getHostExecutionFlags()).append(" ");
     }
-    commandBuilder.append("-cp ").append(testLocation).append("/").append(programName).append(" ");
-    commandBuilder.append(executeClass);
+    commandBuilder.append("-cp ").append(classPath).append(" ");
+    commandBuilder.append(mainClass);
     return commandBuilder.toString();
   }
 }
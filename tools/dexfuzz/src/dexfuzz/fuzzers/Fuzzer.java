@@ -45,16 +45,51 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A particular fuzzing strategy, this class provides the common methods
  * most fuzzing will involve, and subclasses override the run() method, to
  * employ a particular strategy.
  */
-public abstract class Fuzzer {
+public abstract class Fuzzer implements FuzzingStrategy {
   private List<Executor> executors;
   private OffsetTracker offsetTracker;
 
+  /**
+   * The executors, grouped by architecture. The groups are run at the same time on
+   * executorThreads, but the executors within a group are run one after the other,
+   * because they share the program's OAT file in the architecture's code cache, which
+   * the optimizing backend deletes before it runs. So a run with a single architecture,
+   * such as a host run, still runs its executors one at a time.
+   */
+  private List<List<Executor>> executorGroups;
+  private ExecutorService executorThreads;
+
+  /**
+   * How long to allow each executor to take on top of its own timeout, which only
+   * covers the execution itself, before deciding it has hung.
+   */
+  private static final int EXECUTOR_GRACE_SECONDS = 60;
+
+  /**
+   * The groups of executors that hung while running the current program. Their hung
+   * executors are recorded as timing out on the program, and the groups are dropped
+   * once it has been analysed.
+   */
+  private List<List<Executor>> hungGroups = new ArrayList<List<Executor>>();
+
+  /**
+   * The executors of groups that hung, which are no longer used, but still need to be
+   * shut down.
+   */
+  private List<Executor> abandonedExecutors = new ArrayList<Executor>();
+
   /**
    * This is the executor that we use to test for self-divergent programs.
    */
@@ -67,17 +102,14 @@ public abstract class Fuzzer {
   private boolean savedSuccessfully;
 
   private Timer totalTimer = new Timer("Total Time");
-  private Timer timerDexInput = new Timer("DEX Input");
-  private Timer timerProgGen = new Timer("Program Generation");
-  private Timer timerMutation = new Timer("Mutation Time");
-  private Timer timerDexOutput = new Timer("DEX Output");
-  private Timer timerChecksumCalc = new Timer("Checksum Calculation");
+  private PhaseTimers phaseTimers = new PhaseTimers();
 
   protected BaseListener listener;
 
   protected Fuzzer(BaseListener listener) {
     totalTimer.start();
     executors = new ArrayList<Executor>();
+    executorGroups = new ArrayList<List<Executor>>();
     this.listener = listener;
   }
 
@@ -87,28 +119,62 @@ public abstract class Fuzzer {
 
   protected abstract String getNextOutputFilename();
 
+  /**
+   * The timers for each phase of fuzzing a program.
+   */
+  static class PhaseTimers {
+    private Timer dexInput = new Timer("DEX Input");
+    private Timer progGen = new Timer("Program Generation");
+    private Timer mutation = new Timer("Mutation Time");
+    private Timer dexOutput = new Timer("DEX Output");
+    private Timer checksumCalc = new Timer("Checksum Calculation");
+
+    /**
+     * Add the time recorded by a Fuzzer's phase timers to these timers.
+     */
+    void add(Fuzzer fuzzer) {
+      dexInput.add(fuzzer.phaseTimers.dexInput);
+      progGen.add(fuzzer.phaseTimers.progGen);
+      mutation.add(fuzzer.phaseTimers.mutation);
+      dexOutput.add(fuzzer.phaseTimers.dexOutput);
+      checksumCalc.add(fuzzer.phaseTimers.checksumCalc);
+    }
+
+    void printTime(BaseListener listener) {
+      dexInput.printTime(listener);
+      progGen.printTime(listener);
+      mutation.printTime(listener);
+      dexOutput.printTime(listener);
+      checksumCalc.printTime(listener);
+    }
+  }
+
   /**
    * Call this after fuzzer execution to print out timing results.
    */
+  @Override
   public void printTimingInfo() {
     totalTimer.stop();
-    timerDexInput.printTime(listener);
-    timerProgGen.printTime(listener);
-    timerMutation.printTime(listener);
-    timerDexOutput.printTime(listener);
-    timerChecksumCalc.printTime(listener);
+    phaseTimers.printTime(listener);
     totalTimer.printTime(listener);
   }
 
   /**
    * Make sure this is called to correctly shutdown each Executor's StreamConsumers.
    */
+  @Override
   public void shutdown() {
     if (executors != null) {
       for (Executor executor : executors) {
         executor.shutdown();
       }
     }
+    for (Executor executor : abandonedExecutors) {
+      executor.shutdown();
+    }
+    if (executorThreads != null) {
+      executorThreads.shutdown();
+    }
   }
 
   private void addExecutorsForArchitecture(Device device, Class<? extends Executor> optimizing,
@@ -116,17 +182,19 @@ public abstract class Fuzzer {
     // NB: Currently OptimizingBackend MUST come immediately before same arch's Interpreter.
     // This is because intepreter execution relies on there being an OAT file already
     // created to produce correct debug information. Otherwise we will see
-    // false-positive divergences.
+    // false-positive divergences. This is also why each architecture's executors are
+    // grouped together, so they are never run at the same time.
+    List<Executor> group = new ArrayList<Executor>();
     try {
       if (Options.useOptimizing) {
         Constructor<? extends Executor> constructor =
             optimizing.getConstructor(BaseListener.class, Device.class);
-        executors.add(constructor.newInstance(listener, device));
+        group.add(constructor.newInstance(listener, device));
       }
       if (Options.useInterpreter) {
         Constructor<? extends Executor> constructor =
             interpreter.getConstructor(BaseListener.class, Device.class);
-        executors.add(constructor.newInstance(listener, device));
+        group.add(constructor.newInstance(listener, device));
       }
     } catch (NoSuchMethodException e) {
       Log.errorAndQuit("Executor doesn't have correct constructor.");
@@ -139,6 +207,10 @@ public abstract class Fuzzer {
     } catch (InvocationTargetException e) {
       Log.errorAndQuit("Instantiation of Executor threw an Exception!");
     }
+    if (!group.isEmpty()) {
+      executors.addAll(group);
+      executorGroups.add(group);
+    }
   }
 
   protected void addExecutors() {
@@ -171,6 +243,10 @@ public abstract class Fuzzer {
 
     // Add the first backend as the golden executor for self-divergence tests.
     goldenExecutor = executors.get(0);
+
+    // The executors spend most of their time waiting for processes on the device,
+    // so give every group its own thread, however few cores we have.
+    executorThreads = Executors.newFixedThreadPool(executorGroups.size());
   }
 
   /**
@@ -186,11 +262,11 @@ public abstract class Fuzzer {
     }
     // Mutate the program.
     if (!Options.skipMutation) {
-      timerMutation.start();
+      phaseTimers.mutation.start();
       program.mutateTheProgram();
 
       mutatedSuccessfully = program.updateRawDexFile();
-      timerMutation.stop();
+      phaseTimers.mutation.stop();
       if (!mutatedSuccessfully) {
         listener.handleMutationFail();
       }
@@ -229,8 +305,14 @@ public abstract class Fuzzer {
 
       for (Executor executor : executors) {
         executor.reset();
-        executor.prepareProgramForExecution(programName);
-        executor.execute(programName);
+      }
+      executeGroups(programName);
+
+      for (Executor executor : executors) {
+        if (executor.getResult() == null) {
+          // Skipped, after an earlier executor in its group failed to verify.
+          continue;
+        }
         if (!executor.didTargetVerify()) {
           listener.handleFailedTargetVerification();
           skipAnalysis = true;
@@ -249,6 +331,81 @@ public abstract class Fuzzer {
     goldenExecutor.finishedWithProgramOnDevice();
     mutatedSuccessfully = false;
     savedSuccessfully = false;
+    dropHungGroups();
+  }
+
+  /**
+   * Stop using the groups of executors that hung on the last program. Their threads may
+   * never finish, so the groups can't safely run another program.
+   */
+  private void dropHungGroups() {
+    for (List<Executor> group : hungGroups) {
+      executorGroups.remove(group);
+      executors.removeAll(group);
+      abandonedExecutors.addAll(group);
+    }
+    hungGroups.clear();
+    if (executors.isEmpty()) {
+      Log.errorAndQuit("Every executor hung, cannot continue fuzzing.");
+    }
+    if (!executors.contains(goldenExecutor)) {
+      goldenExecutor = executors.get(0);
+    }
+  }
+
+  /**
+   * Run each group of executors on the program, at the same time, and wait until they
+   * have all finished. Within a group, stop at the first executor that fails to verify
+   * the program, since it will not be analysed. A group that is still running long after
+   * its executors' timeouts is abandoned, and its unfinished executors are recorded as
+   * timing out on the program.
+   */
+  private void executeGroups(String programName) {
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    long timeout = 0;
+    for (List<Executor> group : executorGroups) {
+      futures.add(executorThreads.submit(() -> {
+        for (Executor executor : group) {
+          if (executor.isAbandoned()) {
+            // The group hung and is no longer waited for, so leave the device alone.
+            break;
+          }
+          executor.prepareProgramForExecution(programName);
+          executor.execute(programName);
+          if (!executor.didTargetVerify()) {
+            break;
+          }
+        }
+      }));
+      long groupTimeout = 0;
+      for (Executor executor : group) {
+        groupTimeout += executor.getTimeout() + EXECUTOR_GRACE_SECONDS;
+      }
+      timeout = Math.max(timeout, groupTimeout);
+    }
+
+    // The groups all start at once, so they are all given until the slowest
+    // group's timeout to finish.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+    for (int i = 0; i < futures.size(); i++) {
+      String architecture = executorGroups.get(i).get(0).getArchitecture().asString();
+      try {
+        futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        Log.warn("Executors for " + architecture
+            + " did not finish within their timeouts, they will not be used again.");
+        List<Executor> group = executorGroups.get(i);
+        for (Executor executor : group) {
+          executor.abandon();
+        }
+        hungGroups.add(group);
+      } catch (ExecutionException e) {
+        Log.errorAndQuit("Executors for " + architecture
+            + " threw an Exception: " + e.getCause());
+      } catch (InterruptedException e) {
+        Log.errorAndQuit("Interrupted while waiting for executors to finish.");
+      }
+    }
   }
 
   /**
@@ -376,14 +533,14 @@ public abstract class Fuzzer {
       input.setOffsetTracker(offsetTracker);
       // Read the raw DexFile
       RawDexFile rawDexFile = new RawDexFile();
-      timerDexInput.start();
+      phaseTimers.dexInput.start();
       rawDexFile.read(input);
-      timerDexInput.stop();
+      phaseTimers.dexInput.stop();
       input.close();
       // Create the program view.
-      timerProgGen.start();
-      program = new Program(rawDexFile, mutations, listener);
-      timerProgGen.stop();
+      phaseTimers.progGen.start();
+      program = createProgram(rawDexFile, mutations);
+      phaseTimers.progGen.stop();
     } catch (FileNotFoundException e) {
       Log.errorAndQuit("Couldn't open a file called " + inputName);
     } catch (IOException e) {
@@ -392,6 +549,14 @@ public abstract class Fuzzer {
     return program;
   }
 
+  /**
+   * Create the Program to mutate from a newly parsed seed file. Subclasses can
+   * override this to choose the seed for the Program's RNG.
+   */
+  protected Program createProgram(RawDexFile rawDexFile, List<Mutation> mutations) {
+    return new Program(rawDexFile, mutations, listener);
+  }
+
   private boolean saveProgram(Program program, String outputName) {
     boolean success = false;
 
@@ -402,14 +567,17 @@ public abstract class Fuzzer {
       // Delete the contents of the file, in case it already existed.
       output.setLength(0);
       // Write out the file.
-      timerDexOutput.start();
+      phaseTimers.dexOutput.start();
       program.writeRawDexFile(output);
-      timerDexOutput.stop();
+      phaseTimers.dexOutput.stop();
       // Recalculate the header info.
-      timerChecksumCalc.start();
+      phaseTimers.checksumCalc.start();
       program.updateRawDexFileHeader(output);
-      timerChecksumCalc.stop();
+      phaseTimers.checksumCalc.stop();
+      // The file is only written to disk when it is closed.
+      phaseTimers.dexOutput.start();
       output.close();
+      phaseTimers.dexOutput.stop();
       success = true;
     } catch (FileNotFoundException e) {
       Log.errorAndQuit("Couldn't open a file called " + outputName);
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.fuzzers;
+
+import dexfuzz.Log;
+import dexfuzz.MutationStats;
+import dexfuzz.Options;
+import dexfuzz.Timer;
+import dexfuzz.listeners.BaseListener;
+import dexfuzz.listeners.BufferedListener;
+import dexfuzz.program.Mutation;
+import dexfuzz.program.Program;
+import dexfuzz.rawdex.RawDexFile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fuzz programs multiple times, using several workers that each run on their own
+ * thread, with their own executors. Used when --workers is given.
+ *
+ * <p>The workers take iterations from a shared counter, and the seed for each
+ * iteration is derived from the --seed value (or the time, if no seed was provided)
+ * and the iteration number, so the same programs are produced whichever worker
+ * fuzzes them. When executing, each worker writes its programs into its own
+ * directory. Each worker reports to the listener through a BufferedListener, so the
+ * listener sees the notifications for each iteration together, one iteration at a time.
+ *
+ * <p>FuzzerParallel doesn't fuzz any programs itself. It owns the workers, and adds up
+ * their timers when printing timing results.
+ */
+public class FuzzerParallel implements FuzzingStrategy {
+  private BaseListener listener;
+
+  private List<Worker> workers;
+
+  private AtomicInteger nextIteration;
+
+  private long baseSeed;
+
+  /**
+   * The mutations performed by all the workers.
+   */
+  private MutationStats mutationStats;
+
+  private Timer totalTimer = new Timer("Total Time");
+
+  public FuzzerParallel(BaseListener listener) {
+    totalTimer.start();
+    this.listener = listener;
+    nextIteration = new AtomicInteger();
+    mutationStats = new MutationStats();
+    if (Options.usingProvidedSeed) {
+      baseSeed = Options.rngSeed;
+    } else {
+      baseSeed = System.currentTimeMillis();
+    }
+
+    workers = new ArrayList<Worker>();
+    for (int i = 0; i < Options.workers; i++) {
+      workers.add(new Worker(i, new BufferedListener(listener)));
+    }
+  }
+
+  @Override
+  public void run() {
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < workers.size(); i++) {
+      Thread thread = new Thread(workers.get(i), "dexfuzz-worker-" + i);
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Log.errorAndQuit("Interrupted while waiting for the fuzzing workers to finish");
+      }
+    }
+    listener.handleMutationStats(mutationStats.getStatsString());
+    listener.handleSummary();
+  }
+
+  @Override
+  public void printTimingInfo() {
+    totalTimer.stop();
+    Fuzzer.PhaseTimers phaseTimers = new Fuzzer.PhaseTimers();
+    for (Worker worker : workers) {
+      phaseTimers.add(worker);
+    }
+    phaseTimers.printTime(listener);
+    totalTimer.printTime(listener);
+  }
+
+  @Override
+  public void shutdown() {
+    for (Worker worker : workers) {
+      worker.shutdown();
+    }
+  }
+
+  /**
+   * Get the seed to use for the given iteration. The iteration is mixed into the
+   * base seed, so that neighbouring iterations get unrelated seeds.
+   */
+  private long getSeed(int iteration) {
+    long seed = baseSeed + (iteration + 1) * 0x9e3779b97f4a7c15L;
+    seed = (seed ^ (seed >>> 30)) * 0xbf58476d1ce4e5b9L;
+    seed = (seed ^ (seed >>> 27)) * 0x94d049bb133111ebL;
+    return seed ^ (seed >>> 31);
+  }
+
+  /**
+   * Fuzzes, and possibly executes, programs until all the iterations have been claimed.
+   */
+  private class Worker extends FuzzerMultiple implements Runnable {
+    private String outputDirectory;
+
+    public Worker(int index, BufferedListener listener) {
+      super(listener);
+      outputDirectory = String.format("worker_%02d", index);
+      if (Options.execute) {
+        File directory = new File(outputDirectory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+          Log.errorAndQuit("Couldn't create worker directory " + outputDirectory);
+        }
+        addExecutors();
+      }
+    }
+
+    @Override
+    protected String getNextOutputFilename() {
+      if (Options.execute) {
+        // Each worker executes its programs from its own directory.
+        return outputDirectory + "/" + Options.outputFile;
+      }
+      // Use the same names as FuzzerMultipleNoExecute.
+      return String.format("%09d_%s", iterations, Options.outputFile);
+    }
+
+    @Override
+    protected Program createProgram(RawDexFile rawDexFile, List<Mutation> mutations) {
+      long seed = getSeed(iterations);
+      listener.handleSeed(seed);
+      return new Program(rawDexFile, mutations, listener, seed);
+    }
+
+    @Override
+    public void run() {
+      for (iterations = nextIteration.getAndIncrement(); iterations < Options.repeat;
+          iterations = nextIteration.getAndIncrement()) {
+        listener.handleIterationStarted(iterations);
+        Program program = fuzz();
+        synchronized (mutationStats) {
+          mutationStats.add(program.getMutationStats());
+        }
+        if (Options.execute && safeToExecute()) {
+          execute(program);
+        }
+        listener.handleIterationFinished(iterations);
+      }
+    }
+  }
+}
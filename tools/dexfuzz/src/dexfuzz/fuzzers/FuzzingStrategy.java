@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.fuzzers;
+
+/**
+ * The interface DexFuzz uses to drive fuzzing, implemented by each Fuzzer and by
+ * FuzzerParallel, which coordinates several Fuzzers.
+ */
+public interface FuzzingStrategy {
+  /**
+   * Fuzz, and possibly execute, programs according to the Options.
+   */
+  void run();
+
+  /**
+   * Call this after fuzzing to print out timing results.
+   */
+  void printTimingInfo();
+
+  /**
+   * Call this at the end of fuzzing to shut down any executors.
+   */
+  void shutdown();
+}
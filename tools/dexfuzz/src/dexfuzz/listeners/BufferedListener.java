@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dexfuzz.listeners;
+
+import dexfuzz.ExecutionResult;
+import dexfuzz.executors.Executor;
+import dexfuzz.program.Mutation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds on to the notifications for an iteration, and passes them all on to
+ * another Listener when the iteration finishes. The other Listener is locked
+ * while this happens, so several BufferedListeners used by different threads
+ * can share it, and it still sees the notifications for each iteration together.
+ */
+public class BufferedListener extends BaseListener {
+  private BaseListener listener;
+
+  private List<Runnable> notifications;
+
+  public BufferedListener(BaseListener listener) {
+    this.listener = listener;
+    notifications = new ArrayList<Runnable>();
+  }
+
+  /**
+   * Pass on all the notifications held so far.
+   */
+  public void flush() {
+    synchronized (listener) {
+      for (Runnable notification : notifications) {
+        notification.run();
+      }
+    }
+    notifications.clear();
+  }
+
+  @Override
+  public void handleSuccessfulHostVerification() {
+    notifications.add(() -> listener.handleSuccessfulHostVerification());
+  }
+
+  @Override
+  public void handleFailedHostVerification(ExecutionResult verificationResult) {
+    notifications.add(() -> listener.handleFailedHostVerification(verificationResult));
+  }
+
+  @Override
+  public void handleFailedTargetVerification() {
+    notifications.add(() -> listener.handleFailedTargetVerification());
+  }
+
+  @Override
+  public void handleIterationStarted(int iteration) {
+    notifications.add(() -> listener.handleIterationStarted(iteration));
+  }
+
+  @Override
+  public void handleIterationFinished(int iteration) {
+    notifications.add(() -> listener.handleIterationFinished(iteration));
+    flush();
+  }
+
+  @Override
+  public void handleTimeouts(List<Executor> timedOut, List<Executor> didNotTimeOut) {
+    notifications.add(() -> listener.handleTimeouts(timedOut, didNotTimeOut));
+  }
+
+  @Override
+  public void handleDivergences(Map<String, List<Executor>> outputMap) {
+    notifications.add(() -> listener.handleDivergences(outputMap));
+  }
+
+  @Override
+  public void handleFuzzingFile(String inputFile) {
+    notifications.add(() -> listener.handleFuzzingFile(inputFile));
+  }
+
+  @Override
+  public void handleSeed(long seed) {
+    notifications.add(() -> listener.handleSeed(seed));
+  }
+
+  @Override
+  public void handleHostVerificationSigabort(ExecutionResult verificationResult) {
+    notifications.add(() -> listener.handleHostVerificationSigabort(verificationResult));
+  }
+
+  @Override
+  public void handleSuccess(Map<String, List<Executor>> outputMap) {
+    notifications.add(() -> listener.handleSuccess(outputMap));
+  }
+
+  @Override
+  public void handleDumpOutput(String outputLine, Executor executor) {
+    notifications.add(() -> listener.handleDumpOutput(outputLine, executor));
+  }
+
+  @Override
+  public void handleDumpVerify(String verifyLine) {
+    notifications.add(() -> listener.handleDumpVerify(verifyLine));
+  }
+
+  @Override
+  public void handleMutationStats(String statsString) {
+    notifications.add(() -> listener.handleMutationStats(statsString));
+  }
+
+  @Override
+  public void handleTiming(String name, float elapsedTime) {
+    notifications.add(() -> listener.handleTiming(name, elapsedTime));
+  }
+
+  @Override
+  public void handleMutationFail() {
+    notifications.add(() -> listener.handleMutationFail());
+  }
+
+  @Override
+  public void handleSummary() {
+    notifications.add(() -> listener.handleSummary());
+  }
+
+  @Override
+  public void handleSuccessfullyFuzzedFile(String programName) {
+    notifications.add(() -> listener.handleSuccessfullyFuzzedFile(programName));
+  }
+
+  @Override
+  public void handleSelfDivergence() {
+    notifications.add(() -> listener.handleSelfDivergence());
+  }
+
+  @Override
+  public void handleMessage(String msg) {
+    notifications.add(() -> listener.handleMessage(msg));
+  }
+
+  @Override
+  public void handleMutations(List<Mutation> mutations) {
+    notifications.add(() -> listener.handleMutations(mutations));
+  }
+
+  @Override
+  public void handleArchitectureSplit() {
+    notifications.add(() -> listener.handleArchitectureSplit());
+  }
+}
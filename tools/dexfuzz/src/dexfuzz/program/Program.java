@@ -104,10 +104,17 @@ public class Program {
 
   /**
    * A list of all the MutatableCode that the CodeTranslator produced from
-   * CodeItems that are acceptable to mutate.
+   * CodeItems that are acceptable to mutate. Most methods are never picked for
+   * mutation, so each CodeItem is only translated the first time its MutatableCode
+   * is needed, and until then its entry is null. Use getMutatableCode() to access it.
    */
   private List<MutatableCode> mutatableCodes;
 
+  /**
+   * The index of the CodeItem that each entry in mutatableCodes is produced from.
+   */
+  private List<Integer> mutatableCodeItemIdxs;
+
   /**
    * A list of all MutatableCode items that were mutated when mutateTheProgram()
    * was called. updateRawDexFile() will update the relevant CodeItems when called,
@@ -152,21 +159,22 @@ public class Program {
    */
   public Program(RawDexFile rawDexFile, List<Mutation> previousMutations,
       BaseListener listener) {
+    this(rawDexFile, previousMutations, listener, chooseSeed(listener));
+  }
+
+  /**
+   * Construct the mutatable Program, using the provided seed for the RNG.
+   * The caller is responsible for reporting the seed to the listener.
+   */
+  public Program(RawDexFile rawDexFile, List<Mutation> previousMutations,
+      BaseListener listener, long seed) {
     this.listener = listener;
 
     idCreator = new IdCreator(rawDexFile);
 
     // Set up the RNG.
-    rng = new Random();
-    if (Options.usingProvidedSeed) {
-      rng.setSeed(Options.rngSeed);
-      rngSeed = Options.rngSeed;
-    } else {
-      long seed = System.currentTimeMillis();
-      listener.handleSeed(seed);
-      rng.setSeed(seed);
-      rngSeed = seed;
-    }
+    rng = new Random(seed);
+    rngSeed = seed;
 
     if (previousMutations != null) {
       mutations = previousMutations;
@@ -188,6 +196,7 @@ public class Program {
     this.rawDexFile = rawDexFile;
 
     mutatableCodes = new ArrayList<MutatableCode>();
+    mutatableCodeItemIdxs = new ArrayList<Integer>();
     mutatedCodes = new ArrayList<MutatableCode>();
 
     translator = new CodeTranslator();
@@ -226,9 +235,8 @@ public class Program {
     for (CodeItem codeItem : rawDexFile.codeItems) {
       if (legalToMutate(codeItem)) {
         Log.debug("Legal to mutate code item " + codeItemIdx);
-        int mutatableCodeIdx = mutatableCodes.size();
-        mutatableCodes.add(translator.codeItemToMutatableCode(this, codeItem,
-            codeItemIdx, mutatableCodeIdx));
+        mutatableCodes.add(null);
+        mutatableCodeItemIdxs.add(codeItemIdx);
       } else {
         Log.debug("Not legal to mutate code item " + codeItemIdx);
       }
@@ -236,6 +244,33 @@ public class Program {
     }
   }
 
+  /**
+   * Use the seed provided with --seed, or otherwise pick and report a new seed.
+   */
+  private static long chooseSeed(BaseListener listener) {
+    if (Options.usingProvidedSeed) {
+      return Options.rngSeed;
+    }
+    long seed = System.currentTimeMillis();
+    listener.handleSeed(seed);
+    return seed;
+  }
+
+  /**
+   * Get the MutatableCode at the given index, translating it from its CodeItem
+   * if this is the first time it has been needed.
+   */
+  private MutatableCode getMutatableCode(int mutatableCodeIdx) {
+    MutatableCode mutatableCode = mutatableCodes.get(mutatableCodeIdx);
+    if (mutatableCode == null) {
+      int codeItemIdx = mutatableCodeItemIdxs.get(mutatableCodeIdx);
+      mutatableCode = translator.codeItemToMutatableCode(this,
+          rawDexFile.codeItems.get(codeItemIdx), codeItemIdx, mutatableCodeIdx);
+      mutatableCodes.set(mutatableCodeIdx, mutatableCode);
+    }
+    return mutatableCode;
+  }
+
   private void registerMutator(CodeMutator mutator) {
     if (mutator.canBeTriggered()) {
       Log.debug("Registering mutator " + mutator.getClass().getSimpleName());
@@ -457,11 +492,9 @@ public class Program {
     if (methodsToMutate == mutatableCodes.size()) {
       // Just do them all in order.
       Log.info("Mutating all possible methods.");
-      for (MutatableCode mutatableCode : mutatableCodes) {
-        if (mutatableCode == null) {
-          Log.errorAndQuit("Why do you have a null MutatableCode?");
-        }
-        mutateAMutatableCode(mutatableCode);
+      for (int mutatableCodeIdx = 0; mutatableCodeIdx < mutatableCodes.size();
+          mutatableCodeIdx++) {
+        mutateAMutatableCode(getMutatableCode(mutatableCodeIdx));
       }
       Log.info("Finished mutating all possible methods.");
     } else {
@@ -469,10 +502,7 @@ public class Program {
       Log.info("Randomly selecting " + methodsToMutate + " methods to mutate.");
       while (mutatedCodes.size() < methodsToMutate) {
         int randomMethodIdx = rng.nextInt(mutatableCodes.size());
-        MutatableCode mutatableCode = mutatableCodes.get(randomMethodIdx);
-        if (mutatableCode == null) {
-          Log.errorAndQuit("Why do you have a null MutatableCode?");
-        }
+        MutatableCode mutatableCode = getMutatableCode(randomMethodIdx);
         if (!mutatedCodes.contains(mutatableCode)) {
           boolean completelyFailedToMutate = mutateAMutatableCode(mutatableCode);
           if (completelyFailedToMutate) {
@@ -521,7 +551,7 @@ public class Program {
     Log.info("Applying preloaded list of mutations...");
     for (Mutation mutation : mutations) {
       // Repopulate the MutatableCode field from the recorded index into the Program's list.
-      mutation.mutatableCode = mutatableCodes.get(mutation.mutatableCodeIdx);
+      mutation.mutatableCode = getMutatableCode(mutation.mutatableCodeIdx);
 
       // Get the right mutator.
       CodeMutator mutator = mutatorsLookupByClass.get(mutation.mutatorClass);
@@ -541,6 +571,10 @@ public class Program {
     return mutations;
   }
 
+  public MutationStats getMutationStats() {
+    return mutationStats;
+  }
+
   /**
    * Updates any CodeItems that need to be updated after mutation.
    */
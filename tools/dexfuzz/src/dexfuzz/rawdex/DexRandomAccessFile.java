@@ -18,18 +18,41 @@ package dexfuzz.rawdex;
 
 import dexfuzz.Log;
 
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.Adler32;
 
 /**
- * An extension to RandomAccessFile that allows reading/writing
- * DEX files in little-endian form, the variable-length LEB format
- * and also provides word-alignment functions.
+ * Allows reading/writing DEX files in little-endian form, the variable-length
+ * LEB format and also provides word-alignment functions.
+ *
+ * <p>The contents of the file are held in a ByteBuffer, rather than being read
+ * and written a byte at a time. Files opened for reading are memory-mapped.
+ * Files opened for writing are built up in a growable in-memory buffer, and only
+ * written out to disk when close() is called.
  */
-public class DexRandomAccessFile extends RandomAccessFile {
+public class DexRandomAccessFile {
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+
   private OffsetTracker offsetTracker;
 
+  private RandomAccessFile file;
+  private boolean writable;
+  private boolean dirty;
+
+  /**
+   * The contents of the file. Only the first length bytes are part of the file,
+   * the rest of the buffer is always zero.
+   */
+  private ByteBuffer buffer;
+  private int length;
+  private int position;
+
   public OffsetTracker getOffsetTracker() {
     return offsetTracker;
   }
@@ -39,57 +62,238 @@ public class DexRandomAccessFile extends RandomAccessFile {
   }
 
   /**
-   * Constructor, passes straight on to RandomAccessFile currently.
+   * Constructor, opens the file in the same way as RandomAccessFile.
    * @param filename The file to open.
    * @param mode Strings "r" or "rw" work best.
    */
   public DexRandomAccessFile(String filename, String mode)
-      throws FileNotFoundException {
-    super(filename, mode);
+      throws FileNotFoundException, IOException {
+    file = new RandomAccessFile(filename, mode);
+    writable = !mode.equals("r");
+    long fileLength = file.length();
+    if (fileLength > Integer.MAX_VALUE) {
+      file.close();
+      throw new IOException("DEX file " + filename + " is too large");
+    }
+    length = (int) fileLength;
+
+    FileChannel channel = file.getChannel();
+    if (writable) {
+      buffer = ByteBuffer.allocate(Math.max(length, INITIAL_CAPACITY));
+      while (buffer.position() < length) {
+        if (channel.read(buffer, buffer.position()) < 0) {
+          throw new EOFException();
+        }
+      }
+    } else {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Make sure there is room in the buffer for the file to be the given length.
+   */
+  private void ensureCapacity(long newLength) throws IOException {
+    if (!writable) {
+      throw new IOException("DEX file is not open for writing");
+    }
+    if (newLength > Integer.MAX_VALUE) {
+      throw new IOException("DEX file is too large");
+    }
+    if (newLength > buffer.capacity()) {
+      int capacity = (int) Math.min(Integer.MAX_VALUE,
+          Math.max(newLength, 2L * buffer.capacity()));
+      ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+      newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+      newBuffer.put(buffer.array(), 0, length);
+      buffer = newBuffer;
+    }
+  }
+
+  /**
+   * Check there are the given number of bytes left to read in the file.
+   */
+  private void checkAvailable(int size) throws EOFException {
+    if (position + size > length) {
+      throw new EOFException();
+    }
+  }
+
+  /**
+   * Called before writing the given number of bytes at the current position.
+   */
+  private void prepareWrite(int size) throws IOException {
+    ensureCapacity((long) position + size);
+    dirty = true;
+  }
+
+  /**
+   * Called after writing the given number of bytes at the current position.
+   */
+  private void finishWrite(int size) {
+    position += size;
+    if (position > length) {
+      length = position;
+    }
+  }
+
+  /**
+   * @return The current offset in the file.
+   */
+  public long getFilePointer() {
+    return position;
+  }
+
+  /**
+   * Set the offset in the file at which the next read or write happens.
+   * Seeking past the end of the file does not change its length, but a later
+   * write will extend the file, filling the gap with zeros.
+   */
+  public void seek(long pos) throws IOException {
+    if (pos < 0 || pos > Integer.MAX_VALUE) {
+      throw new IOException("Invalid seek offset " + pos);
+    }
+    position = (int) pos;
+  }
+
+  /**
+   * @return The length of the file.
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * Set the length of the file, truncating it or extending it with zeros.
+   */
+  public void setLength(long newLength) throws IOException {
+    ensureCapacity(newLength);
+    if (newLength < length) {
+      // Keep the rest of the buffer zeroed, in case the file grows again.
+      for (int i = (int) newLength; i < length; i++) {
+        buffer.put(i, (byte) 0);
+      }
+      if (position > newLength) {
+        position = (int) newLength;
+      }
+    }
+    length = (int) newLength;
+    dirty = true;
+  }
+
+  /**
+   * Write out the contents of the file if they have changed, and close it.
+   */
+  public void close() throws IOException {
+    if (file == null) {
+      return;
+    }
+    try {
+      if (dirty) {
+        file.setLength(length);
+        ByteBuffer contents = ByteBuffer.wrap(buffer.array(), 0, length);
+        FileChannel channel = file.getChannel();
+        long offset = 0;
+        while (contents.hasRemaining()) {
+          offset += channel.write(contents, offset);
+        }
+        dirty = false;
+      }
+    } finally {
+      file.close();
+      file = null;
+    }
+  }
+
+  /**
+   * @return A signed 8-bit number, read from the file.
+   */
+  public byte readByte() throws IOException {
+    checkAvailable(1);
+    return buffer.get(position++);
+  }
+
+  /**
+   * @return An unsigned 8-bit number, read from the file.
+   */
+  public int readUnsignedByte() throws IOException {
+    return readByte() & 0xff;
+  }
+
+  /**
+   * @param value An 8-bit number to be written to the file, the upper bits are ignored.
+   */
+  public void writeByte(int value) throws IOException {
+    prepareWrite(1);
+    buffer.put(position, (byte) value);
+    finishWrite(1);
+  }
+
+  /**
+   * Read up to data.length bytes from the file.
+   * @return The number of bytes read, or -1 if at the end of the file.
+   */
+  public int read(byte[] data) throws IOException {
+    if (data.length == 0) {
+      return 0;
+    }
+    int size = Math.min(data.length, length - position);
+    if (size <= 0) {
+      return -1;
+    }
+    buffer.position(position);
+    buffer.get(data, 0, size);
+    position += size;
+    return size;
+  }
+
+  /**
+   * @param data Bytes to be written to the file.
+   */
+  public void write(byte[] data) throws IOException {
+    prepareWrite(data.length);
+    buffer.position(position);
+    buffer.put(data);
+    finishWrite(data.length);
   }
 
   /**
    * @return A 16-bit number, read from the file as little-endian.
    */
   public short readUShort() throws IOException {
-    int b1 = readUnsignedByte();
-    int b2 = readUnsignedByte();
-    return (short) ((b2 << 8) | b1);
+    checkAvailable(2);
+    short value = buffer.getShort(position);
+    position += 2;
+    return value;
   }
 
   /**
    * @param value A 16-bit number to be written to the file in little-endian.
    */
   public void writeUShort(short value) throws IOException {
-    int b1 = value & 0xff;
-    int b2 = (value & 0xff00) >> 8;
-    writeByte(b1);
-    writeByte(b2);
+    prepareWrite(2);
+    buffer.putShort(position, value);
+    finishWrite(2);
   }
 
   /**
    * @return A 32-bit number, read from the file as little-endian.
    */
   public int readUInt() throws IOException {
-    int b1 = readUnsignedByte();
-    int b2 = readUnsignedByte();
-    int b3 = readUnsignedByte();
-    int b4 = readUnsignedByte();
-    return (b4 << 24) | (b3 << 16) | (b2 << 8) | b1;
+    checkAvailable(4);
+    int value = buffer.getInt(position);
+    position += 4;
+    return value;
   }
 
   /**
    * @param value A 32-bit number to be written to the file in little-endian.
    */
   public void writeUInt(int value) throws IOException {
-    int b1 = value & 0xff;
-    writeByte(b1);
-    int b2 = (value & 0xff00) >> 8;
-    writeByte(b2);
-    int b3 = (value & 0xff0000) >> 16;
-    writeByte(b3);
-    int b4 = (value & 0xff000000) >> 24;
-    writeByte(b4);
+    prepareWrite(4);
+    buffer.putInt(position, value);
+    finishWrite(4);
   }
 
   /**
@@ -316,4 +520,17 @@ public class DexRandomAccessFile extends RandomAccessFile {
       seek(offset);
     }
   }
+
+  /**
+   * @param offset The offset to start calculating the checksum from.
+   * @return The Adler-32 checksum of the file from the offset to the end.
+   */
+  public int calculateAdler32Checksum(int offset) {
+    ByteBuffer contents = buffer.duplicate();
+    contents.limit(length);
+    contents.position(offset);
+    Adler32 adler32 = new Adler32();
+    adler32.update(contents);
+    return (int) adler32.getValue();
+  }
 }
@@ -307,14 +307,7 @@ public class RawDexFile implements RawDexObject {
    */
   private int calculateAdler32Checksum(DexRandomAccessFile file) throws IOException {
     // Skip magic + checksum.
-    file.seek(12);
-    int a = 1;
-    int b = 0;
-    while (file.getFilePointer() < file.length()) {
-      a = (a + file.readUnsignedByte()) % 65521;
-      b = (b + a) % 65521;
-    }
-    return (b << 16) | a;
+    return file.calculateAdler32Checksum(12);
   }
 
   /**